@@ -0,0 +1,255 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Helper class to load the module global properties. The values are read once and cached, because they are used on
+ * every patient list evaluation. The cache is cleared when a module property is changed on this node and after a short
+ * time to live, so that changes made on other nodes are picked up as well.
+ */
+public class ModuleSettings {
+	public static final String PROPERTY_PREFIX = "patientlist.";
+	public static final String PUSH_MAX_CONNECTIONS_PROPERTY = "patientlist.push.maxConnections";
+	public static final String PUSH_HEARTBEAT_SECONDS_PROPERTY = "patientlist.push.heartbeatSeconds";
+	public static final String CONDITION_INDEX_ENABLED_PROPERTY = "patientlist.conditionIndex.enabled";
+	public static final String CONDITION_INDEX_MAX_MEMORY_PROPERTY = "patientlist.conditionIndex.maxMemoryMb";
+	public static final String SUMMARY_CACHE_TTL_SECONDS_PROPERTY = "patientlist.summary.cacheTtlSeconds";
+	public static final String READ_AHEAD_ENABLED_PROPERTY = "patientlist.readAhead.enabled";
+	public static final String READ_AHEAD_CACHE_TTL_SECONDS_PROPERTY = "patientlist.readAhead.cacheTtlSeconds";
+	public static final String REQUEST_MAX_PER_LIST_PROPERTY = "patientlist.request.maxPerList";
+	public static final String REQUEST_TIMEOUT_SECONDS_PROPERTY = "patientlist.request.timeoutSeconds";
+	public static final String REQUEST_RETRY_AFTER_SECONDS_PROPERTY = "patientlist.request.retryAfterSeconds";
+	public static final String REQUEST_ASYNC_ENABLED_PROPERTY = "patientlist.request.asyncEnabled";
+	public static final String QUERY_TIMEOUT_SECONDS_PROPERTY = "patientlist.query.timeoutSeconds";
+	public static final String QUERY_MAX_JOINS_PROPERTY = "patientlist.query.maxJoins";
+	public static final String QUERY_BUDGET_ENFORCED_PROPERTY = "patientlist.query.budgetEnforced";
+	public static final String SLOW_LIST_THRESHOLD_MILLIS_PROPERTY = "patientlist.slowList.thresholdMillis";
+	public static final String SLOW_LIST_MAX_ENTRIES_PROPERTY = "patientlist.slowList.maxEntries";
+	public static final String SLOW_LIST_PARAMETER_REDACTION_PROPERTY = "patientlist.slowList.parameterRedaction";
+	public static final String EXPLAIN_SCAN_WARNING_ROWS_PROPERTY = "patientlist.explain.scanWarningRows";
+	public static final String QUICK_FILTER_CACHE_TTL_SECONDS_PROPERTY = "patientlist.quickFilter.cacheTtlSeconds";
+	public static final String QUICK_FILTER_MAX_ROWS_PROPERTY = "patientlist.quickFilter.maxRows";
+	public static final String QUICK_FILTER_CACHE_MAX_ROWS_PROPERTY = "patientlist.quickFilter.cacheMaxRows";
+	public static final String BATCH_MAX_LISTS_PROPERTY = "patientlist.batch.maxLists";
+	public static final String BATCH_MAX_SHARED_IDS_PROPERTY = "patientlist.batch.maxSharedIds";
+
+	private static final int DEFAULT_PUSH_MAX_CONNECTIONS = 200;
+	private static final int DEFAULT_PUSH_HEARTBEAT_SECONDS = 25;
+	private static final long DEFAULT_CONDITION_INDEX_MAX_MEMORY_MB = 64;
+	private static final int DEFAULT_SUMMARY_CACHE_TTL_SECONDS = 30;
+	private static final int DEFAULT_READ_AHEAD_CACHE_TTL_SECONDS = 60;
+	private static final int DEFAULT_REQUEST_MAX_PER_LIST = 4;
+	private static final int DEFAULT_REQUEST_TIMEOUT_SECONDS = 120;
+	private static final int DEFAULT_REQUEST_RETRY_AFTER_SECONDS = 5;
+	private static final int DEFAULT_QUERY_TIMEOUT_SECONDS = 60;
+	private static final int DEFAULT_QUERY_MAX_JOINS = 8;
+	private static final long DEFAULT_SLOW_LIST_THRESHOLD_MILLIS = 2000;
+	private static final int DEFAULT_SLOW_LIST_MAX_ENTRIES = 100;
+	private static final String DEFAULT_SLOW_LIST_PARAMETER_REDACTION = "MASK";
+	private static final long DEFAULT_EXPLAIN_SCAN_WARNING_ROWS = 10000;
+	private static final int DEFAULT_QUICK_FILTER_CACHE_TTL_SECONDS = 300;
+	private static final int DEFAULT_QUICK_FILTER_MAX_ROWS = 5000;
+	private static final int DEFAULT_QUICK_FILTER_CACHE_MAX_ROWS = 50000;
+	private static final int DEFAULT_BATCH_MAX_LISTS = 20;
+	private static final int DEFAULT_BATCH_MAX_SHARED_IDS = 4096;
+	private static final long BYTES_PER_MB = 1024L * 1024L;
+	private static final long PROPERTY_CACHE_TTL_MILLIS = 60000L;
+
+	private static final ConcurrentMap<String, String> PROPERTY_CACHE = new ConcurrentHashMap<String, String>();
+	private static final GlobalPropertyListener PROPERTY_LISTENER = new GlobalPropertyListener() {
+		@Override
+		public boolean supportsPropertyName(String propertyName) {
+			return StringUtils.startsWith(propertyName, PROPERTY_PREFIX);
+		}
+
+		@Override
+		public void globalPropertyChanged(GlobalProperty newValue) {
+			clearCache();
+		}
+
+		@Override
+		public void globalPropertyDeleted(String propertyName) {
+			clearCache();
+		}
+	};
+	private static volatile AdministrationService listenedService;
+	private static volatile long propertyCacheExpires;
+
+	protected ModuleSettings() {}
+
+	public static int getPushMaxConnections() {
+		return getIntProperty(PUSH_MAX_CONNECTIONS_PROPERTY, DEFAULT_PUSH_MAX_CONNECTIONS);
+	}
+
+	public static int getPushHeartbeatSeconds() {
+		return getIntProperty(PUSH_HEARTBEAT_SECONDS_PROPERTY, DEFAULT_PUSH_HEARTBEAT_SECONDS);
+	}
+
+	public static boolean isConditionIndexEnabled() {
+		return getBooleanProperty(CONDITION_INDEX_ENABLED_PROPERTY, false);
+	}
+
+	public static long getConditionIndexMaxMemoryBytes() {
+		return getLongProperty(CONDITION_INDEX_MAX_MEMORY_PROPERTY, DEFAULT_CONDITION_INDEX_MAX_MEMORY_MB) * BYTES_PER_MB;
+	}
+
+	public static int getSummaryCacheTtlSeconds() {
+		return getIntProperty(SUMMARY_CACHE_TTL_SECONDS_PROPERTY, DEFAULT_SUMMARY_CACHE_TTL_SECONDS);
+	}
+
+	public static boolean isReadAheadEnabled() {
+		return getBooleanProperty(READ_AHEAD_ENABLED_PROPERTY, false);
+	}
+
+	public static int getReadAheadCacheTtlSeconds() {
+		return getIntProperty(READ_AHEAD_CACHE_TTL_SECONDS_PROPERTY, DEFAULT_READ_AHEAD_CACHE_TTL_SECONDS);
+	}
+
+	public static int getMaxRequestsPerList() {
+		return getIntProperty(REQUEST_MAX_PER_LIST_PROPERTY, DEFAULT_REQUEST_MAX_PER_LIST);
+	}
+
+	public static int getRequestTimeoutSeconds() {
+		return getIntProperty(REQUEST_TIMEOUT_SECONDS_PROPERTY, DEFAULT_REQUEST_TIMEOUT_SECONDS);
+	}
+
+	public static int getRequestRetryAfterSeconds() {
+		return getIntProperty(REQUEST_RETRY_AFTER_SECONDS_PROPERTY, DEFAULT_REQUEST_RETRY_AFTER_SECONDS);
+	}
+
+	public static boolean isAsyncRequestsEnabled() {
+		return getBooleanProperty(REQUEST_ASYNC_ENABLED_PROPERTY, false);
+	}
+
+	public static int getQueryTimeoutSeconds() {
+		return getIntProperty(QUERY_TIMEOUT_SECONDS_PROPERTY, DEFAULT_QUERY_TIMEOUT_SECONDS);
+	}
+
+	public static int getQueryMaxJoins() {
+		return getIntProperty(QUERY_MAX_JOINS_PROPERTY, DEFAULT_QUERY_MAX_JOINS);
+	}
+
+	public static boolean isQueryBudgetEnforced() {
+		return getBooleanProperty(QUERY_BUDGET_ENFORCED_PROPERTY, false);
+	}
+
+	public static long getSlowListThresholdMillis() {
+		return getLongProperty(SLOW_LIST_THRESHOLD_MILLIS_PROPERTY, DEFAULT_SLOW_LIST_THRESHOLD_MILLIS);
+	}
+
+	public static int getSlowListMaxEntries() {
+		return getIntProperty(SLOW_LIST_MAX_ENTRIES_PROPERTY, DEFAULT_SLOW_LIST_MAX_ENTRIES);
+	}
+
+	public static String getSlowListParameterRedaction() {
+		String property = getProperty(SLOW_LIST_PARAMETER_REDACTION_PROPERTY);
+
+		return StringUtils.isEmpty(property) ? DEFAULT_SLOW_LIST_PARAMETER_REDACTION : property;
+	}
+
+	public static long getExplainScanWarningRows() {
+		return getLongProperty(EXPLAIN_SCAN_WARNING_ROWS_PROPERTY, DEFAULT_EXPLAIN_SCAN_WARNING_ROWS);
+	}
+
+	public static int getQuickFilterCacheTtlSeconds() {
+		return getIntProperty(QUICK_FILTER_CACHE_TTL_SECONDS_PROPERTY, DEFAULT_QUICK_FILTER_CACHE_TTL_SECONDS);
+	}
+
+	public static int getQuickFilterMaxRows() {
+		return getIntProperty(QUICK_FILTER_MAX_ROWS_PROPERTY, DEFAULT_QUICK_FILTER_MAX_ROWS);
+	}
+
+	public static int getQuickFilterCacheMaxRows() {
+		return getIntProperty(QUICK_FILTER_CACHE_MAX_ROWS_PROPERTY, DEFAULT_QUICK_FILTER_CACHE_MAX_ROWS);
+	}
+
+	public static int getBatchMaxLists() {
+		return getIntProperty(BATCH_MAX_LISTS_PROPERTY, DEFAULT_BATCH_MAX_LISTS);
+	}
+
+	public static int getBatchMaxSharedIds() {
+		return getIntProperty(BATCH_MAX_SHARED_IDS_PROPERTY, DEFAULT_BATCH_MAX_SHARED_IDS);
+	}
+
+	/**
+	 * Removes the cached property values so that they are read again on the next use.
+	 */
+	public static void clearCache() {
+		PROPERTY_CACHE.clear();
+	}
+
+	/**
+	 * Gets a global property value from the cache, reading it if it is not cached.
+	 * @param propertyName The property name
+	 * @return The property value or an empty string if the property is not set
+	 */
+	protected static String getProperty(String propertyName) {
+		AdministrationService administrationService = Context.getAdministrationService();
+		if (listenedService != administrationService) {
+			administrationService.addGlobalPropertyListener(PROPERTY_LISTENER);
+			listenedService = administrationService;
+		}
+
+		long now = System.currentTimeMillis();
+		if (now > propertyCacheExpires) {
+			clearCache();
+			propertyCacheExpires = now + PROPERTY_CACHE_TTL_MILLIS;
+		}
+
+		String property = PROPERTY_CACHE.get(propertyName);
+		if (property == null) {
+			property = StringUtils.defaultString(administrationService.getGlobalProperty(propertyName));
+			PROPERTY_CACHE.put(propertyName, property);
+		}
+
+		return property;
+	}
+
+	protected static int getIntProperty(String propertyName, int defaultValue) {
+		String property = getProperty(propertyName);
+		if (StringUtils.isNotEmpty(property) && NumberUtils.isDigits(property)) {
+			return Integer.parseInt(property);
+		}
+
+		return defaultValue;
+	}
+
+	protected static long getLongProperty(String propertyName, long defaultValue) {
+		String property = getProperty(propertyName);
+		if (StringUtils.isNotEmpty(property) && NumberUtils.isDigits(property)) {
+			return Long.parseLong(property);
+		}
+
+		return defaultValue;
+	}
+
+	protected static boolean getBooleanProperty(String propertyName, boolean defaultValue) {
+		String property = getProperty(propertyName);
+		if (StringUtils.isNotEmpty(property)) {
+			return Boolean.parseBoolean(property);
+		}
+
+		return defaultValue;
+	}
+}
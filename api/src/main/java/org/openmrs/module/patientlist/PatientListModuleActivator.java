@@ -15,14 +15,22 @@ package org.openmrs.module.patientlist;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
 import org.openmrs.module.BaseModuleActivator;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.DaemonTokenAware;
+import org.openmrs.module.patientlist.api.IPatientListDataService;
+import org.openmrs.module.patientlist.api.metrics.PatientListMetrics;
 
 /**
  * This class contains the logic that is run every time this module is either started or shutdown
  */
-public class PatientListModuleActivator extends BaseModuleActivator {
+public class PatientListModuleActivator extends BaseModuleActivator implements DaemonTokenAware {
 	private static final Log LOG = LogFactory.getLog(PatientListModuleActivator.class);
 
+	private DaemonToken daemonToken;
+
 	/**
 	 * @see BaseModuleActivator#contextRefreshed()
 	 */
@@ -35,6 +43,8 @@ public class PatientListModuleActivator extends BaseModuleActivator {
 	 * @see #started()
 	 */
 	public void started() {
+		PatientListMetrics.registerMBean();
+		buildNameKeys();
 		LOG.info("Started Patient List");
 	}
 
@@ -42,7 +52,34 @@ public class PatientListModuleActivator extends BaseModuleActivator {
 	 * @see #shutdown()
 	 */
 	public void shutdown() {
+		PatientListMetrics.unregisterMBean();
 		LOG.info("Shutdown Patient List");
 	}
 
+	@Override
+	public void setDaemonToken(DaemonToken token) {
+		this.daemonToken = token;
+	}
+
+	/**
+	 * Builds the person name search keys in the background when the module is first started, an upgrade added a key
+	 * type or some names have no keys.
+	 */
+	private void buildNameKeys() {
+		if (daemonToken == null) {
+			return;
+		}
+
+		Daemon.runInDaemonThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Context.getService(IPatientListDataService.class).rebuildNameKeys(true);
+				} catch (Exception ex) {
+					LOG.error("Error building the patient list name keys", ex);
+				}
+			}
+		}, daemonToken);
+	}
+
 }
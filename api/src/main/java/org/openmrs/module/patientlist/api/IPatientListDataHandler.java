@@ -0,0 +1,30 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api;
+
+import org.openmrs.module.patientlist.api.model.PatientListData;
+
+/**
+ * Represents classes that receive the rows of a patient list one at a time as the list is streamed.
+ */
+public interface IPatientListDataHandler {
+
+	/**
+	 * Called for each row of the patient list, in list order. The row entities may be evicted from the session after
+	 * this method returns.
+	 * @param patientListData The rendered row
+	 * @return true to continue with the next row, false to stop streaming the list
+	 */
+	boolean handle(PatientListData patientListData);
+}
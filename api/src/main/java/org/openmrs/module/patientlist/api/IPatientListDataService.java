@@ -17,9 +17,12 @@ import org.openmrs.module.openhmis.commons.api.PagingInfo;
 import org.openmrs.module.openhmis.commons.api.entity.IObjectDataService;
 import org.openmrs.module.patientlist.api.model.PatientList;
 import org.openmrs.module.patientlist.api.model.PatientListData;
+import org.openmrs.module.patientlist.api.model.PatientListDataBatchResult;
+import org.openmrs.module.patientlist.api.util.PatientListQueryPlan;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Interface that represents classes which perform data operations for {@link PatientListData}s.
@@ -30,4 +33,76 @@ public interface IPatientListDataService extends IObjectDataService<PatientListD
 	@Transactional(readOnly = true)
 	List<PatientListData> getPatientListData(PatientList patientList, PagingInfo pagingInfo);
 
+	/**
+	 * Gets the rows of a patient list whose rendered header or body content contains every word of the quick filter,
+	 * as a whole word or at the start of a word. The rows of the list are kept for the current user for a short time
+	 * so that refining the filter does not evaluate the list again. When a filter is given, the patient and visit of
+	 * the returned rows only have their id, uuid and visit dates set.
+	 * @param patientList The patient list
+	 * @param quickFilter The quick filter, the list is evaluated as usual if it is blank
+	 * @param pagingInfo The page of matching rows to return
+	 * @return The matching rows, in list order
+	 * @throws PatientListQuickFilterTooLargeException if a filter is given and the list has more rows than can be
+	 *             quick filtered
+	 */
+	@Transactional(readOnly = true)
+	List<PatientListData> getPatientListData(PatientList patientList, String quickFilter, PagingInfo pagingInfo);
+
+	/**
+	 * Evaluates several patient lists at once. Single valued conditions that are used by more than one of the lists are
+	 * evaluated once and the result is reused by each list query.
+	 * @param patientLists The patient lists
+	 * @param pagingInfo The page to return for each list
+	 * @return The requested page and total row count of each list, in the order of the given lists
+	 */
+	@Transactional(readOnly = true)
+	List<PatientListDataBatchResult> getPatientListData(List<PatientList> patientLists, PagingInfo pagingInfo);
+
+	/**
+	 * Gets the number of rows in a patient list without loading or rendering the rows.
+	 * @param patientList The patient list
+	 * @return The row count
+	 */
+	@Transactional(readOnly = true)
+	Long getPatientListCount(PatientList patientList);
+
+	/**
+	 * Streams every row of a patient list to the given handler using a forward-only database cursor. The rendered rows
+	 * are evicted from the session as the list is read, but the result set itself is only fetched in batches when the
+	 * JDBC driver supports it; MySQL Connector/J reads the whole result into memory unless the connection url sets
+	 * useCursorFetch=true.
+	 * @param patientList The patient list
+	 * @param handler The handler that receives each rendered row
+	 * @return The number of rows passed to the handler
+	 */
+	@Transactional(readOnly = true)
+	long streamPatientListData(PatientList patientList, IPatientListDataHandler handler);
+
+	/**
+	 * Gets the number of rows in each of the given patient lists. Counts are served from a short lived cache when
+	 * possible, the remaining counts are run in parallel.
+	 * @param patientLists The patient lists
+	 * @return The row count of each list by list uuid, in the order of the given lists. The count is null if it could
+	 *         not be computed.
+	 */
+	@Transactional(readOnly = true)
+	Map<String, Long> getPatientListCounts(List<PatientList> patientLists);
+
+	/**
+	 * Compiles a patient list the way it is compiled for {@link #getPatientListData(PatientList, PagingInfo)} and gets
+	 * the database plan of the list query. The list does not need to be saved.
+	 * @param patientList The patient list
+	 * @return The query plan, with warnings for full scans, large row estimates and conditions that cannot use an index
+	 */
+	@Transactional(readOnly = true)
+	PatientListQueryPlan explainPatientList(PatientList patientList);
+
+	/**
+	 * Rebuilds the person name search keys used by the TOKEN_MATCH and the substring (LIKE) name conditions.
+	 * @param onlyIfMissing Whether to only build the keys when they are incomplete, for example after the module has
+	 *            been installed or upgraded or when names were saved without their keys
+	 * @return The number of keys created
+	 */
+	long rebuildNameKeys(boolean onlyIfMissing);
+
 }
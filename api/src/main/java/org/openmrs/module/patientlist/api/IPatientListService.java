@@ -17,8 +17,21 @@ import org.openmrs.module.openhmis.commons.api.entity.IMetadataDataService;
 import org.openmrs.module.patientlist.api.model.PatientList;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
+
 /**
  * Interface that represents classes which perform data operations for {@link PatientList}s.
  */
 @Transactional
-public interface IPatientListService extends IMetadataDataService<PatientList> {}
+public interface IPatientListService extends IMetadataDataService<PatientList> {
+
+	/**
+	 * Gets all patient list definitions with their conditions, condition groups and ordering. The collections of all
+	 * the lists are loaded together so the number of queries does not depend on the number of lists, and the lists are
+	 * served from the second-level cache when possible.
+	 * @param includeRetired Whether retired lists should be included
+	 * @return The patient lists, ordered by id
+	 */
+	@Transactional(readOnly = true)
+	List<PatientList> getAllDefinitions(boolean includeRetired);
+}
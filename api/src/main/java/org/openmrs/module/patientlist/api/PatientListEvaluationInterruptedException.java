@@ -0,0 +1,38 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api;
+
+import org.openmrs.api.APIException;
+
+/**
+ * Thrown when a patient list evaluation is stopped before it completes, because its query exceeded the timeout or the
+ * request was cancelled. Callers must not treat the evaluation as an empty or partial result.
+ */
+public class PatientListEvaluationInterruptedException extends APIException {
+	private static final long serialVersionUID = 1L;
+
+	private final boolean timedOut;
+
+	public PatientListEvaluationInterruptedException(String message, boolean timedOut, Throwable cause) {
+		super(message, cause);
+		this.timedOut = timedOut;
+	}
+
+	/**
+	 * Returns whether the evaluation exceeded the query timeout, as opposed to being cancelled.
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+}
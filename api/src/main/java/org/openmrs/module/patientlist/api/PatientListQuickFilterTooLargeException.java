@@ -0,0 +1,38 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api;
+
+import org.openmrs.api.APIException;
+
+/**
+ * Thrown when a patient list has too many rows to be quick filtered. The list has to be narrowed down with conditions
+ * before its rendered content can be filtered.
+ */
+public class PatientListQuickFilterTooLargeException extends APIException {
+	private static final long serialVersionUID = 1L;
+
+	private final int maxRows;
+
+	public PatientListQuickFilterTooLargeException(String message, int maxRows) {
+		super(message);
+		this.maxRows = maxRows;
+	}
+
+	/**
+	 * Gets the largest number of rows a list can have to be quick filtered.
+	 */
+	public int getMaxRows() {
+		return maxRows;
+	}
+}
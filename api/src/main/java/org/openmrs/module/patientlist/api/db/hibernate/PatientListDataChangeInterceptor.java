@@ -0,0 +1,149 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.db.hibernate;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Hibernate;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.Person;
+import org.openmrs.PersonAddress;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonName;
+import org.openmrs.Visit;
+import org.openmrs.VisitAttribute;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeTracker;
+import org.openmrs.module.patientlist.api.model.IBasePatientList;
+import org.openmrs.module.patientlist.api.model.PatientList;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Hibernate interceptor that records changes to the data patient lists are evaluated against and publishes them
+ * through the {@link PatientListDataChangeTracker} once the transaction has been committed.
+ */
+public class PatientListDataChangeInterceptor extends EmptyInterceptor {
+	private static final long serialVersionUID = 1L;
+
+	private static final ThreadLocal<PendingChanges> PENDING_CHANGES = new ThreadLocal<PendingChanges>() {
+		@Override
+		protected PendingChanges initialValue() {
+			return new PendingChanges();
+		}
+	};
+
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		recordChange(entity);
+
+		return false;
+	}
+
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+	        String[] propertyNames, Type[] types) {
+		recordChange(entity);
+
+		return false;
+	}
+
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		recordChange(entity);
+	}
+
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		PendingChanges changes = PENDING_CHANGES.get();
+		PENDING_CHANGES.remove();
+
+		if (tx != null && tx.wasCommitted() && !changes.isEmpty()) {
+			PatientListDataChangeTracker.getInstance().publish(changes.types, changes.patientIds,
+			    changes.patientListUuids);
+		}
+	}
+
+	private void recordChange(Object entity) {
+		if (entity == null) {
+			return;
+		}
+
+		PendingChanges changes = PENDING_CHANGES.get();
+		Integer patientId = null;
+		if (entity instanceof Person) {
+			patientId = ((Person)entity).getPersonId();
+			changes.types.add(entity instanceof Patient ? Patient.class.getSimpleName() : Person.class.getSimpleName());
+		} else if (entity instanceof PersonName) {
+			patientId = getPersonId(((PersonName)entity).getPerson());
+			changes.types.add(PersonName.class.getSimpleName());
+		} else if (entity instanceof PersonAddress) {
+			patientId = getPersonId(((PersonAddress)entity).getPerson());
+			changes.types.add(PersonAddress.class.getSimpleName());
+		} else if (entity instanceof PersonAttribute) {
+			patientId = getPersonId(((PersonAttribute)entity).getPerson());
+			changes.types.add(PersonAttribute.class.getSimpleName());
+		} else if (entity instanceof PatientIdentifier) {
+			patientId = getPersonId(((PatientIdentifier)entity).getPatient());
+			changes.types.add(PatientIdentifier.class.getSimpleName());
+		} else if (entity instanceof Visit) {
+			patientId = getPersonId(((Visit)entity).getPatient());
+			changes.types.add(Visit.class.getSimpleName());
+		} else if (entity instanceof VisitAttribute) {
+			Visit visit = ((VisitAttribute)entity).getVisit();
+			if (visit != null && Hibernate.isInitialized(visit)) {
+				patientId = getPersonId(visit.getPatient());
+			}
+			changes.types.add(VisitAttribute.class.getSimpleName());
+		} else if (entity instanceof Encounter) {
+			patientId = getPersonId(((Encounter)entity).getPatient());
+			changes.types.add(Encounter.class.getSimpleName());
+		} else if (entity instanceof Obs) {
+			patientId = getPersonId(((Obs)entity).getPerson());
+			changes.types.add(Obs.class.getSimpleName());
+		} else if (entity instanceof PatientList) {
+			changes.patientListUuids.add(((PatientList)entity).getUuid());
+			changes.types.add(PatientList.class.getSimpleName());
+		} else if (entity instanceof IBasePatientList) {
+			PatientList patientList = ((IBasePatientList)entity).getPatientList();
+			if (patientList != null) {
+				changes.patientListUuids.add(patientList.getUuid());
+			}
+			changes.types.add(PatientList.class.getSimpleName());
+		}
+
+		if (patientId != null) {
+			changes.patientIds.add(patientId);
+		}
+	}
+
+	private Integer getPersonId(Person person) {
+		return person == null ? null : person.getPersonId();
+	}
+
+	private static class PendingChanges {
+		private final Set<String> types = new HashSet<String>();
+		private final Set<Integer> patientIds = new HashSet<Integer>();
+		private final Set<String> patientListUuids = new HashSet<String>();
+
+		private boolean isEmpty() {
+			return types.isEmpty();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.db.hibernate;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+import org.openmrs.PersonName;
+import org.openmrs.module.patientlist.api.util.PatientListNameKeyIndex;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hibernate interceptor that rewrites the patient list name keys of the person names saved, updated or deleted in a
+ * transaction when the session is flushed, so that the keys are committed or rolled back with the names. A failure to
+ * write the keys fails the flush and with it the transaction.
+ */
+public class PatientListNameKeyInterceptor extends EmptyInterceptor {
+	private static final long serialVersionUID = 1L;
+
+	private static final Log LOG = LogFactory.getLog(PatientListNameKeyInterceptor.class);
+
+	private static final ThreadLocal<PendingNames> PENDING_NAMES = new ThreadLocal<PendingNames>() {
+		@Override
+		protected PendingNames initialValue() {
+			return new PendingNames();
+		}
+	};
+
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		if (entity instanceof PersonName) {
+			PENDING_NAMES.get().changedNames.put((PersonName)entity, Boolean.TRUE);
+		}
+
+		return false;
+	}
+
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+	        String[] propertyNames, Type[] types) {
+		if (entity instanceof PersonName) {
+			PENDING_NAMES.get().changedNames.put((PersonName)entity, Boolean.TRUE);
+		}
+
+		return false;
+	}
+
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		if (entity instanceof PersonName) {
+			PendingNames names = PENDING_NAMES.get();
+			names.changedNames.remove(entity);
+			if (id instanceof Integer) {
+				names.deletedNameIds.add((Integer)id);
+			}
+		}
+	}
+
+	@Override
+	public void postFlush(Iterator entities) {
+		updateKeys();
+	}
+
+	@Override
+	public void beforeTransactionCompletion(Transaction tx) {
+		try {
+			updateKeys();
+		} catch (RuntimeException ex) {
+			// hibernate ignores exceptions thrown here so the names are committed without their keys
+			PatientListNameKeyIndex.getInstance().markIncomplete();
+			LOG.error("Error updating the patient list name keys, the keys must be rebuilt", ex);
+		}
+	}
+
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		PENDING_NAMES.remove();
+	}
+
+	private void updateKeys() {
+		PendingNames names = PENDING_NAMES.get();
+		if (names.isEmpty()) {
+			return;
+		}
+
+		List<PersonName> changedNames = new ArrayList<PersonName>(names.changedNames.keySet());
+		List<Integer> deletedNameIds = new ArrayList<Integer>(names.deletedNameIds);
+		names.clear();
+
+		PatientListNameKeyIndex.getInstance().update(changedNames, deletedNameIds);
+	}
+
+	private static class PendingNames {
+		private final Map<PersonName, Boolean> changedNames = new IdentityHashMap<PersonName, Boolean>();
+		private final Set<Integer> deletedNameIds = new HashSet<Integer>();
+
+		private boolean isEmpty() {
+			return changedNames.isEmpty() && deletedNameIds.isEmpty();
+		}
+
+		private void clear() {
+			changedNames.clear();
+			deletedNameIds.clear();
+		}
+	}
+}
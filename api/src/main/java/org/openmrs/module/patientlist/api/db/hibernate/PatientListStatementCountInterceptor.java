@@ -0,0 +1,32 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.db.hibernate;
+
+import org.hibernate.EmptyInterceptor;
+import org.openmrs.module.patientlist.api.metrics.PatientListStageTimer;
+
+/**
+ * Hibernate interceptor that counts the SQL statements prepared during a timed patient list evaluation, so that lazy
+ * loads added by new list fields show up in the per-list statement counts.
+ */
+public class PatientListStatementCountInterceptor extends EmptyInterceptor {
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public String onPrepareStatement(String sql) {
+		PatientListStageTimer.countStatement();
+
+		return sql;
+	}
+}
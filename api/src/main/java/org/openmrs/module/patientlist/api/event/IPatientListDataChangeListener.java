@@ -0,0 +1,27 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.event;
+
+/**
+ * Represents classes that are notified when data used by patient lists has changed.
+ */
+public interface IPatientListDataChangeListener {
+
+	/**
+	 * Called after a transaction that changed patient list data has been committed. Implementations should return
+	 * quickly as they are called on the thread that committed the transaction.
+	 * @param event The change event
+	 */
+	void onDataChanged(PatientListDataChangeEvent event);
+}
@@ -0,0 +1,170 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.event;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.Person;
+import org.openmrs.PersonAddress;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonName;
+import org.openmrs.Visit;
+import org.openmrs.VisitAttribute;
+import org.openmrs.module.patientlist.api.model.IBasePatientList;
+import org.openmrs.module.patientlist.api.model.PatientList;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describes a committed change to data that patient lists are evaluated against.
+ */
+public class PatientListDataChangeEvent {
+	public static final String PATIENT_LIST_TYPE = PatientList.class.getSimpleName();
+
+	private final long version;
+	private final Set<String> changedTypes;
+	private final Set<Integer> patientIds;
+	private final Set<String> patientListUuids;
+
+	public PatientListDataChangeEvent(long version, Set<String> changedTypes, Set<Integer> patientIds,
+	    Set<String> patientListUuids) {
+		this.version = version;
+		this.changedTypes = Collections.unmodifiableSet(new HashSet<String>(changedTypes));
+		this.patientIds = Collections.unmodifiableSet(new HashSet<Integer>(patientIds));
+		this.patientListUuids = Collections.unmodifiableSet(new HashSet<String>(patientListUuids));
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * The simple class names of the entities that were saved, updated or deleted.
+	 */
+	public Set<String> getChangedTypes() {
+		return changedTypes;
+	}
+
+	/**
+	 * The ids of the patients whose data was changed.
+	 */
+	public Set<Integer> getPatientIds() {
+		return patientIds;
+	}
+
+	/**
+	 * The uuids of the patient list definitions that were changed.
+	 */
+	public Set<String> getPatientListUuids() {
+		return patientListUuids;
+	}
+
+	/**
+	 * Returns whether this change can affect the membership or rendered content of a list with the given dependent
+	 * types (see {@link #getDependentTypes(PatientList)}).
+	 * @param patientListUuid The patient list uuid
+	 * @param dependentTypes The entity types the patient list depends on
+	 * @return true if the list may have changed
+	 */
+	public boolean affects(String patientListUuid, Set<String> dependentTypes) {
+		if (patientListUuids.contains(patientListUuid)) {
+			return true;
+		}
+
+		for (String type : changedTypes) {
+			if (dependentTypes.contains(type)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets the entity types that the membership and rendered content of the given patient list depend on, from the
+	 * fields that its conditions, ordering and templates reference. Patients and persons are always included as every
+	 * row is a patient that is left out once voided.
+	 * @param patientList The patient list
+	 * @return The dependent entity type names
+	 */
+	public static Set<String> getDependentTypes(PatientList patientList) {
+		Set<String> types = new HashSet<String>();
+		types.add(Patient.class.getSimpleName());
+		types.add(Person.class.getSimpleName());
+
+		StringBuilder fields = new StringBuilder();
+		appendFields(fields, patientList.getPatientListConditions());
+		appendFields(fields, patientList.getOrdering());
+		fields.append(StringUtils.defaultString(patientList.getHeaderTemplate()));
+		fields.append(StringUtils.defaultString(patientList.getBodyTemplate()));
+
+		String allFields = fields.toString();
+		if (containsAny(allFields, "p.names.", "p.givenName", "p.middleName", "p.familyName", "p.fullName")) {
+			types.add(PersonName.class.getSimpleName());
+		}
+
+		if (containsAny(allFields, "p.identifier")) {
+			types.add(PatientIdentifier.class.getSimpleName());
+		}
+
+		if (containsAny(allFields, "p.attr.")) {
+			types.add(PersonAttribute.class.getSimpleName());
+		}
+
+		if (containsAny(allFields, "p.addresses.")) {
+			types.add(PersonAddress.class.getSimpleName());
+		}
+
+		if (StringUtils.contains(allFields, "v.") || StringUtils.contains(allFields, "hasActiveVisit")) {
+			types.add(Visit.class.getSimpleName());
+			types.add(VisitAttribute.class.getSimpleName());
+		}
+
+		if (StringUtils.contains(allFields, "iagnosis")) {
+			types.add(Encounter.class.getSimpleName());
+			types.add(Obs.class.getSimpleName());
+		}
+
+		return types;
+	}
+
+	private static boolean containsAny(String value, String... searchStrings) {
+		for (String searchString : searchStrings) {
+			if (StringUtils.contains(value, searchString)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static <T extends IBasePatientList> void appendFields(StringBuilder fields, List<T> list) {
+		if (list == null) {
+			return;
+		}
+
+		for (T item : list) {
+			if (item != null && item.getField() != null) {
+				fields.append(item.getField());
+				fields.append(" ");
+			}
+		}
+	}
+}
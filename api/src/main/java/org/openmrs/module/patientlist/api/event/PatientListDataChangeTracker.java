@@ -0,0 +1,132 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.event;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.patientlist.api.model.PatientList;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a node-local data version for patient lists and dispatches {@link PatientListDataChangeEvent}s to the
+ * registered listeners.
+ */
+public class PatientListDataChangeTracker {
+	private static final Log LOG = LogFactory.getLog(PatientListDataChangeTracker.class);
+
+	private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+	private final long startVersion = version.get();
+	// the data version at which each entity type (or list definition, by uuid) last changed
+	private final ConcurrentMap<String, Long> changeVersions = new ConcurrentHashMap<String, Long>();
+	private final List<IPatientListDataChangeListener> listeners =
+	        new CopyOnWriteArrayList<IPatientListDataChangeListener>();
+
+	private PatientListDataChangeTracker() {}
+
+	public static PatientListDataChangeTracker getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Gets the current data version. The version increases every time a change is published.
+	 * @return The data version
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Gets the version this node started at. Versions are only comparable within the same epoch because they are not
+	 * kept across restarts.
+	 * @return The start version
+	 */
+	public long getEpoch() {
+		return startVersion;
+	}
+
+	/**
+	 * Gets the data version at which data the given patient list depends on last changed. Changes made before this
+	 * node started are reported as the start version.
+	 * @param patientList The patient list
+	 * @return The data version
+	 */
+	public long getChangeVersion(PatientList patientList) {
+		long result = getChangeVersion(patientList.getUuid());
+		for (String type : PatientListDataChangeEvent.getDependentTypes(patientList)) {
+			result = Math.max(result, getChangeVersion(type));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Gets the data version at which the given entity type or patient list definition (by uuid) last changed.
+	 * @param key The entity type name or patient list uuid
+	 * @return The data version
+	 */
+	public long getChangeVersion(String key) {
+		Long changeVersion = changeVersions.get(key);
+
+		return changeVersion == null ? startVersion : changeVersion;
+	}
+
+	public void addListener(IPatientListDataChangeListener listener) {
+		if (listener != null && !listeners.contains(listener)) {
+			listeners.add(listener);
+		}
+	}
+
+	public void removeListener(IPatientListDataChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Publishes a data change to all registered listeners.
+	 * @param changedTypes The simple class names of the changed entities
+	 * @param patientIds The ids of the changed patients
+	 * @param patientListUuids The uuids of the changed patient lists
+	 * @return The published event
+	 */
+	public PatientListDataChangeEvent publish(Set<String> changedTypes, Set<Integer> patientIds,
+	        Set<String> patientListUuids) {
+		PatientListDataChangeEvent event =
+		        new PatientListDataChangeEvent(version.incrementAndGet(), changedTypes, patientIds, patientListUuids);
+		for (String type : changedTypes) {
+			changeVersions.put(type, event.getVersion());
+		}
+		for (String uuid : patientListUuids) {
+			changeVersions.put(uuid, event.getVersion());
+		}
+
+		for (IPatientListDataChangeListener listener : listeners) {
+			try {
+				listener.onDataChanged(event);
+			} catch (Exception ex) {
+				LOG.error("Error notifying patient list data change listener " + listener.getClass().getName(), ex);
+			}
+		}
+
+		return event;
+	}
+
+	private static class Holder {
+		private static final PatientListDataChangeTracker INSTANCE = new PatientListDataChangeTracker();
+	}
+}
@@ -17,15 +17,35 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.CacheMode;
 import org.hibernate.Query;
+import org.hibernate.QueryTimeoutException;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
 import org.openmrs.Patient;
 import org.openmrs.Visit;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
 import org.openmrs.module.openhmis.commons.api.PagingInfo;
+import org.openmrs.module.patientlist.ModuleSettings;
 import org.openmrs.module.openhmis.commons.api.entity.impl.BaseObjectDataServiceImpl;
+import org.openmrs.module.patientlist.api.IPatientListDataHandler;
 import org.openmrs.module.patientlist.api.IPatientListDataService;
+import org.openmrs.module.patientlist.api.IPatientListService;
+import org.openmrs.module.patientlist.api.PatientListEvaluationInterruptedException;
+import org.openmrs.module.patientlist.api.PatientListQuickFilterTooLargeException;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeTracker;
+import org.openmrs.module.patientlist.api.metrics.PatientListSlowLog;
+import org.openmrs.module.patientlist.api.metrics.PatientListStage;
+import org.openmrs.module.patientlist.api.metrics.PatientListStageTimer;
 import org.openmrs.module.patientlist.api.model.PatientList;
 import org.openmrs.module.patientlist.api.model.PatientListData;
+import org.openmrs.module.patientlist.api.model.PatientListDataBatchResult;
 import org.openmrs.module.patientlist.api.model.PatientListCondition;
+import org.openmrs.module.patientlist.api.model.PatientListNameKeyType;
+import org.openmrs.module.patientlist.api.model.PatientListOperator;
 import org.openmrs.module.patientlist.api.model.PatientListOrder;
 import org.openmrs.module.patientlist.api.model.PatientInformationField;
 import org.openmrs.module.patientlist.api.model.IBasePatientList;
@@ -33,15 +53,44 @@ import org.openmrs.module.patientlist.api.model.PatientListRelativeDate;
 import org.openmrs.module.patientlist.api.util.PatientListDateUtil;
 import org.openmrs.module.patientlist.api.security.BasicObjectAuthorizationPrivileges;
 import org.openmrs.module.patientlist.api.util.ConvertPatientListOperators;
+import org.openmrs.module.patientlist.api.util.PatientListBudgetViolationLog;
 import org.openmrs.module.patientlist.api.util.PatientInformation;
+import org.openmrs.module.patientlist.api.util.PatientListConditionIndex;
+import org.openmrs.module.patientlist.api.util.PatientListConditionTree;
+import org.openmrs.module.patientlist.api.util.PatientListCountCache;
+import org.openmrs.module.patientlist.api.util.PatientListDefinition;
+import org.openmrs.module.patientlist.api.util.PatientListDefinitionRegistry;
+import org.openmrs.module.patientlist.api.util.PatientListMembershipCache;
+import org.openmrs.module.patientlist.api.util.PatientListNameKeyIndex;
+import org.openmrs.module.patientlist.api.util.PatientListPageCache;
+import org.openmrs.module.patientlist.api.util.PatientListQueryBudget;
+import org.openmrs.module.patientlist.api.util.PatientListQueryCancellation;
+import org.openmrs.module.patientlist.api.util.PatientListQueryPlan;
 import org.openmrs.module.patientlist.api.util.PatientListTemplateUtil;
+import org.springframework.core.task.AsyncTaskExecutor;
 
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Data service implementation class for {@link PatientListData}'s.
@@ -52,76 +101,970 @@ public class PatientListDataServiceImpl extends
 
 	protected final Log LOG = LogFactory.getLog(this.getClass());
 
+	private static final long COUNT_TIMEOUT_SECONDS = 60;
+	private static final int STREAM_FETCH_SIZE = 500;
+	private static final int STREAM_CLEAR_INTERVAL = 1000;
+	private static final String CURSOR_FETCH_PROPERTY = "useCursorFetch=true";
+	/**
+	 * The SQL states that drivers report for a statement cancelled because its query timeout elapsed.
+	 */
+	private static final Set<String> QUERY_TIMEOUT_SQL_STATES = new HashSet<String>(Arrays.asList("57014", "70100",
+	    "HYT00"));
+
+	private static final ThreadLocal<Boolean> READ_AHEAD = new ThreadLocal<Boolean>();
+	private static volatile boolean cursorFetchChecked;
+
+	private AsyncTaskExecutor countExecutor;
+	private AsyncTaskExecutor readAheadExecutor;
+
 	@Override
 	protected BasicObjectAuthorizationPrivileges getPrivileges() {
 		return new BasicObjectAuthorizationPrivileges();
 	}
 
-	@Override
-	protected void validate(PatientListData object) {
-		return;
+	@Override
+	protected void validate(PatientListData object) {
+		return;
+	}
+
+	@Override
+	public List<PatientListData> getPatientListData(PatientList patientList, PagingInfo pagingInfo) {
+		String pageKey = getReadAheadPageKey(patientList, pagingInfo);
+		if (pageKey == null) {
+			return getPatientListData(patientList, pagingInfo, Collections.<String, List<Object>> emptyMap());
+		}
+
+		List<PatientListData> patientListData;
+		PatientListPageCache.Page page = PatientListPageCache.getInstance().take(pageKey);
+		if (page != null) {
+			pagingInfo.setTotalRecordCount(page.getTotalRecordCount());
+			pagingInfo.setLoadRecordCount(false);
+			patientListData = page.getPatientListData();
+		} else {
+			patientListData = getPatientListData(patientList, pagingInfo, Collections.<String, List<Object>> emptyMap());
+		}
+
+		readAhead(patientList, pagingInfo);
+
+		return patientListData;
+	}
+
+	@Override
+	public List<PatientListData> getPatientListData(PatientList patientList, String quickFilter,
+	        PagingInfo pagingInfo) {
+		List<String> filterWords = PatientListMembershipCache.getFilterWords(quickFilter);
+		if (filterWords.isEmpty()) {
+			return getPatientListData(patientList, pagingInfo);
+		}
+
+		String membershipKey = getMembershipKey(patientList);
+		PatientListMembershipCache.Membership membership =
+		        membershipKey == null ? null : PatientListMembershipCache.getInstance().get(membershipKey);
+
+		List<PatientListData> matches;
+		if (membership != null) {
+			matches = membership.filter(filterWords);
+		} else {
+			matches = filterPatientListData(patientList, filterWords, membershipKey);
+		}
+
+		if (pagingInfo == null) {
+			return matches;
+		}
+
+		pagingInfo.setTotalRecordCount((long)matches.size());
+		pagingInfo.setLoadRecordCount(false);
+
+		return getPage(matches, pagingInfo);
+	}
+
+	@Override
+	public List<PatientListDataBatchResult> getPatientListData(List<PatientList> patientLists, PagingInfo pagingInfo) {
+		List<PatientListDataBatchResult> results = new ArrayList<PatientListDataBatchResult>();
+		if (patientLists == null || patientLists.isEmpty()) {
+			return results;
+		}
+
+		Map<String, List<Object>> sharedPredicates = evaluateSharedPredicates(patientLists);
+
+		Set<String> evaluatedUuids = new HashSet<String>();
+		for (PatientList patientList : patientLists) {
+			if (patientList == null || !evaluatedUuids.add(patientList.getUuid())) {
+				continue;
+			}
+
+			PagingInfo listPagingInfo = new PagingInfo(pagingInfo.getPage(), pagingInfo.getPageSize());
+			List<PatientListData> patientListData = getPatientListData(patientList, listPagingInfo, sharedPredicates);
+
+			results.add(new PatientListDataBatchResult(patientList, patientListData,
+			        listPagingInfo.getTotalRecordCount()));
+		}
+
+		return results;
+	}
+
+	@Override
+	public Long getPatientListCount(PatientList patientList) {
+		BitSet indexedPatientIds = PatientListConditionIndex.getInstance().evaluate(patientList, getRepository());
+		if (indexedPatientIds != null) {
+			return (long)indexedPatientIds.cardinality();
+		}
+
+		checkQueryCost(patientList);
+
+		long start = System.currentTimeMillis();
+		PatientListStageTimer timer = PatientListStageTimer.start(patientList.getUuid());
+		Long count = null;
+		beginCancellableQuery();
+		try {
+			Query query = createQuery(patientList, true, Collections.<String, List<Object>> emptyMap());
+
+			long stageStart = PatientListStageTimer.begin();
+			count = (Long)query.uniqueResult();
+			PatientListStageTimer.end(PatientListStage.COUNT, stageStart);
+
+			return count;
+		} catch (RuntimeException ex) {
+			PatientListEvaluationInterruptedException interrupted = recordBudgetViolation(patientList, ex, start);
+			throw interrupted != null ? interrupted : ex;
+		} finally {
+			endCancellableQuery();
+			timer.stop();
+			PatientListSlowLog.getInstance().record(patientList, timer, null, count, null);
+		}
+	}
+
+	@Override
+	public Map<String, Long> getPatientListCounts(List<PatientList> patientLists) {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		Map<PatientList, Future<Long>> pendingCounts = new LinkedHashMap<PatientList, Future<Long>>();
+		long version = PatientListDataChangeTracker.getInstance().getVersion();
+		UserContext userContext = Context.getUserContext();
+
+		for (PatientList patientList : patientLists) {
+			Long count = PatientListCountCache.getInstance().get(patientList.getUuid());
+			counts.put(patientList.getUuid(), count);
+			if (count != null) {
+				continue;
+			}
+
+			Future<Long> future = null;
+			if (countExecutor != null) {
+				try {
+					future = countExecutor.submit(new PatientListCountTask(patientList.getUuid(), userContext));
+				} catch (RejectedExecutionException ex) {
+					LOG.debug("The patient list count executor is saturated, counting on the request thread");
+				}
+			}
+
+			if (future == null) {
+				count = getPatientListCount(patientList);
+				PatientListCountCache.getInstance().put(patientList, count, version);
+				counts.put(patientList.getUuid(), count);
+			} else {
+				pendingCounts.put(patientList, future);
+			}
+		}
+
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(COUNT_TIMEOUT_SECONDS);
+		for (Map.Entry<PatientList, Future<Long>> entry : pendingCounts.entrySet()) {
+			PatientList patientList = entry.getKey();
+			try {
+				Long count = entry.getValue().get(Math.max(0, deadline - System.currentTimeMillis()),
+				    TimeUnit.MILLISECONDS);
+				PatientListCountCache.getInstance().put(patientList, count, version);
+				counts.put(patientList.getUuid(), count);
+			} catch (TimeoutException ex) {
+				entry.getValue().cancel(true);
+				LOG.warn("Timed out counting the rows of patient list '" + patientList.getUuid() + "'");
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException ex) {
+				LOG.error("Error counting the rows of patient list '" + patientList.getUuid() + "'", ex.getCause());
+			}
+		}
+
+		return counts;
+	}
+
+	@Override
+	public long streamPatientListData(PatientList patientList, IPatientListDataHandler handler) {
+		return streamPatientListData(patientList, handler, true);
+	}
+
+	/**
+	 * Streams the rows of a patient list to a handler.
+	 * @param patientList
+	 * @param handler
+	 * @param clearSession Whether to periodically clear the session while streaming, which must only be done when the
+	 *            caller does not hold any entities of the session
+	 * @return The number of rows that were handled
+	 */
+	private long streamPatientListData(PatientList patientList, IPatientListDataHandler handler, boolean clearSession) {
+		checkQueryCost(patientList);
+		checkCursorFetch();
+
+		long count = 0;
+		PatientListStageTimer timer = PatientListStageTimer.start(patientList.getUuid());
+		try {
+			Query query = createQuery(patientList, false, Collections.<String, List<Object>> emptyMap());
+			query.setFetchSize(STREAM_FETCH_SIZE);
+			query.setReadOnly(true);
+			query.setCacheMode(CacheMode.IGNORE);
+
+			long stageStart = PatientListStageTimer.begin();
+			ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+			PatientListStageTimer.end(PatientListStage.FETCH, stageStart);
+			try {
+				while (results.next()) {
+					PatientListQueryCancellation.checkCancelled();
+
+					count++;
+					if (!handler.handle(createPatientListData(patientList, results.get(0)))) {
+						break;
+					}
+
+					// evict the rendered rows so that the session does not grow with the list
+					if (clearSession && count % STREAM_CLEAR_INTERVAL == 0) {
+						Context.clearSession();
+					}
+				}
+			} finally {
+				results.close();
+			}
+		} finally {
+			timer.stop();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Warns once when the connection reads whole result sets into memory, because the MySQL driver ignores the fetch
+	 * size of a streamed list unless cursor fetching is enabled.
+	 */
+	private void checkCursorFetch() {
+		if (cursorFetchChecked) {
+			return;
+		}
+		cursorFetchChecked = true;
+
+		String url = Context.getRuntimeProperties().getProperty("connection.url");
+		if (StringUtils.startsWith(url, "jdbc:mysql:") && !StringUtils.containsIgnoreCase(url, CURSOR_FETCH_PROPERTY)) {
+			LOG.warn("Patient list exports read the whole list into memory, add " + CURSOR_FETCH_PROPERTY
+			        + " to the connection url to stream them");
+		}
+	}
+
+	@Override
+	public PatientListQueryPlan explainPatientList(PatientList patientList) {
+		List<Object> paramValues = new ArrayList<Object>();
+		String hql = constructHqlQuery(patientList, paramValues, false, Collections.<String, List<Object>> emptyMap());
+		PatientListQueryPlan plan = PatientListQueryPlan.explain(hql, paramValues);
+
+		if (patientList.getPatientListConditions() != null) {
+			for (PatientListCondition condition : patientList.getPatientListConditions()) {
+				if (condition != null && condition.getOperator() == PatientListOperator.LIKE) {
+					plan.addWarning("The condition on " + condition.getField()
+					        + " matches anywhere in the value so it cannot use an index");
+				}
+			}
+		}
+
+		int maxJoins = ModuleSettings.getQueryMaxJoins();
+		int joins = PatientListQueryBudget.estimateJoins(patientList);
+		if (maxJoins > 0 && joins > maxJoins) {
+			plan.addWarning("The list needs an estimated " + joins + " joins or subqueries, the budget is " + maxJoins);
+		}
+
+		return plan;
+	}
+
+	@Override
+	public long rebuildNameKeys(boolean onlyIfMissing) {
+		PatientListNameKeyIndex index = PatientListNameKeyIndex.getInstance();
+		if (onlyIfMissing && index.verify()) {
+			return 0;
+		}
+
+		return index.rebuild();
+	}
+
+	public AsyncTaskExecutor getCountExecutor() {
+		return countExecutor;
+	}
+
+	public void setCountExecutor(AsyncTaskExecutor countExecutor) {
+		this.countExecutor = countExecutor;
+	}
+
+	public AsyncTaskExecutor getReadAheadExecutor() {
+		return readAheadExecutor;
+	}
+
+	public void setReadAheadExecutor(AsyncTaskExecutor readAheadExecutor) {
+		this.readAheadExecutor = readAheadExecutor;
+	}
+
+	/**
+	 * Gets the read ahead cache key of the requested page, or null if read ahead does not apply to the request.
+	 * @param patientList
+	 * @param pagingInfo
+	 * @return
+	 */
+	private String getReadAheadPageKey(PatientList patientList, PagingInfo pagingInfo) {
+		if (readAheadExecutor == null || Boolean.TRUE.equals(READ_AHEAD.get())) {
+			return null;
+		}
+
+		// unsaved lists (such as live previews) can differ from the stored definition with the same uuid
+		if (patientList == null || patientList.getId() == null || pagingInfo == null || pagingInfo.getPage() == null
+		        || pagingInfo.getPageSize() == null || pagingInfo.getPageSize() <= 0
+		        || Context.getAuthenticatedUser() == null || !ModuleSettings.isReadAheadEnabled()) {
+			return null;
+		}
+
+		return PatientListPageCache.createKey(Context.getAuthenticatedUser().getUuid(), patientList.getUuid(),
+		    pagingInfo.getPage(), pagingInfo.getPageSize());
+	}
+
+	/**
+	 * Gets the key of the cached rows of the given patient list for the current user.
+	 * @param patientList
+	 * @return The key or null if the rows of the list should not be cached
+	 */
+	private String getMembershipKey(PatientList patientList) {
+		// unsaved lists (such as live previews) can differ from the stored definition with the same uuid
+		if (patientList.getId() == null || Context.getAuthenticatedUser() == null) {
+			return null;
+		}
+
+		return PatientListMembershipCache.createKey(Context.getAuthenticatedUser().getUuid(), patientList.getUuid());
+	}
+
+	/**
+	 * Streams the rows of a patient list and gets the rows that match the quick filter words. The rows are cached under
+	 * the given key. The rows are streamed in the session of the caller, which is not cleared, so the list is only read
+	 * up to the configured maximum number of rows.
+	 * @param patientList
+	 * @param filterWords
+	 * @param membershipKey The key to cache the rows under or null to not cache them
+	 * @return The matching rows, in list order
+	 * @throws PatientListQuickFilterTooLargeException if the list has more rows than the configured maximum
+	 */
+	private List<PatientListData> filterPatientListData(PatientList patientList, final List<String> filterWords,
+	        String membershipKey) {
+		final int maxRows = ModuleSettings.getQuickFilterMaxRows();
+		final List<PatientListData> rows = new ArrayList<PatientListData>();
+		final List<PatientListData> matches = new ArrayList<PatientListData>();
+
+		long version = PatientListDataChangeTracker.getInstance().getVersion();
+		long count = streamPatientListData(patientList, new IPatientListDataHandler() {
+			@Override
+			public boolean handle(PatientListData patientListData) {
+				// stop at the first row over the maximum, which is enough to know the list is too large
+				if (rows.size() >= maxRows) {
+					return false;
+				}
+
+				PatientListData row = PatientListMembershipCache.createRow(patientListData);
+				if (PatientListMembershipCache.matches(row, filterWords)) {
+					matches.add(row);
+				}
+				rows.add(row);
+
+				return true;
+			}
+		}, false);
+
+		if (count > maxRows) {
+			throw new PatientListQuickFilterTooLargeException("The patient list has more than " + maxRows
+			        + " rows, narrow it down with conditions to filter it", maxRows);
+		}
+
+		int ttlSeconds = membershipKey == null ? 0 : ModuleSettings.getQuickFilterCacheTtlSeconds();
+		if (ttlSeconds > 0) {
+			PatientListMembershipCache.getInstance().put(membershipKey, patientList,
+			    new PatientListMembershipCache.Membership(rows), version, ttlSeconds);
+		}
+
+		return matches;
+	}
+
+	/**
+	 * Queues the page after the given page to be rendered and cached for the current user, if there is one.
+	 * @param patientList
+	 * @param pagingInfo The page that was just served, with the total record count set
+	 */
+	private void readAhead(PatientList patientList, PagingInfo pagingInfo) {
+		Long totalRecordCount = pagingInfo.getTotalRecordCount();
+		int nextPage = pagingInfo.getPage() + 1;
+		if (totalRecordCount == null || (long)pagingInfo.getPage() * pagingInfo.getPageSize() >= totalRecordCount) {
+			return;
+		}
+
+		String key = PatientListPageCache.createKey(Context.getAuthenticatedUser().getUuid(), patientList.getUuid(),
+		    nextPage, pagingInfo.getPageSize());
+		if (!PatientListPageCache.getInstance().reserve(key)) {
+			return;
+		}
+
+		try {
+			readAheadExecutor.submit(new PatientListReadAheadTask(patientList.getUuid(), Context.getUserContext(),
+			        new PagingInfo(nextPage, pagingInfo.getPageSize()), key,
+			        PatientListDataChangeTracker.getInstance().getVersion(), ModuleSettings.getReadAheadCacheTtlSeconds()));
+		} catch (RejectedExecutionException ex) {
+			// read ahead is best effort, the page is simply loaded when it is requested
+			PatientListPageCache.getInstance().release(key);
+		}
+	}
+
+	/**
+	 * Counts the rows of a patient list on a pool thread, in a new session for the requesting user.
+	 */
+	private static class PatientListCountTask implements Callable<Long> {
+		private final String patientListUuid;
+		private final UserContext userContext;
+
+		PatientListCountTask(String patientListUuid, UserContext userContext) {
+			this.patientListUuid = patientListUuid;
+			this.userContext = userContext;
+		}
+
+		@Override
+		public Long call() throws Exception {
+			Context.openSession();
+			try {
+				Context.setUserContext(userContext);
+
+				PatientList patientList = PatientListDefinitionRegistry.getInstance().get(patientListUuid);
+
+				return patientList == null ? null
+				        : Context.getService(IPatientListDataService.class).getPatientListCount(patientList);
+			} finally {
+				// the pool thread must not keep the user authenticated for the next task
+				Context.clearUserContext();
+				Context.closeSession();
+			}
+		}
+	}
+
+	/**
+	 * Renders a page of a patient list on a pool thread, in a new session for the requesting user, and caches it for the
+	 * user. The session is closed before the page is served, so the cached rows only reference the patient and visit by
+	 * id (see {@link PatientListMembershipCache#createRow(PatientListData)}).
+	 */
+	private static class PatientListReadAheadTask implements Runnable {
+		private final String patientListUuid;
+		private final UserContext userContext;
+		private final PagingInfo pagingInfo;
+		private final String key;
+		private final long version;
+		private final int ttlSeconds;
+
+		PatientListReadAheadTask(String patientListUuid, UserContext userContext, PagingInfo pagingInfo, String key,
+		    long version, int ttlSeconds) {
+			this.patientListUuid = patientListUuid;
+			this.userContext = userContext;
+			this.pagingInfo = pagingInfo;
+			this.key = key;
+			this.version = version;
+			this.ttlSeconds = ttlSeconds;
+		}
+
+		@Override
+		public void run() {
+			READ_AHEAD.set(true);
+			Context.openSession();
+			try {
+				Context.setUserContext(userContext);
+
+				PatientList patientList = PatientListDefinitionRegistry.getInstance().get(patientListUuid);
+				if (patientList != null) {
+					List<PatientListData> patientListData =
+					        Context.getService(IPatientListDataService.class).getPatientListData(patientList, pagingInfo);
+					if (pagingInfo.getTotalRecordCount() != null) {
+						List<PatientListData> rows = new ArrayList<PatientListData>(patientListData.size());
+						for (PatientListData row : patientListData) {
+							rows.add(PatientListMembershipCache.createRow(row));
+						}
+
+						PatientListPageCache.getInstance().put(key, patientList,
+						    new PatientListPageCache.Page(rows, pagingInfo.getTotalRecordCount()), version, ttlSeconds);
+					}
+				}
+			} finally {
+				PatientListPageCache.getInstance().release(key);
+				// the pool thread must not keep the user authenticated for the next task
+				Context.clearUserContext();
+				Context.closeSession();
+				READ_AHEAD.remove();
+			}
+		}
+	}
+
+	/**
+	 * Evaluates a patient list.
+	 * @param patientList
+	 * @param pagingInfo
+	 * @param sharedPredicates The pre-evaluated predicates to use for shared conditions, by condition key
+	 * @return
+	 */
+	private List<PatientListData> getPatientListData(PatientList patientList, PagingInfo pagingInfo,
+	        Map<String, List<Object>> sharedPredicates) {
+		List<PatientListData> patientListDataSet = new ArrayList<PatientListData>();
+		checkQueryCost(patientList);
+
+		long start = System.currentTimeMillis();
+		PatientListStageTimer timer = PatientListStageTimer.start(patientList == null ? null : patientList.getUuid());
+		beginCancellableQuery();
+		try {
+			List results;
+			long stageStart = PatientListStageTimer.begin();
+			BitSet indexedPatientIds = PatientListConditionIndex.getInstance().evaluate(patientList, getRepository());
+			if (indexedPatientIds != null) {
+				// the list was evaluated from the condition index so no count query is needed
+				pagingInfo.setTotalRecordCount((long)indexedPatientIds.cardinality());
+				pagingInfo.setLoadRecordCount(false);
+				PatientListStageTimer.end(PatientListStage.COUNT, stageStart);
+
+				if (patientList.getOrdering() == null || patientList.getOrdering().isEmpty()) {
+					List<Integer> page = getPage(indexedPatientIds, pagingInfo);
+					stageStart = PatientListStageTimer.begin();
+					results = getPatientsById(page);
+				} else {
+					Query query = createQuery(patientList, false, sharedPredicates);
+					query = this.createPagingQuery(pagingInfo, query);
+					stageStart = PatientListStageTimer.begin();
+					results = query.list();
+				}
+				PatientListStageTimer.end(PatientListStage.FETCH, stageStart);
+			} else {
+				// get record count
+				Query countQuery = createQuery(patientList, true, sharedPredicates);
+
+				// set paging params
+				stageStart = PatientListStageTimer.begin();
+				Long count = (Long)countQuery.uniqueResult();
+				pagingInfo.setTotalRecordCount(count);
+				pagingInfo.setLoadRecordCount(false);
+				PatientListStageTimer.end(PatientListStage.COUNT, stageStart);
+				PatientListQueryCancellation.checkCancelled();
+
+				// retrieve actual objects
+				Query query = createQuery(patientList, false, sharedPredicates);
+				query = this.createPagingQuery(pagingInfo, query);
+				stageStart = PatientListStageTimer.begin();
+				results = query.list();
+				PatientListStageTimer.end(PatientListStage.FETCH, stageStart);
+			}
+
+			for (Object result : results) {
+				PatientListQueryCancellation.checkCancelled();
+				patientListDataSet.add(createPatientListData(patientList, result));
+			}
+		} catch (RuntimeException ex) {
+			// a timed out or cancelled evaluation must not be mistaken for an empty or partial page
+			PatientListEvaluationInterruptedException interrupted = recordBudgetViolation(patientList, ex, start);
+			if (interrupted != null) {
+				throw interrupted;
+			}
+
+			LOG.error(ex.getMessage(), ex);
+		} finally {
+			endCancellableQuery();
+			timer.stop();
+			PatientListSlowLog.getInstance().record(patientList, timer, pagingInfo, pagingInfo.getTotalRecordCount(),
+			    patientListDataSet.size());
+		}
+
+		return patientListDataSet;
+	}
+
+	/**
+	 * Checks the estimated cost of a list query against the configured budget. Lists over budget are rejected when
+	 * the budget is enforced, otherwise a warning is logged. The violation is recorded for the list author either way.
+	 * @param patientList
+	 */
+	private void checkQueryCost(PatientList patientList) {
+		int maxJoins = ModuleSettings.getQueryMaxJoins();
+		if (patientList == null || maxJoins <= 0) {
+			return;
+		}
+
+		int joins = PatientListQueryBudget.estimateJoins(patientList);
+		if (joins <= maxJoins) {
+			return;
+		}
+
+		String message = "The patient list needs an estimated " + joins + " joins or subqueries, the budget is "
+		        + maxJoins;
+		PatientListBudgetViolationLog.getInstance().record(patientList,
+		    PatientListBudgetViolationLog.ViolationType.COST, message);
+
+		if (ModuleSettings.isQueryBudgetEnforced()) {
+			throw new APIException(message);
+		}
+
+		LOG.warn("Patient list '" + patientList.getUuid() + "': " + message);
+	}
+
+	/**
+	 * Records a timed out or cancelled list evaluation. Only a cancelled request or a statement that exceeded its query
+	 * timeout is recorded, any other failure is left to the caller however long the evaluation took.
+	 * @param patientList
+	 * @param ex The exception that stopped the evaluation
+	 * @param start The time the evaluation started
+	 * @return The exception to throw for the timed out or cancelled evaluation, or null if the evaluation failed for
+	 *         another reason
+	 */
+	private PatientListEvaluationInterruptedException recordBudgetViolation(PatientList patientList,
+	        RuntimeException ex, long start) {
+		long elapsed = System.currentTimeMillis() - start;
+		PatientListQueryCancellation cancellation = PatientListQueryCancellation.getCurrent();
+		int timeoutSeconds = PatientListQueryBudget.getTimeoutSeconds(patientList);
+
+		if ((cancellation != null && cancellation.isCancelled())
+		        || (ex instanceof PatientListEvaluationInterruptedException
+		        && !((PatientListEvaluationInterruptedException)ex).isTimedOut())) {
+			String message = "The request was cancelled after " + elapsed + " ms";
+			PatientListBudgetViolationLog.getInstance().record(patientList,
+			    PatientListBudgetViolationLog.ViolationType.CANCELLED, message);
+
+			return ex instanceof PatientListEvaluationInterruptedException ? (PatientListEvaluationInterruptedException)ex
+			        : new PatientListEvaluationInterruptedException(message, false, ex);
+		} else if (isQueryTimeout(ex)) {
+			String message = "The list query exceeded the " + timeoutSeconds + " second timeout";
+			PatientListBudgetViolationLog.getInstance().record(patientList,
+			    PatientListBudgetViolationLog.ViolationType.TIMEOUT, message);
+
+			return new PatientListEvaluationInterruptedException(message, true, ex);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Checks whether an exception was caused by a statement that exceeded its query timeout.
+	 * @param ex The exception
+	 * @return true if the exception or one of its causes reports a query timeout, false otherwise
+	 */
+	static boolean isQueryTimeout(Throwable ex) {
+		for (Throwable cause = ex; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+			if (cause instanceof QueryTimeoutException || cause instanceof SQLTimeoutException) {
+				return true;
+			}
+			if (cause instanceof SQLException
+			        && QUERY_TIMEOUT_SQL_STATES.contains(((SQLException)cause).getSQLState())) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Registers the current session with the cancellation of the current thread, if any, so that running statements
+	 * can be cancelled.
+	 */
+	private void beginCancellableQuery() {
+		PatientListQueryCancellation cancellation = PatientListQueryCancellation.getCurrent();
+		if (cancellation != null) {
+			PatientListQueryCancellation.checkCancelled();
+			cancellation.setSession(Context.getRegisteredComponents(SessionFactory.class).get(0).getCurrentSession());
+		}
+	}
+
+	private void endCancellableQuery() {
+		PatientListQueryCancellation cancellation = PatientListQueryCancellation.getCurrent();
+		if (cancellation != null) {
+			cancellation.setSession(null);
+		}
+	}
+
+	/**
+	 * Creates the patient list data for a query result row and renders the header and body templates.
+	 * @param patientList
+	 * @param result The {@link Patient} or {@link Visit} returned by the list query
+	 * @return
+	 */
+	private PatientListData createPatientListData(PatientList patientList, Object result) {
+		long stageStart = PatientListStageTimer.begin();
+		Patient patient;
+		Visit visit = null;
+		if (result instanceof Patient) {
+			patient = (Patient)result;
+		} else {
+			visit = (Visit)result;
+			patient = visit.getPatient();
+		}
+
+		PatientListData patientListData = new PatientListData(patient, visit, patientList);
+		PatientListStageTimer.end(PatientListStage.HYDRATE, stageStart);
+
+		stageStart = PatientListStageTimer.begin();
+		PatientListDefinition definition = PatientListDefinitionRegistry.getInstance().getRegisteredDefinition(
+		    patientList);
+		if (definition != null) {
+			// use the templates parsed when the definition was registered
+			if (definition.getHeaderTemplate() != null) {
+				patientListData.setHeaderContent(
+				        PatientListTemplateUtil.applyTemplate(definition.getHeaderTemplate(), patientListData));
+			}
+			if (definition.getBodyTemplate() != null) {
+				patientListData.setBodyContent(
+				        PatientListTemplateUtil.applyTemplate(definition.getBodyTemplate(), patientListData));
+			}
+		} else {
+			// apply header template.
+			if (patientListData.getPatientList().getHeaderTemplate() != null) {
+				patientListData.setHeaderContent(
+				        PatientListTemplateUtil.applyTemplate(
+				            patientListData.getPatientList().getHeaderTemplate(), patientListData));
+			}
+
+			// apply body template
+			if (patientListData.getPatientList().getBodyTemplate() != null) {
+				patientListData.setBodyContent(
+				        PatientListTemplateUtil.applyTemplate(
+				            patientListData.getPatientList().getBodyTemplate(), patientListData));
+			}
+		}
+
+		// Set the data uuid to a consistent, generated uuid based on the list and patient uuid's
+		String source = patientListData.getPatientList().getUuid() + patientListData.getPatient().getUuid();
+		String uuid = UUID.nameUUIDFromBytes(source.getBytes()).toString();
+		patientListData.setUuid(uuid);
+		PatientListStageTimer.end(PatientListStage.RENDER, stageStart);
+
+		return patientListData;
+	}
+
+	/**
+	 * Gets the requested page from a list of rows.
+	 * @param rows
+	 * @param pagingInfo
+	 * @return
+	 */
+	private List<PatientListData> getPage(List<PatientListData> rows, PagingInfo pagingInfo) {
+		if (pagingInfo.getPage() == null || pagingInfo.getPageSize() == null || pagingInfo.getPage() <= 0
+		        || pagingInfo.getPageSize() <= 0) {
+			return rows;
+		}
+
+		int first = Math.min((pagingInfo.getPage() - 1) * pagingInfo.getPageSize(), rows.size());
+		int last = Math.min(first + pagingInfo.getPageSize(), rows.size());
+
+		return new ArrayList<PatientListData>(rows.subList(first, last));
+	}
+
+	/**
+	 * Gets the patient ids for the requested page from a set of matching patient ids, in patient id order.
+	 * @param patientIds
+	 * @param pagingInfo
+	 * @return
+	 */
+	private List<Integer> getPage(BitSet patientIds, PagingInfo pagingInfo) {
+		int first = 0;
+		int max = Integer.MAX_VALUE;
+		if (pagingInfo.getPage() != null && pagingInfo.getPageSize() != null && pagingInfo.getPage() > 0
+		        && pagingInfo.getPageSize() > 0) {
+			first = (pagingInfo.getPage() - 1) * pagingInfo.getPageSize();
+			max = pagingInfo.getPageSize();
+		}
+
+		List<Integer> page = new ArrayList<Integer>();
+		int index = 0;
+		for (int id = patientIds.nextSetBit(0); id >= 0 && page.size() < max; id = patientIds.nextSetBit(id + 1)) {
+			if (index++ >= first) {
+				page.add(id);
+			}
+		}
+
+		return page;
+	}
+
+	private List getPatientsById(List<Integer> patientIds) {
+		if (patientIds.isEmpty()) {
+			return new ArrayList<Patient>();
+		}
+
+		Query query = getRepository().createQuery(
+		        "select p from Patient p where p.patientId in (:patientIds) order by p.patientId");
+		query.setParameterList("patientIds", patientIds);
+		applyQueryTimeout(query, null);
+
+		return query.list();
+	}
+
+	/**
+	 * Evaluates the single valued conditions that are used by more than one of the given lists. Conditions that match no
+	 * more than {@link ModuleSettings#getBatchMaxSharedIds()} patients or visits are replaced in each list query by the
+	 * matching ids, which are bound as query parameters.
+	 * @param patientLists
+	 * @return The ids matched by the shared conditions, by condition key
+	 */
+	private Map<String, List<Object>> evaluateSharedPredicates(List<PatientList> patientLists) {
+		Map<String, PatientListCondition> conditions = new HashMap<String, PatientListCondition>();
+		Map<String, Integer> usage = new HashMap<String, Integer>();
+		for (PatientList patientList : patientLists) {
+			if (patientList == null || patientList.getPatientListConditions() == null) {
+				continue;
+			}
+
+			Set<String> listKeys = new HashSet<String>();
+			for (PatientListCondition condition : patientList.getPatientListConditions()) {
+				if (!isShareableCondition(condition)) {
+					continue;
+				}
+
+				String key = getConditionKey(condition);
+				if (listKeys.add(key)) {
+					Integer count = usage.get(key);
+					usage.put(key, count == null ? 1 : count + 1);
+					conditions.put(key, condition);
+				}
+			}
+		}
+
+		Map<String, List<Object>> sharedPredicates = new HashMap<String, List<Object>>();
+		int maxIds = ModuleSettings.getBatchMaxSharedIds();
+		for (Map.Entry<String, Integer> entry : usage.entrySet()) {
+			if (entry.getValue() > 1) {
+				List<Object> ids = evaluateSharedPredicate(conditions.get(entry.getKey()), maxIds);
+				if (ids != null) {
+					sharedPredicates.put(entry.getKey(), ids);
+				}
+			}
+		}
+
+		return sharedPredicates;
+	}
+
+	/**
+	 * Evaluates a shared condition on its own.
+	 * @param condition
+	 * @param maxIds The maximum number of ids the condition can match to be shared
+	 * @return The patient or visit ids that the condition matches or null if it cannot be shared
+	 */
+	private List<Object> evaluateSharedPredicate(PatientListCondition condition, int maxIds) {
+		PatientInformationField patientInformationField =
+		        PatientInformation.getInstance().getField(condition.getField());
+		List<Object> paramValues = new ArrayList<Object>();
+		String predicate = createFieldPredicate(condition, patientInformationField,
+		    ConvertPatientListOperators.convertOperator(condition.getOperator()), "ob", paramValues);
+		if (predicate == null) {
+			return null;
+		}
+
+		boolean visitCondition = isVisitCondition(condition);
+		StringBuilder hql = new StringBuilder();
+		hql.append("select distinct ");
+		hql.append(visitCondition ? "v.visitId" : "p.patientId");
+		hql.append(visitCondition ? " from Visit v inner join v.patient as p" : " from Patient p");
+		hql.append(" where (");
+		hql.append(predicate);
+		hql.append(")");
+
+		Query query = getRepository().createQuery(hql.toString());
+		int index = 0;
+		for (Object value : paramValues) {
+			query.setParameter(index++, value);
+		}
+		query.setMaxResults(maxIds + 1);
+		applyQueryTimeout(query, null);
+
+		@SuppressWarnings("unchecked")
+		List<Object> ids = query.list();
+		if (ids.size() > maxIds) {
+			// too many rows to bind, each list query evaluates the condition itself
+			return null;
+		}
+
+		return ids;
 	}
 
-	@Override
-	public List<PatientListData> getPatientListData(PatientList patientList, PagingInfo pagingInfo) {
-		List<PatientListData> patientListDataSet = new ArrayList<PatientListData>();
-		try {
-			// get record count
-			Query countQuery = createQuery(patientList, true);
+	private boolean isVisitCondition(PatientListCondition condition) {
+		return StringUtils.startsWith(condition.getField(), "v.")
+		        || StringUtils.contains(condition.getField(), "hasActiveVisit");
+	}
 
-			// set paging params
-			Long count = (Long)countQuery.uniqueResult();
-			pagingInfo.setTotalRecordCount(count);
-			pagingInfo.setLoadRecordCount(false);
+	/**
+	 * Returns whether a condition is on a single valued patient or visit field and can therefore be evaluated
+	 * independently of the other conditions of a list.
+	 */
+	private boolean isShareableCondition(PatientListCondition condition) {
+		if (condition == null || condition.getOperator() == null) {
+			return false;
+		}
 
-			// retrieve actual objects
-			Query query = createQuery(patientList, false);
-			query = this.createPagingQuery(pagingInfo, query);
-			List results = query.list();
-			if (results.size() > 0) {
-				for (Object result : results) {
-					Patient patient;
-					Visit visit = null;
-					if (result instanceof Patient) {
-						patient = (Patient)result;
-					} else {
-						visit = (Visit)result;
-						patient = visit.getPatient();
-					}
+		PatientInformationField patientInformationField =
+		        PatientInformation.getInstance().getField(condition.getField());
+		if (patientInformationField == null) {
+			return false;
+		}
 
-					PatientListData patientListData = new PatientListData(patient, visit, patientList);
-					// apply header template.
-					if (patientListData.getPatientList().getHeaderTemplate() != null) {
-						patientListData.setHeaderContent(
-						        PatientListTemplateUtil.applyTemplate(
-						            patientListData.getPatientList().getHeaderTemplate(), patientListData));
-					}
+		String mappingFieldName = patientInformationField.getMappingFieldName();
 
-					// apply body template
-					if (patientListData.getPatientList().getBodyTemplate() != null) {
-						patientListData.setBodyContent(
-						        PatientListTemplateUtil.applyTemplate(
-						            patientListData.getPatientList().getBodyTemplate(), patientListData));
-					}
+		return !StringUtils.contains(condition.getField(), "p.attr.")
+		        && !StringUtils.contains(condition.getField(), "v.attr.")
+		        && !StringUtils.contains(condition.getField(), "iagnosis")
+		        && !StringUtils.contains(mappingFieldName, "p.names.")
+		        && !StringUtils.contains(mappingFieldName, "p.addresses.")
+		        && !StringUtils.contains(mappingFieldName, "p.identifiers.");
+	}
 
-					// Set the data uuid to a consistent, generated uuid based on the list and patient uuid's
-					String source = patientListData.getPatientList().getUuid() + patientListData.getPatient().getUuid();
-					String uuid = UUID.nameUUIDFromBytes(source.getBytes()).toString();
-					patientListData.setUuid(uuid);
+	private String getConditionKey(PatientListCondition condition) {
+		return condition.getField() + "|" + condition.getOperator() + "|" + condition.getValue();
+	}
 
-					patientListDataSet.add(patientListData);
-				}
-			}
-		} catch (Exception ex) {
-			LOG.error(ex.getMessage());
+	/**
+	 * Creates the predicate for a condition that was evaluated for the whole batch. The ids are bound as parameters and
+	 * their number is padded to a power of two, by repeating the last id, so that the lists of a batch only compile a
+	 * few distinct queries.
+	 * @param condition
+	 * @param sharedPredicates
+	 * @param paramValues
+	 * @return The predicate or null if the condition was not shared
+	 */
+	private String getSharedPredicate(PatientListCondition condition, Map<String, List<Object>> sharedPredicates,
+	        List<Object> paramValues) {
+		if (sharedPredicates.isEmpty() || condition.getOperator() == null) {
+			return null;
 		}
 
-		return patientListDataSet;
+		List<Object> ids = sharedPredicates.get(getConditionKey(condition));
+		if (ids == null) {
+			return null;
+		} else if (ids.isEmpty()) {
+			return "1 = 0";
+		}
+
+		int size = 1;
+		while (size < ids.size()) {
+			size <<= 1;
+		}
+
+		StringBuilder hql = new StringBuilder();
+		hql.append(isVisitCondition(condition) ? "v.visitId" : "p.patientId");
+		hql.append(" in (");
+		for (int i = 0; i < size; i++) {
+			hql.append(i == 0 ? "?" : ", ?");
+			paramValues.add(ids.get(Math.min(i, ids.size() - 1)));
+		}
+		hql.append(")");
+
+		return hql.toString();
 	}
 
-	private Query createQuery(PatientList patientList, boolean countQuery) {
+	private Query createQuery(PatientList patientList, boolean countQuery, Map<String, List<Object>> sharedPredicates) {
 		List<Object> paramValues = new ArrayList<Object>();
-		Query query = getRepository().createQuery(constructHqlQuery(patientList, paramValues, countQuery));
+		long stageStart = PatientListStageTimer.begin();
+		String hql = constructHqlQuery(patientList, paramValues, countQuery, sharedPredicates);
+		Query query = getRepository().createQuery(hql);
+		PatientListStageTimer.end(PatientListStage.COMPILE, stageStart);
+		PatientListStageTimer.captureQuery(hql, paramValues);
 		// set parameters with actual values
 		if (paramValues.size() > 0) {
 			int index = 0;
@@ -130,19 +1073,34 @@ public class PatientListDataServiceImpl extends
 			}
 		}
 
+		applyQueryTimeout(query, patientList);
+
 		return query;
 	}
 
+	private void applyQueryTimeout(Query query, PatientList patientList) {
+		int timeoutSeconds = PatientListQueryBudget.getTimeoutSeconds(patientList);
+		if (timeoutSeconds > 0) {
+			query.setTimeout(timeoutSeconds);
+		}
+	}
+
 	/**
 	 * Constructs a patient list with given conditions (and ordering)
 	 * @param patientList
 	 * @param paramValues
+	 * @param sharedPredicates
 	 * @return
 	 */
-	private String constructHqlQuery(
-	        PatientList patientList, List<Object> paramValues, boolean countQuery) {
+	private String constructHqlQuery(PatientList patientList, List<Object> paramValues, boolean countQuery,
+	        Map<String, List<Object>> sharedPredicates) {
 		StringBuilder hql = new StringBuilder();
+		boolean grouped = patientList != null && patientList.hasConditionGroups();
 		if (patientList != null && patientList.getPatientListConditions() != null) {
+			// grouped conditions use sub-queries for multi-valued fields so only the ordering requires joins
+			List<PatientListCondition> joinConditions = grouped ? new ArrayList<PatientListCondition>()
+			        : patientList.getPatientListConditions();
+
 			if (searchField(patientList.getPatientListConditions(), "v.", false) != null
 			        || searchField(patientList.getPatientListConditions(), "hasActiveVisit", false) != null
 			        || searchField(patientList.getPatientListConditions(), "hasDiagnosis", false) != null) {
@@ -162,34 +1120,34 @@ public class PatientListDataServiceImpl extends
 			}
 
 			// only join person attributes and attribute types if required to
-			if (searchField(patientList.getPatientListConditions(), "p.attr", false) != null
+			if (searchField(joinConditions, "p.attr", false) != null
 			        || searchField(patientList.getOrdering(), "p.attr", false) != null) {
 				hql.append("inner join p.attributes as attr ");
 				hql.append("inner join attr.attributeType as attrType ");
 			}
 
-			hql.append(applyVisitAttributeJoins(patientList));
+			hql.append(applyVisitAttributeJoins(joinConditions, patientList.getOrdering()));
 
-			if (searchField(patientList.getPatientListConditions(), "v.diagnosis", false) != null
-			        || searchField(patientList.getPatientListConditions(), "hasDiagnosis", false) != null) {
+			if (searchField(joinConditions, "v.diagnosis", false) != null
+			        || searchField(joinConditions, "hasDiagnosis", false) != null) {
 				hql.append("inner join v.encounters as encounter ");
 				hql.append("inner join encounter.obs as ob ");
 			}
 
 			// only join names if required
-			if (searchField(patientList.getPatientListConditions(), "p.names", true) != null
+			if (searchField(joinConditions, "p.names", true) != null
 			        || searchField(patientList.getOrdering(), "p.names", true) != null) {
 				hql.append("inner join p.names as pnames ");
 			}
 
 			// only join addresses if required
-			if (searchField(patientList.getPatientListConditions(), "p.addresses", true) != null
+			if (searchField(joinConditions, "p.addresses", true) != null
 			        || searchField(patientList.getOrdering(), "p.addresses", true) != null) {
 				hql.append("inner join p.addresses as paddresses ");
 			}
 
 			// only join identifiers if required
-			if (searchField(patientList.getPatientListConditions(), "p.identifiers", true) != null
+			if (searchField(joinConditions, "p.identifiers", true) != null
 			        || searchField(patientList.getOrdering(), "p.identifiers", true) != null) {
 				hql.append("inner join p.identifiers as pidentifiers ");
 			}
@@ -200,7 +1158,11 @@ public class PatientListDataServiceImpl extends
 
 		// apply patient list conditions
 		hql.append("(");
-		hql.append(applyPatientListConditions(patientList, paramValues));
+		if (grouped) {
+			hql.append(applyPatientListConditionTree(patientList, paramValues, sharedPredicates));
+		} else {
+			hql.append(applyPatientListConditions(patientList, paramValues, sharedPredicates));
+		}
 		hql.append(")");
 
 		//apply ordering if any
@@ -226,10 +1188,11 @@ public class PatientListDataServiceImpl extends
 	 * will be stored separately and later set when running query.
 	 * @param patientList
 	 * @param paramValues
+	 * @param sharedPredicates
 	 * @return
 	 */
 	private String applyPatientListConditions(PatientList patientList,
-	        List<Object> paramValues) {
+	        List<Object> paramValues, Map<String, List<Object>> sharedPredicates) {
 		int count = 0;
 		List<PatientListCondition> patientListConditions = patientList.getPatientListConditions();
 		int len = patientListConditions.size();
@@ -256,169 +1219,328 @@ public class PatientListDataServiceImpl extends
 				} else if (StringUtils.contains(mappingFieldName, "p.names.")
 				        || StringUtils.contains(mappingFieldName, "p.addresses.")
 				        || StringUtils.contains(mappingFieldName, "p.identifiers.")) {
-					hql.append(createAliasesSubQueries(condition, mappingFieldName, paramValues));
-				} else if (StringUtils.contains(condition.getField(), "p.hasActiveVisit")) {
-					hql.append(" v.startDatetime IS NOT NULL AND v.stopDatetime is NULL ");
-				} else if (StringUtils.contains(condition.getField(), "v.hasDiagnosis")) {
-					hql.append("(ob.voided != true AND (ob.valueCoded.conceptClass.uuid = ? or ob.valueText != ''))");
-					paramValues.add("8d4918b0-c2cc-11de-8d13-0010c6dffd0f");
-				} else if (StringUtils.contains(condition.getField(), "v.diagnosis")) {
-					// coded diagnosis
-					if (NumberUtils.isDigits(condition.getValue())) {
-						hql.append(" ob.voided != true AND ob.valueCoded.conceptId ");
+					hql.append(createAliasesSubQueries(condition, mappingFieldName, "p", paramValues));
+				} else {
+					String predicate = getSharedPredicate(condition, sharedPredicates, paramValues);
+					if (predicate == null) {
+						predicate = createFieldPredicate(condition, patientInformationField, operator, "ob", paramValues);
+					}
+
+					if (predicate == null) {
+						continue;
+					}
+
+					hql.append(predicate);
+				}
+
+				if (count < len) {
+					hql.append(join);
+				}
+			}
+		}
+
+		if (!StringUtils.contains(hql.toString(), "v.attr")) {
+			hql.append(applyVisitAttributeOrderingFilter(patientList.getOrdering(), paramValues));
+		}
+
+		return hql.toString();
+	}
+
+	/**
+	 * Combines the patient list conditions using the explicit condition groups of the list. Multi-valued fields are
+	 * evaluated using correlated sub-queries so that they can be freely combined with AND, OR and NOT.
+	 * @param patientList
+	 * @param paramValues
+	 * @param sharedPredicates
+	 * @return
+	 */
+	private String applyPatientListConditionTree(PatientList patientList, final List<Object> paramValues,
+	        final Map<String, List<Object>> sharedPredicates) {
+		PatientListDefinition definition = PatientListDefinitionRegistry.getInstance().getRegisteredDefinition(
+		    patientList);
+		PatientListConditionTree tree = definition != null && definition.getConditionTree() != null
+		        ? definition.getConditionTree() : PatientListConditionTree.build(patientList);
+		StringBuilder hql = new StringBuilder();
+		hql.append(tree.compile(new PatientListConditionTree.IConditionCompiler() {
+			@Override
+			public String compile(PatientListCondition condition) {
+				return createGroupedConditionPredicate(condition, paramValues, sharedPredicates);
+			}
+		}));
+
+		hql.append(applyVisitAttributeOrderingFilter(patientList.getOrdering(), paramValues));
+
+		return hql.toString();
+	}
+
+	/**
+	 * Creates the hql predicate for a single condition in a condition group.
+	 * @param condition
+	 * @param paramValues
+	 * @param sharedPredicates
+	 * @return The predicate or null if the condition cannot be applied
+	 */
+	private String createGroupedConditionPredicate(PatientListCondition condition, List<Object> paramValues,
+	        Map<String, List<Object>> sharedPredicates) {
+		PatientInformationField patientInformationField =
+		        PatientInformation.getInstance().getField(condition.getField());
+		if (patientInformationField == null || condition.getOperator() == null) {
+			return null;
+		}
+
+		String operator = ConvertPatientListOperators.convertOperator(condition.getOperator());
+		String mappingFieldName = patientInformationField.getMappingFieldName();
+		if (StringUtils.contains(condition.getField(), "p.attr.")
+		        || StringUtils.contains(condition.getField(), "v.attr.")) {
+			return createAttributeExistsSubQuery(condition, operator, paramValues);
+		} else if (StringUtils.contains(mappingFieldName, "p.names.")) {
+			return "exists (select gnames.id from PersonName gnames where gnames.person.personId = p.patientId and ("
+			        + createAliasesSubQueries(condition, mappingFieldName, "g", paramValues) + "))";
+		} else if (StringUtils.contains(mappingFieldName, "p.addresses.")) {
+			return "exists (select gaddresses.id from PersonAddress gaddresses "
+			        + "where gaddresses.person.personId = p.patientId and ("
+			        + createAliasesSubQueries(condition, mappingFieldName, "g", paramValues) + "))";
+		} else if (StringUtils.contains(mappingFieldName, "p.identifiers.")) {
+			return "exists (select gidentifiers.id from PatientIdentifier gidentifiers "
+			        + "where gidentifiers.patient.patientId = p.patientId and ("
+			        + createAliasesSubQueries(condition, mappingFieldName, "g", paramValues) + "))";
+		} else if (StringUtils.contains(condition.getField(), "v.hasDiagnosis")
+		        || StringUtils.contains(condition.getField(), "v.diagnosis")) {
+			return "exists (select gob.id from Obs gob where gob.encounter.visit = v and "
+			        + createFieldPredicate(condition, patientInformationField, operator, "gob", paramValues) + ")";
+		}
+
+		String sharedPredicate = getSharedPredicate(condition, sharedPredicates, paramValues);
+		if (sharedPredicate != null) {
+			return sharedPredicate;
+		}
+
+		return createFieldPredicate(condition, patientInformationField, operator, "ob", paramValues);
+	}
+
+	/**
+	 * Creates an hql exists sub-query for a patient or visit attribute condition. Example: v.attr.bed = 2
+	 * @param condition
+	 * @param operator The literal operator
+	 * @param paramValues
+	 * @return
+	 */
+	private String createAttributeExistsSubQuery(PatientListCondition condition, String operator,
+	        List<Object> paramValues) {
+		StringBuilder hql = new StringBuilder();
+		String attributeName = condition.getField().split("\\.")[2];
+		attributeName = attributeName.replaceAll("_", " ");
+		String valueField;
+
+		if (StringUtils.equalsIgnoreCase(operator, "not exists")) {
+			hql.append("not ");
+		}
+
+		if (StringUtils.contains(condition.getField(), "p.attr.")) {
+			hql.append("exists (select gattr.id from PersonAttribute gattr where gattr.person.personId = p.patientId");
+			valueField = "gattr.value";
+		} else {
+			hql.append("exists (select gattr.id from VisitAttribute gattr where gattr.visit = v");
+			valueField = "gattr.valueReference";
+		}
+
+		hql.append(" and gattr.attributeType.name = ? and gattr.voided != true");
+		paramValues.add(attributeName);
+
+		if (!StringUtils.containsIgnoreCase(operator, "exists")) {
+			hql.append(" and ");
+			hql.append(valueField);
+			hql.append(" ");
+			hql.append(operator);
+			if (!StringUtils.containsIgnoreCase(operator, "null")) {
+				hql.append(" ? ");
+				paramValues.add(ConvertPatientListOperators.convertValue(condition.getOperator(), condition.getValue()));
+			}
+		}
+
+		hql.append(")");
+
+		return hql.toString();
+	}
+
+	/**
+	 * Restricts the joined visit attributes to the attribute type used to order the list, if any.
+	 * @param ordering
+	 * @param paramValues
+	 * @return
+	 */
+	private String applyVisitAttributeOrderingFilter(List<PatientListOrder> ordering, List<Object> paramValues) {
+		StringBuilder hql = new StringBuilder();
+		String visitAttributeOrderField = searchField(ordering, "v.attr", false);
+		if (visitAttributeOrderField != null) {
+			String alias = getVisitAttributeAlias(visitAttributeOrderField);
+			hql.append(" AND ");
+			hql.append(alias + ".voided != true AND ");
+			hql.append(alias + "Type.name = ? ");
+			paramValues.add(visitAttributeOrderField.split("v\\.attr\\.")[1]);
+		}
+
+		return hql.toString();
+	}
+
+	/**
+	 * Creates the hql predicate for a condition on a single valued patient or visit field, including the computed age,
+	 * active visit and diagnosis fields.
+	 * @param condition
+	 * @param patientInformationField
+	 * @param operator The literal operator
+	 * @param diagnosisAlias The alias of the diagnosis obs
+	 * @param paramValues
+	 * @return The predicate or null if the field has no mapping
+	 */
+	private String createFieldPredicate(PatientListCondition condition, PatientInformationField patientInformationField,
+	        String operator, String diagnosisAlias, List<Object> paramValues) {
+		StringBuilder hql = new StringBuilder();
+		String mappingFieldName = patientInformationField.getMappingFieldName();
+		if (StringUtils.contains(condition.getField(), "p.hasActiveVisit")) {
+			hql.append(" v.startDatetime IS NOT NULL AND v.stopDatetime is NULL ");
+		} else if (StringUtils.contains(condition.getField(), "v.hasDiagnosis")) {
+			hql.append("(" + diagnosisAlias + ".voided != true AND (" + diagnosisAlias + ".valueCoded.conceptClass.uuid = ? or "
+			        + diagnosisAlias + ".valueText != ''))");
+			paramValues.add("8d4918b0-c2cc-11de-8d13-0010c6dffd0f");
+		} else if (StringUtils.contains(condition.getField(), "v.diagnosis")) {
+			// coded diagnosis
+			if (NumberUtils.isDigits(condition.getValue())) {
+				hql.append(" " + diagnosisAlias + ".voided != true AND " + diagnosisAlias + ".valueCoded.conceptId ");
+				hql.append(operator);
+				hql.append(" ? ");
+				paramValues.add(Integer.valueOf(condition.getValue()));
+			} else {
+				// un-coded diagnosis
+				hql.append(" " + diagnosisAlias + ".voided != true AND " + diagnosisAlias + ".valueText ");
+				hql.append(operator);
+				hql.append(" ? ");
+				paramValues.add(condition.getValue());
+			}
+		} else if (StringUtils.contains(condition.getField(), "p.age")) {
+			try {
+				hql.append(" p.birthdate ");
+				if (StringUtils.contains(operator, "<")) {
+					operator = StringUtils.replace(operator, "<", ">");
+				} else if (StringUtils.contains(operator, ">")) {
+					operator = StringUtils.replace(operator, ">", "<");
+				}
+
+				if (!StringUtils.containsIgnoreCase(operator, "null") && !StringUtils
+				        .containsIgnoreCase(operator, "BETWEEN")) {
+					if (StringUtils.equals(operator, "=")) {
+						operator = StringUtils.replace(operator, "=", "BETWEEN");
+						hql.append(" ");
 						hql.append(operator);
+						hql.append(" ");
 						hql.append(" ? ");
-						paramValues.add(Integer.valueOf(condition.getValue()));
+						if (StringUtils.isNumeric(condition.getValue())) {
+							int age = Integer.valueOf(condition.getValue());
+							Calendar calendar = Calendar.getInstance();
+							calendar.add(Calendar.YEAR, -age);
+							Calendar calendar1 = Calendar.getInstance();
+							calendar1.add(Calendar.YEAR, -(age + 1));
+							paramValues.add(PatientListDateUtil.simpleDateFormat.parse(
+							        PatientListDateUtil.simpleDateFormat.format(calendar1.getTime())));
+							hql.append(" AND ? ");
+							paramValues.add(PatientListDateUtil.simpleDateFormat.parse(
+							        PatientListDateUtil.simpleDateFormat.format(calendar.getTime())));
+						}
 					} else {
-						// un-coded diagnosis
-						hql.append(" ob.voided != true AND ob.valueText ");
+						hql.append(" ");
 						hql.append(operator);
 						hql.append(" ? ");
-						paramValues.add(condition.getValue());
-					}
-				} else if (StringUtils.contains(condition.getField(), "p.age")) {
-					try {
-						hql.append(" p.birthdate ");
-						if (StringUtils.contains(operator, "<")) {
-							operator = StringUtils.replace(operator, "<", ">");
-						} else if (StringUtils.contains(operator, ">")) {
-							operator = StringUtils.replace(operator, ">", "<");
-						}
-
-						if (!StringUtils.containsIgnoreCase(operator, "null") && !StringUtils
-						        .containsIgnoreCase(operator, "BETWEEN")) {
-							if (StringUtils.equals(operator, "=")) {
-								operator = StringUtils.replace(operator, "=", "BETWEEN");
-								hql.append(" ");
-								hql.append(operator);
-								hql.append(" ");
-								hql.append(" ? ");
-								if (StringUtils.isNumeric(condition.getValue())) {
-									int age = Integer.valueOf(condition.getValue());
-									Calendar calendar = Calendar.getInstance();
-									calendar.add(Calendar.YEAR, -age);
-									Calendar calendar1 = Calendar.getInstance();
-									calendar1.add(Calendar.YEAR, -(age + 1));
-									paramValues.add(PatientListDateUtil.simpleDateFormat.parse(
-									        PatientListDateUtil.simpleDateFormat.format(calendar1.getTime())));
-									hql.append(" AND ? ");
-									paramValues.add(PatientListDateUtil.simpleDateFormat.parse(
-									        PatientListDateUtil.simpleDateFormat.format(calendar.getTime())));
-								}
+						if (StringUtils.isNumeric(condition.getValue())) {
+							int age = Integer.valueOf(condition.getValue());
+							Calendar calendar = Calendar.getInstance();
+							if (StringUtils.equals(operator, ">=") || StringUtils.equals(operator, "<")) {
+								calendar.add(Calendar.YEAR, -(age + 1));
 							} else {
-								hql.append(" ");
-								hql.append(operator);
-								hql.append(" ? ");
-								if (StringUtils.isNumeric(condition.getValue())) {
-									int age = Integer.valueOf(condition.getValue());
-									Calendar calendar = Calendar.getInstance();
-									if (StringUtils.equals(operator, ">=") || StringUtils.equals(operator, "<")) {
-										calendar.add(Calendar.YEAR, -(age + 1));
-									} else {
-										calendar.add(Calendar.YEAR, -age);
-									}
-									paramValues.add(PatientListDateUtil.simpleDateFormat.parse(
-									        PatientListDateUtil.simpleDateFormat.format(calendar.getTime())));
-								}
+								calendar.add(Calendar.YEAR, -age);
 							}
+							paramValues.add(PatientListDateUtil.simpleDateFormat.parse(
+							        PatientListDateUtil.simpleDateFormat.format(calendar.getTime())));
+						}
+					}
+				} else {
+					try {
+						// BETWEEN age should be separated by |
+						hql.append(operator);
+						hql.append(" ");
+						if (StringUtils.contains(condition.getValue(), "|")) {
+							hql.append(" ? ");
+							String[] numbers = StringUtils.split(condition.getValue(), "|");
+							int ageOne = Integer.valueOf(numbers[0]);
+							int ageTwo = Integer.valueOf(numbers[1]) + 1;
+							Calendar calendar = Calendar.getInstance();
+							calendar.add(Calendar.YEAR, -ageTwo);
+							paramValues.add(PatientListDateUtil.simpleDateFormat.parse(
+							        PatientListDateUtil.simpleDateFormat.format(calendar.getTime())));
+							hql.append(" AND ? ");
+							Calendar calendar1 = Calendar.getInstance();
+							calendar1.add(Calendar.YEAR, -ageOne);
+							paramValues.add(PatientListDateUtil.simpleDateFormat.parse(
+							        PatientListDateUtil.simpleDateFormat.format(calendar1.getTime())));
 						} else {
-							try {
-								// BETWEEN age should be separated by |
-								hql.append(operator);
-								hql.append(" ");
-								if (StringUtils.contains(condition.getValue(), "|")) {
-									hql.append(" ? ");
-									String[] numbers = StringUtils.split(condition.getValue(), "|");
-									int ageOne = Integer.valueOf(numbers[0]);
-									int ageTwo = Integer.valueOf(numbers[1]) + 1;
-									Calendar calendar = Calendar.getInstance();
-									calendar.add(Calendar.YEAR, -ageTwo);
-									paramValues.add(PatientListDateUtil.simpleDateFormat.parse(
-									        PatientListDateUtil.simpleDateFormat.format(calendar.getTime())));
-									hql.append(" AND ? ");
-									Calendar calendar1 = Calendar.getInstance();
-									calendar1.add(Calendar.YEAR, -ageOne);
-									paramValues.add(PatientListDateUtil.simpleDateFormat.parse(
-									        PatientListDateUtil.simpleDateFormat.format(calendar1.getTime())));
-								} else {
-									if (!StringUtils.containsIgnoreCase(operator, "IS NOT NULL")) {
-										hql.append(" ? ");
-										paramValues.add(condition.getValue());
-									}
-
-								}
-							} catch (ParseException pex) {
+							if (!StringUtils.containsIgnoreCase(operator, "IS NOT NULL")) {
+								hql.append(" ? ");
 								paramValues.add(condition.getValue());
 							}
-						}
 
+						}
 					} catch (ParseException pex) {
-						LOG.error("error parsing date: ", pex);
-					}
-				} else {
-					if (mappingFieldName == null) {
-						LOG.error("Unknown mapping for field name: " + condition.getField());
-						continue;
+						paramValues.add(condition.getValue());
 					}
+				}
 
-					hql.append(mappingFieldName);
-					hql.append(" ");
+			} catch (ParseException pex) {
+				LOG.error("error parsing date: ", pex);
+			}
+		} else {
+			if (mappingFieldName == null) {
+				LOG.error("Unknown mapping for field name: " + condition.getField());
+				return null;
+			}
 
-					String value = condition.getValue();
-					if (StringUtils.equalsIgnoreCase(operator, "RELATIVE")) {
-						operator = "BETWEEN";
-						value = PatientListDateUtil.createRelativeDate(
-						        PatientListRelativeDate.valueOf(value));
-					}
+			hql.append(mappingFieldName);
+			hql.append(" ");
 
-					hql.append(operator);
-					hql.append(" ");
-					if (StringUtils.isNotEmpty(value)) {
-						if (!StringUtils.containsIgnoreCase(operator, "null")) {
-							hql.append("?");
-							if (patientInformationField.getDataType().isAssignableFrom(Date.class)) {
-								try {
-									// BETWEEN dates should be separated by |
-									if (StringUtils.contains(value, "|")) {
-										String[] dates = StringUtils.split(value, "|");
-										paramValues.add(
-										        PatientListDateUtil.simpleDateFormat.parse(dates[0]));
-										hql.append(" AND ? ");
-										paramValues.add(
-										        PatientListDateUtil.simpleDateFormat.parse(dates[1]));
-									} else {
-										paramValues.add(
-										        PatientListDateUtil.simpleDateFormat.parse(value));
-									}
-								} catch (ParseException pex) {
-									paramValues.add(value);
-								}
+			String value = condition.getValue();
+			if (StringUtils.equalsIgnoreCase(operator, "RELATIVE")) {
+				operator = "BETWEEN";
+				value = PatientListDateUtil.createRelativeDate(
+				        PatientListRelativeDate.valueOf(value));
+			}
+
+			hql.append(operator);
+			hql.append(" ");
+			if (StringUtils.isNotEmpty(value)) {
+				if (!StringUtils.containsIgnoreCase(operator, "null")) {
+					hql.append("?");
+					if (patientInformationField.getDataType().isAssignableFrom(Date.class)) {
+						try {
+							// BETWEEN dates should be separated by |
+							if (StringUtils.contains(value, "|")) {
+								String[] dates = StringUtils.split(value, "|");
+								paramValues.add(
+								        PatientListDateUtil.simpleDateFormat.parse(dates[0]));
+								hql.append(" AND ? ");
+								paramValues.add(
+								        PatientListDateUtil.simpleDateFormat.parse(dates[1]));
 							} else {
-								if (StringUtils.equals(operator, "LIKE")) {
-									paramValues.add("%" + value + "%");
-								} else {
-									paramValues.add(value);
-								}
+								paramValues.add(
+								        PatientListDateUtil.simpleDateFormat.parse(value));
 							}
+						} catch (ParseException pex) {
+							paramValues.add(value);
 						}
+					} else {
+						paramValues.add(ConvertPatientListOperators.convertValue(condition.getOperator(), value));
 					}
 				}
-
-				if (count < len) {
-					hql.append(join);
-				}
 			}
 		}
 
-		String visitAttributeOrderField = searchField(patientList.getOrdering(), "v.attr", false);
-		if (!StringUtils.contains(hql.toString(), "v.attr") && visitAttributeOrderField != null) {
-			String alias = getVisitAttributeAlias(visitAttributeOrderField);
-			hql.append(" AND ");
-			hql.append(alias + ".voided != true AND ");
-			hql.append(alias + "Type.name = ? ");
-			paramValues.add(visitAttributeOrderField.split("v\\.attr\\.")[1]);
-		}
-
 		return hql.toString();
 	}
 
@@ -463,11 +1585,7 @@ public class PatientListDataServiceImpl extends
 		if (!StringUtils.containsIgnoreCase(operator, "null")
 		        && !StringUtils.containsIgnoreCase(operator, "exists")) {
 			hql.append(" ? ");
-			if (StringUtils.equals(operator, "LIKE")) {
-				paramValues.add("%" + value + "%");
-			} else {
-				paramValues.add(value);
-			}
+			paramValues.add(ConvertPatientListOperators.convertValue(condition.getOperator(), value));
 		}
 
 		hql.append(") ");
@@ -478,11 +1596,12 @@ public class PatientListDataServiceImpl extends
 	/**
 	 * Creates hql sub-queries for patient aliases (names and addresses). Example: p.names.givenName, p.addresses.address1
 	 * @param condition
+	 * @param aliasPrefix The prefix of the names, addresses and identifiers aliases
 	 * @param paramValues
 	 * @return
 	 */
 	private String createAliasesSubQueries(PatientListCondition condition,
-	        String mappingFieldName, List<Object> paramValues) {
+	        String mappingFieldName, String aliasPrefix, List<Object> paramValues) {
 		StringBuilder hql = new StringBuilder();
 		String searchField = null;
 		String operator = ConvertPatientListOperators.convertOperator(condition.getOperator());
@@ -496,25 +1615,38 @@ public class PatientListDataServiceImpl extends
 		}
 
 		if (searchField != null) {
+			if (StringUtils.contains(mappingFieldName, "p.names.")
+			        && (condition.getOperator() == PatientListOperator.TOKEN_MATCH
+			        || condition.getOperator() == PatientListOperator.SOUNDS_LIKE)) {
+				return createNameKeyPredicate(condition, searchField, aliasPrefix, paramValues);
+			}
+
+			String candidatePredicate = null;
 			if (StringUtils.contains(mappingFieldName, "p.names.")) {
+				// the trigrams narrow the names down to the candidates, the condition itself removes the false positives
+				candidatePredicate = createNameTrigramPredicate(condition, searchField, aliasPrefix, paramValues);
+				if (candidatePredicate != null) {
+					hql.append(" (" + candidatePredicate + " and ");
+				}
+
 				if (StringUtils.contains(condition.getField(), "p.fullName")) {
-					hql.append(" (pnames.givenName ");
+					hql.append(" (" + aliasPrefix + "names.givenName ");
 					hql.append(operator);
 					if (!StringUtils.containsIgnoreCase(operator, "null")) {
 						hql.append(" ? ");
 					}
 
-					hql.append(" or pnames.familyName ");
+					hql.append(" or " + aliasPrefix + "names.familyName ");
 					hql.append(operator);
 					hql.append(" ");
 					if (!StringUtils.containsIgnoreCase(operator, "null")) {
 						hql.append(" ? ");
-						paramValues.add(value);
+						paramValues.add(ConvertPatientListOperators.convertValue(condition.getOperator(), value));
 					}
 
 					hql.append(" ) ");
 				} else {
-					hql.append("pnames.");
+					hql.append(aliasPrefix + "names.");
 					hql.append(searchField);
 					hql.append(" ");
 					hql.append(operator);
@@ -523,7 +1655,7 @@ public class PatientListDataServiceImpl extends
 					}
 				}
 			} else if (StringUtils.contains(mappingFieldName, "p.addresses.")) {
-				hql.append("paddresses.");
+				hql.append(aliasPrefix + "addresses.");
 				hql.append(searchField);
 				hql.append(" ");
 				hql.append(operator);
@@ -531,7 +1663,7 @@ public class PatientListDataServiceImpl extends
 					hql.append(" ? ");
 				}
 			} else if (StringUtils.contains(mappingFieldName, "p.identifiers.")) {
-				hql.append("pidentifiers.");
+				hql.append(aliasPrefix + "identifiers.");
 				hql.append(searchField);
 				hql.append(" ");
 				hql.append(operator);
@@ -540,10 +1672,12 @@ public class PatientListDataServiceImpl extends
 				}
 			}
 
-			if (StringUtils.equals(operator, "LIKE")) {
-				paramValues.add("%" + value + "%");
-			} else if (!StringUtils.containsIgnoreCase(operator, "null")) {
-				paramValues.add(value);
+			if (!StringUtils.containsIgnoreCase(operator, "null")) {
+				paramValues.add(ConvertPatientListOperators.convertValue(condition.getOperator(), value));
+			}
+
+			if (candidatePredicate != null) {
+				hql.append(") ");
 			}
 
 			hql.append(" ");
@@ -552,6 +1686,109 @@ public class PatientListDataServiceImpl extends
 		return hql.toString();
 	}
 
+	/**
+	 * Creates the predicate that narrows a substring (LIKE) condition on a name field down to the names that contain
+	 * every trigram of the value, which is all the names that can contain the value. The trigrams are matched by a
+	 * subquery on the name key table and bound as parameters.
+	 * @param condition
+	 * @param searchField The name property, or fullName to match the given and family names
+	 * @param aliasPrefix The prefix of the names alias
+	 * @param paramValues
+	 * @return An id predicate on the names alias or null if the trigrams cannot be used for the condition
+	 */
+	private String createNameTrigramPredicate(PatientListCondition condition, String searchField, String aliasPrefix,
+	        List<Object> paramValues) {
+		String value = condition.getValue();
+		if (condition.getOperator() != PatientListOperator.LIKE || StringUtils.containsAny(value, "%_")) {
+			// the LIKE wildcards in the value cannot be matched against the trigrams
+			return null;
+		}
+
+		// a name whose keys are missing or stale would be left out, so the condition is evaluated on its own until the
+		// keys are known to be complete
+		PatientListNameKeyIndex index = PatientListNameKeyIndex.getInstance();
+		Set<String> trigrams = PatientListNameKeyIndex.createKeys(PatientListNameKeyType.TRIGRAM, value);
+		if (trigrams.isEmpty() || !index.isComplete() || !index.isAvailable(PatientListNameKeyType.TRIGRAM)) {
+			return null;
+		}
+
+		String alias = aliasPrefix + "trigram";
+		StringBuilder hql = new StringBuilder();
+		hql.append(aliasPrefix + "names.personNameId in (select " + alias + ".personNameId from PatientListNameKey ");
+		hql.append(alias + " where " + alias + ".keyType = '" + PatientListNameKeyType.TRIGRAM.name() + "' and ");
+		if (StringUtils.contains(condition.getField(), "p.fullName")) {
+			hql.append(alias + ".field in (?, ?) and ");
+			paramValues.add("givenName");
+			paramValues.add("familyName");
+		} else {
+			hql.append(alias + ".field = ? and ");
+			paramValues.add(searchField);
+		}
+
+		hql.append(alias + ".nameKey in (" + StringUtils.repeat("?", ", ", trigrams.size()) + ") ");
+		paramValues.addAll(trigrams);
+		hql.append("group by " + alias + ".personNameId having count(distinct " + alias + ".nameKey) = ?)");
+		paramValues.add(Long.valueOf(trigrams.size()));
+
+		return hql.toString();
+	}
+
+	/**
+	 * Creates the predicate for a token or phonetic match on a name field. Each word of the value must be the start of
+	 * a word of the same name (TOKEN_MATCH) or sound like one of its words (SOUNDS_LIKE). The words are looked up in
+	 * the name key table so that the predicate is an index seek.
+	 * @param condition
+	 * @param searchField The name property, or fullName to match the given and family names
+	 * @param aliasPrefix The prefix of the names alias
+	 * @param paramValues
+	 * @return
+	 */
+	private String createNameKeyPredicate(PatientListCondition condition, String searchField, String aliasPrefix,
+	        List<Object> paramValues) {
+		boolean phonetic = condition.getOperator() == PatientListOperator.SOUNDS_LIKE;
+		PatientListNameKeyType keyType = phonetic ? PatientListNameKeyType.PHONETIC : PatientListNameKeyType.TOKEN;
+		boolean fullName = StringUtils.contains(condition.getField(), "p.fullName");
+		StringBuilder hql = new StringBuilder();
+		int index = 0;
+		for (String token : PatientListNameKeyIndex.tokenize(condition.getValue())) {
+			Set<String> keys = phonetic ? PatientListNameKeyIndex.createKeys(keyType, token) : null;
+			if (phonetic && keys.isEmpty()) {
+				// words without letters have no phonetic key
+				continue;
+			}
+
+			String alias = aliasPrefix + "token" + index++;
+			hql.append(hql.length() == 0 ? " (" : " and ");
+			hql.append("exists (select " + alias + ".id from PatientListNameKey " + alias + " where ");
+			hql.append(alias + ".personNameId = " + aliasPrefix + "names.personNameId and ");
+			hql.append(alias + ".keyType = '" + keyType.name() + "' and ");
+			if (fullName) {
+				hql.append(alias + ".field in (?, ?) and ");
+				paramValues.add("givenName");
+				paramValues.add("familyName");
+			} else {
+				hql.append(alias + ".field = ? and ");
+				paramValues.add(searchField);
+			}
+
+			if (phonetic) {
+				// the name keys include the primary and alternate codes of each word so either code of the value matches
+				hql.append(alias + ".nameKey in (" + StringUtils.repeat("?", ", ", keys.size()) + "))");
+				paramValues.addAll(keys);
+			} else {
+				hql.append(alias + ".nameKey like ?)");
+				paramValues.add(token + "%");
+			}
+		}
+
+		if (hql.length() == 0) {
+			return " 1 = 0 ";
+		}
+		hql.append(") ");
+
+		return hql.toString();
+	}
+
 	/**
 	 * Order hql query by given fields
 	 * @param ordering
@@ -612,17 +1849,13 @@ public class PatientListDataServiceImpl extends
 				hql.append(mappingFieldName);
 				hql.append(" ");
 				if (!handleSpecialFields) {
-					// flip sort order for birthdate/age
+					// flip sort order for birthdate/age, the order belongs to the shared definition so it is not changed
+					String sortOrder = order.getSortOrder();
 					if (StringUtils.equalsIgnoreCase(mappingFieldName, "p.birthdate")) {
-						String sortOrder = order.getSortOrder();
-						if (StringUtils.equalsIgnoreCase(sortOrder, "asc")) {
-							order.setSortOrder("desc");
-						} else {
-							order.setSortOrder("asc");
-						}
+						sortOrder = StringUtils.equalsIgnoreCase(sortOrder, "asc") ? "desc" : "asc";
 					}
 
-					hql.append(order.getSortOrder());
+					hql.append(sortOrder);
 				}
 
 				hql.append(",");
@@ -671,11 +1904,11 @@ public class PatientListDataServiceImpl extends
 		return null;
 	}
 
-	private String applyVisitAttributeJoins(PatientList patientList) {
+	private String applyVisitAttributeJoins(List<PatientListCondition> conditions, List<PatientListOrder> ordering) {
 		StringBuilder hql = new StringBuilder();
 		List<String> visitAttributeJoins = new ArrayList<String>();
-		hql.append(applyVisitAttributeJoins(patientList.getPatientListConditions(), visitAttributeJoins));
-		hql.append(applyVisitAttributeJoins(patientList.getOrdering(), visitAttributeJoins));
+		hql.append(applyVisitAttributeJoins(conditions, visitAttributeJoins));
+		hql.append(applyVisitAttributeJoins(ordering, visitAttributeJoins));
 
 		return hql.toString();
 	}
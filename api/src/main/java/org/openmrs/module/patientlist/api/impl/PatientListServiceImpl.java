@@ -15,15 +15,20 @@ package org.openmrs.module.patientlist.api.impl;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.commons.lang.StringUtils;
 import org.hibernate.Criteria;
+import org.hibernate.Query;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.openhmis.commons.api.PagingInfo;
 import org.openmrs.module.openhmis.commons.api.entity.impl.BaseMetadataDataServiceImpl;
 import org.openmrs.module.openhmis.commons.api.entity.security.IMetadataAuthorizationPrivileges;
 import org.openmrs.module.patientlist.api.IPatientListService;
 import org.openmrs.module.patientlist.api.model.PatientList;
 import org.openmrs.module.patientlist.api.security.BasicMetadataAuthorizationPrivileges;
+import org.openmrs.module.patientlist.api.util.PatientListConditionTree;
 
 import java.util.List;
 
@@ -41,11 +46,31 @@ public class PatientListServiceImpl extends BaseMetadataDataServiceImpl<PatientL
 
 	@Override
 	protected void validate(PatientList object) {
-		return;
+		try {
+			PatientListConditionTree.validate(object);
+		} catch (IllegalArgumentException ex) {
+			throw new APIException(ex.getMessage(), ex);
+		}
 	}
 
 	@Override
 	protected Order[] getDefaultSort() {
 		return new Order[] { Order.asc("id") };
 	}
+
+	@Override
+	public List<PatientList> getAllDefinitions(boolean includeRetired) {
+		String privilege = getPrivileges().getGetPrivilege();
+		if (StringUtils.isNotEmpty(privilege)) {
+			Context.requirePrivilege(privilege);
+		}
+
+		// the list collections are mapped with subselect fetching, so each collection type is loaded for all the
+		// returned lists in a single query
+		Query query = getRepository().createQuery("select l from PatientList l"
+		        + (includeRetired ? "" : " where l.retired = false") + " order by l.id");
+		query.setCacheable(true);
+
+		return query.list();
+	}
 }
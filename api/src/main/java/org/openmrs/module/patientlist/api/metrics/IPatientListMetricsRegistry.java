@@ -0,0 +1,61 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.metrics;
+
+import java.util.List;
+
+/**
+ * Represents classes that record the stage latencies and SQL statement counts of patient list evaluations. The
+ * registry used by the module can be replaced through
+ * {@link PatientListMetrics#setRegistry(IPatientListMetricsRegistry)}, for example to forward the timings to an
+ * external metrics system.
+ */
+public interface IPatientListMetricsRegistry {
+
+	/**
+	 * Records the time spent in a stage of a patient list evaluation. This is called on the evaluating thread so
+	 * implementations must be thread safe and should return quickly.
+	 * @param patientListUuid The patient list uuid
+	 * @param stage The evaluation stage
+	 * @param durationNanos The time spent in the stage, in nanoseconds
+	 */
+	void record(String patientListUuid, PatientListStage stage, long durationNanos);
+
+	/**
+	 * Records the number of SQL statements issued by a patient list evaluation. This is called on the evaluating
+	 * thread so implementations must be thread safe and should return quickly.
+	 * @param patientListUuid The patient list uuid
+	 * @param statements The number of statements
+	 */
+	void recordStatements(String patientListUuid, long statements);
+
+	/**
+	 * Gets the recorded latency histograms.
+	 * @param patientListUuid The patient list uuid or null to get the histograms of all lists
+	 * @return The histograms
+	 */
+	List<PatientListLatencyHistogram> getHistograms(String patientListUuid);
+
+	/**
+	 * Gets the recorded SQL statement counts.
+	 * @param patientListUuid The patient list uuid or null to get the counts of all lists
+	 * @return The statement counts
+	 */
+	List<PatientListStatementCount> getStatementCounts(String patientListUuid);
+
+	/**
+	 * Removes all recorded latencies and statement counts.
+	 */
+	void clear();
+}
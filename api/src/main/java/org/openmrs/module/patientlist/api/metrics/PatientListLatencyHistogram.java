@@ -0,0 +1,122 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram for one stage of one patient list, with fixed millisecond buckets. Percentiles are
+ * estimated as the upper bound of the bucket that contains them.
+ */
+public class PatientListLatencyHistogram {
+	/**
+	 * The inclusive upper bounds of the buckets, in milliseconds. Longer latencies are counted in an overflow bucket.
+	 */
+	public static final long[] BUCKET_BOUNDS_MILLIS = {
+	        1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+
+	private final String patientListUuid;
+	private final PatientListStage stage;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public PatientListLatencyHistogram(String patientListUuid, PatientListStage stage) {
+		this.patientListUuid = patientListUuid;
+		this.stage = stage;
+	}
+
+	public void record(long durationNanos) {
+		long nanos = Math.max(0, durationNanos);
+		long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+
+		int bucket = 0;
+		while (bucket < BUCKET_BOUNDS_MILLIS.length && millis > BUCKET_BOUNDS_MILLIS[bucket]) {
+			bucket++;
+		}
+
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	public String getPatientListUuid() {
+		return patientListUuid;
+	}
+
+	public PatientListStage getStage() {
+		return stage;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public double getMeanMillis() {
+		long currentCount = count.get();
+
+		return currentCount == 0 ? 0 : totalNanos.get() / (double)TimeUnit.MILLISECONDS.toNanos(1) / currentCount;
+	}
+
+	public long getMaxMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+	}
+
+	/**
+	 * Estimates a latency percentile.
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The upper bound of the bucket containing the percentile, in milliseconds, or 0 if nothing was recorded
+	 */
+	public long getPercentileMillis(double percentile) {
+		long[] counts = getBucketCounts();
+		long total = 0;
+		for (long bucketCount : counts) {
+			total += bucketCount;
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long)Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(BUCKET_BOUNDS_MILLIS[i], Math.max(1, getMaxMillis()));
+			}
+		}
+
+		return getMaxMillis();
+	}
+
+	/**
+	 * Gets the number of recorded latencies in each bucket. The last element is the overflow bucket.
+	 */
+	public long[] getBucketCounts() {
+		long[] counts = new long[buckets.length()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+		}
+
+		return counts;
+	}
+}
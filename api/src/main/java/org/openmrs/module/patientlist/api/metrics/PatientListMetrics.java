@@ -0,0 +1,127 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Holds the metrics registry used to record patient list stage latencies and statement counts and exposes them over
+ * JMX as {@value #OBJECT_NAME}.
+ */
+public class PatientListMetrics implements PatientListMetricsMBean {
+	public static final String OBJECT_NAME = "org.openmrs.module.patientlist:type=PatientListMetrics";
+
+	private static final Log LOG = LogFactory.getLog(PatientListMetrics.class);
+
+	private static volatile IPatientListMetricsRegistry registry = new PatientListMetricsRegistry();
+
+	private PatientListMetrics() {}
+
+	public static PatientListMetrics getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	public static IPatientListMetricsRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Replaces the registry that patient list stage latencies are recorded in.
+	 * @param newRegistry The registry or null to restore the default in-memory registry
+	 */
+	public static void setRegistry(IPatientListMetricsRegistry newRegistry) {
+		registry = newRegistry == null ? new PatientListMetricsRegistry() : newRegistry;
+	}
+
+	/**
+	 * Registers the metrics MBean with the platform MBean server, if it is not registered yet.
+	 */
+	public static void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(getInstance(), name);
+			}
+		} catch (Exception ex) {
+			LOG.warn("Could not register the patient list metrics MBean", ex);
+		}
+	}
+
+	public static void unregisterMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (Exception ex) {
+			LOG.warn("Could not unregister the patient list metrics MBean", ex);
+		}
+	}
+
+	@Override
+	public String[] getHistograms() {
+		List<String> results = new ArrayList<String>();
+		for (PatientListLatencyHistogram histogram : registry.getHistograms(null)) {
+			results.add(String.format(Locale.ROOT, "%s %s count=%d mean=%.1fms p50=%dms p95=%dms p99=%dms max=%dms",
+			    histogram.getPatientListUuid(), histogram.getStage().getKey(), histogram.getCount(),
+			    histogram.getMeanMillis(), histogram.getPercentileMillis(50), histogram.getPercentileMillis(95),
+			    histogram.getPercentileMillis(99), histogram.getMaxMillis()));
+		}
+
+		return results.toArray(new String[results.size()]);
+	}
+
+	@Override
+	public String[] getStatementCounts() {
+		List<String> results = new ArrayList<String>();
+		for (PatientListStatementCount statementCount : registry.getStatementCounts(null)) {
+			results.add(String.format(Locale.ROOT, "%s evaluations=%d mean=%.1f max=%d last=%d",
+			    statementCount.getPatientListUuid(), statementCount.getEvaluations(),
+			    statementCount.getMeanStatements(), statementCount.getMaxStatements(),
+			    statementCount.getLastStatements()));
+		}
+
+		return results.toArray(new String[results.size()]);
+	}
+
+	@Override
+	public long getPercentileMillis(String patientListUuid, String stage, double percentile) {
+		for (PatientListLatencyHistogram histogram : registry.getHistograms(patientListUuid)) {
+			if (histogram.getStage().getKey().equalsIgnoreCase(stage)) {
+				return histogram.getPercentileMillis(percentile);
+			}
+		}
+
+		return 0;
+	}
+
+	@Override
+	public void reset() {
+		registry.clear();
+	}
+
+	private static class Holder {
+		private static final PatientListMetrics INSTANCE = new PatientListMetrics();
+	}
+}
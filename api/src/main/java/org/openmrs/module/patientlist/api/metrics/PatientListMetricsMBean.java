@@ -0,0 +1,44 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.metrics;
+
+/**
+ * JMX interface of the patient list stage latency metrics.
+ */
+public interface PatientListMetricsMBean {
+
+	/**
+	 * Gets a one line summary of each recorded histogram.
+	 */
+	String[] getHistograms();
+
+	/**
+	 * Gets a one line summary of the SQL statements issued by the evaluations of each list.
+	 */
+	String[] getStatementCounts();
+
+	/**
+	 * Estimates a latency percentile of one stage of a list.
+	 * @param patientListUuid The patient list uuid, or * for all lists
+	 * @param stage The stage name, for example fetch
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The percentile in milliseconds or 0 if nothing was recorded
+	 */
+	long getPercentileMillis(String patientListUuid, String stage, double percentile);
+
+	/**
+	 * Removes all recorded latencies and statement counts.
+	 */
+	void reset();
+}
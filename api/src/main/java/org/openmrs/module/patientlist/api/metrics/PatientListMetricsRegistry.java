@@ -0,0 +1,121 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.metrics;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The default {@link IPatientListMetricsRegistry}, which keeps the histograms and statement counts in memory on this
+ * node. Each value is recorded for its list and for the {@link #ALL_LISTS} aggregate. The number of tracked lists is
+ * bounded; values of lists beyond the bound are only counted in the aggregate.
+ */
+public class PatientListMetricsRegistry implements IPatientListMetricsRegistry {
+	public static final String ALL_LISTS = "*";
+
+	private static final int MAX_LISTS = 1000;
+
+	private final ConcurrentMap<String, PatientListLatencyHistogram[]> histograms =
+	        new ConcurrentHashMap<String, PatientListLatencyHistogram[]>();
+	private final ConcurrentMap<String, PatientListStatementCount> statementCounts =
+	        new ConcurrentHashMap<String, PatientListStatementCount>();
+
+	@Override
+	public void record(String patientListUuid, PatientListStage stage, long durationNanos) {
+		getHistogram(ALL_LISTS, stage).record(durationNanos);
+
+		if (patientListUuid != null && (histograms.containsKey(patientListUuid) || histograms.size() <= MAX_LISTS)) {
+			getHistogram(patientListUuid, stage).record(durationNanos);
+		}
+	}
+
+	@Override
+	public void recordStatements(String patientListUuid, long statements) {
+		getStatementCount(ALL_LISTS).record(statements);
+
+		if (patientListUuid != null
+		        && (statementCounts.containsKey(patientListUuid) || statementCounts.size() <= MAX_LISTS)) {
+			getStatementCount(patientListUuid).record(statements);
+		}
+	}
+
+	@Override
+	public List<PatientListLatencyHistogram> getHistograms(String patientListUuid) {
+		List<PatientListLatencyHistogram> results = new ArrayList<PatientListLatencyHistogram>();
+		for (PatientListLatencyHistogram[] listHistograms : histograms.values()) {
+			for (PatientListLatencyHistogram histogram : listHistograms) {
+				if (histogram.getCount() > 0
+				        && (patientListUuid == null || StringUtils.equals(patientListUuid, histogram.getPatientListUuid()))) {
+					results.add(histogram);
+				}
+			}
+		}
+
+		return results;
+	}
+
+	@Override
+	public List<PatientListStatementCount> getStatementCounts(String patientListUuid) {
+		List<PatientListStatementCount> results = new ArrayList<PatientListStatementCount>();
+		for (PatientListStatementCount statementCount : statementCounts.values()) {
+			if (patientListUuid == null || StringUtils.equals(patientListUuid, statementCount.getPatientListUuid())) {
+				results.add(statementCount);
+			}
+		}
+
+		return results;
+	}
+
+	@Override
+	public void clear() {
+		histograms.clear();
+		statementCounts.clear();
+	}
+
+	private PatientListStatementCount getStatementCount(String patientListUuid) {
+		PatientListStatementCount statementCount = statementCounts.get(patientListUuid);
+		if (statementCount == null) {
+			statementCount = new PatientListStatementCount(patientListUuid);
+
+			PatientListStatementCount existing = statementCounts.putIfAbsent(patientListUuid, statementCount);
+			if (existing != null) {
+				statementCount = existing;
+			}
+		}
+
+		return statementCount;
+	}
+
+	private PatientListLatencyHistogram getHistogram(String patientListUuid, PatientListStage stage) {
+		PatientListLatencyHistogram[] listHistograms = histograms.get(patientListUuid);
+		if (listHistograms == null) {
+			PatientListStage[] stages = PatientListStage.values();
+			listHistograms = new PatientListLatencyHistogram[stages.length];
+			for (PatientListStage listStage : stages) {
+				listHistograms[listStage.ordinal()] = new PatientListLatencyHistogram(patientListUuid, listStage);
+			}
+
+			PatientListLatencyHistogram[] existing = histograms.putIfAbsent(patientListUuid, listHistograms);
+			if (existing != null) {
+				listHistograms = existing;
+			}
+		}
+
+		return listHistograms[stage.ordinal()];
+	}
+}
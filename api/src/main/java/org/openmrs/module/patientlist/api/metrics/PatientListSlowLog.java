@@ -0,0 +1,285 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.metrics;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.openhmis.commons.api.PagingInfo;
+import org.openmrs.module.patientlist.ModuleSettings;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.util.PatientListQueryPlan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the most recent patient list evaluations on this node that took longer than the configured threshold, with
+ * the queries they ran, the bound parameters (redacted as configured), the row counts, the stage timings and the
+ * requesting user.
+ */
+public class PatientListSlowLog {
+	private static final Log LOG = LogFactory.getLog(PatientListSlowLog.class);
+	private static final int MAX_QUERY_LENGTH = 20000;
+	private static final int HASH_LENGTH = 12;
+	private static final double NANOSECONDS_PER_MILLISECOND = 1000000d;
+
+	private final Deque<Entry> entries = new LinkedList<Entry>();
+
+	private PatientListSlowLog() {}
+
+	public static PatientListSlowLog getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Records a stopped evaluation if it took longer than the slow list threshold.
+	 * @param patientList The evaluated patient list
+	 * @param timer The stopped evaluation timer
+	 * @param pagingInfo The requested page or null if the evaluation was not paged
+	 * @param totalRecordCount The number of rows in the list, if known
+	 * @param rowCount The number of rows returned, if any
+	 */
+	public void record(PatientList patientList, PatientListStageTimer timer, PagingInfo pagingInfo,
+	        Long totalRecordCount, Integer rowCount) {
+		long thresholdMillis = ModuleSettings.getSlowListThresholdMillis();
+		if (patientList == null || timer == null || thresholdMillis <= 0
+		        || timer.getTotalNanos() < TimeUnit.MILLISECONDS.toNanos(thresholdMillis)) {
+			return;
+		}
+
+		Redaction redaction = getRedaction();
+		Entry entry = new Entry();
+		entry.date = new Date();
+		entry.patientListUuid = patientList.getUuid();
+		entry.patientListName = patientList.getName();
+		entry.durationMillis = timer.getTotalNanos() / NANOSECONDS_PER_MILLISECOND;
+		for (PatientListStage stage : PatientListStage.values()) {
+			entry.stageMillis.put(stage.getKey(), timer.getStageNanos(stage) / NANOSECONDS_PER_MILLISECOND);
+		}
+		entry.totalRecordCount = totalRecordCount;
+		entry.rowCount = rowCount;
+		if (pagingInfo != null) {
+			entry.page = pagingInfo.getPage();
+			entry.pageSize = pagingInfo.getPageSize();
+		}
+
+		User user = Context.getAuthenticatedUser();
+		if (user != null) {
+			entry.userUuid = user.getUuid();
+			entry.username = StringUtils.defaultIfEmpty(user.getUsername(), user.getSystemId());
+		}
+
+		for (PatientListStageTimer.CapturedQuery query : timer.getQueries()) {
+			List<String> parameters = new ArrayList<String>();
+			for (Object parameter : query.getParameters()) {
+				parameters.add(redact(parameter, redaction));
+			}
+
+			entry.queries.add(new Query(StringUtils.abbreviate(query.getHql(), MAX_QUERY_LENGTH),
+			        StringUtils.abbreviate(PatientListQueryPlan.translateToSql(query.getHql()), MAX_QUERY_LENGTH), parameters));
+		}
+
+		int maxEntries = ModuleSettings.getSlowListMaxEntries();
+		synchronized (entries) {
+			entries.addFirst(entry);
+			while (entries.size() > maxEntries) {
+				entries.removeLast();
+			}
+		}
+
+		LOG.warn("Patient list '" + entry.patientListUuid + "' took " + Math.round(entry.durationMillis) + " ms");
+	}
+
+	/**
+	 * Gets the logged slow evaluations, most recent first.
+	 * @param patientListUuid The patient list uuid or null to get the evaluations of all lists
+	 * @return The slow evaluations
+	 */
+	public List<Entry> getEntries(String patientListUuid) {
+		List<Entry> results = new ArrayList<Entry>();
+		synchronized (entries) {
+			for (Entry entry : entries) {
+				if (patientListUuid == null || patientListUuid.equals(entry.getPatientListUuid())) {
+					results.add(entry);
+				}
+			}
+		}
+
+		return results;
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Formats a bound parameter value for the log.
+	 * @param parameter The parameter value
+	 * @param redaction The redaction to apply
+	 * @return The logged value
+	 */
+	public static String redact(Object parameter, Redaction redaction) {
+		if (parameter == null) {
+			return "null";
+		}
+
+		String type = parameter.getClass().getSimpleName();
+		switch (redaction) {
+			case NONE:
+				return type + ":" + String.valueOf(parameter);
+			case HASH:
+				return type + ":" + DigestUtils.sha256Hex(String.valueOf(parameter)).substring(0, HASH_LENGTH);
+			default:
+				return type + ":***";
+		}
+	}
+
+	private static Redaction getRedaction() {
+		try {
+			return Redaction.valueOf(StringUtils.upperCase(ModuleSettings.getSlowListParameterRedaction()));
+		} catch (IllegalArgumentException ex) {
+			return Redaction.MASK;
+		}
+	}
+
+	/**
+	 * How bound parameter values are written to the slow list log. Parameter values are list condition values and can
+	 * identify patients.
+	 */
+	public enum Redaction {
+		/**
+		 * Logs the parameter values as they are.
+		 */
+		NONE,
+		/**
+		 * Logs only the parameter types.
+		 */
+		MASK,
+		/**
+		 * Logs the parameter types and a truncated SHA-256 hash of the values, so that requests with the same values can
+		 * be matched without revealing them.
+		 */
+		HASH
+	}
+
+	/**
+	 * A logged slow evaluation.
+	 */
+	public static class Entry {
+		private Date date;
+		private String patientListUuid;
+		private String patientListName;
+		private String userUuid;
+		private String username;
+		private double durationMillis;
+		private final Map<String, Double> stageMillis = new LinkedHashMap<String, Double>();
+		private Long totalRecordCount;
+		private Integer rowCount;
+		private Integer page;
+		private Integer pageSize;
+		private final List<Query> queries = new ArrayList<Query>();
+
+		public Date getDate() {
+			return date;
+		}
+
+		public String getPatientListUuid() {
+			return patientListUuid;
+		}
+
+		public String getPatientListName() {
+			return patientListName;
+		}
+
+		public String getUserUuid() {
+			return userUuid;
+		}
+
+		public String getUsername() {
+			return username;
+		}
+
+		public double getDurationMillis() {
+			return durationMillis;
+		}
+
+		public Map<String, Double> getStageMillis() {
+			return Collections.unmodifiableMap(stageMillis);
+		}
+
+		public Long getTotalRecordCount() {
+			return totalRecordCount;
+		}
+
+		public Integer getRowCount() {
+			return rowCount;
+		}
+
+		public Integer getPage() {
+			return page;
+		}
+
+		public Integer getPageSize() {
+			return pageSize;
+		}
+
+		public List<Query> getQueries() {
+			return Collections.unmodifiableList(queries);
+		}
+	}
+
+	/**
+	 * A query run by a logged slow evaluation.
+	 */
+	public static class Query {
+		private final String hql;
+		private final String sql;
+		private final List<String> parameters;
+
+		Query(String hql, String sql, List<String> parameters) {
+			this.hql = hql;
+			this.sql = sql;
+			this.parameters = Collections.unmodifiableList(parameters);
+		}
+
+		public String getHql() {
+			return hql;
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		public List<String> getParameters() {
+			return parameters;
+		}
+	}
+
+	private static class Holder {
+		private static final PatientListSlowLog INSTANCE = new PatientListSlowLog();
+	}
+}
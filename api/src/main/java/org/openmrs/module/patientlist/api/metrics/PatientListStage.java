@@ -0,0 +1,47 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.metrics;
+
+/**
+ * The stages of a patient list evaluation that are timed separately.
+ */
+public enum PatientListStage {
+	/**
+	 * Building and parsing the list HQL.
+	 */
+	COMPILE,
+	/**
+	 * Counting the list rows, either with the count query or from the condition index.
+	 */
+	COUNT,
+	/**
+	 * Running the page query.
+	 */
+	FETCH,
+	/**
+	 * Creating the list data for each row, including loading the row patient and visit.
+	 */
+	HYDRATE,
+	/**
+	 * Applying the header and body templates, including any data the templates load lazily.
+	 */
+	RENDER;
+
+	/**
+	 * Gets the short name used for the stage in timing headers and reports.
+	 */
+	public String getKey() {
+		return name().toLowerCase();
+	}
+}
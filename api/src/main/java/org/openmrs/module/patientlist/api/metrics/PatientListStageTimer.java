@@ -0,0 +1,228 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Times the stages of a patient list evaluation on the evaluating thread. The evaluation starts a timer, the stages
+ * add their elapsed time with {@link #end(PatientListStage, long)} and stopping the timer records the stage totals in
+ * the metrics registry. A request that reports the timings asks for them with {@link #keepLast()} before evaluating;
+ * the last outermost timer stopped on the thread is then kept until {@link #takeLast()}.
+ * The SQL statements prepared on the thread while the timer runs are counted through {@link #countStatement()}, which
+ * is called by the module's Hibernate interceptor. The timer also keeps the queries run by the evaluation so that slow
+ * evaluations can be logged.
+ */
+public class PatientListStageTimer {
+	private static final Log LOG = LogFactory.getLog(PatientListStageTimer.class);
+	private static final ThreadLocal<PatientListStageTimer> CURRENT = new ThreadLocal<PatientListStageTimer>();
+	private static final ThreadLocal<PatientListStageTimer> LAST = new ThreadLocal<PatientListStageTimer>();
+	private static final ThreadLocal<Boolean> KEEP_LAST = new ThreadLocal<Boolean>();
+	private static final double NANOSECONDS_PER_MILLISECOND = 1000000d;
+	private static final int MAX_CAPTURED_QUERIES = 5;
+
+	private final String patientListUuid;
+	private final PatientListStageTimer previous;
+	private final long start = System.nanoTime();
+	private final long[] stageNanos = new long[PatientListStage.values().length];
+	private final List<CapturedQuery> queries = new ArrayList<CapturedQuery>();
+	private long totalNanos;
+	private long statementCount;
+
+	private PatientListStageTimer(String patientListUuid, PatientListStageTimer previous) {
+		this.patientListUuid = patientListUuid;
+		this.previous = previous;
+	}
+
+	/**
+	 * Starts timing an evaluation of the given list on the current thread.
+	 * @param patientListUuid The patient list uuid, may be null for unsaved lists
+	 * @return The timer, which must be stopped by the caller
+	 */
+	public static PatientListStageTimer start(String patientListUuid) {
+		PatientListStageTimer timer = new PatientListStageTimer(patientListUuid, CURRENT.get());
+		CURRENT.set(timer);
+
+		return timer;
+	}
+
+	/**
+	 * Gets the start time of a stage, to be passed to {@link #end(PatientListStage, long)}.
+	 */
+	public static long begin() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Adds the time since the given stage start to the timer of the current thread, if there is one.
+	 * @param stage The stage
+	 * @param stageStart The stage start returned by {@link #begin()}
+	 */
+	public static void end(PatientListStage stage, long stageStart) {
+		PatientListStageTimer timer = CURRENT.get();
+		if (timer != null) {
+			timer.stageNanos[stage.ordinal()] += System.nanoTime() - stageStart;
+		}
+	}
+
+	/**
+	 * Counts a SQL statement prepared on the current thread, if an evaluation is being timed.
+	 */
+	public static void countStatement() {
+		PatientListStageTimer timer = CURRENT.get();
+		if (timer != null) {
+			timer.statementCount++;
+		}
+	}
+
+	/**
+	 * Keeps a query run by the evaluation on the current thread, if it is being timed.
+	 * @param hql The query HQL
+	 * @param parameters The positional parameter values
+	 */
+	public static void captureQuery(String hql, List<Object> parameters) {
+		PatientListStageTimer timer = CURRENT.get();
+		if (timer != null && timer.queries.size() < MAX_CAPTURED_QUERIES) {
+			timer.queries.add(new CapturedQuery(hql, parameters));
+		}
+	}
+
+	/**
+	 * Keeps the timers stopped on the current thread from now on until {@link #takeLast()} is called. Timers are not
+	 * kept otherwise, so that pool threads do not hold on to the queries and parameters of their last evaluation.
+	 */
+	public static void keepLast() {
+		LAST.remove();
+		KEEP_LAST.set(Boolean.TRUE);
+	}
+
+	/**
+	 * Gets and removes the last outermost timer stopped on the current thread since {@link #keepLast()}, and stops
+	 * keeping timers.
+	 * @return The timer or null if no evaluation was timed
+	 */
+	public static PatientListStageTimer takeLast() {
+		PatientListStageTimer timer = LAST.get();
+		LAST.remove();
+		KEEP_LAST.remove();
+
+		return timer;
+	}
+
+	/**
+	 * Stops the timer and records the time spent in each stage and the statement count in the metrics registry.
+	 */
+	public void stop() {
+		totalNanos = System.nanoTime() - start;
+		if (previous == null) {
+			CURRENT.remove();
+			if (KEEP_LAST.get() != null) {
+				LAST.set(this);
+			}
+		} else {
+			// the statements of a nested evaluation are also issued by the enclosing one, which is the one reported
+			previous.statementCount += statementCount;
+			CURRENT.set(previous);
+		}
+
+		IPatientListMetricsRegistry registry = PatientListMetrics.getRegistry();
+		try {
+			for (PatientListStage stage : PatientListStage.values()) {
+				if (stageNanos[stage.ordinal()] > 0) {
+					registry.record(patientListUuid, stage, stageNanos[stage.ordinal()]);
+				}
+			}
+			registry.recordStatements(patientListUuid, statementCount);
+		} catch (Exception ex) {
+			LOG.warn("Error recording the patient list stage timings", ex);
+		}
+	}
+
+	public String getPatientListUuid() {
+		return patientListUuid;
+	}
+
+	public long getStageNanos(PatientListStage stage) {
+		return stageNanos[stage.ordinal()];
+	}
+
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * Gets the number of SQL statements prepared while the timer was running.
+	 */
+	public long getStatementCount() {
+		return statementCount;
+	}
+
+	public List<CapturedQuery> getQueries() {
+		return Collections.unmodifiableList(queries);
+	}
+
+	/**
+	 * Formats the stage timings and statement count as a Server-Timing header value, for example
+	 * {@code compile;dur=1.2, count;dur=8.0, fetch;dur=20.4, hydrate;dur=0.3, render;dur=4.1, total;dur=34.6,
+	 * sql;desc=3}.
+	 */
+	public String toServerTiming() {
+		StringBuilder result = new StringBuilder();
+		for (PatientListStage stage : PatientListStage.values()) {
+			appendTiming(result, stage.getKey(), stageNanos[stage.ordinal()]);
+		}
+		appendTiming(result, "total", totalNanos);
+		result.append(", sql;desc=");
+		result.append(statementCount);
+
+		return result.toString();
+	}
+
+	private static void appendTiming(StringBuilder result, String name, long nanos) {
+		if (result.length() > 0) {
+			result.append(", ");
+		}
+		result.append(name);
+		result.append(";dur=");
+		result.append(String.format(Locale.ROOT, "%.1f", nanos / NANOSECONDS_PER_MILLISECOND));
+	}
+
+	/**
+	 * A query run by a timed evaluation.
+	 */
+	public static class CapturedQuery {
+		private final String hql;
+		private final List<Object> parameters;
+
+		CapturedQuery(String hql, List<Object> parameters) {
+			this.hql = hql;
+			this.parameters = parameters == null ? Collections.emptyList()
+			        : Collections.unmodifiableList(new ArrayList<Object>(parameters));
+		}
+
+		public String getHql() {
+			return hql;
+		}
+
+		public List<Object> getParameters() {
+			return parameters;
+		}
+	}
+}
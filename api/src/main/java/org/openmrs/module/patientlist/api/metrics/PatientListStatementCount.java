@@ -0,0 +1,66 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free counts of the SQL statements issued by the evaluations of one patient list.
+ */
+public class PatientListStatementCount {
+	private final String patientListUuid;
+	private final AtomicLong evaluations = new AtomicLong();
+	private final AtomicLong totalStatements = new AtomicLong();
+	private final AtomicLong maxStatements = new AtomicLong();
+	private final AtomicLong lastStatements = new AtomicLong();
+
+	public PatientListStatementCount(String patientListUuid) {
+		this.patientListUuid = patientListUuid;
+	}
+
+	public void record(long statements) {
+		long count = Math.max(0, statements);
+
+		evaluations.incrementAndGet();
+		totalStatements.addAndGet(count);
+		lastStatements.set(count);
+
+		long max = maxStatements.get();
+		while (count > max && !maxStatements.compareAndSet(max, count)) {
+			max = maxStatements.get();
+		}
+	}
+
+	public String getPatientListUuid() {
+		return patientListUuid;
+	}
+
+	public long getEvaluations() {
+		return evaluations.get();
+	}
+
+	public double getMeanStatements() {
+		long currentEvaluations = evaluations.get();
+
+		return currentEvaluations == 0 ? 0 : totalStatements.get() / (double)currentEvaluations;
+	}
+
+	public long getMaxStatements() {
+		return maxStatements.get();
+	}
+
+	public long getLastStatements() {
+		return lastStatements.get();
+	}
+}
@@ -26,8 +26,10 @@ public class PatientList extends BaseSerializableOpenmrsMetadata {
 	private Integer patientListId;
 	private List<PatientListCondition> patientListConditions;
 	private List<PatientListOrder> ordering;
+	private List<PatientListConditionGroup> conditionGroups;
 	private String headerTemplate;
 	private String bodyTemplate;
+	private Integer queryTimeoutSeconds;
 
 	@Override
 	public Integer getId() {
@@ -84,6 +86,46 @@ public class PatientList extends BaseSerializableOpenmrsMetadata {
 		this.ordering.add(sortOrder);
 	}
 
+	public List<PatientListConditionGroup> getConditionGroups() {
+		return conditionGroups;
+	}
+
+	public void setConditionGroups(List<PatientListConditionGroup> conditionGroups) {
+		this.conditionGroups = conditionGroups;
+	}
+
+	public void addConditionGroup(PatientListConditionGroup conditionGroup) {
+		if (conditionGroup == null) {
+			throw new NullPointerException("The condition group to add must be defined.");
+		}
+
+		if (this.conditionGroups == null) {
+			this.conditionGroups = new ArrayList<PatientListConditionGroup>();
+		}
+
+		conditionGroup.setPatientList(this);
+
+		this.conditionGroups.add(conditionGroup);
+	}
+
+	/**
+	 * Returns whether the conditions of this list are combined using explicit condition groups rather than the
+	 * implicit condition logic.
+	 */
+	public boolean hasConditionGroups() {
+		if (conditionGroups == null) {
+			return false;
+		}
+
+		for (PatientListConditionGroup group : conditionGroups) {
+			if (group != null) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
 	public String getHeaderTemplate() {
 		return headerTemplate;
 	}
@@ -99,4 +141,15 @@ public class PatientList extends BaseSerializableOpenmrsMetadata {
 	public void setBodyTemplate(String bodyTemplate) {
 		this.bodyTemplate = bodyTemplate;
 	}
+
+	/**
+	 * The statement timeout for the queries of this list, or null to use the global patient list query timeout.
+	 */
+	public Integer getQueryTimeoutSeconds() {
+		return queryTimeoutSeconds;
+	}
+
+	public void setQueryTimeoutSeconds(Integer queryTimeoutSeconds) {
+		this.queryTimeoutSeconds = queryTimeoutSeconds;
+	}
 }
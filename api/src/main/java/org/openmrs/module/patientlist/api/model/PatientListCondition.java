@@ -26,6 +26,7 @@ public class PatientListCondition extends BaseSerializableOpenmrsMetadata implem
 	private String value;
 	private Integer conditionOrder;
 	private PatientListOperator operator;
+	private PatientListConditionGroup conditionGroup;
 
 	@Override
 	public Integer getId() {
@@ -80,4 +81,12 @@ public class PatientListCondition extends BaseSerializableOpenmrsMetadata implem
 	public void setOperator(PatientListOperator operator) {
 		this.operator = operator;
 	}
+
+	public PatientListConditionGroup getConditionGroup() {
+		return conditionGroup;
+	}
+
+	public void setConditionGroup(PatientListConditionGroup conditionGroup) {
+		this.conditionGroup = conditionGroup;
+	}
 }
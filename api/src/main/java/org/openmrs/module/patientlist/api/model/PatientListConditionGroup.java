@@ -0,0 +1,70 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.model;
+
+import org.openmrs.module.openhmis.commons.api.entity.model.BaseSerializableOpenmrsMetadata;
+
+/**
+ * Model class that represents a group of list conditions (and nested groups) combined with a boolean operator.
+ */
+public class PatientListConditionGroup extends BaseSerializableOpenmrsMetadata {
+
+	private Integer patientListConditionGroupId;
+	private PatientList patientList;
+	private PatientListConditionGroup parentGroup;
+	private PatientListConditionGroupOperator operator;
+	private Integer groupOrder;
+
+	@Override
+	public Integer getId() {
+		return this.patientListConditionGroupId;
+	}
+
+	@Override
+	public void setId(Integer id) {
+		this.patientListConditionGroupId = id;
+	}
+
+	public PatientList getPatientList() {
+		return patientList;
+	}
+
+	public void setPatientList(PatientList patientList) {
+		this.patientList = patientList;
+	}
+
+	public PatientListConditionGroup getParentGroup() {
+		return parentGroup;
+	}
+
+	public void setParentGroup(PatientListConditionGroup parentGroup) {
+		this.parentGroup = parentGroup;
+	}
+
+	public PatientListConditionGroupOperator getOperator() {
+		return operator;
+	}
+
+	public void setOperator(PatientListConditionGroupOperator operator) {
+		this.operator = operator;
+	}
+
+	public Integer getGroupOrder() {
+		return groupOrder;
+	}
+
+	public void setGroupOrder(Integer groupOrder) {
+		this.groupOrder = groupOrder;
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.model;
+
+import java.util.List;
+
+/**
+ * Model class that represents the requested page and total row count of a patient list evaluated as part of a batch.
+ */
+public class PatientListDataBatchResult {
+
+	private PatientList patientList;
+	private List<PatientListData> patientListData;
+	private Long totalRecordCount;
+
+	public PatientListDataBatchResult() {}
+
+	public PatientListDataBatchResult(PatientList patientList, List<PatientListData> patientListData,
+	    Long totalRecordCount) {
+		this.patientList = patientList;
+		this.patientListData = patientListData;
+		this.totalRecordCount = totalRecordCount;
+	}
+
+	public PatientList getPatientList() {
+		return patientList;
+	}
+
+	public void setPatientList(PatientList patientList) {
+		this.patientList = patientList;
+	}
+
+	public List<PatientListData> getPatientListData() {
+		return patientListData;
+	}
+
+	public void setPatientListData(List<PatientListData> patientListData) {
+		this.patientListData = patientListData;
+	}
+
+	public Long getTotalRecordCount() {
+		return totalRecordCount;
+	}
+
+	public void setTotalRecordCount(Long totalRecordCount) {
+		this.totalRecordCount = totalRecordCount;
+	}
+}
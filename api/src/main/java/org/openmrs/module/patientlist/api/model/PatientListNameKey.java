@@ -0,0 +1,79 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.model;
+
+/**
+ * Model class that represents a search key of a person name field. The keys are maintained by the module so that name
+ * conditions can be evaluated with an indexed lookup instead of a scan of the person names.
+ */
+public class PatientListNameKey {
+
+	private Integer patientListNameKeyId;
+	private Integer personNameId;
+	private Integer personId;
+	private String field;
+	private PatientListNameKeyType keyType;
+	private String nameKey;
+
+	public Integer getId() {
+		return patientListNameKeyId;
+	}
+
+	public void setId(Integer id) {
+		this.patientListNameKeyId = id;
+	}
+
+	public Integer getPersonNameId() {
+		return personNameId;
+	}
+
+	public void setPersonNameId(Integer personNameId) {
+		this.personNameId = personNameId;
+	}
+
+	public Integer getPersonId() {
+		return personId;
+	}
+
+	public void setPersonId(Integer personId) {
+		this.personId = personId;
+	}
+
+	/**
+	 * The {@link org.openmrs.PersonName} property the key was created from, for example givenName.
+	 */
+	public String getField() {
+		return field;
+	}
+
+	public void setField(String field) {
+		this.field = field;
+	}
+
+	public PatientListNameKeyType getKeyType() {
+		return keyType;
+	}
+
+	public void setKeyType(PatientListNameKeyType keyType) {
+		this.keyType = keyType;
+	}
+
+	public String getNameKey() {
+		return nameKey;
+	}
+
+	public void setNameKey(String nameKey) {
+		this.nameKey = nameKey;
+	}
+}
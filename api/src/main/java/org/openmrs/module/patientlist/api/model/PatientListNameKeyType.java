@@ -0,0 +1,26 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.model;
+
+/**
+ * The kinds of search keys stored for person names in the {@link PatientListNameKey} table.
+ */
+public enum PatientListNameKeyType {
+	// a normalized (lower case, unaccented) word of the name
+	TOKEN,
+	// three consecutive characters of the normalized name
+	TRIGRAM,
+	// the primary and alternate Double Metaphone codes of each word of the name
+	PHONETIC
+}
@@ -21,6 +21,9 @@ import org.openmrs.logic.op.Operator;
 public enum PatientListOperator {
 
 	LIKE(Operator.CONTAINS),
+	STARTS_WITH,
+	TOKEN_MATCH,
+	SOUNDS_LIKE,
 	EQUALS(Operator.EQUALS),
 	GT(Operator.GT),
 	GTE(Operator.GTE),
@@ -24,6 +24,7 @@ public class ConvertPatientListOperators {
 		String literalOperator;
 		switch (operator) {
 			case EQUALS:
+			case SOUNDS_LIKE:
 				literalOperator = "=";
 				return literalOperator;
 			case NOT_EQUALS:
@@ -51,6 +52,8 @@ public class ConvertPatientListOperators {
 				literalOperator = "BETWEEN";
 				return literalOperator;
 			case LIKE:
+			case STARTS_WITH:
+			case TOKEN_MATCH:
 				literalOperator = "LIKE";
 				return literalOperator;
 			case DEFINED:
@@ -66,4 +69,29 @@ public class ConvertPatientListOperators {
 				throw new IllegalArgumentException("Invalid operator " + operator);
 		}
 	}
+
+	/**
+	 * Converts a condition value to the parameter value used with the literal operator. LIKE values match anywhere in
+	 * the field while STARTS_WITH and TOKEN_MATCH values only match the start of the field so that an index on the
+	 * field can be used. Token and phonetic matches on names are compiled separately against the name key table, on
+	 * other fields a phonetic match is an equality match.
+	 * @param operator The condition operator
+	 * @param value The condition value
+	 * @return The parameter value
+	 */
+	public static String convertValue(PatientListOperator operator, String value) {
+		if (operator == null) {
+			return value;
+		}
+
+		switch (operator) {
+			case LIKE:
+				return "%" + value + "%";
+			case STARTS_WITH:
+			case TOKEN_MATCH:
+				return value + "%";
+			default:
+				return value;
+		}
+	}
 }
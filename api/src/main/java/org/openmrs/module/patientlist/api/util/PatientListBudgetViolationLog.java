@@ -0,0 +1,123 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.util;
+
+import org.openmrs.module.patientlist.api.model.PatientList;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the most recent execution budget violations of each patient list on this node so that they can be shown to
+ * the list author.
+ */
+public class PatientListBudgetViolationLog {
+	private static final int MAX_VIOLATIONS_PER_LIST = 10;
+
+	private final ConcurrentMap<String, Deque<Violation>> violations = new ConcurrentHashMap<String, Deque<Violation>>();
+
+	private PatientListBudgetViolationLog() {}
+
+	public static PatientListBudgetViolationLog getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Records a budget violation for a patient list.
+	 * @param patientList The patient list
+	 * @param type The violation type
+	 * @param message The violation details
+	 */
+	public void record(PatientList patientList, ViolationType type, String message) {
+		if (patientList == null || patientList.getUuid() == null) {
+			return;
+		}
+
+		Deque<Violation> listViolations = violations.get(patientList.getUuid());
+		if (listViolations == null) {
+			violations.putIfAbsent(patientList.getUuid(), new LinkedList<Violation>());
+			listViolations = violations.get(patientList.getUuid());
+		}
+
+		synchronized (listViolations) {
+			listViolations.addFirst(new Violation(new Date(), type, message));
+			while (listViolations.size() > MAX_VIOLATIONS_PER_LIST) {
+				listViolations.removeLast();
+			}
+		}
+	}
+
+	/**
+	 * Gets the recent budget violations of a patient list, most recent first.
+	 * @param patientListUuid The patient list uuid
+	 * @return The violations
+	 */
+	public List<Violation> getViolations(String patientListUuid) {
+		Deque<Violation> listViolations = violations.get(patientListUuid);
+		if (listViolations == null) {
+			return new ArrayList<Violation>();
+		}
+
+		synchronized (listViolations) {
+			return new ArrayList<Violation>(listViolations);
+		}
+	}
+
+	public void clear() {
+		violations.clear();
+	}
+
+	/**
+	 * The kinds of execution budget violation.
+	 */
+	public enum ViolationType {
+		COST, TIMEOUT, CANCELLED
+	}
+
+	/**
+	 * A recorded execution budget violation.
+	 */
+	public static class Violation {
+		private final Date date;
+		private final ViolationType type;
+		private final String message;
+
+		Violation(Date date, ViolationType type, String message) {
+			this.date = date;
+			this.type = type;
+			this.message = message;
+		}
+
+		public Date getDate() {
+			return date;
+		}
+
+		public ViolationType getType() {
+			return type;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+	}
+
+	private static class Holder {
+		private static final PatientListBudgetViolationLog INSTANCE = new PatientListBudgetViolationLog();
+	}
+}
@@ -0,0 +1,404 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.PersonAttribute;
+import org.openmrs.module.openhmis.commons.api.entity.db.hibernate.IHibernateRepository;
+import org.openmrs.module.patientlist.ModuleSettings;
+import org.openmrs.module.patientlist.api.event.IPatientListDataChangeListener;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeEvent;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeTracker;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.model.PatientListCondition;
+import org.openmrs.module.patientlist.api.model.PatientListOperator;
+import org.openmrs.module.patientlist.api.model.PatientListOrder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index of the patient ids matching frequently used {@link PatientListCondition}s. Each (field, operator,
+ * value) triple is stored as a bitmap of patient ids so that a list made up only of indexable conditions can be
+ * evaluated by combining bitmaps instead of running the count query. The bitmaps are kept current from
+ * {@link PatientListDataChangeEvent}s: changed patients are queued and re-checked against the database the next time
+ * the bitmap is used.
+ */
+public class PatientListConditionIndex implements IPatientListDataChangeListener {
+	private static final Log LOG = LogFactory.getLog(PatientListConditionIndex.class);
+
+	private static final String GENDER_FIELD = "p.gender";
+	private static final String PERSON_ATTRIBUTE_PREFIX = "p.attr.";
+	private static final String ANY_ATTRIBUTE_KEY = "p.attr|ANY|";
+	private static final int MAX_PENDING_PATIENTS = 10000;
+	private static final int ID_BATCH_SIZE = 1000;
+	private static final int FETCH_SIZE = 10000;
+	private static final int BITS_PER_BYTE = 8;
+
+	private static final Set<String> GENDER_TYPES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+	        Patient.class.getSimpleName(), Person.class.getSimpleName())));
+	private static final Set<String> ATTRIBUTE_TYPES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+	        Patient.class.getSimpleName(), Person.class.getSimpleName(), PersonAttribute.class.getSimpleName())));
+
+	private final Map<String, IndexEntry> entries = new LinkedHashMap<String, IndexEntry>(16, 0.75f, true);
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong evaluations = new AtomicLong();
+
+	private PatientListConditionIndex() {
+		PatientListDataChangeTracker.getInstance().addListener(this);
+	}
+
+	public static PatientListConditionIndex getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Returns whether the given patient list can be evaluated entirely from the index. Only patient (not visit) lists
+	 * whose conditions all compare the gender or a person attribute for equality are supported.
+	 * @param patientList The patient list
+	 * @return true if the list can be evaluated from the index
+	 */
+	public boolean isIndexable(PatientList patientList) {
+		List<PatientListCondition> conditions = patientList.getPatientListConditions();
+		if (conditions == null || conditions.isEmpty() || patientList.hasConditionGroups()) {
+			// lists with explicit condition groups do not use the implicit condition logic mirrored by the index
+			return false;
+		}
+
+		boolean hasCondition = false;
+		for (PatientListCondition condition : conditions) {
+			if (condition == null) {
+				continue;
+			}
+
+			if (!isIndexable(condition)) {
+				return false;
+			}
+
+			hasCondition = true;
+		}
+
+		if (patientList.getOrdering() != null) {
+			for (PatientListOrder order : patientList.getOrdering()) {
+				if (order != null && StringUtils.startsWith(order.getField(), "v.")) {
+					return false;
+				}
+			}
+		}
+
+		return hasCondition;
+	}
+
+	/**
+	 * Evaluates the patient list conditions using the index.
+	 * @param patientList The patient list
+	 * @param repository The repository used to build or refresh the condition bitmaps
+	 * @return The matching patient ids or null if the index is disabled or the list cannot be evaluated from the index
+	 */
+	public BitSet evaluate(PatientList patientList, IHibernateRepository repository) {
+		if (!ModuleSettings.isConditionIndexEnabled() || !isIndexable(patientList)) {
+			return null;
+		}
+
+		evaluations.incrementAndGet();
+
+		// Mirror the query builder: person attribute conditions are OR'ed with the next condition (there can be no
+		// active visit condition in an indexable list), all other conditions are AND'ed. AND takes precedence.
+		BitSet result = null;
+		BitSet group = null;
+		boolean usesAttributeJoin = false;
+		for (PatientListCondition condition : patientList.getPatientListConditions()) {
+			if (condition == null) {
+				continue;
+			}
+
+			BitSet conditionSet = getBitmap(condition, repository);
+			if (group == null) {
+				group = (BitSet)conditionSet.clone();
+			} else {
+				group.and(conditionSet);
+			}
+
+			if (StringUtils.startsWith(condition.getField(), PERSON_ATTRIBUTE_PREFIX)) {
+				usesAttributeJoin = true;
+				result = or(result, group);
+				group = null;
+			}
+		}
+
+		result = or(result, group);
+
+		if (!usesAttributeJoin && patientList.getOrdering() != null) {
+			for (PatientListOrder order : patientList.getOrdering()) {
+				if (order != null && StringUtils.startsWith(order.getField(), "p.attr")) {
+					usesAttributeJoin = true;
+				}
+			}
+		}
+
+		// the inner join on the person attributes excludes patients without any attributes
+		if (usesAttributeJoin) {
+			result.and(getBitmap(ANY_ATTRIBUTE_KEY, ATTRIBUTE_TYPES,
+			    "select distinct p.patientId from Patient p inner join p.attributes as attr where p.patientId is not null",
+			    new ArrayList<Object>(), repository));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Removes all the condition bitmaps.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Gets the index statistics.
+	 * @return The statistics
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		long memory = 0;
+		int size;
+		synchronized (entries) {
+			size = entries.size();
+			for (IndexEntry entry : entries.values()) {
+				memory += entry.getMemoryBytes();
+			}
+		}
+
+		long hitCount = hits.get();
+		long missCount = misses.get();
+		statistics.put("enabled", ModuleSettings.isConditionIndexEnabled());
+		statistics.put("entries", size);
+		statistics.put("memoryBytes", memory);
+		statistics.put("maxMemoryBytes", ModuleSettings.getConditionIndexMaxMemoryBytes());
+		statistics.put("evaluations", evaluations.get());
+		statistics.put("hits", hitCount);
+		statistics.put("misses", missCount);
+		statistics.put("hitRate", hitCount + missCount == 0 ? 0d : (double)hitCount / (hitCount + missCount));
+		statistics.put("evictions", evictions.get());
+
+		return statistics;
+	}
+
+	@Override
+	public void onDataChanged(PatientListDataChangeEvent event) {
+		if (event.getPatientIds().isEmpty()) {
+			return;
+		}
+
+		synchronized (entries) {
+			Iterator<IndexEntry> iterator = entries.values().iterator();
+			while (iterator.hasNext()) {
+				IndexEntry entry = iterator.next();
+				if (!Collections.disjoint(entry.dependentTypes, event.getChangedTypes())) {
+					if (!entry.addPending(event.getPatientIds())) {
+						// too many changes to refresh incrementally; rebuild on next use
+						iterator.remove();
+					}
+				}
+			}
+		}
+	}
+
+	private boolean isIndexable(PatientListCondition condition) {
+		if (condition.getOperator() != PatientListOperator.EQUALS || StringUtils.isEmpty(condition.getValue())
+		        || PatientInformation.getInstance().getField(condition.getField()) == null) {
+			return false;
+		}
+
+		return StringUtils.equals(condition.getField(), GENDER_FIELD)
+		        || (StringUtils.startsWith(condition.getField(), PERSON_ATTRIBUTE_PREFIX)
+		        && condition.getField().split("\\.").length == 3);
+	}
+
+	private BitSet getBitmap(PatientListCondition condition, IHibernateRepository repository) {
+		String key = condition.getField() + "|" + condition.getOperator() + "|" + condition.getValue();
+		List<Object> parameters = new ArrayList<Object>();
+		if (StringUtils.equals(condition.getField(), GENDER_FIELD)) {
+			parameters.add(condition.getValue());
+			return getBitmap(key, GENDER_TYPES, "select p.patientId from Patient p where p.gender = ?", parameters,
+			    repository);
+		}
+
+		parameters.add(condition.getField().split("\\.")[2].replaceAll("_", " "));
+		parameters.add(condition.getValue());
+		return getBitmap(key, ATTRIBUTE_TYPES, "select distinct p.patientId from Patient p inner join p.attributes as attr "
+		        + "inner join attr.attributeType as attrType where attrType.name = ? and attr.voided != true "
+		        + "and attr.value = ?", parameters, repository);
+	}
+
+	private BitSet getBitmap(String key, Set<String> dependentTypes, String hql, List<Object> parameters,
+	        IHibernateRepository repository) {
+		IndexEntry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+
+		if (entry == null) {
+			misses.incrementAndGet();
+			entry = new IndexEntry(dependentTypes, hql, parameters);
+			entry.bitmap = loadBitmap(entry, null, repository);
+			synchronized (entries) {
+				entries.put(key, entry);
+				evict();
+			}
+		} else {
+			hits.incrementAndGet();
+			entry.refresh(repository);
+		}
+
+		return entry.bitmap;
+	}
+
+	private void evict() {
+		long maxMemory = ModuleSettings.getConditionIndexMaxMemoryBytes();
+		long memory = 0;
+		for (IndexEntry entry : entries.values()) {
+			memory += entry.getMemoryBytes();
+		}
+
+		// the map is in access order so the first entries are the least recently used
+		Iterator<IndexEntry> iterator = entries.values().iterator();
+		while (memory > maxMemory && entries.size() > 1 && iterator.hasNext()) {
+			IndexEntry entry = iterator.next();
+			memory -= entry.getMemoryBytes();
+			iterator.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	private BitSet loadBitmap(IndexEntry entry, List<Integer> patientIds, IHibernateRepository repository) {
+		String hql = entry.hql;
+		if (patientIds != null) {
+			hql += " and p.patientId in (:patientIds)";
+		}
+
+		Query query = repository.createQuery(hql);
+		int index = 0;
+		for (Object value : entry.parameters) {
+			query.setParameter(index++, value);
+		}
+
+		if (patientIds != null) {
+			query.setParameterList("patientIds", patientIds);
+		}
+
+		BitSet bitmap = new BitSet();
+		query.setFetchSize(FETCH_SIZE);
+		query.setReadOnly(true);
+		ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (results.next()) {
+				Integer patientId = (Integer)results.get(0);
+				if (patientId != null) {
+					bitmap.set(patientId);
+				}
+			}
+		} finally {
+			results.close();
+		}
+
+		return bitmap;
+	}
+
+	private static BitSet or(BitSet result, BitSet group) {
+		if (group == null) {
+			return result == null ? new BitSet() : result;
+		}
+
+		if (result == null) {
+			return group;
+		}
+
+		result.or(group);
+		return result;
+	}
+
+	private static class Holder {
+		private static final PatientListConditionIndex INSTANCE = new PatientListConditionIndex();
+	}
+
+	private final class IndexEntry {
+		private final Set<String> dependentTypes;
+		private final String hql;
+		private final List<Object> parameters;
+		private final Set<Integer> pending = new HashSet<Integer>();
+		private volatile BitSet bitmap;
+
+		private IndexEntry(Set<String> dependentTypes, String hql, List<Object> parameters) {
+			this.dependentTypes = dependentTypes;
+			this.hql = hql;
+			this.parameters = parameters;
+		}
+
+		private long getMemoryBytes() {
+			BitSet current = bitmap;
+			return current == null ? 0 : current.size() / BITS_PER_BYTE;
+		}
+
+		private synchronized boolean addPending(Set<Integer> patientIds) {
+			pending.addAll(patientIds);
+
+			return pending.size() <= MAX_PENDING_PATIENTS;
+		}
+
+		private synchronized void refresh(IHibernateRepository repository) {
+			if (pending.isEmpty()) {
+				return;
+			}
+
+			// copy-on-write so that concurrent readers keep a consistent bitmap
+			BitSet updated = (BitSet)bitmap.clone();
+			List<Integer> patientIds = new ArrayList<Integer>(pending);
+			for (int start = 0; start < patientIds.size(); start += ID_BATCH_SIZE) {
+				List<Integer> batch = patientIds.subList(start, Math.min(start + ID_BATCH_SIZE, patientIds.size()));
+				for (Integer patientId : batch) {
+					updated.clear(patientId);
+				}
+
+				updated.or(loadBitmap(this, batch, repository));
+			}
+
+			bitmap = updated;
+			pending.clear();
+
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Refreshed " + patientIds.size() + " patients in condition index entry " + hql);
+			}
+		}
+	}
+}
@@ -0,0 +1,432 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.model.PatientListCondition;
+import org.openmrs.module.patientlist.api.model.PatientListConditionGroup;
+import org.openmrs.module.patientlist.api.model.PatientListConditionGroupOperator;
+import org.openmrs.module.patientlist.api.model.PatientListOperator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Boolean condition tree built from the {@link PatientListConditionGroup}s of a patient list. Conditions that are not
+ * assigned to a group are combined with the top level groups using AND. The tree is simplified and the children of each
+ * group are ordered by their estimated cost and selectivity so that cheap, selective predicates are evaluated first and
+ * the remaining branches can be short-circuited by the database.
+ */
+public class PatientListConditionTree {
+	private final Node root;
+
+	private PatientListConditionTree(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * Checks that the condition groups of a patient list form a tree: every group has a distinct group order between 0
+	 * and the number of groups, every parent group and condition group belongs to the list and no group is its own
+	 * ancestor. Conditions in a group that is not part of the tree would otherwise be dropped from the list query.
+	 * @param patientList The patient list
+	 * @throws IllegalArgumentException if the groups do not form a tree
+	 */
+	public static void validate(PatientList patientList) {
+		List<PatientListConditionGroup> groups = new ArrayList<PatientListConditionGroup>();
+		if (patientList.getConditionGroups() != null) {
+			for (PatientListConditionGroup group : patientList.getConditionGroups()) {
+				if (group != null) {
+					groups.add(group);
+				}
+			}
+		}
+
+		Set<Integer> groupOrders = new HashSet<Integer>();
+		for (PatientListConditionGroup group : groups) {
+			Integer groupOrder = group.getGroupOrder();
+			if (groupOrder == null || groupOrder < 0 || groupOrder >= groups.size() || !groupOrders.add(groupOrder)) {
+				throw new IllegalArgumentException("The condition group '" + group.getUuid() + "' must have a unique "
+				        + "group order between 0 and " + (groups.size() - 1) + ".");
+			}
+
+			Set<PatientListConditionGroup> ancestors = new HashSet<PatientListConditionGroup>();
+			for (PatientListConditionGroup parent = group.getParentGroup(); parent != null; parent =
+			        parent.getParentGroup()) {
+				if (!groups.contains(parent)) {
+					throw new IllegalArgumentException("The parent of condition group '" + group.getUuid()
+					        + "' is not a condition group of this list.");
+				}
+				if (parent.equals(group) || !ancestors.add(parent)) {
+					throw new IllegalArgumentException("The condition group '" + group.getUuid()
+					        + "' is part of a cycle of parent groups.");
+				}
+			}
+		}
+
+		if (patientList.getPatientListConditions() != null) {
+			for (PatientListCondition condition : patientList.getPatientListConditions()) {
+				if (condition != null && condition.getConditionGroup() != null
+				        && !groups.contains(condition.getConditionGroup())) {
+					throw new IllegalArgumentException("The group of condition '" + condition.getUuid()
+					        + "' is not a condition group of this list.");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds, simplifies and orders the condition tree for the given patient list.
+	 * @param patientList The patient list
+	 * @return The condition tree
+	 * @throws IllegalArgumentException if the condition groups do not form a tree (see {@link #validate(PatientList)})
+	 */
+	public static PatientListConditionTree build(PatientList patientList) {
+		validate(patientList);
+
+		Node root = new Node(PatientListConditionGroupOperator.AND);
+		Map<PatientListConditionGroup, Node> groupNodes = new HashMap<PatientListConditionGroup, Node>();
+
+		if (patientList.getConditionGroups() != null) {
+			for (PatientListConditionGroup group : patientList.getConditionGroups()) {
+				if (group != null) {
+					groupNodes.put(group, new Node(group.getOperator() == null ? PatientListConditionGroupOperator.AND
+					        : group.getOperator()));
+				}
+			}
+
+			for (PatientListConditionGroup group : patientList.getConditionGroups()) {
+				if (group == null) {
+					continue;
+				}
+
+				Node parent = group.getParentGroup() == null ? root : groupNodes.get(group.getParentGroup());
+
+				parent.children.add(groupNodes.get(group));
+			}
+		}
+
+		if (patientList.getPatientListConditions() != null) {
+			for (PatientListCondition condition : patientList.getPatientListConditions()) {
+				if (condition == null) {
+					continue;
+				}
+
+				Node parent = condition.getConditionGroup() == null ? root : groupNodes.get(condition.getConditionGroup());
+
+				parent.children.add(new Node(condition));
+			}
+		}
+
+		Node simplified = simplify(root, 0);
+		if (simplified != null) {
+			order(simplified);
+		}
+
+		return new PatientListConditionTree(simplified);
+	}
+
+	/**
+	 * Returns whether the tree contains no conditions.
+	 */
+	public boolean isEmpty() {
+		return root == null;
+	}
+
+	/**
+	 * Gets the conditions of this tree in evaluation order.
+	 */
+	public List<PatientListCondition> getConditions() {
+		List<PatientListCondition> conditions = new ArrayList<PatientListCondition>();
+		collectConditions(root, conditions);
+
+		return conditions;
+	}
+
+	/**
+	 * Compiles the tree into a boolean expression. Leaf conditions are compiled in evaluation order so that any query
+	 * parameters added by the compiler are in the same order as their placeholders.
+	 * @param compiler The compiler for the leaf conditions
+	 * @return The expression, or a tautology if the tree is empty
+	 */
+	public String compile(IConditionCompiler compiler) {
+		String expression = compile(root, compiler);
+
+		return expression == null ? "1 = 1" : expression;
+	}
+
+	private static String compile(Node node, IConditionCompiler compiler) {
+		if (node == null) {
+			return null;
+		}
+
+		if (node.isLeaf()) {
+			String expression = compiler.compile(node.condition);
+			return StringUtils.isBlank(expression) ? null : "(" + expression + ")";
+		}
+
+		List<String> expressions = new ArrayList<String>();
+		for (Node child : node.children) {
+			String expression = compile(child, compiler);
+			if (expression != null) {
+				expressions.add(expression);
+			}
+		}
+
+		if (expressions.isEmpty()) {
+			return null;
+		}
+
+		if (node.operator == PatientListConditionGroupOperator.NOT) {
+			return "(NOT " + StringUtils.join(expressions, " AND ") + ")";
+		}
+
+		return "(" + StringUtils.join(expressions, " " + node.operator.name() + " ") + ")";
+	}
+
+	/**
+	 * Flattens nested groups with the same operator, unwraps groups with a single child, removes double negations and
+	 * drops empty groups.
+	 */
+	private static Node simplify(Node node, int depth) {
+		if (node.isLeaf()) {
+			return node;
+		}
+
+		if (depth > MAX_DEPTH) {
+			throw new IllegalArgumentException("The patient list condition groups are nested too deeply or are cyclic.");
+		}
+
+		List<Node> children = new ArrayList<Node>();
+		for (Node child : node.children) {
+			Node simplified = simplify(child, depth + 1);
+			if (simplified == null) {
+				continue;
+			}
+
+			if (node.operator != PatientListConditionGroupOperator.NOT && !simplified.isLeaf()
+			        && simplified.operator == node.operator) {
+				children.addAll(simplified.children);
+			} else {
+				children.add(simplified);
+			}
+		}
+
+		if (children.isEmpty()) {
+			return null;
+		}
+
+		if (node.operator == PatientListConditionGroupOperator.NOT) {
+			Node child = children.size() == 1 ? children.get(0) : new Node(PatientListConditionGroupOperator.AND,
+			        children);
+			if (!child.isLeaf() && child.operator == PatientListConditionGroupOperator.NOT) {
+				return child.children.size() == 1 ? child.children.get(0) : new Node(PatientListConditionGroupOperator.AND,
+				        child.children);
+			}
+
+			return new Node(PatientListConditionGroupOperator.NOT, Collections.singletonList(child));
+		}
+
+		if (children.size() == 1) {
+			return children.get(0);
+		}
+
+		return new Node(node.operator, children);
+	}
+
+	/**
+	 * Estimates the cost and selectivity of each node and orders the children of AND groups by cost / (1 - selectivity)
+	 * and the children of OR groups by cost / selectivity.
+	 */
+	private static void order(Node node) {
+		if (node.isLeaf()) {
+			node.cost = estimateCost(node.condition);
+			node.selectivity = estimateSelectivity(node.condition);
+			return;
+		}
+
+		for (Node child : node.children) {
+			order(child);
+		}
+
+		final PatientListConditionGroupOperator operator = node.operator;
+		if (operator != PatientListConditionGroupOperator.NOT) {
+			Collections.sort(node.children, new Comparator<Node>() {
+				@Override
+				public int compare(Node o1, Node o2) {
+					return Double.compare(rank(o1, operator), rank(o2, operator));
+				}
+			});
+		}
+
+		// expected cost when evaluation stops at the first false (AND) or true (OR) child
+		double cost = 0;
+		double reached = 1;
+		double selectivity = operator == PatientListConditionGroupOperator.OR ? 0 : 1;
+		for (Node child : node.children) {
+			cost += reached * child.cost;
+			if (operator == PatientListConditionGroupOperator.OR) {
+				reached *= 1 - child.selectivity;
+				selectivity = 1 - reached;
+			} else {
+				reached *= child.selectivity;
+				selectivity = reached;
+			}
+		}
+
+		node.cost = cost;
+		node.selectivity = operator == PatientListConditionGroupOperator.NOT ? 1 - selectivity : selectivity;
+	}
+
+	private static double rank(Node node, PatientListConditionGroupOperator operator) {
+		double pass = operator == PatientListConditionGroupOperator.OR ? node.selectivity : 1 - node.selectivity;
+
+		return node.cost / Math.max(pass, MIN_PROBABILITY);
+	}
+
+	/**
+	 * Estimates the relative cost of evaluating a condition for a single row. Columns on the patient or visit are
+	 * cheap, while one-to-many fields need a correlated subquery.
+	 */
+	static double estimateCost(PatientListCondition condition) {
+		String field = StringUtils.defaultString(condition.getField());
+		String mappingFieldName = null;
+		if (PatientInformation.getInstance().getField(field) != null) {
+			mappingFieldName = PatientInformation.getInstance().getField(field).getMappingFieldName();
+		}
+
+		if (StringUtils.contains(field, "iagnosis")) {
+			return 10;
+		} else if (StringUtils.contains(field, "v.attr.")) {
+			return 8;
+		} else if (StringUtils.contains(field, "p.attr.")) {
+			return 6;
+		} else if (StringUtils.contains(mappingFieldName, "p.names.")
+		        || StringUtils.contains(mappingFieldName, "p.addresses.")
+		        || StringUtils.contains(mappingFieldName, "p.identifiers.")) {
+			return 5;
+		} else if (StringUtils.startsWith(field, "v.") || StringUtils.contains(field, "hasActiveVisit")) {
+			return 2;
+		}
+
+		return 1;
+	}
+
+	/**
+	 * Estimates the fraction of rows that match a condition from its operator.
+	 */
+	static double estimateSelectivity(PatientListCondition condition) {
+		if (StringUtils.contains(condition.getField(), "p.gender")) {
+			return 0.5;
+		} else if (StringUtils.contains(condition.getField(), "hasActiveVisit")) {
+			return 0.3;
+		}
+
+		PatientListOperator operator = condition.getOperator();
+		if (operator == null) {
+			return DEFAULT_SELECTIVITY;
+		}
+
+		switch (operator) {
+			case EQUALS:
+			case NULL:
+			case NOT_DEFINED:
+				return 0.1;
+			case NOT_EQUALS:
+			case NOT_NULL:
+			case DEFINED:
+				return 0.9;
+			case LIKE:
+				return 0.3;
+			case STARTS_WITH:
+			case TOKEN_MATCH:
+			case SOUNDS_LIKE:
+				return 0.2;
+			case GT:
+			case GTE:
+			case LT:
+			case LTE:
+				return 0.33;
+			case BETWEEN:
+			case RELATIVE:
+				return 0.2;
+			default:
+				return DEFAULT_SELECTIVITY;
+		}
+	}
+
+	private static void collectConditions(Node node, List<PatientListCondition> conditions) {
+		if (node == null) {
+			return;
+		}
+
+		if (node.isLeaf()) {
+			conditions.add(node.condition);
+		} else {
+			for (Node child : node.children) {
+				collectConditions(child, conditions);
+			}
+		}
+	}
+
+	private static final int MAX_DEPTH = 32;
+	private static final double DEFAULT_SELECTIVITY = 0.5;
+	private static final double MIN_PROBABILITY = 0.01;
+
+	/**
+	 * Compiles a single list condition into a boolean expression.
+	 */
+	public interface IConditionCompiler {
+		/**
+		 * Compiles the condition.
+		 * @param condition The condition
+		 * @return The expression or null if the condition should be ignored
+		 */
+		String compile(PatientListCondition condition);
+	}
+
+	private static class Node {
+		private final PatientListConditionGroupOperator operator;
+		private final PatientListCondition condition;
+		private final List<Node> children;
+		private double cost;
+		private double selectivity;
+
+		Node(PatientListCondition condition) {
+			this.operator = null;
+			this.condition = condition;
+			this.children = Collections.emptyList();
+		}
+
+		Node(PatientListConditionGroupOperator operator) {
+			this(operator, new ArrayList<Node>());
+		}
+
+		Node(PatientListConditionGroupOperator operator, List<Node> children) {
+			this.operator = operator;
+			this.condition = null;
+			this.children = new ArrayList<Node>(children);
+		}
+
+		boolean isLeaf() {
+			return condition != null;
+		}
+	}
+}
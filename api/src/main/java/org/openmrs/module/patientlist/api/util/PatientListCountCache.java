@@ -0,0 +1,115 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.util;
+
+import org.openmrs.module.patientlist.ModuleSettings;
+import org.openmrs.module.patientlist.api.event.IPatientListDataChangeListener;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeEvent;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeTracker;
+import org.openmrs.module.patientlist.api.model.PatientList;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Short lived cache of patient list row counts. Cached counts expire after the configured time to live and are removed
+ * as soon as data that the list depends on changes.
+ */
+public class PatientListCountCache implements IPatientListDataChangeListener {
+	private static final long MILLISECONDS_PER_SECOND = 1000L;
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	private PatientListCountCache() {
+		PatientListDataChangeTracker.getInstance().addListener(this);
+	}
+
+	public static PatientListCountCache getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Gets the cached row count of a patient list.
+	 * @param patientListUuid The patient list uuid
+	 * @return The row count or null if the count is not cached or has expired
+	 */
+	public Long get(String patientListUuid) {
+		Entry entry = entries.get(patientListUuid);
+		if (entry == null) {
+			return null;
+		}
+
+		if (entry.expires < System.currentTimeMillis()) {
+			entries.remove(patientListUuid, entry);
+			return null;
+		}
+
+		return entry.count;
+	}
+
+	/**
+	 * Caches the row count of a patient list. The count is not cached if the list data changed after the count was
+	 * started.
+	 * @param patientList The patient list
+	 * @param count The row count
+	 * @param version The data version (see {@link PatientListDataChangeTracker#getVersion()}) when the count was started
+	 */
+	public void put(PatientList patientList, Long count, long version) {
+		int ttlSeconds = ModuleSettings.getSummaryCacheTtlSeconds();
+		if (count == null || ttlSeconds <= 0) {
+			return;
+		}
+
+		if (PatientListDataChangeTracker.getInstance().getChangeVersion(patientList) > version) {
+			return;
+		}
+
+		entries.put(patientList.getUuid(), new Entry(count, PatientListDataChangeEvent.getDependentTypes(patientList),
+		        System.currentTimeMillis() + ttlSeconds * MILLISECONDS_PER_SECOND));
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	@Override
+	public void onDataChanged(PatientListDataChangeEvent event) {
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Entry> entry = iterator.next();
+			if (event.affects(entry.getKey(), entry.getValue().dependentTypes)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static class Entry {
+		private final Long count;
+		private final Set<String> dependentTypes;
+		private final long expires;
+
+		Entry(Long count, Set<String> dependentTypes, long expires) {
+			this.count = count;
+			this.dependentTypes = dependentTypes;
+			this.expires = expires;
+		}
+	}
+
+	private static class Holder {
+		private static final PatientListCountCache INSTANCE = new PatientListCountCache();
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.util;
+
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeEvent;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.model.PatientListCondition;
+import org.openmrs.module.patientlist.api.model.PatientListConditionGroup;
+import org.openmrs.module.patientlist.api.model.PatientListConditionGroupOperator;
+import org.openmrs.module.patientlist.api.model.PatientListOperator;
+import org.openmrs.module.patientlist.api.model.PatientListOrder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of a saved {@link PatientList} definition together with the parts of its evaluation that do not
+ * change between requests: the simplified condition tree, the parsed templates and the data it depends on. The snapshot
+ * list is detached from the Hibernate session, its collections cannot be modified and its conditions, condition groups
+ * and ordering throw an {@link UnsupportedOperationException} when their definition properties are changed.
+ */
+public class PatientListDefinition {
+	private final PatientList patientList;
+	private final PatientListConditionTree conditionTree;
+	private final PatientListTemplateUtil.CompiledTemplate headerTemplate;
+	private final PatientListTemplateUtil.CompiledTemplate bodyTemplate;
+	private final Set<String> dependentTypes;
+	private final String definitionVersion;
+
+	public PatientListDefinition(PatientList source) {
+		this.patientList = copy(source);
+		this.conditionTree = patientList.hasConditionGroups() ? PatientListConditionTree.build(patientList) : null;
+		this.headerTemplate = PatientListTemplateUtil.compileTemplate(patientList.getHeaderTemplate());
+		this.bodyTemplate = PatientListTemplateUtil.compileTemplate(patientList.getBodyTemplate());
+		this.dependentTypes = Collections.unmodifiableSet(PatientListDataChangeEvent.getDependentTypes(patientList));
+		this.definitionVersion = PatientListVersionUtil.getDefinitionVersion(source);
+	}
+
+	/**
+	 * The detached, unmodifiable copy of the patient list.
+	 */
+	public PatientList getPatientList() {
+		return patientList;
+	}
+
+	/**
+	 * The simplified and ordered condition tree, or null if the list does not use condition groups.
+	 */
+	public PatientListConditionTree getConditionTree() {
+		return conditionTree;
+	}
+
+	public PatientListTemplateUtil.CompiledTemplate getHeaderTemplate() {
+		return headerTemplate;
+	}
+
+	public PatientListTemplateUtil.CompiledTemplate getBodyTemplate() {
+		return bodyTemplate;
+	}
+
+	public Set<String> getDependentTypes() {
+		return dependentTypes;
+	}
+
+	public String getDefinitionVersion() {
+		return definitionVersion;
+	}
+
+	private static PatientList copy(PatientList source) {
+		PatientList result = new PatientList();
+		result.setId(source.getId());
+		result.setUuid(source.getUuid());
+		result.setName(source.getName());
+		result.setDescription(source.getDescription());
+		result.setHeaderTemplate(source.getHeaderTemplate());
+		result.setBodyTemplate(source.getBodyTemplate());
+		result.setQueryTimeoutSeconds(source.getQueryTimeoutSeconds());
+		result.setRetired(source.getRetired());
+		result.setDateCreated(source.getDateCreated());
+		result.setDateChanged(source.getDateChanged());
+
+		Map<PatientListConditionGroup, PatientListConditionGroup> groups =
+		        new IdentityHashMap<PatientListConditionGroup, PatientListConditionGroup>();
+		List<PatientListConditionGroup> conditionGroups = new ArrayList<PatientListConditionGroup>();
+		if (source.getConditionGroups() != null) {
+			for (PatientListConditionGroup group : source.getConditionGroups()) {
+				conditionGroups.add(group == null ? null : copy(group, result, groups));
+			}
+		}
+
+		List<PatientListCondition> conditions = new ArrayList<PatientListCondition>();
+		if (source.getPatientListConditions() != null) {
+			for (PatientListCondition condition : source.getPatientListConditions()) {
+				conditions.add(condition == null ? null : copy(condition, result, groups));
+			}
+		}
+
+		List<PatientListOrder> ordering = new ArrayList<PatientListOrder>();
+		if (source.getOrdering() != null) {
+			for (PatientListOrder order : source.getOrdering()) {
+				ordering.add(order == null ? null : copy(order, result));
+			}
+		}
+
+		result.setConditionGroups(Collections.unmodifiableList(conditionGroups));
+		result.setPatientListConditions(Collections.unmodifiableList(conditions));
+		result.setOrdering(Collections.unmodifiableList(ordering));
+
+		return result;
+	}
+
+	private static PatientListConditionGroup copy(PatientListConditionGroup source, PatientList patientList,
+	        Map<PatientListConditionGroup, PatientListConditionGroup> groups) {
+		if (source == null) {
+			return null;
+		}
+
+		PatientListConditionGroup result = groups.get(source);
+		if (result == null) {
+			FrozenPatientListConditionGroup group = new FrozenPatientListConditionGroup();
+			groups.put(source, group);
+
+			group.setId(source.getId());
+			group.setUuid(source.getUuid());
+			group.setOperator(source.getOperator());
+			group.setGroupOrder(source.getGroupOrder());
+			group.setPatientList(patientList);
+			group.setParentGroup(copy(source.getParentGroup(), patientList, groups));
+			group.frozen = true;
+			result = group;
+		}
+
+		return result;
+	}
+
+	private static PatientListCondition copy(PatientListCondition source, PatientList patientList,
+	        Map<PatientListConditionGroup, PatientListConditionGroup> groups) {
+		FrozenPatientListCondition result = new FrozenPatientListCondition();
+		result.setId(source.getId());
+		result.setUuid(source.getUuid());
+		result.setField(source.getField());
+		result.setOperator(source.getOperator());
+		result.setValue(source.getValue());
+		result.setConditionOrder(source.getConditionOrder());
+		result.setConditionGroup(copy(source.getConditionGroup(), patientList, groups));
+		result.setPatientList(patientList);
+		result.frozen = true;
+
+		return result;
+	}
+
+	private static PatientListOrder copy(PatientListOrder source, PatientList patientList) {
+		FrozenPatientListOrder result = new FrozenPatientListOrder();
+		result.setId(source.getId());
+		result.setUuid(source.getUuid());
+		result.setField(source.getField());
+		result.setSortOrder(source.getSortOrder());
+		result.setConditionOrder(source.getConditionOrder());
+		result.setPatientList(patientList);
+		result.frozen = true;
+
+		return result;
+	}
+
+	private static void checkNotFrozen(boolean frozen) {
+		if (frozen) {
+			throw new UnsupportedOperationException("A patient list definition snapshot cannot be modified");
+		}
+	}
+
+	/**
+	 * A condition whose definition cannot be changed once it has been copied into a snapshot.
+	 */
+	private static final class FrozenPatientListCondition extends PatientListCondition {
+		private boolean frozen;
+
+		@Override
+		public void setId(Integer id) {
+			checkNotFrozen(frozen);
+			super.setId(id);
+		}
+
+		@Override
+		public void setUuid(String uuid) {
+			checkNotFrozen(frozen);
+			super.setUuid(uuid);
+		}
+
+		@Override
+		public void setPatientList(PatientList patientList) {
+			checkNotFrozen(frozen);
+			super.setPatientList(patientList);
+		}
+
+		@Override
+		public void setField(String field) {
+			checkNotFrozen(frozen);
+			super.setField(field);
+		}
+
+		@Override
+		public void setValue(String value) {
+			checkNotFrozen(frozen);
+			super.setValue(value);
+		}
+
+		@Override
+		public void setConditionOrder(Integer conditionOrder) {
+			checkNotFrozen(frozen);
+			super.setConditionOrder(conditionOrder);
+		}
+
+		@Override
+		public void setOperator(PatientListOperator operator) {
+			checkNotFrozen(frozen);
+			super.setOperator(operator);
+		}
+
+		@Override
+		public void setConditionGroup(PatientListConditionGroup conditionGroup) {
+			checkNotFrozen(frozen);
+			super.setConditionGroup(conditionGroup);
+		}
+	}
+
+	/**
+	 * A condition group whose definition cannot be changed once it has been copied into a snapshot.
+	 */
+	private static final class FrozenPatientListConditionGroup extends PatientListConditionGroup {
+		private boolean frozen;
+
+		@Override
+		public void setId(Integer id) {
+			checkNotFrozen(frozen);
+			super.setId(id);
+		}
+
+		@Override
+		public void setUuid(String uuid) {
+			checkNotFrozen(frozen);
+			super.setUuid(uuid);
+		}
+
+		@Override
+		public void setPatientList(PatientList patientList) {
+			checkNotFrozen(frozen);
+			super.setPatientList(patientList);
+		}
+
+		@Override
+		public void setParentGroup(PatientListConditionGroup parentGroup) {
+			checkNotFrozen(frozen);
+			super.setParentGroup(parentGroup);
+		}
+
+		@Override
+		public void setOperator(PatientListConditionGroupOperator operator) {
+			checkNotFrozen(frozen);
+			super.setOperator(operator);
+		}
+
+		@Override
+		public void setGroupOrder(Integer groupOrder) {
+			checkNotFrozen(frozen);
+			super.setGroupOrder(groupOrder);
+		}
+	}
+
+	/**
+	 * An order whose definition cannot be changed once it has been copied into a snapshot.
+	 */
+	private static final class FrozenPatientListOrder extends PatientListOrder {
+		private boolean frozen;
+
+		@Override
+		public void setId(Integer id) {
+			checkNotFrozen(frozen);
+			super.setId(id);
+		}
+
+		@Override
+		public void setUuid(String uuid) {
+			checkNotFrozen(frozen);
+			super.setUuid(uuid);
+		}
+
+		@Override
+		public void setPatientList(PatientList patientList) {
+			checkNotFrozen(frozen);
+			super.setPatientList(patientList);
+		}
+
+		@Override
+		public void setField(String field) {
+			checkNotFrozen(frozen);
+			super.setField(field);
+		}
+
+		@Override
+		public void setSortOrder(String sortOrder) {
+			checkNotFrozen(frozen);
+			super.setSortOrder(sortOrder);
+		}
+
+		@Override
+		public void setConditionOrder(Integer conditionOrder) {
+			checkNotFrozen(frozen);
+			super.setConditionOrder(conditionOrder);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.util;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientlist.api.IPatientListService;
+import org.openmrs.module.patientlist.api.event.IPatientListDataChangeListener;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeEvent;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeTracker;
+import org.openmrs.module.patientlist.api.model.PatientList;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds an immutable {@link PatientListDefinition} snapshot of each saved patient list, keyed by uuid. Lookups are lock
+ * and session free once a list has been loaded; the map is replaced copy-on-write when a list is loaded or when a
+ * saved, retired or purged list definition is committed.
+ */
+public class PatientListDefinitionRegistry implements IPatientListDataChangeListener {
+	private final Object writeLock = new Object();
+	private volatile Map<String, PatientListDefinition> definitions = Collections.emptyMap();
+
+	private PatientListDefinitionRegistry() {
+		PatientListDataChangeTracker.getInstance().addListener(this);
+	}
+
+	public static PatientListDefinitionRegistry getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Gets the snapshot of the patient list with the given uuid, loading it through {@link IPatientListService} when it
+	 * is not registered yet. The returned list is shared and must not be modified.
+	 * @param uuid The patient list uuid
+	 * @return The patient list snapshot or null if no list has the uuid
+	 */
+	public PatientList get(String uuid) {
+		PatientListDefinition definition = getDefinition(uuid);
+
+		return definition == null ? null : definition.getPatientList();
+	}
+
+	/**
+	 * Gets the definition snapshot of the patient list with the given uuid, loading it when it is not registered yet.
+	 * @param uuid The patient list uuid
+	 * @return The definition or null if no list has the uuid
+	 */
+	public PatientListDefinition getDefinition(String uuid) {
+		if (uuid == null) {
+			return null;
+		}
+
+		PatientListDefinition definition = definitions.get(uuid);
+		if (definition != null) {
+			// the same privilege that the service requires to get a list
+			Context.requirePrivilege(PrivilegeConstants.TASK_MANAGE_PATIENT_LIST_METADATA);
+			return definition;
+		}
+
+		long version = PatientListDataChangeTracker.getInstance().getVersion();
+		PatientList patientList = Context.getService(IPatientListService.class).getByUuid(uuid);
+		if (patientList == null) {
+			return null;
+		}
+
+		definition = new PatientListDefinition(patientList);
+		synchronized (writeLock) {
+			// do not register a snapshot of a definition that changed while it was being loaded
+			if (PatientListDataChangeTracker.getInstance().getChangeVersion(uuid) <= version) {
+				Map<String, PatientListDefinition> copy = new HashMap<String, PatientListDefinition>(definitions);
+				copy.put(uuid, definition);
+				definitions = Collections.unmodifiableMap(copy);
+			}
+		}
+
+		return definition;
+	}
+
+	/**
+	 * Gets the registered definition for the given patient list instance.
+	 * @param patientList The patient list
+	 * @return The definition if the list is a registry snapshot, otherwise null
+	 */
+	public PatientListDefinition getRegisteredDefinition(PatientList patientList) {
+		if (patientList == null || patientList.getUuid() == null) {
+			return null;
+		}
+
+		PatientListDefinition definition = definitions.get(patientList.getUuid());
+
+		return definition != null && definition.getPatientList() == patientList ? definition : null;
+	}
+
+	public int size() {
+		return definitions.size();
+	}
+
+	public void clear() {
+		synchronized (writeLock) {
+			definitions = Collections.emptyMap();
+		}
+	}
+
+	@Override
+	public void onDataChanged(PatientListDataChangeEvent event) {
+		if (event.getPatientListUuids().isEmpty()) {
+			return;
+		}
+
+		synchronized (writeLock) {
+			Map<String, PatientListDefinition> copy = new HashMap<String, PatientListDefinition>(definitions);
+			copy.keySet().removeAll(event.getPatientListUuids());
+			definitions = Collections.unmodifiableMap(copy);
+		}
+	}
+
+	private static class Holder {
+		private static final PatientListDefinitionRegistry INSTANCE = new PatientListDefinitionRegistry();
+	}
+}
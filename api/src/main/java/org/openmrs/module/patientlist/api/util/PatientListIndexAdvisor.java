@@ -0,0 +1,366 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.hibernate.SessionFactory;
+import org.hibernate.jdbc.Work;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientlist.api.IPatientListService;
+import org.openmrs.module.patientlist.api.model.IBasePatientList;
+import org.openmrs.module.patientlist.api.model.PatientInformationField;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.model.PatientListCondition;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Recommends indexes on the core tables that the active patient list definitions filter and sort on. Each list field
+ * is mapped to the columns used by the generated queries and the existing indexes are read from the JDBC metadata;
+ * columns that are not the leading columns of an existing index are reported with an estimated impact. The missing
+ * indexes are only described, as a Liquibase change log, and never created by the module.
+ */
+public class PatientListIndexAdvisor {
+	private static final int MAX_INDEX_NAME_LENGTH = 64;
+	private static final double HIGH_IMPACT_SCORE = 20;
+	private static final double MEDIUM_IMPACT_SCORE = 5;
+
+	private static final Map<String, IndexDefinition> FIELD_INDEXES = new LinkedHashMap<String, IndexDefinition>();
+
+	static {
+		FIELD_INDEXES.put("p.birthdate", new IndexDefinition("person", "birthdate"));
+		FIELD_INDEXES.put("p.age", new IndexDefinition("person", "birthdate"));
+		FIELD_INDEXES.put("p.gender", new IndexDefinition("person", "gender"));
+		FIELD_INDEXES.put("p.names.givenName", new IndexDefinition("person_name", "given_name"));
+		FIELD_INDEXES.put("p.names.middleName", new IndexDefinition("person_name", "middle_name"));
+		FIELD_INDEXES.put("p.names.familyName", new IndexDefinition("person_name", "family_name"));
+		FIELD_INDEXES.put("p.names.fullName", new IndexDefinition("person_name", "family_name", "given_name"));
+		FIELD_INDEXES.put("p.identifiers.identifier", new IndexDefinition("patient_identifier", "identifier"));
+		FIELD_INDEXES.put("hasActiveVisit", new IndexDefinition("visit", "patient_id", "date_stopped"));
+		FIELD_INDEXES.put("v.startDatetime", new IndexDefinition("visit", "date_started"));
+		FIELD_INDEXES.put("v.stopDatetime", new IndexDefinition("visit", "date_stopped"));
+		FIELD_INDEXES.put("v.visitType.name", new IndexDefinition("visit", "visit_type_id"));
+		FIELD_INDEXES.put("diagnosis", new IndexDefinition("obs", "concept_id", "value_coded"));
+		FIELD_INDEXES.put("p.attr.", new IndexDefinition("person_attribute", "person_attribute_type_id", "value"));
+		// value_reference is a text column so only a prefix can be indexed
+		FIELD_INDEXES.put("v.attr.", new IndexDefinition("visit_attribute", "attribute_type_id", "value_reference(255)"));
+	}
+
+	private PatientListIndexAdvisor() {}
+
+	public static PatientListIndexAdvisor getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Analyzes the active patient list definitions and the existing indexes of the core tables.
+	 * @return The index recommendations, most impactful first. Recommendations that are already covered by an
+	 *         existing index are included and marked as existing.
+	 */
+	public List<IndexRecommendation> analyze() {
+		Map<IndexDefinition, IndexRecommendation> recommendations =
+		        new LinkedHashMap<IndexDefinition, IndexRecommendation>();
+		for (PatientList patientList : Context.getService(IPatientListService.class).getAllDefinitions(false)) {
+			Set<IndexDefinition> listIndexes = new HashSet<IndexDefinition>();
+			addUsage(recommendations, listIndexes, patientList.getPatientListConditions());
+			addUsage(recommendations, listIndexes, patientList.getOrdering());
+
+			for (IndexDefinition index : listIndexes) {
+				recommendations.get(index).listCount++;
+			}
+		}
+
+		Map<String, List<List<String>>> existingIndexes = getExistingIndexes(recommendations.keySet());
+		List<IndexRecommendation> results = new ArrayList<IndexRecommendation>(recommendations.values());
+		for (IndexRecommendation recommendation : results) {
+			recommendation.existing = isCovered(recommendation.index, existingIndexes.get(recommendation.index.table));
+		}
+
+		Collections.sort(results, new Comparator<IndexRecommendation>() {
+			@Override
+			public int compare(IndexRecommendation o1, IndexRecommendation o2) {
+				return Double.compare(o2.score, o1.score);
+			}
+		});
+
+		return results;
+	}
+
+	/**
+	 * Creates a Liquibase change log with a change set for each of the given recommendations, so that the indexes can
+	 * be added to the deployment's own schema management.
+	 * @param recommendations The recommendations
+	 * @return The change log xml
+	 */
+	public static String createChangeLog(List<IndexRecommendation> recommendations) {
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n");
+		for (IndexRecommendation recommendation : recommendations) {
+			xml.append("\t<changeSet id=\"").append(recommendation.getName()).append("\" author=\"patientlist\">\n");
+			xml.append("\t\t<preConditions onFail=\"MARK_RAN\"><not><indexExists indexName=\"")
+			        .append(recommendation.getName()).append("\" tableName=\"").append(recommendation.getTable())
+			        .append("\"/></not></preConditions>\n");
+			xml.append("\t\t<sql>").append(recommendation.getSql()).append("</sql>\n");
+			xml.append("\t</changeSet>\n");
+		}
+		xml.append("</databaseChangeLog>\n");
+
+		return xml.toString();
+	}
+
+	private <T extends IBasePatientList> void addUsage(Map<IndexDefinition, IndexRecommendation> recommendations,
+	        Set<IndexDefinition> listIndexes, List<T> items) {
+		if (items == null) {
+			return;
+		}
+
+		for (T item : items) {
+			IndexDefinition index = item == null ? null : getIndexDefinition(item.getField());
+			if (index == null) {
+				continue;
+			}
+
+			IndexRecommendation recommendation = recommendations.get(index);
+			if (recommendation == null) {
+				recommendation = new IndexRecommendation(index);
+				recommendations.put(index, recommendation);
+			}
+
+			recommendation.fields.add(item.getField());
+			// filters cost more the more expensive the field is to evaluate, sorting always needs the column
+			recommendation.score += item instanceof PatientListCondition
+			        ? PatientListConditionTree.estimateCost((PatientListCondition)item) : 1;
+			listIndexes.add(index);
+		}
+	}
+
+	private IndexDefinition getIndexDefinition(String field) {
+		if (StringUtils.isEmpty(field)) {
+			return null;
+		} else if (StringUtils.startsWith(field, "p.attr.")) {
+			return FIELD_INDEXES.get("p.attr.");
+		} else if (StringUtils.startsWith(field, "v.attr.")) {
+			return FIELD_INDEXES.get("v.attr.");
+		} else if (StringUtils.contains(field, "hasActiveVisit")) {
+			return FIELD_INDEXES.get("hasActiveVisit");
+		} else if (StringUtils.contains(field, "iagnosis")) {
+			return FIELD_INDEXES.get("diagnosis");
+		}
+
+		PatientInformationField<?> informationField = PatientInformation.getInstance().getField(field);
+		String mappingFieldName = informationField == null ? field : informationField.getMappingFieldName();
+
+		return FIELD_INDEXES.get(mappingFieldName);
+	}
+
+	/**
+	 * Reads the column lists of the existing indexes of the given tables from the JDBC metadata.
+	 */
+	private Map<String, List<List<String>>> getExistingIndexes(Collection<IndexDefinition> indexes) {
+		final Set<String> tables = new HashSet<String>();
+		for (IndexDefinition index : indexes) {
+			tables.add(index.table);
+		}
+
+		final Map<String, List<List<String>>> results = new LinkedHashMap<String, List<List<String>>>();
+		Context.getRegisteredComponents(SessionFactory.class).get(0).getCurrentSession().doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				DatabaseMetaData metaData = connection.getMetaData();
+				for (String table : tables) {
+					results.put(table, readIndexes(metaData, connection.getCatalog(), table));
+				}
+			}
+		});
+
+		return results;
+	}
+
+	private List<List<String>> readIndexes(DatabaseMetaData metaData, String catalog, String table)
+	        throws SQLException {
+		Map<String, List<String>> indexColumns = new LinkedHashMap<String, List<String>>();
+		ResultSet resultSet = metaData.getIndexInfo(catalog, null, table, false, true);
+		try {
+			while (resultSet.next()) {
+				String indexName = resultSet.getString("INDEX_NAME");
+				String column = resultSet.getString("COLUMN_NAME");
+				if (indexName == null || column == null) {
+					continue;
+				}
+
+				List<String> columns = indexColumns.get(indexName);
+				if (columns == null) {
+					columns = new ArrayList<String>();
+					indexColumns.put(indexName, columns);
+				}
+
+				int position = resultSet.getInt("ORDINAL_POSITION");
+				while (columns.size() < position) {
+					columns.add(null);
+				}
+				columns.set(position - 1, column.toLowerCase());
+			}
+		} finally {
+			resultSet.close();
+		}
+
+		return new ArrayList<List<String>>(indexColumns.values());
+	}
+
+	private boolean isCovered(IndexDefinition index, List<List<String>> existingIndexes) {
+		if (existingIndexes == null) {
+			return false;
+		}
+
+		List<String> columns = index.getColumnNames();
+		for (List<String> existingColumns : existingIndexes) {
+			if (existingColumns.size() >= columns.size()
+			        && existingColumns.subList(0, columns.size()).equals(columns)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * The table and column list of an index.
+	 */
+	private static class IndexDefinition {
+		private final String table;
+		private final List<String> columns;
+
+		IndexDefinition(String table, String... columns) {
+			this.table = table;
+			this.columns = Arrays.asList(columns);
+		}
+
+		/**
+		 * Gets the column names without index prefix lengths.
+		 */
+		List<String> getColumnNames() {
+			List<String> names = new ArrayList<String>();
+			for (String column : columns) {
+				names.add(StringUtils.substringBefore(column, "("));
+			}
+
+			return names;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof IndexDefinition)) {
+				return false;
+			}
+
+			IndexDefinition other = (IndexDefinition)o;
+			return table.equals(other.table) && columns.equals(other.columns);
+		}
+
+		@Override
+		public int hashCode() {
+			return table.hashCode() * 31 + columns.hashCode();
+		}
+	}
+
+	/**
+	 * A recommended index and the patient list usage that it would speed up.
+	 */
+	public static class IndexRecommendation {
+		private final IndexDefinition index;
+		private final Set<String> fields = new HashSet<String>();
+		private int listCount;
+		private double score;
+		private boolean existing;
+
+		IndexRecommendation(IndexDefinition index) {
+			this.index = index;
+		}
+
+		public String getName() {
+			String name = "patientlist_" + index.table + "_" + StringUtils.join(index.getColumnNames(), "_");
+
+			return StringUtils.left(name, MAX_INDEX_NAME_LENGTH);
+		}
+
+		public String getTable() {
+			return index.table;
+		}
+
+		public List<String> getColumns() {
+			return index.getColumnNames();
+		}
+
+		public String getSql() {
+			return "CREATE INDEX " + getName() + " ON " + index.table + " (" + StringUtils.join(index.columns, ", ")
+			        + ")";
+		}
+
+		/**
+		 * The list fields that filter or sort on the indexed columns.
+		 */
+		public Set<String> getFields() {
+			return fields;
+		}
+
+		/**
+		 * The number of active lists that use the indexed columns.
+		 */
+		public int getListCount() {
+			return listCount;
+		}
+
+		/**
+		 * The estimated impact, HIGH, MEDIUM or LOW, from the number and cost of the conditions that use the columns.
+		 */
+		public String getImpact() {
+			if (score >= HIGH_IMPACT_SCORE) {
+				return "HIGH";
+			} else if (score >= MEDIUM_IMPACT_SCORE) {
+				return "MEDIUM";
+			}
+
+			return "LOW";
+		}
+
+		public double getScore() {
+			return score;
+		}
+
+		/**
+		 * Whether the columns are already the leading columns of an existing index.
+		 */
+		public boolean isExisting() {
+			return existing;
+		}
+	}
+
+	private static class Holder {
+		private static final PatientListIndexAdvisor INSTANCE = new PatientListIndexAdvisor();
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.util;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+import org.openmrs.module.patientlist.ModuleSettings;
+import org.openmrs.module.patientlist.api.event.IPatientListDataChangeListener;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeEvent;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeTracker;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.model.PatientListData;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Short lived, per user cache of the evaluated rows of patient lists, used to narrow a list down with a quick filter
+ * without evaluating the list again. Cached lists expire after the configured time to live and are removed as soon as
+ * data that the list depends on changes. The cache holds at most the configured total number of rows, lists that do
+ * not fit are not cached.
+ */
+public class PatientListMembershipCache implements IPatientListDataChangeListener {
+	private static final long MILLISECONDS_PER_SECOND = 1000L;
+	private static final Pattern TAGS = Pattern.compile("<[^>]*>");
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	private PatientListMembershipCache() {
+		PatientListDataChangeTracker.getInstance().addListener(this);
+	}
+
+	public static PatientListMembershipCache getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Creates the cache key for a patient list viewed by a user.
+	 * @param userUuid The uuid of the user viewing the list
+	 * @param patientListUuid The patient list uuid
+	 * @return The cache key
+	 */
+	public static String createKey(String userUuid, String patientListUuid) {
+		return userUuid + "|" + patientListUuid;
+	}
+
+	/**
+	 * Creates a copy of a rendered row that does not reference any session entities. The patient and visit of the copy
+	 * only have their id, uuid and visit dates set.
+	 * @param patientListData The rendered row
+	 * @return The copy
+	 */
+	public static PatientListData createRow(PatientListData patientListData) {
+		Patient patient = null;
+		if (patientListData.getPatient() != null) {
+			patient = new Patient(patientListData.getPatient().getPatientId());
+			patient.setUuid(patientListData.getPatient().getUuid());
+		}
+
+		Visit visit = null;
+		if (patientListData.getVisit() != null) {
+			visit = new Visit(patientListData.getVisit().getVisitId());
+			visit.setUuid(patientListData.getVisit().getUuid());
+			visit.setStartDatetime(patientListData.getVisit().getStartDatetime());
+			visit.setStopDatetime(patientListData.getVisit().getStopDatetime());
+		}
+
+		PatientListData row = new PatientListData(patient, visit, patientListData.getPatientList());
+		row.setUuid(patientListData.getUuid());
+		row.setHeaderContent(patientListData.getHeaderContent());
+		row.setBodyContent(patientListData.getBodyContent());
+
+		return row;
+	}
+
+	/**
+	 * Splits a quick filter into the normalized words that a row must contain.
+	 * @param quickFilter The quick filter
+	 * @return The filter words, empty if the filter matches every row
+	 */
+	public static List<String> getFilterWords(String quickFilter) {
+		return PatientListNameKeyIndex.tokenize(quickFilter);
+	}
+
+	/**
+	 * Returns whether the rendered content of a row contains every filter word, as a whole word or at the start of a
+	 * word.
+	 * @param patientListData The rendered row
+	 * @param filterWords The filter words (see {@link #getFilterWords(String)})
+	 * @return true if the row matches the filter
+	 */
+	public static boolean matches(PatientListData patientListData, List<String> filterWords) {
+		NavigableSet<String> words = getWords(patientListData);
+		for (String filterWord : filterWords) {
+			if (words.subSet(filterWord, true, filterWord + Character.MAX_VALUE, false).isEmpty()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Gets a cached list.
+	 * @param key The list key (see {@link #createKey(String, String)})
+	 * @return The cached list or null if the list is not cached or has expired
+	 */
+	public Membership get(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+
+		if (entry.expires < System.currentTimeMillis()) {
+			entries.remove(key, entry);
+			return null;
+		}
+
+		return entry.membership;
+	}
+
+	/**
+	 * Caches the rows of a patient list. The rows are not cached if the list data changed after the list evaluation was
+	 * started or if they do not fit in the cache.
+	 * @param key The list key
+	 * @param patientList The patient list
+	 * @param membership The rows of the list
+	 * @param version The data version (see {@link PatientListDataChangeTracker#getVersion()}) when the list evaluation
+	 *            was started
+	 * @param ttlSeconds The number of seconds to keep the rows
+	 */
+	public synchronized void put(String key, PatientList patientList, Membership membership, long version,
+	        int ttlSeconds) {
+		if (membership == null || ttlSeconds <= 0
+		        || PatientListDataChangeTracker.getInstance().getChangeVersion(patientList) > version) {
+			return;
+		}
+
+		// puts are synchronized so that concurrent puts cannot together exceed the maximum, removals only free rows
+		int maxRows = ModuleSettings.getQuickFilterCacheMaxRows();
+		if (getCachedRows(key) + membership.getCachedRows() > maxRows) {
+			removeExpired();
+			if (getCachedRows(key) + membership.getCachedRows() > maxRows) {
+				return;
+			}
+		}
+
+		entries.put(key, new Entry(membership, patientList.getUuid(), PatientListDataChangeEvent.getDependentTypes(
+		    patientList), System.currentTimeMillis() + ttlSeconds * MILLISECONDS_PER_SECOND));
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	@Override
+	public void onDataChanged(PatientListDataChangeEvent event) {
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next().getValue();
+			if (event.affects(entry.patientListUuid, entry.dependentTypes)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of rows held by the cached lists, other than the list cached under the given key.
+	 */
+	private long getCachedRows(String excludedKey) {
+		long rows = 0;
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (!entry.getKey().equals(excludedKey)) {
+				rows += entry.getValue().membership.getCachedRows();
+			}
+		}
+
+		return rows;
+	}
+
+	private void removeExpired() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().getValue().expires < now) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Gets the distinct normalized words of the rendered header and body content of a row, without markup.
+	 */
+	private static NavigableSet<String> getWords(PatientListData patientListData) {
+		String content = StringUtils.defaultString(patientListData.getHeaderContent()) + " "
+		        + StringUtils.defaultString(patientListData.getBodyContent());
+		content = StringEscapeUtils.unescapeHtml(TAGS.matcher(content).replaceAll(" "));
+
+		return new TreeSet<String>(PatientListNameKeyIndex.tokenize(content));
+	}
+
+	/**
+	 * The rows of an evaluated patient list, in list order, with an inverted index of the words in their rendered
+	 * content.
+	 */
+	public static class Membership {
+		private final List<PatientListData> rows;
+		private final NavigableMap<String, BitSet> index = new TreeMap<String, BitSet>();
+
+		/**
+		 * Creates the membership of a list.
+		 * @param rows The rows of the list, in list order, as created by {@link #createRow(PatientListData)}
+		 */
+		public Membership(List<PatientListData> rows) {
+			this.rows = Collections.unmodifiableList(new ArrayList<PatientListData>(rows));
+
+			for (int i = 0; i < this.rows.size(); i++) {
+				for (String word : getWords(this.rows.get(i))) {
+					BitSet rowIndexes = index.get(word);
+					if (rowIndexes == null) {
+						rowIndexes = new BitSet();
+						index.put(word, rowIndexes);
+					}
+					rowIndexes.set(i);
+				}
+			}
+		}
+
+		public int size() {
+			return rows.size();
+		}
+
+		/**
+		 * Gets the number of rows the list counts for in the cache, an empty list counts as one row.
+		 */
+		int getCachedRows() {
+			return Math.max(1, rows.size());
+		}
+
+		/**
+		 * Gets the rows whose rendered content contains every filter word, as a whole word or at the start of a word.
+		 * The returned rows are shared with the cache and must not be changed.
+		 * @param filterWords The filter words (see {@link #getFilterWords(String)})
+		 * @return The matching rows, in list order
+		 */
+		public List<PatientListData> filter(List<String> filterWords) {
+			BitSet matches = new BitSet(rows.size());
+			matches.set(0, rows.size());
+			for (String filterWord : filterWords) {
+				BitSet wordMatches = new BitSet(rows.size());
+				// the words that start with the filter word sort directly after it
+				for (BitSet rowIndexes : index.subMap(filterWord, true, filterWord + Character.MAX_VALUE, false)
+				        .values()) {
+					wordMatches.or(rowIndexes);
+				}
+
+				matches.and(wordMatches);
+				if (matches.isEmpty()) {
+					break;
+				}
+			}
+
+			List<PatientListData> result = new ArrayList<PatientListData>(matches.cardinality());
+			for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+				result.add(rows.get(i));
+			}
+
+			return result;
+		}
+	}
+
+	private static class Entry {
+		private final Membership membership;
+		private final String patientListUuid;
+		private final Set<String> dependentTypes;
+		private final long expires;
+
+		Entry(Membership membership, String patientListUuid, Set<String> dependentTypes, long expires) {
+			this.membership = membership;
+			this.patientListUuid = patientListUuid;
+			this.dependentTypes = dependentTypes;
+			this.expires = expires;
+		}
+	}
+
+	private static class Holder {
+		private static final PatientListMembershipCache INSTANCE = new PatientListMembershipCache();
+	}
+}
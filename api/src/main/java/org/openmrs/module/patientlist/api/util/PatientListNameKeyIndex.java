@@ -0,0 +1,407 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.util;
+
+import org.apache.commons.codec.language.DoubleMetaphone;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.jdbc.Work;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientlist.api.model.PatientListNameKey;
+import org.openmrs.module.patientlist.api.model.PatientListNameKeyType;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Maintains the {@link PatientListNameKey} table of normalized search keys for the person names. Name conditions that
+ * use the keys are evaluated with an index seek on the key instead of a scan of the person names. The keys of changed
+ * names are rewritten in the transaction that changed them, the whole table can be rebuilt with {@link #rebuild()}.
+ * The keys are only known to be complete after they have been rebuilt or verified on this node, and stop being so when
+ * the keys of a saved name could not be written.
+ */
+public class PatientListNameKeyIndex {
+	/**
+	 * The {@link PersonName} properties that keys are created for.
+	 */
+	public static final String[] NAME_FIELDS = { "givenName", "middleName", "familyName", "familyName2" };
+	public static final int MAX_KEY_LENGTH = 50;
+	public static final int TRIGRAM_LENGTH = 3;
+
+	private static final Log LOG = LogFactory.getLog(PatientListNameKeyIndex.class);
+
+	private static final int BATCH_SIZE = 1000;
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+	private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+	private static final DoubleMetaphone PHONETIC_ENCODER = new DoubleMetaphone();
+
+	private static final String SELECT_KEY_SQL = "select person_name_id from patient_list_name_key where key_type = ?";
+	private static final String SELECT_UNKEYED_NAME_SQL = "select n.person_name_id from person_name n "
+	        + "where n.voided = ? and (n.given_name <> '' or n.family_name <> '') and not exists "
+	        + "(select k.person_name_id from patient_list_name_key k where k.person_name_id = n.person_name_id)";
+	private static final String DELETE_ALL_SQL = "delete from patient_list_name_key";
+	private static final String DELETE_NAME_SQL = "delete from patient_list_name_key where person_name_id = ?";
+	private static final String INSERT_SQL = "insert into patient_list_name_key "
+	        + "(person_name_id, person_id, field, key_type, name_key) values (?, ?, ?, ?, ?)";
+	private static final String SELECT_NAMES_SQL = "select person_name_id, person_id, given_name, middle_name, "
+	        + "family_name, family_name2 from person_name where voided = ? and person_name_id > ? "
+	        + "order by person_name_id";
+
+	private final AtomicLong updatedNames = new AtomicLong();
+	private final AtomicLong rebuilds = new AtomicLong();
+	private volatile long lastRebuildKeys;
+	private volatile long lastRebuildMillis;
+	private volatile boolean complete;
+
+	private PatientListNameKeyIndex() {}
+
+	public static PatientListNameKeyIndex getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Converts a name to the form used for the keys: lower case, without accents and with every character that is not
+	 * a letter or digit replaced by a space.
+	 * @param value The name
+	 * @return The normalized name, never null
+	 */
+	public static String normalize(String value) {
+		if (StringUtils.isBlank(value)) {
+			return "";
+		}
+
+		String result = MARKS.matcher(Normalizer.normalize(value, Normalizer.Form.NFD)).replaceAll("");
+		result = SEPARATORS.matcher(result.toLowerCase()).replaceAll(" ");
+
+		return result.trim();
+	}
+
+	/**
+	 * Splits a name into its distinct normalized words.
+	 * @param value The name
+	 * @return The words, in the order they appear in the name
+	 */
+	public static List<String> tokenize(String value) {
+		String normalized = normalize(value);
+		if (normalized.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		Set<String> tokens = new LinkedHashSet<String>();
+		for (String token : StringUtils.split(normalized, ' ')) {
+			tokens.add(StringUtils.left(token, MAX_KEY_LENGTH));
+		}
+
+		return new ArrayList<String>(tokens);
+	}
+
+	/**
+	 * Creates the keys of the given type for a name field value.
+	 * @param keyType The key type
+	 * @param value The name field value
+	 * @return The distinct keys
+	 */
+	public static Set<String> createKeys(PatientListNameKeyType keyType, String value) {
+		Set<String> keys = new LinkedHashSet<String>();
+		switch (keyType) {
+			case TOKEN:
+				keys.addAll(tokenize(value));
+				break;
+			case TRIGRAM:
+				String normalized = normalize(value);
+				for (int index = 0; index + TRIGRAM_LENGTH <= normalized.length(); index++) {
+					keys.add(normalized.substring(index, index + TRIGRAM_LENGTH));
+				}
+				break;
+			case PHONETIC:
+				for (String token : tokenize(value)) {
+					addKey(keys, PHONETIC_ENCODER.doubleMetaphone(token, false));
+					addKey(keys, PHONETIC_ENCODER.doubleMetaphone(token, true));
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid name key type " + keyType);
+		}
+
+		return keys;
+	}
+
+	/**
+	 * Rewrites the keys of the given names in the current transaction. Voided names lose their keys.
+	 * @param names The saved or updated names
+	 * @param deletedNameIds The ids of the deleted names
+	 */
+	public void update(final Collection<PersonName> names, final Collection<Integer> deletedNameIds) {
+		if (names.isEmpty() && deletedNameIds.isEmpty()) {
+			return;
+		}
+
+		getSessionFactory().getCurrentSession().doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				PreparedStatement delete = connection.prepareStatement(DELETE_NAME_SQL);
+				PreparedStatement insert = connection.prepareStatement(INSERT_SQL);
+				try {
+					for (Integer personNameId : deletedNameIds) {
+						delete.setInt(1, personNameId);
+						delete.addBatch();
+					}
+
+					for (PersonName name : names) {
+						if (name.getPersonNameId() == null) {
+							continue;
+						}
+
+						delete.setInt(1, name.getPersonNameId());
+						delete.addBatch();
+
+						if (!name.isVoided() && name.getPerson() != null && name.getPerson().getPersonId() != null) {
+							addKeys(insert, name.getPersonNameId(), name.getPerson().getPersonId(),
+							    new String[] { name.getGivenName(), name.getMiddleName(), name.getFamilyName(),
+							            name.getFamilyName2() });
+						}
+					}
+
+					delete.executeBatch();
+					insert.executeBatch();
+				} finally {
+					delete.close();
+					insert.close();
+				}
+			}
+		});
+
+		updatedNames.addAndGet(names.size() + deletedNameIds.size());
+	}
+
+	/**
+	 * Deletes all keys and creates them again from the non-voided person names, in the current transaction.
+	 * @return The number of keys created
+	 */
+	public long rebuild() {
+		final long start = System.currentTimeMillis();
+		final long[] keyCount = new long[1];
+		getSessionFactory().getCurrentSession().doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				PreparedStatement delete = connection.prepareStatement(DELETE_ALL_SQL);
+				try {
+					delete.executeUpdate();
+				} finally {
+					delete.close();
+				}
+
+				PreparedStatement select = connection.prepareStatement(SELECT_NAMES_SQL);
+				PreparedStatement insert = connection.prepareStatement(INSERT_SQL);
+				try {
+					// page through the names by id so that the memory used does not depend on the number of names
+					select.setMaxRows(BATCH_SIZE);
+					int lastPersonNameId = Integer.MIN_VALUE;
+					int rows;
+					do {
+						rows = 0;
+						select.setBoolean(1, false);
+						select.setInt(2, lastPersonNameId);
+						ResultSet resultSet = select.executeQuery();
+						try {
+							while (resultSet.next()) {
+								rows++;
+								lastPersonNameId = resultSet.getInt(1);
+								keyCount[0] += addKeys(insert, lastPersonNameId, resultSet.getInt(2), new String[] {
+								        resultSet.getString(3), resultSet.getString(4), resultSet.getString(5),
+								        resultSet.getString(6) });
+							}
+						} finally {
+							resultSet.close();
+						}
+
+						insert.executeBatch();
+					} while (rows == BATCH_SIZE);
+				} finally {
+					select.close();
+					insert.close();
+				}
+			}
+		});
+
+		rebuilds.incrementAndGet();
+		complete = true;
+		lastRebuildKeys = keyCount[0];
+		lastRebuildMillis = System.currentTimeMillis() - start;
+		LOG.info("Created " + lastRebuildKeys + " patient list name keys in " + lastRebuildMillis + " ms");
+
+		return lastRebuildKeys;
+	}
+
+	/**
+	 * Returns whether the keys of every type have been created. Keys of a type are missing after the module was
+	 * installed or after an upgrade added the type.
+	 * @return true if any key type has no keys
+	 */
+	public boolean isMissingKeys() {
+		for (PatientListNameKeyType keyType : PatientListNameKeyType.values()) {
+			if (!isAvailable(keyType)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Checks that keys of every type have been created and that every non-voided name has keys, and records the result
+	 * as whether the keys are complete.
+	 * @return true if the keys are complete
+	 */
+	public boolean verify() {
+		if (isMissingKeys()) {
+			complete = false;
+			return false;
+		}
+
+		final boolean[] unkeyed = new boolean[1];
+		getSessionFactory().getCurrentSession().doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				PreparedStatement select = connection.prepareStatement(SELECT_UNKEYED_NAME_SQL);
+				try {
+					select.setMaxRows(1);
+					select.setBoolean(1, false);
+					ResultSet resultSet = select.executeQuery();
+					try {
+						unkeyed[0] = resultSet.next();
+					} finally {
+						resultSet.close();
+					}
+				} finally {
+					select.close();
+				}
+			}
+		});
+
+		complete = !unkeyed[0];
+		return complete;
+	}
+
+	/**
+	 * Returns whether the keys are known to match the names, so that a name without a matching key cannot match a
+	 * condition. Conditions must not be narrowed down by the keys otherwise.
+	 * @return true if the keys have been rebuilt or verified and no update has failed since
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Records that the keys of some names could not be written, so that the keys are not used to narrow down
+	 * conditions until they are rebuilt.
+	 */
+	public void markIncomplete() {
+		if (complete) {
+			LOG.warn("The patient list name keys are incomplete, substring name conditions will not use them until "
+			        + "the keys are rebuilt");
+		}
+		complete = false;
+	}
+
+	/**
+	 * Returns whether keys of the given type have been created and can be used to find names.
+	 * @param keyType The key type
+	 * @return true if there are keys of the type
+	 */
+	public boolean isAvailable(final PatientListNameKeyType keyType) {
+		final boolean[] available = new boolean[1];
+		getSessionFactory().getCurrentSession().doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				PreparedStatement select = connection.prepareStatement(SELECT_KEY_SQL);
+				try {
+					select.setMaxRows(1);
+					select.setString(1, keyType.name());
+					ResultSet resultSet = select.executeQuery();
+					try {
+						available[0] = resultSet.next();
+					} finally {
+						resultSet.close();
+					}
+				} finally {
+					select.close();
+				}
+			}
+		});
+
+		return available[0];
+	}
+
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("updatedNames", updatedNames.get());
+		statistics.put("rebuilds", rebuilds.get());
+		statistics.put("complete", complete);
+		statistics.put("lastRebuildKeys", lastRebuildKeys);
+		statistics.put("lastRebuildMillis", lastRebuildMillis);
+
+		return statistics;
+	}
+
+	private int addKeys(PreparedStatement insert, int personNameId, int personId, String[] values)
+	        throws SQLException {
+		int count = 0;
+		for (int i = 0; i < NAME_FIELDS.length; i++) {
+			for (PatientListNameKeyType keyType : PatientListNameKeyType.values()) {
+				for (String key : createKeys(keyType, values[i])) {
+					insert.setInt(1, personNameId);
+					insert.setInt(2, personId);
+					insert.setString(3, NAME_FIELDS[i]);
+					insert.setString(4, keyType.name());
+					insert.setString(5, key);
+					insert.addBatch();
+					count++;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	private static void addKey(Set<String> keys, String key) {
+		if (StringUtils.isNotEmpty(key)) {
+			keys.add(key);
+		}
+	}
+
+	private SessionFactory getSessionFactory() {
+		return Context.getRegisteredComponents(SessionFactory.class).get(0);
+	}
+
+	private static class Holder {
+		private static final PatientListNameKeyIndex INSTANCE = new PatientListNameKeyIndex();
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.util;
+
+import org.openmrs.module.patientlist.api.event.IPatientListDataChangeListener;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeEvent;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeTracker;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.model.PatientListData;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Short lived, per user cache of rendered patient list pages that were read ahead of the page being viewed. Cached
+ * pages expire after the configured time to live, are removed as soon as data that the list depends on changes and are
+ * handed out at most once.
+ */
+public class PatientListPageCache implements IPatientListDataChangeListener {
+	private static final long MILLISECONDS_PER_SECOND = 1000L;
+	private static final int MAX_ENTRIES = 500;
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final Set<String> pendingKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private PatientListPageCache() {
+		PatientListDataChangeTracker.getInstance().addListener(this);
+	}
+
+	public static PatientListPageCache getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Creates the cache key for a page of a patient list viewed by a user.
+	 * @param userUuid The uuid of the user viewing the list
+	 * @param patientListUuid The patient list uuid
+	 * @param page The page number
+	 * @param pageSize The page size
+	 * @return The cache key
+	 */
+	public static String createKey(String userUuid, String patientListUuid, int page, int pageSize) {
+		return userUuid + "|" + patientListUuid + "|" + page + "|" + pageSize;
+	}
+
+	/**
+	 * Gets and removes a cached page.
+	 * @param key The page key (see {@link #createKey(String, String, int, int)})
+	 * @return The cached page or null if the page is not cached or has expired
+	 */
+	public Page take(String key) {
+		Entry entry = entries.remove(key);
+		if (entry == null || entry.expires < System.currentTimeMillis()) {
+			return null;
+		}
+
+		return entry.page;
+	}
+
+	/**
+	 * Marks a page as being read ahead so that it is only requested once.
+	 * @param key The page key
+	 * @return false if the page is already cached, being read or the cache is full, true otherwise
+	 */
+	public boolean reserve(String key) {
+		if (entries.containsKey(key) || entries.size() + pendingKeys.size() >= MAX_ENTRIES) {
+			removeExpired();
+			return false;
+		}
+
+		return pendingKeys.add(key);
+	}
+
+	/**
+	 * Releases a page reservation without caching the page.
+	 * @param key The page key
+	 */
+	public void release(String key) {
+		pendingKeys.remove(key);
+	}
+
+	/**
+	 * Caches a page that was read ahead. The page is not cached if the list data changed after the page was started.
+	 * @param key The page key
+	 * @param patientList The patient list
+	 * @param page The rendered page
+	 * @param version The data version (see {@link PatientListDataChangeTracker#getVersion()}) when the page was started
+	 * @param ttlSeconds The number of seconds to keep the page
+	 */
+	public void put(String key, PatientList patientList, Page page, long version, int ttlSeconds) {
+		try {
+			if (page == null || ttlSeconds <= 0
+			        || PatientListDataChangeTracker.getInstance().getChangeVersion(patientList) > version) {
+				return;
+			}
+
+			entries.put(key, new Entry(page, patientList.getUuid(), PatientListDataChangeEvent.getDependentTypes(
+			    patientList), System.currentTimeMillis() + ttlSeconds * MILLISECONDS_PER_SECOND));
+		} finally {
+			pendingKeys.remove(key);
+		}
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	@Override
+	public void onDataChanged(PatientListDataChangeEvent event) {
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next().getValue();
+			if (event.affects(entry.patientListUuid, entry.dependentTypes)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private void removeExpired() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().getValue().expires < now) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * A rendered page of patient list data. The rows must not hold entities from the session that rendered them, which
+	 * is closed by the time the page is served.
+	 */
+	public static class Page {
+		private final List<PatientListData> patientListData;
+		private final Long totalRecordCount;
+
+		public Page(List<PatientListData> patientListData, Long totalRecordCount) {
+			this.patientListData = patientListData;
+			this.totalRecordCount = totalRecordCount;
+		}
+
+		public List<PatientListData> getPatientListData() {
+			return patientListData;
+		}
+
+		public Long getTotalRecordCount() {
+			return totalRecordCount;
+		}
+	}
+
+	private static class Entry {
+		private final Page page;
+		private final String patientListUuid;
+		private final Set<String> dependentTypes;
+		private final long expires;
+
+		Entry(Page page, String patientListUuid, Set<String> dependentTypes, long expires) {
+			this.page = page;
+			this.patientListUuid = patientListUuid;
+			this.dependentTypes = dependentTypes;
+			this.expires = expires;
+		}
+	}
+
+	private static class Holder {
+		private static final PatientListPageCache INSTANCE = new PatientListPageCache();
+	}
+}
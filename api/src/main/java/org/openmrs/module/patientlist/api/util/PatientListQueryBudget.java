@@ -0,0 +1,106 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.module.patientlist.ModuleSettings;
+import org.openmrs.module.patientlist.api.model.IBasePatientList;
+import org.openmrs.module.patientlist.api.model.PatientInformationField;
+import org.openmrs.module.patientlist.api.model.PatientList;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Estimates the cost of a patient list query before it is run and resolves the execution budget of the list.
+ */
+public class PatientListQueryBudget {
+	private static final String[] COLLECTION_MAPPINGS = { "p.names.", "p.addresses.", "p.identifiers." };
+
+	protected PatientListQueryBudget() {}
+
+	/**
+	 * Gets the statement timeout for the queries of a patient list. The list timeout is used when it is set, otherwise
+	 * the global patient list query timeout.
+	 * @param patientList The patient list
+	 * @return The timeout in seconds, 0 if the queries should not time out
+	 */
+	public static int getTimeoutSeconds(PatientList patientList) {
+		if (patientList != null && patientList.getQueryTimeoutSeconds() != null
+		        && patientList.getQueryTimeoutSeconds() > 0) {
+			return patientList.getQueryTimeoutSeconds();
+		}
+
+		return ModuleSettings.getQueryTimeoutSeconds();
+	}
+
+	/**
+	 * Estimates the number of joins and correlated subqueries the list query will need. Each visit or person
+	 * attribute type and each diagnosis field needs its own join or subquery, while name, address and identifier
+	 * fields share a join per collection.
+	 * @param patientList The patient list
+	 * @return The estimated number of joins
+	 */
+	public static int estimateJoins(PatientList patientList) {
+		Set<String> joins = new HashSet<String>();
+		int subQueries = 0;
+
+		subQueries += collectJoins(patientList.getPatientListConditions(), joins, true);
+		subQueries += collectJoins(patientList.getOrdering(), joins, false);
+
+		return joins.size() + subQueries;
+	}
+
+	private static <T extends IBasePatientList> int collectJoins(List<T> items, Set<String> joins, boolean conditions) {
+		int subQueries = 0;
+		if (items == null) {
+			return subQueries;
+		}
+
+		for (T item : items) {
+			String field = item == null ? null : item.getField();
+			if (StringUtils.isEmpty(field)) {
+				continue;
+			}
+
+			if (StringUtils.startsWith(field, "v.") || StringUtils.contains(field, "hasActiveVisit")) {
+				joins.add("v");
+			}
+
+			if (StringUtils.contains(field, "iagnosis")) {
+				// encounter and obs subqueries
+				subQueries += 2;
+			} else if (StringUtils.startsWith(field, "v.attr.")) {
+				joins.add(field);
+			} else if (StringUtils.startsWith(field, "p.attr.")) {
+				if (conditions) {
+					subQueries++;
+				} else {
+					joins.add(field);
+				}
+			} else {
+				PatientInformationField<?> informationField = PatientInformation.getInstance().getField(field);
+				String mappingFieldName = informationField == null ? null : informationField.getMappingFieldName();
+				for (String collection : COLLECTION_MAPPINGS) {
+					if (StringUtils.startsWith(mappingFieldName, collection)) {
+						joins.add(collection);
+					}
+				}
+			}
+		}
+
+		return subQueries;
+	}
+}
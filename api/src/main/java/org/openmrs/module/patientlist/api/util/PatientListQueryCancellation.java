@@ -0,0 +1,88 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.openmrs.module.patientlist.api.PatientListEvaluationInterruptedException;
+
+/**
+ * Allows a running patient list evaluation to be cancelled from another thread, for example when the client that
+ * requested the list disconnects. The evaluation checks the cancellation between stages and the running statement is
+ * cancelled through the Hibernate session.
+ */
+public class PatientListQueryCancellation {
+	private static final Log LOG = LogFactory.getLog(PatientListQueryCancellation.class);
+	private static final ThreadLocal<PatientListQueryCancellation> CURRENT =
+	        new ThreadLocal<PatientListQueryCancellation>();
+
+	private volatile boolean cancelled;
+	private volatile Session session;
+
+	/**
+	 * Gets the cancellation bound to the current thread.
+	 * @return The cancellation or null if the current evaluation cannot be cancelled
+	 */
+	public static PatientListQueryCancellation getCurrent() {
+		return CURRENT.get();
+	}
+
+	public static void bind(PatientListQueryCancellation cancellation) {
+		CURRENT.set(cancellation);
+	}
+
+	public static void unbind() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * Throws a {@link PatientListEvaluationInterruptedException} if the evaluation on the current thread has been
+	 * cancelled.
+	 */
+	public static void checkCancelled() {
+		PatientListQueryCancellation cancellation = CURRENT.get();
+		if (cancellation != null && cancellation.isCancelled()) {
+			throw new PatientListEvaluationInterruptedException("The patient list evaluation was cancelled", false, null);
+		}
+	}
+
+	/**
+	 * Cancels the evaluation and the statement it is currently running, if any.
+	 */
+	public void cancel() {
+		cancelled = true;
+
+		Session current = session;
+		if (current != null) {
+			try {
+				current.cancelQuery();
+			} catch (HibernateException ex) {
+				LOG.debug("Could not cancel the running patient list query", ex);
+			}
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Sets the session that is running the evaluation queries, or null once they are complete.
+	 */
+	public void setSession(Session session) {
+		this.session = session;
+	}
+}
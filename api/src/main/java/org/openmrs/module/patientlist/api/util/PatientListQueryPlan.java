@@ -0,0 +1,357 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.hql.QueryTranslator;
+import org.hibernate.hql.ast.ASTQueryTranslatorFactory;
+import org.hibernate.jdbc.Work;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientlist.ModuleSettings;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A normalized summary of the database plan of a patient list query: the tables in join order, the tables that are
+ * fully scanned, the indexes used and the estimated number of rows examined. MySQL plans are read from the EXPLAIN
+ * columns, other databases (H2, PostgreSQL) from the plan text.
+ */
+public class PatientListQueryPlan {
+	private static final Log LOG = LogFactory.getLog(PatientListQueryPlan.class);
+
+	// H2: "/* PUBLIC.PERSON.tableScan */" and "/* PUBLIC.PRIMARY_KEY_8: PATIENT_ID = ... */"
+	private static final Pattern H2_TABLE_SCAN = Pattern.compile("/\\*\\s*(?:\\w+\\.)?(\\w+)\\.tableScan\\b");
+	private static final Pattern H2_INDEX = Pattern.compile("/\\*\\s*(?:\\w+\\.)?(\\w+):\\s");
+	private static final Pattern H2_TABLE = Pattern.compile("\\b(?:FROM|JOIN)\\s+(?:\\w+\\.)?(\\w+)");
+	// PostgreSQL: "Seq Scan on person  (cost=...)" and "Index Scan using person_name_person on person_name ..."
+	private static final Pattern POSTGRESQL_TABLE_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+	private static final Pattern POSTGRESQL_INDEX = Pattern.compile("Index (?:Only )?Scan using (\\w+) on");
+	private static final Pattern POSTGRESQL_TABLE = Pattern.compile("Scan (?:using \\w+ )?on (\\w+)");
+	private static final Pattern POSTGRESQL_ROWS = Pattern.compile("rows=(\\d+)");
+
+	private final String sql;
+	private final List<Step> steps = new ArrayList<Step>();
+	private final List<String> joinOrder = new ArrayList<String>();
+	private final List<String> tableScans = new ArrayList<String>();
+	private final List<String> indexes = new ArrayList<String>();
+	private final List<String> plan = new ArrayList<String>();
+	private final List<String> warnings = new ArrayList<String>();
+	private Long estimatedRows;
+
+	private PatientListQueryPlan(String sql) {
+		this.sql = sql;
+	}
+
+	/**
+	 * Runs the database EXPLAIN for a list query in the current session.
+	 * @param hql The list query HQL
+	 * @param parameters The positional parameter values of the query
+	 * @return The query plan. Problems explaining the query are reported as plan warnings.
+	 */
+	public static PatientListQueryPlan explain(String hql, final List<Object> parameters) {
+		final PatientListQueryPlan result = new PatientListQueryPlan(translateToSql(hql));
+		if (result.sql == null) {
+			result.addWarning("The list query could not be translated to SQL");
+
+			return result;
+		}
+
+		try {
+			Context.getRegisteredComponents(SessionFactory.class).get(0).getCurrentSession().doWork(new Work() {
+				@Override
+				public void execute(Connection connection) throws SQLException {
+					PreparedStatement statement = connection.prepareStatement("EXPLAIN " + result.sql);
+					try {
+						int index = 1;
+						for (Object parameter : parameters) {
+							statement.setObject(index++, parameter instanceof Date ? new Timestamp(((Date)parameter)
+							        .getTime()) : parameter);
+						}
+
+						ResultSet resultSet = statement.executeQuery();
+						try {
+							result.read(resultSet);
+						} finally {
+							resultSet.close();
+						}
+					} finally {
+						statement.close();
+					}
+				}
+			});
+		} catch (HibernateException ex) {
+			LOG.debug("Could not explain the patient list query", ex);
+			result.addWarning("The database could not explain the list query: " + ex.getMessage());
+
+			return result;
+		}
+
+		result.addPlanWarnings(ModuleSettings.getExplainScanWarningRows());
+
+		return result;
+	}
+
+	/**
+	 * Translates a list query to the SQL that Hibernate runs for it.
+	 * @param hql The query HQL
+	 * @return The SQL or null if the query could not be translated
+	 */
+	public static String translateToSql(String hql) {
+		try {
+			SessionFactoryImplementor factory =
+			        (SessionFactoryImplementor)Context.getRegisteredComponents(SessionFactory.class).get(0);
+			QueryTranslator translator = new ASTQueryTranslatorFactory().createQueryTranslator(hql, hql,
+			    Collections.EMPTY_MAP, factory);
+			translator.compile(Collections.EMPTY_MAP, false);
+
+			return translator.getSQLString();
+		} catch (Exception ex) {
+			LOG.debug("Could not translate the patient list query to SQL", ex);
+
+			return null;
+		}
+	}
+
+	public void addWarning(String warning) {
+		if (!warnings.contains(warning)) {
+			warnings.add(warning);
+		}
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * The plan steps, only available for databases that report the plan as columns (MySQL).
+	 */
+	public List<Step> getSteps() {
+		return steps;
+	}
+
+	/**
+	 * The tables of the query in the order the database joins them.
+	 */
+	public List<String> getJoinOrder() {
+		return joinOrder;
+	}
+
+	/**
+	 * The tables that are read with a full table or index scan.
+	 */
+	public List<String> getTableScans() {
+		return tableScans;
+	}
+
+	public List<String> getIndexes() {
+		return indexes;
+	}
+
+	/**
+	 * The estimated number of rows examined by the query or null if the database does not estimate it.
+	 */
+	public Long getEstimatedRows() {
+		return estimatedRows;
+	}
+
+	/**
+	 * The plan as reported by the database, one line per step.
+	 */
+	public List<String> getPlan() {
+		return plan;
+	}
+
+	public List<String> getWarnings() {
+		return warnings;
+	}
+
+	private void read(ResultSet resultSet) throws SQLException {
+		ResultSetMetaData metaData = resultSet.getMetaData();
+		Map<String, Integer> columns = new HashMap<String, Integer>();
+		for (int i = 1; i <= metaData.getColumnCount(); i++) {
+			columns.put(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT), i);
+		}
+
+		if (columns.containsKey("table") && columns.containsKey("type")) {
+			readColumns(resultSet, columns);
+		} else {
+			StringBuilder text = new StringBuilder();
+			while (resultSet.next()) {
+				text.append(resultSet.getString(1)).append("\n");
+			}
+			readText(text.toString());
+		}
+	}
+
+	private void readColumns(ResultSet resultSet, Map<String, Integer> columns) throws SQLException {
+		String firstSelectId = null;
+		while (resultSet.next()) {
+			Step step = new Step();
+			step.table = getString(resultSet, columns, "table");
+			step.access = getString(resultSet, columns, "type");
+			step.index = getString(resultSet, columns, "key");
+			step.extra = getString(resultSet, columns, "extra");
+			String rows = getString(resultSet, columns, "rows");
+			step.estimatedRows = StringUtils.isNumeric(rows) && rows.length() > 0 ? Long.valueOf(rows) : null;
+			// "ALL" is a full table scan and "index" a full scan of an index
+			step.fullScan = "ALL".equalsIgnoreCase(step.access) || "index".equalsIgnoreCase(step.access);
+			steps.add(step);
+
+			plan.add(step.table + " " + step.access + " key=" + step.index + " rows=" + step.estimatedRows
+			        + (step.extra == null ? "" : " " + step.extra));
+			if (step.table != null && !step.table.startsWith("<")) {
+				addTable(joinOrder, step.table);
+				if (step.fullScan) {
+					addTable(tableScans, step.table);
+				}
+			}
+			if (step.index != null) {
+				addTable(indexes, step.index);
+			}
+
+			// the rows examined by the outer select are the product of the rows of each joined table
+			String selectId = getString(resultSet, columns, "id");
+			if (firstSelectId == null) {
+				firstSelectId = selectId;
+			}
+			if (StringUtils.equals(firstSelectId, selectId) && step.estimatedRows != null) {
+				long current = estimatedRows == null ? 1 : estimatedRows;
+				estimatedRows = step.estimatedRows > 0 && current > Long.MAX_VALUE / step.estimatedRows ? Long.MAX_VALUE
+				        : current * Math.max(1, step.estimatedRows);
+			}
+		}
+	}
+
+	private void readText(String text) {
+		for (String line : StringUtils.split(text, '\n')) {
+			if (StringUtils.isNotBlank(line)) {
+				plan.add(StringUtils.stripEnd(line, null));
+			}
+		}
+
+		boolean postgreSql = text.contains("(cost=");
+		addMatches(postgreSql ? POSTGRESQL_TABLE : H2_TABLE, text, joinOrder);
+		addMatches(postgreSql ? POSTGRESQL_TABLE_SCAN : H2_TABLE_SCAN, text, tableScans);
+		addMatches(postgreSql ? POSTGRESQL_INDEX : H2_INDEX, text, indexes);
+
+		if (postgreSql) {
+			Matcher matcher = POSTGRESQL_ROWS.matcher(text);
+			if (matcher.find()) {
+				estimatedRows = Long.valueOf(matcher.group(1));
+			}
+		}
+	}
+
+	private void addPlanWarnings(long scanWarningRows) {
+		if (steps.isEmpty()) {
+			for (String table : tableScans) {
+				addWarning("Full scan of " + table);
+			}
+		} else {
+			for (Step step : steps) {
+				if (step.fullScan && step.table != null
+				        && (step.estimatedRows == null || step.estimatedRows >= scanWarningRows)) {
+					addWarning("Full scan of " + step.table
+					        + (step.estimatedRows == null ? "" : " (about " + step.estimatedRows + " rows)"));
+				}
+				if (StringUtils.contains(step.extra, "Using temporary") || StringUtils.contains(step.extra, "filesort")) {
+					addWarning("Sorts or groups " + step.table + " with a temporary table");
+				}
+			}
+		}
+
+		if (estimatedRows != null && estimatedRows >= scanWarningRows) {
+			addWarning("The query is estimated to examine about " + estimatedRows + " rows");
+		}
+	}
+
+	private static void addMatches(Pattern pattern, String text, List<String> results) {
+		Matcher matcher = pattern.matcher(text);
+		while (matcher.find()) {
+			addTable(results, matcher.group(1));
+		}
+	}
+
+	private static void addTable(List<String> results, String name) {
+		String normalized = name.toLowerCase(Locale.ROOT);
+		if (!results.contains(normalized)) {
+			results.add(normalized);
+		}
+	}
+
+	private static String getString(ResultSet resultSet, Map<String, Integer> columns, String column)
+	        throws SQLException {
+		Integer index = columns.get(column);
+
+		return index == null ? null : resultSet.getString(index);
+	}
+
+	/**
+	 * A step of a plan reported as columns.
+	 */
+	public static class Step {
+		private String table;
+		private String access;
+		private String index;
+		private Long estimatedRows;
+		private String extra;
+		private boolean fullScan;
+
+		public String getTable() {
+			return table;
+		}
+
+		/**
+		 * The access type reported by the database, for example ALL, ref or eq_ref.
+		 */
+		public String getAccess() {
+			return access;
+		}
+
+		public String getIndex() {
+			return index;
+		}
+
+		public Long getEstimatedRows() {
+			return estimatedRows;
+		}
+
+		public String getExtra() {
+			return extra;
+		}
+
+		public boolean isFullScan() {
+			return fullScan;
+		}
+	}
+}
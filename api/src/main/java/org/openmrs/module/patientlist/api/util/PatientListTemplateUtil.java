@@ -23,6 +23,9 @@ import org.openmrs.module.patientlist.api.model.PatientInformationField;
 import org.openmrs.module.patientlist.api.model.PatientListData;
 import org.openmrs.module.patientlist.api.model.PatientList;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Implement {@link PatientList} template service methods
  */
@@ -33,28 +36,7 @@ public class PatientListTemplateUtil {
 		String[] fields = StringUtils.substringsBetween(template, "{", "}");
 		if (fields != null) {
 			for (String field : fields) {
-				Object value = null;
-				PatientInformationField patientInformationField =
-				        PatientInformation.getInstance().getField(field);
-				if (patientInformationField != null) {
-					if (patientListData.getPatient() != null && StringUtils.contains(field, "p.")) {
-						value = patientInformationField.getValue(patientListData.getPatient());
-					} else if (patientListData.getVisit() != null && StringUtils.contains(field, "v.")) {
-						value = patientInformationField.getValue(patientListData.getVisit());
-						if (value != null && StringUtils.contains(field, "v.attr.")) {
-							try {
-								ConceptAnswer conceptAnswer = Context.getConceptService()
-								        .getConceptAnswerByUuid((String)value);
-								if (conceptAnswer != null) {
-									value = conceptAnswer.getAnswerConcept().getName().getName();
-								}
-							} catch (Exception ex) {
-								LOG.error(ex);
-							}
-						}
-					}
-				}
-
+				Object value = getFieldValue(field, patientListData);
 				if (value != null) {
 					template = StringUtils.replace(template, "{" + field + "}", value.toString());
 				} else {
@@ -65,4 +47,94 @@ public class PatientListTemplateUtil {
 
 		return template;
 	}
+
+	/**
+	 * Applies a template that was parsed ahead of time with {@link #compileTemplate(String)}.
+	 * @param template The compiled template
+	 * @param patientListData The list row to render
+	 * @return The rendered template
+	 */
+	public static String applyTemplate(CompiledTemplate template, PatientListData patientListData) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < template.fields.length; i++) {
+			result.append(template.literals[i]);
+
+			Object value = getFieldValue(template.fields[i], patientListData);
+			if (value != null) {
+				result.append(value.toString());
+			}
+		}
+		result.append(template.literals[template.fields.length]);
+
+		return result.toString();
+	}
+
+	/**
+	 * Parses a template into its literal text and field references so that it can be applied to many rows without
+	 * being parsed again.
+	 * @param template The template
+	 * @return The compiled template or null if the template is null
+	 */
+	public static CompiledTemplate compileTemplate(String template) {
+		if (template == null) {
+			return null;
+		}
+
+		List<String> literals = new ArrayList<String>();
+		List<String> fields = new ArrayList<String>();
+		int position = 0;
+		while (true) {
+			int start = template.indexOf('{', position);
+			int end = start < 0 ? -1 : template.indexOf('}', start + 1);
+			if (end < 0) {
+				break;
+			}
+
+			literals.add(template.substring(position, start));
+			fields.add(template.substring(start + 1, end));
+			position = end + 1;
+		}
+		literals.add(template.substring(position));
+
+		return new CompiledTemplate(literals.toArray(new String[literals.size()]), fields.toArray(new String[fields
+		        .size()]));
+	}
+
+	private static Object getFieldValue(String field, PatientListData patientListData) {
+		Object value = null;
+		PatientInformationField patientInformationField = PatientInformation.getInstance().getField(field);
+		if (patientInformationField != null) {
+			if (patientListData.getPatient() != null && StringUtils.contains(field, "p.")) {
+				value = patientInformationField.getValue(patientListData.getPatient());
+			} else if (patientListData.getVisit() != null && StringUtils.contains(field, "v.")) {
+				value = patientInformationField.getValue(patientListData.getVisit());
+				if (value != null && StringUtils.contains(field, "v.attr.")) {
+					try {
+						ConceptAnswer conceptAnswer = Context.getConceptService()
+						        .getConceptAnswerByUuid((String)value);
+						if (conceptAnswer != null) {
+							value = conceptAnswer.getAnswerConcept().getName().getName();
+						}
+					} catch (Exception ex) {
+						LOG.error(ex);
+					}
+				}
+			}
+		}
+
+		return value;
+	}
+
+	/**
+	 * A template split into literal text and the fields between them.
+	 */
+	public static class CompiledTemplate {
+		private final String[] literals;
+		private final String[] fields;
+
+		CompiledTemplate(String[] literals, String[] fields) {
+			this.literals = literals;
+			this.fields = fields;
+		}
+	}
 }
@@ -0,0 +1,151 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.util;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeTracker;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.model.PatientListCondition;
+import org.openmrs.module.patientlist.api.model.PatientListConditionGroup;
+import org.openmrs.module.patientlist.api.model.PatientListOperator;
+import org.openmrs.module.patientlist.api.model.PatientListOrder;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Utility class to compute versions of patient list definitions and data, for example to use as HTTP entity tags.
+ */
+public class PatientListVersionUtil {
+	private static final String SEPARATOR = "|";
+	private static final String AGE_FIELD = "p.age";
+	private static final String DAY_FORMAT = "yyyyMMdd";
+
+	protected PatientListVersionUtil() {}
+
+	/**
+	 * Gets a version that changes whenever the definition of the given patient list changes, including its conditions,
+	 * condition groups and ordering.
+	 * @param patientList The patient list
+	 * @return The definition version
+	 */
+	public static String getDefinitionVersion(PatientList patientList) {
+		PatientListDefinition registered = PatientListDefinitionRegistry.getInstance().getRegisteredDefinition(
+		    patientList);
+		if (registered != null) {
+			return registered.getDefinitionVersion();
+		}
+
+		StringBuilder definition = new StringBuilder();
+		append(definition, patientList.getUuid());
+		append(definition, getTime(patientList.getDateCreated()));
+		append(definition, getTime(patientList.getDateChanged()));
+		append(definition, patientList.getRetired());
+		append(definition, patientList.getName());
+		append(definition, patientList.getDescription());
+		append(definition, patientList.getHeaderTemplate());
+		append(definition, patientList.getBodyTemplate());
+
+		if (patientList.getPatientListConditions() != null) {
+			for (PatientListCondition condition : patientList.getPatientListConditions()) {
+				if (condition != null) {
+					append(definition, condition.getUuid());
+					append(definition, condition.getField());
+					append(definition, condition.getOperator());
+					append(definition, condition.getValue());
+					append(definition, condition.getConditionOrder());
+					append(definition, condition.getConditionGroup() == null ? null
+					        : condition.getConditionGroup().getUuid());
+				}
+			}
+		}
+
+		if (patientList.getConditionGroups() != null) {
+			for (PatientListConditionGroup group : patientList.getConditionGroups()) {
+				if (group != null) {
+					append(definition, group.getUuid());
+					append(definition, group.getOperator());
+					append(definition, group.getGroupOrder());
+					append(definition, group.getParentGroup() == null ? null : group.getParentGroup().getUuid());
+				}
+			}
+		}
+
+		if (patientList.getOrdering() != null) {
+			for (PatientListOrder order : patientList.getOrdering()) {
+				if (order != null) {
+					append(definition, order.getUuid());
+					append(definition, order.getField());
+					append(definition, order.getSortOrder());
+					append(definition, order.getConditionOrder());
+				}
+			}
+		}
+
+		return DigestUtils.md5Hex(definition.toString());
+	}
+
+	/**
+	 * Gets a version that changes whenever the definition of the given patient list or any data that the list depends
+	 * on changes, and whenever this node restarts. The version of a list whose rows depend on the current date also
+	 * changes every day.
+	 * @param patientList The patient list
+	 * @return The data version
+	 */
+	public static String getDataVersion(PatientList patientList) {
+		PatientListDataChangeTracker tracker = PatientListDataChangeTracker.getInstance();
+		StringBuilder version = new StringBuilder(getDefinitionVersion(patientList));
+		version.append("-");
+		version.append(Long.toHexString(tracker.getEpoch()));
+		version.append("-");
+		version.append(Long.toHexString(tracker.getChangeVersion(patientList)));
+		if (isTimeDependent(patientList)) {
+			// relative dates and ages are resolved against the current day
+			version.append("-");
+			version.append(new SimpleDateFormat(DAY_FORMAT).format(new Date()));
+		}
+
+		return version.toString();
+	}
+
+	/**
+	 * Gets whether the rows of the given patient list can change as time passes without any data changing, because
+	 * a condition uses a relative date or an age, or a template shows an age.
+	 * @param patientList The patient list
+	 * @return {@code true} if the list depends on the current date
+	 */
+	public static boolean isTimeDependent(PatientList patientList) {
+		if (patientList.getPatientListConditions() != null) {
+			for (PatientListCondition condition : patientList.getPatientListConditions()) {
+				if (condition != null && (condition.getOperator() == PatientListOperator.RELATIVE
+				        || StringUtils.equals(condition.getField(), AGE_FIELD))) {
+					return true;
+				}
+			}
+		}
+
+		return StringUtils.contains(patientList.getHeaderTemplate(), AGE_FIELD)
+		        || StringUtils.contains(patientList.getBodyTemplate(), AGE_FIELD);
+	}
+
+	private static void append(StringBuilder builder, Object value) {
+		builder.append(value == null ? "" : value.toString());
+		builder.append(SEPARATOR);
+	}
+
+	private static Long getTime(Date date) {
+		return date == null ? null : date.getTime();
+	}
+}
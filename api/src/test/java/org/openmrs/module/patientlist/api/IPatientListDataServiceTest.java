@@ -14,6 +14,7 @@
 package org.openmrs.module.patientlist.api;
 
 import org.openmrs.module.openhmis.commons.api.entity.IMetadataDataServiceTest;
+import org.openmrs.module.patientlist.ModuleSettings;
 import org.openmrs.module.patientlist.api.model.PatientList;
 
 public class IPatientListDataServiceTest extends IMetadataDataServiceTest<IPatientListService, PatientList> {
@@ -25,6 +26,9 @@ public class IPatientListDataServiceTest extends IMetadataDataServiceTest<IPatie
 		executeDataSet(PATIENT_LIST_DATASET);
 		executeDataSet(TestConstants.CORE_DATASET);
 
+		// properties saved by earlier tests were rolled back but can still be cached
+		ModuleSettings.clearCache();
+
 	}
 
 	@Override
@@ -13,29 +13,71 @@
  */
 package org.openmrs.module.patientlist.api.impl;
 
+import org.hibernate.QueryException;
+import org.hibernate.QueryTimeoutException;
+import org.hibernate.SessionFactory;
+import org.hibernate.exception.GenericJDBCException;
 import org.junit.*;
+import org.openmrs.GlobalProperty;
+import org.openmrs.PersonName;
 import org.openmrs.VisitAttribute;
+import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.openhmis.commons.api.PagingInfo;
+import org.openmrs.module.patientlist.ModuleSettings;
+import org.openmrs.module.patientlist.api.IPatientListDataHandler;
 import org.openmrs.module.patientlist.api.IPatientListDataService;
 import org.openmrs.module.patientlist.api.IPatientListDataServiceTest;
 import org.openmrs.module.patientlist.api.IPatientListService;
+import org.openmrs.module.patientlist.api.PatientListEvaluationInterruptedException;
+import org.openmrs.module.patientlist.api.PatientListQuickFilterTooLargeException;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeEvent;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeTracker;
+import org.openmrs.module.patientlist.api.metrics.PatientListLatencyHistogram;
+import org.openmrs.module.patientlist.api.metrics.PatientListMetrics;
+import org.openmrs.module.patientlist.api.metrics.PatientListSlowLog;
+import org.openmrs.module.patientlist.api.metrics.PatientListStage;
+import org.openmrs.module.patientlist.api.metrics.PatientListStageTimer;
+import org.openmrs.module.patientlist.api.metrics.PatientListStatementCount;
 import org.openmrs.module.patientlist.api.model.*;
+import org.openmrs.module.patientlist.api.util.PatientListBudgetViolationLog;
+import org.openmrs.module.patientlist.api.util.PatientListConditionIndex;
+import org.openmrs.module.patientlist.api.util.PatientListConditionTree;
 import org.openmrs.module.patientlist.api.util.PatientListDateUtil;
+import org.openmrs.module.patientlist.api.util.PatientListDefinition;
+import org.openmrs.module.patientlist.api.util.PatientListDefinitionRegistry;
+import org.openmrs.module.patientlist.api.util.PatientListMembershipCache;
+import org.openmrs.module.patientlist.api.util.PatientListNameKeyIndex;
+import org.openmrs.module.patientlist.api.util.PatientListPageCache;
+import org.openmrs.module.patientlist.api.util.PatientListQueryCancellation;
+import org.openmrs.module.patientlist.api.util.PatientListQueryPlan;
+import org.openmrs.module.patientlist.api.util.PatientListVersionUtil;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.agent.PowerMockAgent;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 @PrepareForTest({ PatientListDateUtil.class })
 public class PatientListDataServiceImplTest extends IPatientListDataServiceTest {
+	// the statements a list page may issue whatever its size, more means rows are being loaded one by one
+	private static final int MAX_STATEMENTS_PER_PAGE = 20;
+	// the extra statements a full page may issue over a single row page, well below the rows on the page
+	private static final int PAGE_SIZE_STATEMENT_ALLOWANCE = 4;
+	private static final int GENERATED_PATIENTS = 60;
 
 	@Rule
 	public PowerMockRule rule = new PowerMockRule();
@@ -48,6 +90,7 @@ public class PatientListDataServiceImplTest extends IPatientListDataServiceTest
 	private IPatientListService patientListService;
 	private IPatientListDataService patientListDataService;
 	private IPatientListDataServiceTest patientListDataServiceTest;
+	private SqlStatementCounter statementCounter;
 
 	@Before
 	public void before() throws Exception {
@@ -56,6 +99,7 @@ public class PatientListDataServiceImplTest extends IPatientListDataServiceTest
 		patientListService = createService();
 		patientListDataServiceTest = new IPatientListDataServiceTest();
 		patientListDataService = Context.getService(IPatientListDataService.class);
+		statementCounter = new SqlStatementCounter(Context.getRegisteredComponents(SessionFactory.class).get(0));
 
 		mockStatic(PatientListDateUtil.class);
 	}
@@ -255,6 +299,256 @@ public class PatientListDataServiceImplTest extends IPatientListDataServiceTest
 		Assert.assertEquals(2, patientListDataSet.size());
 	}
 
+	@Test
+	public void patientList_shouldCreateListWithMultiplePersonAttributesFromConditionIndex() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		        new GlobalProperty(ModuleSettings.CONDITION_INDEX_ENABLED_PROPERTY, "true"));
+		PatientListConditionIndex.getInstance().clear();
+
+		PatientList patientList = patientListService.getById(0);
+
+		List<PatientListCondition> conditions = patientList.getPatientListConditions();
+		PatientListCondition condition = conditions.get(10);
+		PatientListCondition condition2 = conditions.get(11);
+
+		patientList.getPatientListConditions().clear();
+		patientList.getPatientListConditions().add(condition);
+		patientList.getPatientListConditions().add(condition2);
+
+		Assert.assertTrue(PatientListConditionIndex.getInstance().isIndexable(patientList));
+
+		PagingInfo pagingInfo = new PagingInfo();
+		List<PatientListData> patientListDataSet =
+		        patientListDataService.getPatientListData(patientList, pagingInfo);
+
+		Assert.assertNotNull(patientListDataSet);
+		Assert.assertEquals(2, patientListDataSet.size());
+		Assert.assertEquals(Long.valueOf(2), pagingInfo.getTotalRecordCount());
+	}
+
+	@Test
+	public void patientList_shouldCreateListWithPersonAttributesInOrConditionGroup() throws Exception {
+		PatientList savedPatientList = patientListService.getById(0);
+		PatientListCondition state = savedPatientList.getPatientListConditions().get(10);
+		PatientListCondition city = savedPatientList.getPatientListConditions().get(11);
+
+		PatientList patientList = new PatientList();
+		patientList.setOrdering(new ArrayList<PatientListOrder>());
+		PatientListConditionGroup group = new PatientListConditionGroup();
+		group.setOperator(PatientListConditionGroupOperator.OR);
+		group.setGroupOrder(0);
+		patientList.addConditionGroup(group);
+
+		int conditionOrder = 0;
+		for (PatientListCondition savedCondition : new PatientListCondition[] { state, city }) {
+			PatientListCondition condition = new PatientListCondition();
+			condition.setField(savedCondition.getField());
+			condition.setOperator(savedCondition.getOperator());
+			condition.setValue(savedCondition.getValue());
+			condition.setConditionOrder(conditionOrder++);
+			condition.setConditionGroup(group);
+			patientList.addCondition(condition);
+		}
+
+		Assert.assertTrue(patientList.hasConditionGroups());
+
+		PagingInfo pagingInfo = new PagingInfo();
+		List<PatientListData> patientListDataSet = patientListDataService.getPatientListData(patientList, pagingInfo);
+
+		Assert.assertNotNull(patientListDataSet);
+		Assert.assertEquals(2, patientListDataSet.size());
+		Assert.assertEquals(Long.valueOf(2), pagingInfo.getTotalRecordCount());
+	}
+
+	@Test
+	public void patientList_shouldRejectCyclicConditionGroups() throws Exception {
+		PatientList savedPatientList = patientListService.getById(0);
+		PatientList patientList = createPatientList(savedPatientList.getPatientListConditions().get(10));
+		patientList.setName("Cyclic groups");
+
+		PatientListConditionGroup first = new PatientListConditionGroup();
+		first.setOperator(PatientListConditionGroupOperator.OR);
+		first.setGroupOrder(0);
+		PatientListConditionGroup second = new PatientListConditionGroup();
+		second.setOperator(PatientListConditionGroupOperator.AND);
+		second.setGroupOrder(1);
+		first.setParentGroup(second);
+		second.setParentGroup(first);
+		patientList.addConditionGroup(first);
+		patientList.addConditionGroup(second);
+		patientList.getPatientListConditions().get(0).setConditionGroup(first);
+
+		try {
+			PatientListConditionTree.build(patientList);
+			Assert.fail("Expected the cyclic condition groups to be rejected");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+
+		try {
+			patientListService.save(patientList);
+			Assert.fail("Expected the list with cyclic condition groups not to be saved");
+		} catch (APIException ex) {
+			// expected
+		}
+
+		second.setParentGroup(null);
+		second.setGroupOrder(0);
+		try {
+			patientListService.save(patientList);
+			Assert.fail("Expected the list with a duplicate group order not to be saved");
+		} catch (APIException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void patientList_shouldEvaluateListsWithSharedConditionsInBatch() throws Exception {
+		PatientList savedPatientList = patientListService.getById(0);
+		PatientListCondition startDate = savedPatientList.getPatientListConditions().get(12);
+		PatientListCondition activeVisit = savedPatientList.getPatientListConditions().get(17);
+
+		PatientList patientList = createPatientList(startDate);
+		PatientList patientList2 = createPatientList(startDate, activeVisit);
+
+		PagingInfo pagingInfo = new PagingInfo();
+		List<PatientListData> patientListDataSet = patientListDataService.getPatientListData(patientList, pagingInfo);
+		PagingInfo pagingInfo2 = new PagingInfo();
+		List<PatientListData> patientListDataSet2 = patientListDataService.getPatientListData(patientList2, pagingInfo2);
+
+		List<PatientList> patientLists = new ArrayList<PatientList>();
+		patientLists.add(patientList);
+		patientLists.add(patientList2);
+		List<PatientListDataBatchResult> results =
+		        patientListDataService.getPatientListData(patientLists, new PagingInfo(1, 25));
+
+		Assert.assertEquals(2, results.size());
+		Assert.assertEquals(patientList, results.get(0).getPatientList());
+		Assert.assertEquals(pagingInfo.getTotalRecordCount(), results.get(0).getTotalRecordCount());
+		Assert.assertEquals(patientListDataSet.size(), results.get(0).getPatientListData().size());
+		Assert.assertEquals(patientList2, results.get(1).getPatientList());
+		Assert.assertEquals(pagingInfo2.getTotalRecordCount(), results.get(1).getTotalRecordCount());
+		Assert.assertEquals(patientListDataSet2.size(), results.get(1).getPatientListData().size());
+	}
+
+	@Test
+	public void patientList_shouldBindSharedConditionIdsInBatch() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		        new GlobalProperty(ModuleSettings.SLOW_LIST_THRESHOLD_MILLIS_PROPERTY, "1"));
+		PatientListSlowLog.getInstance().clear();
+
+		PatientList savedPatientList = patientListService.getById(0);
+		PatientListCondition startDate = savedPatientList.getPatientListConditions().get(12);
+		PatientListCondition activeVisit = savedPatientList.getPatientListConditions().get(17);
+		PatientList patientList = createPatientList(startDate);
+		PatientList patientList2 = createPatientList(startDate, activeVisit);
+		patientListDataService.getPatientListData(Arrays.asList(patientList, patientList2), new PagingInfo(1, 25));
+
+		for (PatientList list : Arrays.asList(patientList, patientList2)) {
+			List<PatientListSlowLog.Entry> entries = PatientListSlowLog.getInstance().getEntries(list.getUuid());
+			Assert.assertFalse(entries.isEmpty());
+			for (PatientListSlowLog.Query query : entries.get(0).getQueries()) {
+				// the ids matched by the shared condition are parameters, not literals in the query
+				Assert.assertFalse(query.getHql(), query.getHql().matches("(?s).*(visitId|patientId) in \\(\\d.*"));
+			}
+		}
+
+		PatientListSlowLog.getInstance().clear();
+	}
+
+	@Test
+	public void patientList_shouldCountListRowsWithoutLoadingData() throws Exception {
+		PatientList savedPatientList = patientListService.getById(0);
+		PatientList patientList = createPatientList(savedPatientList.getPatientListConditions().get(12));
+
+		Assert.assertEquals(Long.valueOf(5), patientListDataService.getPatientListCount(patientList));
+	}
+
+	@Test
+	public void patientList_shouldServeReadAheadPageFromCache() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		        new GlobalProperty(ModuleSettings.READ_AHEAD_ENABLED_PROPERTY, "true"));
+		PatientListPageCache.getInstance().clear();
+
+		PatientList patientList = patientListService.getById(0);
+		List<PatientListData> cachedPage = new ArrayList<PatientListData>();
+		cachedPage.add(new PatientListData());
+
+		String key = PatientListPageCache.createKey(Context.getAuthenticatedUser().getUuid(), patientList.getUuid(), 2, 1);
+		Assert.assertTrue(PatientListPageCache.getInstance().reserve(key));
+		PatientListPageCache.getInstance().put(key, patientList, new PatientListPageCache.Page(cachedPage, 7L),
+		    PatientListDataChangeTracker.getInstance().getVersion(), 60);
+
+		PagingInfo pagingInfo = new PagingInfo(2, 1);
+		List<PatientListData> patientListDataSet = patientListDataService.getPatientListData(patientList, pagingInfo);
+
+		Assert.assertSame(cachedPage, patientListDataSet);
+		Assert.assertEquals(Long.valueOf(7), pagingInfo.getTotalRecordCount());
+
+		// the cached page is only handed out once
+		Assert.assertNull(PatientListPageCache.getInstance().take(key));
+	}
+
+	@Test
+	public void patientList_shouldRejectListOverQueryBudget() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		        new GlobalProperty(ModuleSettings.QUERY_MAX_JOINS_PROPERTY, "1"));
+		Context.getAdministrationService().saveGlobalProperty(
+		        new GlobalProperty(ModuleSettings.QUERY_BUDGET_ENFORCED_PROPERTY, "true"));
+		PatientListBudgetViolationLog.getInstance().clear();
+
+		PatientList savedPatientList = patientListService.getById(0);
+		PatientList patientList = createPatientList(savedPatientList.getPatientListConditions().get(10),
+		    savedPatientList.getPatientListConditions().get(11));
+
+		try {
+			patientListDataService.getPatientListData(patientList, new PagingInfo());
+			Assert.fail("Expected the list to be rejected");
+		} catch (APIException ex) {
+			// expected
+		}
+
+		List<PatientListBudgetViolationLog.Violation> violations =
+		        PatientListBudgetViolationLog.getInstance().getViolations(patientList.getUuid());
+		Assert.assertEquals(1, violations.size());
+		Assert.assertEquals(PatientListBudgetViolationLog.ViolationType.COST, violations.get(0).getType());
+	}
+
+	@Test
+	public void patientList_shouldLoadAllDefinitionsWithConditionsAndOrdering() throws Exception {
+		List<PatientList> patientLists = patientListService.getAllDefinitions(false);
+
+		Assert.assertFalse(patientLists.isEmpty());
+		for (PatientList patientList : patientLists) {
+			Assert.assertFalse(patientList.getRetired());
+			Assert.assertNotNull(patientList.getPatientListConditions());
+			Assert.assertNotNull(patientList.getOrdering());
+		}
+
+		PatientList patientList = patientLists.get(0);
+		Assert.assertEquals(patientListService.getById(0).getPatientListConditions().size(),
+		    patientList.getPatientListConditions().size());
+	}
+
+	@Test
+	public void patientList_shouldStreamAllListRows() throws Exception {
+		PatientList savedPatientList = patientListService.getById(0);
+		PatientList patientList = createPatientList(savedPatientList.getPatientListConditions().get(12));
+
+		final List<PatientListData> rows = new ArrayList<PatientListData>();
+		long count = patientListDataService.streamPatientListData(patientList, new IPatientListDataHandler() {
+			@Override
+			public boolean handle(PatientListData patientListData) {
+				rows.add(patientListData);
+				return true;
+			}
+		});
+
+		Assert.assertEquals(5, count);
+		Assert.assertEquals(5, rows.size());
+		Assert.assertNotNull(rows.get(0).getHeaderContent());
+	}
+
 	@Test
 	public void patientList_shouldCreateListWithSingleVisitDetail() throws Exception {
 		PatientList patientList = patientListService.getById(0);
@@ -935,4 +1229,503 @@ public class PatientListDataServiceImplTest extends IPatientListDataServiceTest
 		Assert.assertNotNull(patientListDataSet);
 		Assert.assertEquals(0, patientListDataSet.size());
 	}
+
+	@Test
+	public void patientList_shouldIssueBoundedStatementsRegardlessOfPageSize() throws Exception {
+		// the generated rows are rolled back with the test transaction
+		new SyntheticClinicalDataGenerator(getConnection(), 1).setPatients(GENERATED_PATIENTS)
+		        .setVisits(GENERATED_PATIENTS).setObs(0).generate();
+		PatientList patientList = createPatientList(createCondition("p.identifier", PatientListOperator.LIKE, "LOAD-"));
+		PatientListMetrics.getInstance().reset();
+		Context.flushSession();
+
+		long singleRowStatements = assertStatementsIndependentOfPageSize(patientList, 1, GENERATED_PATIENTS);
+
+		Context.clearSession();
+		PatientListStageTimer.keepLast();
+		patientListDataService.getPatientListData(patientList, new PagingInfo(1, 1));
+		PatientListStageTimer timer = PatientListStageTimer.takeLast();
+
+		Assert.assertNotNull(timer);
+		Assert.assertTrue(timer.getStatementCount() <= singleRowStatements);
+		Assert.assertTrue(timer.toServerTiming().contains("sql;desc="));
+
+		List<PatientListStatementCount> statementCounts = PatientListMetrics.getRegistry().getStatementCounts(
+		    patientList.getUuid());
+		Assert.assertEquals(1, statementCounts.size());
+		Assert.assertTrue(statementCounts.get(0).getEvaluations() >= 3);
+	}
+
+	@Test
+	public void patientList_shouldOnlyDependOnThePatientDataItReferences() throws Exception {
+		PatientList gender = createPatientList(createCondition("p.gender", PatientListOperator.EQUALS, "F"));
+		Set<String> genderTypes = PatientListDataChangeEvent.getDependentTypes(gender);
+		Assert.assertTrue(genderTypes.contains("Patient"));
+		Assert.assertTrue(genderTypes.contains("Person"));
+		Assert.assertFalse(genderTypes.contains("PersonName"));
+		Assert.assertFalse(genderTypes.contains("PatientIdentifier"));
+		Assert.assertFalse(genderTypes.contains("PersonAttribute"));
+		Assert.assertFalse(genderTypes.contains("Visit"));
+
+		gender.setHeaderTemplate("#{p.identifier} {p.fullName}");
+		Set<String> templateTypes = PatientListDataChangeEvent.getDependentTypes(gender);
+		Assert.assertTrue(templateTypes.contains("PersonName"));
+		Assert.assertTrue(templateTypes.contains("PatientIdentifier"));
+
+		// a name change does not invalidate a list that does not show or filter on names
+		Set<String> changedTypes = Collections.singleton("PersonName");
+		PatientListDataChangeEvent event = new PatientListDataChangeEvent(1, changedTypes,
+		        Collections.<Integer> emptySet(), Collections.<String> emptySet());
+		Assert.assertFalse(event.affects(gender.getUuid(), genderTypes));
+		Assert.assertTrue(event.affects(gender.getUuid(), templateTypes));
+	}
+
+	@Test
+	public void patientList_shouldVersionTimeDependentListsByDay() throws Exception {
+		PatientList fixed = createPatientList(createCondition("p.gender", PatientListOperator.EQUALS, "F"));
+		PatientList relative =
+		        createPatientList(createCondition("v.startDate", PatientListOperator.RELATIVE, "LAST_THREE_MONTHS"));
+		PatientList age = createPatientList(createCondition("p.gender", PatientListOperator.EQUALS, "F"));
+		age.setBodyTemplate("{p.fullName} ({p.age})");
+
+		Assert.assertFalse(PatientListVersionUtil.isTimeDependent(fixed));
+		Assert.assertTrue(PatientListVersionUtil.isTimeDependent(relative));
+		Assert.assertTrue(PatientListVersionUtil.isTimeDependent(age));
+
+		String day = new SimpleDateFormat("yyyyMMdd").format(new Date());
+		String epoch = Long.toHexString(PatientListDataChangeTracker.getInstance().getEpoch());
+		Assert.assertTrue(PatientListVersionUtil.getDataVersion(fixed).contains("-" + epoch + "-"));
+		Assert.assertFalse(PatientListVersionUtil.getDataVersion(fixed).endsWith("-" + day));
+		Assert.assertTrue(PatientListVersionUtil.getDataVersion(relative).endsWith("-" + day));
+	}
+
+	@Test(expected = PatientListEvaluationInterruptedException.class)
+	public void patientList_shouldThrowWhenEvaluationIsCancelled() throws Exception {
+		PatientList savedPatientList = patientListService.getById(0);
+		PatientList patientList = createPatientList(savedPatientList.getPatientListConditions().get(12));
+
+		PatientListQueryCancellation cancellation = new PatientListQueryCancellation();
+		cancellation.cancel();
+		PatientListQueryCancellation.bind(cancellation);
+		try {
+			patientListDataService.getPatientListData(patientList, new PagingInfo(1, 25));
+		} finally {
+			PatientListQueryCancellation.unbind();
+		}
+	}
+
+	@Test
+	public void patientList_shouldOnlyReportQueryTimeoutsAsTimeouts() throws Exception {
+		Assert.assertTrue(PatientListDataServiceImpl.isQueryTimeout(new QueryTimeoutException("timeout", null, "")));
+		Assert.assertTrue(PatientListDataServiceImpl.isQueryTimeout(new GenericJDBCException("could not execute query",
+		        new SQLException("Statement cancelled due to timeout", "70100"))));
+
+		Assert.assertFalse(PatientListDataServiceImpl.isQueryTimeout(new GenericJDBCException("could not execute query",
+		        new SQLException("Data truncation", "22001"))));
+		Assert.assertFalse(PatientListDataServiceImpl.isQueryTimeout(new QueryException("unexpected token")));
+	}
+
+	@Test
+	public void patientList_shouldExplainUnsavedListQuery() throws Exception {
+		PatientList savedPatientList = patientListService.getById(0);
+		PatientList patientList = createPatientList(savedPatientList.getPatientListConditions().get(0),
+		    savedPatientList.getPatientListConditions().get(10));
+
+		PatientListQueryPlan plan = patientListDataService.explainPatientList(patientList);
+
+		Assert.assertNotNull(plan.getSql());
+		Assert.assertFalse(plan.getPlan().isEmpty());
+		Assert.assertTrue(plan.getJoinOrder().contains("patient"));
+		Assert.assertTrue(plan.getWarnings().contains(
+		    "The condition on p.givenName matches anywhere in the value so it cannot use an index"));
+	}
+
+	@Test
+	public void patientList_shouldMatchNamePrefixesAndTokens() throws Exception {
+		PatientListNameKeyIndex.getInstance().rebuild();
+
+		PatientList startsWith =
+		        createPatientList(createCondition("p.givenName", PatientListOperator.STARTS_WITH, "Mi"));
+		Assert.assertEquals(2, patientListDataService.getPatientListData(startsWith, new PagingInfo()).size());
+
+		PatientListCondition tokenCondition = createCondition("p.givenName", PatientListOperator.TOKEN_MATCH, "MIK");
+		PatientList token = createPatientList(tokenCondition);
+		Assert.assertEquals(2, patientListDataService.getPatientListData(token, new PagingInfo()).size());
+
+		PatientList fullName =
+		        createPatientList(createCondition("p.fullName", PatientListOperator.TOKEN_MATCH, "mike doe"));
+		Assert.assertEquals(1, patientListDataService.getPatientListData(fullName, new PagingInfo()).size());
+
+		PatientList noMatch =
+		        createPatientList(createCondition("p.givenName", PatientListOperator.TOKEN_MATCH, "ike"));
+		Assert.assertTrue(patientListDataService.getPatientListData(noMatch, new PagingInfo()).isEmpty());
+
+		PersonName name = Context.getPersonService().getPersonName(3);
+		name.setGivenName("Mika\u00ebl");
+		Context.getPersonService().savePerson(name.getPerson());
+		Context.flushSession();
+		PatientListNameKeyIndex.getInstance().update(Collections.singletonList(name), Collections.<Integer> emptyList());
+
+		token = createPatientList(tokenCondition);
+		Assert.assertEquals(3, patientListDataService.getPatientListData(token, new PagingInfo()).size());
+		Assert.assertEquals(Collections.singletonList("mikael"), PatientListNameKeyIndex.tokenize("Mika\u00ebl"));
+	}
+
+	@Test
+	public void patientList_shouldNotNarrowSubstringNameConditionsWhileKeysAreIncomplete() throws Exception {
+		PatientListNameKeyIndex index = PatientListNameKeyIndex.getInstance();
+		index.rebuild();
+		Assert.assertTrue(index.verify());
+
+		// names saved while their keys could not be written
+		Statement statement = getConnection().createStatement();
+		try {
+			statement.executeUpdate("delete from patient_list_name_key where person_name_id in "
+			        + "(select person_name_id from person_name where given_name like '%ike%')");
+		} finally {
+			statement.close();
+		}
+		index.markIncomplete();
+
+		PatientList givenName = createPatientList(createCondition("p.givenName", PatientListOperator.LIKE, "ike"));
+		PatientListStageTimer.keepLast();
+		Assert.assertEquals(2, patientListDataService.getPatientListData(givenName, new PagingInfo()).size());
+		for (PatientListStageTimer.CapturedQuery query : PatientListStageTimer.takeLast().getQueries()) {
+			Assert.assertFalse(query.getHql().contains("pnames.personNameId in ("));
+		}
+
+		Assert.assertFalse(index.verify());
+		Assert.assertTrue(patientListDataService.rebuildNameKeys(true) > 0);
+		Assert.assertTrue(index.isComplete());
+		Assert.assertEquals(0, patientListDataService.rebuildNameKeys(true));
+	}
+
+	@Test
+	public void patientList_shouldResolveSubstringNameConditionsFromTrigrams() throws Exception {
+		PatientListNameKeyIndex.getInstance().rebuild();
+		Assert.assertTrue(PatientListNameKeyIndex.getInstance().isAvailable(PatientListNameKeyType.TRIGRAM));
+		Assert.assertEquals(new LinkedHashSet<String>(Arrays.asList("mik", "ike")),
+		    PatientListNameKeyIndex.createKeys(PatientListNameKeyType.TRIGRAM, "Mike"));
+
+		PatientList givenName = createPatientList(createCondition("p.givenName", PatientListOperator.LIKE, "ike"));
+		PatientListStageTimer.keepLast();
+		Assert.assertEquals(2, patientListDataService.getPatientListData(givenName, new PagingInfo()).size());
+		boolean usedTrigrams = false;
+		for (PatientListStageTimer.CapturedQuery query : PatientListStageTimer.takeLast().getQueries()) {
+			// the trigrams are matched by a subquery with bound parameters, not by a list of name ids
+			usedTrigrams |= query.getHql().contains("pnames.personNameId in (select");
+			Assert.assertFalse(query.getHql().matches("(?s).*personNameId in \\(\\d.*"));
+		}
+		Assert.assertTrue(usedTrigrams);
+
+		PatientList fullName = createPatientList(createCondition("p.fullName", PatientListOperator.LIKE, "mit"));
+		Assert.assertEquals(1, patientListDataService.getPatientListData(fullName, new PagingInfo()).size());
+
+		PatientList noMatch = createPatientList(createCondition("p.familyName", PatientListOperator.LIKE, "xyz"));
+		Assert.assertTrue(patientListDataService.getPatientListData(noMatch, new PagingInfo()).isEmpty());
+
+		// values shorter than a trigram use the condition on its own
+		PatientList shortValue = createPatientList(createCondition("p.givenName", PatientListOperator.LIKE, "ik"));
+		Assert.assertEquals(2, patientListDataService.getPatientListData(shortValue, new PagingInfo()).size());
+	}
+
+	@Test
+	public void patientList_shouldMatchNamesThatSoundAlike() throws Exception {
+		PatientListNameKeyIndex.getInstance().rebuild();
+		Assert.assertEquals(PatientListNameKeyIndex.createKeys(PatientListNameKeyType.PHONETIC, "Mike"),
+		    PatientListNameKeyIndex.createKeys(PatientListNameKeyType.PHONETIC, "Myke"));
+
+		PatientList givenName = createPatientList(createCondition("p.givenName", PatientListOperator.SOUNDS_LIKE, "Myke"));
+		Assert.assertEquals(2, patientListDataService.getPatientListData(givenName, new PagingInfo()).size());
+
+		PatientList familyName =
+		        createPatientList(createCondition("p.familyName", PatientListOperator.SOUNDS_LIKE, "Smyth"));
+		Assert.assertEquals(1, patientListDataService.getPatientListData(familyName, new PagingInfo()).size());
+
+		PatientList noLetters = createPatientList(createCondition("p.givenName", PatientListOperator.SOUNDS_LIKE, "42"));
+		Assert.assertTrue(patientListDataService.getPatientListData(noLetters, new PagingInfo()).isEmpty());
+	}
+
+	@Test
+	public void patientList_shouldQuickFilterCachedRowsWithoutQueries() throws Exception {
+		PatientList savedPatientList = patientListService.getById(0);
+		PatientList patientList = createPatientList(savedPatientList.getPatientListConditions().get(12));
+		patientList.setName("Quick filter list");
+		patientList.setHeaderTemplate("<b>{p.fullName}</b>");
+		patientListService.save(patientList);
+		Context.flushSession();
+		PatientListMembershipCache.getInstance().clear();
+
+		List<PatientListData> allRows = patientListDataService.getPatientListData(patientList, new PagingInfo());
+		Assert.assertTrue(allRows.size() > 1);
+		String header = allRows.get(0).getHeaderContent();
+		String word = PatientListNameKeyIndex.tokenize(header.replaceAll("<[^>]*>", " ")).get(0);
+
+		PagingInfo pagingInfo = new PagingInfo(1, 1);
+		List<PatientListData> matches = patientListDataService.getPatientListData(patientList, word, pagingInfo);
+		Assert.assertEquals(1, matches.size());
+		Assert.assertNotNull(matches.get(0).getPatient().getUuid());
+		long matchCount = pagingInfo.getTotalRecordCount();
+		Assert.assertTrue(matchCount >= 1 && matchCount <= allRows.size());
+
+		// refining the filter is answered from the cached rows
+		Context.clearSession();
+		statementCounter.reset();
+		pagingInfo = new PagingInfo(1, 25);
+		matches = patientListDataService.getPatientListData(patientList, word.substring(0, 2).toUpperCase(), pagingInfo);
+		Assert.assertEquals(0, statementCounter.getCount());
+		Assert.assertTrue(matches.size() >= matchCount);
+		for (PatientListData match : matches) {
+			Assert.assertTrue(PatientListMembershipCache.matches(match, Arrays.asList(word.substring(0, 2))));
+		}
+
+		pagingInfo = new PagingInfo(1, 25);
+		Assert.assertTrue(patientListDataService.getPatientListData(patientList, "zzqx " + word, pagingInfo).isEmpty());
+		Assert.assertEquals(Long.valueOf(0), pagingInfo.getTotalRecordCount());
+		Assert.assertEquals(0, statementCounter.getCount());
+	}
+
+	@Test
+	public void patientList_shouldBoundQuickFilteredAndCachedRows() throws Exception {
+		PatientList savedPatientList = patientListService.getById(0);
+		PatientList patientList = createPatientList(savedPatientList.getPatientListConditions().get(12));
+		patientList.setName("Bounded quick filter list");
+		patientList.setHeaderTemplate("<b>{p.fullName}</b>");
+		patientListService.save(patientList);
+		Context.flushSession();
+		PatientListMembershipCache.getInstance().clear();
+
+		int rowCount = patientListDataService.getPatientListData(patientList, new PagingInfo()).size();
+		Assert.assertTrue(rowCount > 1);
+
+		// lists that do not fit in the cache are filtered without being kept
+		Context.getAdministrationService().saveGlobalProperty(
+		        new GlobalProperty(ModuleSettings.QUICK_FILTER_CACHE_MAX_ROWS_PROPERTY, String.valueOf(rowCount - 1)));
+		patientListDataService.getPatientListData(patientList, "a", new PagingInfo());
+		statementCounter.reset();
+		patientListDataService.getPatientListData(patientList, "b", new PagingInfo());
+		Assert.assertTrue(statementCounter.getCount() > 0);
+
+		// lists larger than the maximum are refused instead of being read in full
+		Context.getAdministrationService().saveGlobalProperty(
+		        new GlobalProperty(ModuleSettings.QUICK_FILTER_MAX_ROWS_PROPERTY, String.valueOf(rowCount - 1)));
+		try {
+			patientListDataService.getPatientListData(patientList, "a", new PagingInfo());
+			Assert.fail("Expected the list to be too large to quick filter");
+		} catch (PatientListQuickFilterTooLargeException ex) {
+			Assert.assertEquals(rowCount - 1, ex.getMaxRows());
+		}
+	}
+
+	@Test
+	public void patientList_shouldShareImmutableDefinitionFromRegistry() throws Exception {
+		PatientListDefinitionRegistry registry = PatientListDefinitionRegistry.getInstance();
+		registry.clear();
+
+		PatientList patientList = patientListService.getById(0);
+		PatientListDefinition definition = registry.getDefinition(patientList.getUuid());
+
+		Assert.assertNotNull(definition);
+		Assert.assertSame(definition, registry.getDefinition(patientList.getUuid()));
+		Assert.assertSame(definition.getPatientList(), registry.get(patientList.getUuid()));
+		Assert.assertEquals(patientList.getPatientListConditions().size(),
+		    definition.getPatientList().getPatientListConditions().size());
+
+		try {
+			definition.getPatientList().getPatientListConditions().clear();
+			Assert.fail("Expected the registered definition to be immutable");
+		} catch (UnsupportedOperationException ex) {
+			// expected
+		}
+
+		List<PatientListData> patientListDataSet =
+		        patientListDataService.getPatientListData(definition.getPatientList(), new PagingInfo());
+		Assert.assertNotNull(patientListDataSet);
+
+		PatientListDataChangeTracker.getInstance().publish(new HashSet<String>(), new HashSet<Integer>(),
+		    Collections.singleton(patientList.getUuid()));
+		Assert.assertNotSame(definition, registry.getDefinition(patientList.getUuid()));
+
+		registry.clear();
+	}
+
+	@Test
+	public void patientList_shouldEvaluateAgeOrderedRegistryListInTheSameOrder() throws Exception {
+		PatientListDefinitionRegistry registry = PatientListDefinitionRegistry.getInstance();
+		registry.clear();
+
+		PatientList savedPatientList = patientListService.getById(0);
+		PatientList patientList = createPatientList(savedPatientList.getPatientListConditions().get(12));
+		patientList.setName("Age ordered list");
+		PatientListOrder order = new PatientListOrder();
+		order.setField("p.age");
+		order.setSortOrder("asc");
+		order.setConditionOrder(0);
+		patientList.addSortOrder(order);
+		patientListService.save(patientList);
+		Context.flushSession();
+
+		PatientList definition = registry.get(patientList.getUuid());
+		List<String> first = getPatientUuids(patientListDataService.getPatientListData(definition, new PagingInfo()));
+		List<String> second = getPatientUuids(patientListDataService.getPatientListData(definition, new PagingInfo()));
+
+		Assert.assertTrue(first.size() > 1);
+		Assert.assertEquals(first, second);
+		Assert.assertEquals("asc", definition.getOrdering().get(0).getSortOrder());
+		try {
+			definition.getOrdering().get(0).setSortOrder("desc");
+			Assert.fail("Expected the registered ordering to be immutable");
+		} catch (UnsupportedOperationException ex) {
+			// expected
+		}
+
+		registry.clear();
+	}
+
+	@Test
+	public void patientList_shouldRecordStageTimings() throws Exception {
+		PatientListMetrics.getInstance().reset();
+
+		PatientList patientList = patientListService.getById(0);
+		patientList.getPatientListConditions().clear();
+		patientList.getOrdering().clear();
+
+		PatientListStageTimer.keepLast();
+		List<PatientListData> patientListDataSet =
+		        patientListDataService.getPatientListData(patientList, new PagingInfo(1, 2));
+		Assert.assertNotNull(patientListDataSet);
+		Assert.assertFalse(patientListDataSet.isEmpty());
+
+		PatientListStageTimer timer = PatientListStageTimer.takeLast();
+		Assert.assertNotNull(timer);
+		Assert.assertEquals(patientList.getUuid(), timer.getPatientListUuid());
+		Assert.assertTrue(timer.getStageNanos(PatientListStage.COMPILE) > 0);
+		Assert.assertTrue(timer.getStageNanos(PatientListStage.FETCH) > 0);
+		Assert.assertTrue(timer.getStageNanos(PatientListStage.RENDER) > 0);
+		Assert.assertTrue(timer.toServerTiming().contains("fetch;dur="));
+		Assert.assertNull(PatientListStageTimer.takeLast());
+
+		List<PatientListLatencyHistogram> histograms = PatientListMetrics.getRegistry().getHistograms(
+		    patientList.getUuid());
+		Assert.assertFalse(histograms.isEmpty());
+		for (PatientListLatencyHistogram histogram : histograms) {
+			Assert.assertEquals(1, histogram.getCount());
+		}
+
+		// timers are only kept for callers that ask for them
+		patientListDataService.getPatientListData(patientList, new PagingInfo(1, 2));
+		Assert.assertNull(PatientListStageTimer.takeLast());
+
+		PatientListMetrics.getInstance().reset();
+	}
+
+	@Test
+	public void patientList_shouldLogSlowListWithRedactedParameters() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		        new GlobalProperty(ModuleSettings.SLOW_LIST_THRESHOLD_MILLIS_PROPERTY, "1"));
+		Context.getAdministrationService().saveGlobalProperty(
+		        new GlobalProperty(ModuleSettings.SLOW_LIST_PARAMETER_REDACTION_PROPERTY, "MASK"));
+		PatientListSlowLog.getInstance().clear();
+
+		PatientList savedPatientList = patientListService.getById(0);
+		PatientList patientList = createPatientList(savedPatientList.getPatientListConditions().get(10));
+		patientList.setUuid(savedPatientList.getUuid());
+		patientListDataService.getPatientListData(patientList, new PagingInfo(1, 5));
+
+		List<PatientListSlowLog.Entry> entries = PatientListSlowLog.getInstance().getEntries(patientList.getUuid());
+		Assert.assertEquals(1, entries.size());
+
+		PatientListSlowLog.Entry entry = entries.get(0);
+		Assert.assertNotNull(entry.getTotalRecordCount());
+		Assert.assertEquals(Integer.valueOf(5), entry.getPageSize());
+		Assert.assertFalse(entry.getQueries().isEmpty());
+		Assert.assertNotNull(entry.getQueries().get(0).getHql());
+
+		String value = String.valueOf(savedPatientList.getPatientListConditions().get(10).getValue());
+		for (PatientListSlowLog.Query query : entry.getQueries()) {
+			for (String parameter : query.getParameters()) {
+				Assert.assertFalse(parameter.contains(value));
+			}
+		}
+
+		Assert.assertEquals("String:***", PatientListSlowLog.redact("Indiana", PatientListSlowLog.Redaction.MASK));
+		Assert.assertEquals("String:Indiana", PatientListSlowLog.redact("Indiana", PatientListSlowLog.Redaction.NONE));
+		Assert.assertEquals(PatientListSlowLog.redact("Indiana", PatientListSlowLog.Redaction.HASH),
+		    PatientListSlowLog.redact("Indiana", PatientListSlowLog.Redaction.HASH));
+
+		PatientListSlowLog.getInstance().clear();
+	}
+
+	private List<String> getPatientUuids(List<PatientListData> patientListData) {
+		List<String> result = new ArrayList<String>();
+		for (PatientListData data : patientListData) {
+			result.add(data.getPatient().getUuid());
+		}
+
+		return result;
+	}
+
+	private PatientListCondition createCondition(String field, PatientListOperator operator, String value) {
+		PatientListCondition condition = new PatientListCondition();
+		condition.setField(field);
+		condition.setOperator(operator);
+		condition.setValue(value);
+
+		return condition;
+	}
+
+	private PatientList createPatientList(PatientListCondition... conditions) {
+		PatientList patientList = new PatientList();
+		patientList.setOrdering(new ArrayList<PatientListOrder>());
+
+		int conditionOrder = 0;
+		for (PatientListCondition savedCondition : conditions) {
+			PatientListCondition condition = new PatientListCondition();
+			condition.setField(savedCondition.getField());
+			condition.setOperator(savedCondition.getOperator());
+			condition.setValue(savedCondition.getValue());
+			condition.setConditionOrder(conditionOrder++);
+			patientList.addCondition(condition);
+		}
+
+		return patientList;
+	}
+
+	/**
+	 * Evaluates a page of each size and checks that the larger page issues at most a few more statements than the
+	 * smaller one, and that the smaller page stays under the statements a page may issue. Each page is evaluated in an
+	 * empty session so that no rows of the other page are already loaded.
+	 * @param patientList The list, which must have more rows than the smaller page size
+	 * @param smallPageSize
+	 * @param largePageSize
+	 * @return The number of statements issued by the smaller page
+	 */
+	private long assertStatementsIndependentOfPageSize(PatientList patientList, int smallPageSize, int largePageSize) {
+		// the first evaluation loads the module settings, which are then cached for both measured pages
+		Context.clearSession();
+		patientListDataService.getPatientListData(patientList, new PagingInfo(1, smallPageSize));
+
+		Context.clearSession();
+		statementCounter.reset();
+		List<PatientListData> smallPage =
+		        patientListDataService.getPatientListData(patientList, new PagingInfo(1, smallPageSize));
+		long smallPageStatements = statementCounter.getCount();
+
+		Context.clearSession();
+		statementCounter.reset();
+		List<PatientListData> largePage =
+		        patientListDataService.getPatientListData(patientList, new PagingInfo(1, largePageSize));
+		long largePageStatements = statementCounter.getCount();
+
+		Assert.assertEquals(smallPageSize, smallPage.size());
+		// rows loaded one by one only show when the large page has more extra rows than the allowance
+		Assert.assertTrue(largePage.size() - smallPage.size() > PAGE_SIZE_STATEMENT_ALLOWANCE);
+		Assert.assertTrue("A page of " + largePage.size() + " rows issued " + largePageStatements
+		        + " statements but a page of " + smallPage.size() + " rows issued " + smallPageStatements,
+		    largePageStatements <= smallPageStatements + PAGE_SIZE_STATEMENT_ALLOWANCE);
+		Assert.assertTrue("A page of " + smallPage.size() + " rows issued " + smallPageStatements + " statements",
+		    smallPageStatements <= MAX_STATEMENTS_PER_PAGE);
+
+		return smallPageStatements;
+	}
 }
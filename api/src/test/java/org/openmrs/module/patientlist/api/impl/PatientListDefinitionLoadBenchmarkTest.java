@@ -0,0 +1,164 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.impl;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientlist.api.IPatientListService;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Measures how long patient list definitions take to load with thousands of lists and tens of thousands of conditions.
+ * The benchmark is skipped unless the patientlist.benchmark system property is set, for example with
+ * {@code mvn test -Dtest=PatientListDefinitionLoadBenchmarkTest -Dpatientlist.benchmark=true}. The timings are
+ * logged; the assertions check the number of statements, as the collections are subselect fetched that number must not
+ * grow with the number of lists or conditions.
+ */
+public class PatientListDefinitionLoadBenchmarkTest extends BaseModuleContextSensitiveTest {
+	private static final int LIST_COUNT = 2000;
+	private static final int CONDITIONS_PER_LIST = 10;
+	private static final int ORDERS_PER_LIST = 2;
+	private static final int SAMPLE_SIZE = 500;
+	private static final int BATCH_SIZE = 1000;
+	private static final int FIRST_ID = 1000;
+	// the list itself plus its conditions, condition groups and ordering
+	private static final int STATEMENTS_PER_LOAD = 4;
+
+	private static final Log LOG = LogFactory.getLog(PatientListDefinitionLoadBenchmarkTest.class);
+
+	private IPatientListService patientListService;
+	private Statistics statistics;
+
+	@Before
+	public void before() throws Exception {
+		Assume.assumeTrue(Boolean.getBoolean("patientlist.benchmark"));
+
+		patientListService = Context.getService(IPatientListService.class);
+		statistics = Context.getRegisteredComponents(SessionFactory.class).get(0).getStatistics();
+		statistics.setStatisticsEnabled(true);
+		createLists();
+	}
+
+	@Test
+	public void loadListDefinitions() throws Exception {
+		Context.flushSession();
+		Context.clearSession();
+
+		statistics.clear();
+		long start = System.nanoTime();
+		List<PatientList> patientLists = patientListService.getAll();
+		int conditionCount = 0;
+		for (PatientList patientList : patientLists) {
+			conditionCount += patientList.getPatientListConditions().size();
+		}
+		long loadAll = System.nanoTime() - start;
+		long loadAllStatements = statistics.getPrepareStatementCount();
+
+		Assert.assertTrue(patientLists.size() >= LIST_COUNT);
+		Assert.assertTrue(conditionCount >= LIST_COUNT * CONDITIONS_PER_LIST);
+		Assert.assertTrue("Loading all lists issued " + loadAllStatements + " statements",
+		    loadAllStatements <= STATEMENTS_PER_LOAD);
+
+		Context.clearSession();
+		Random random = new Random(1);
+		statistics.clear();
+		start = System.nanoTime();
+		for (int i = 0; i < SAMPLE_SIZE; i++) {
+			PatientList patientList = patientListService.getById(FIRST_ID + random.nextInt(LIST_COUNT));
+			Assert.assertEquals(CONDITIONS_PER_LIST, patientList.getPatientListConditions().size());
+		}
+		long loadSingle = System.nanoTime() - start;
+		long loadSingleStatements = statistics.getPrepareStatementCount();
+
+		Assert.assertTrue(loadAll > 0 && loadSingle > 0);
+		Assert.assertTrue("Loading " + SAMPLE_SIZE + " single lists issued " + loadSingleStatements + " statements",
+		    loadSingleStatements <= SAMPLE_SIZE * STATEMENTS_PER_LOAD);
+
+		LOG.info("Loaded " + patientLists.size() + " lists with " + conditionCount + " conditions in "
+		        + (loadAll / 1000000) + " ms");
+		LOG.info("Loaded " + SAMPLE_SIZE + " single lists in " + (loadSingle / 1000000) + " ms ("
+		        + (loadSingle / SAMPLE_SIZE / 1000) + " us per list)");
+	}
+
+	private void createLists() throws Exception {
+		Connection connection = getConnection();
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+
+		PreparedStatement lists = connection.prepareStatement("insert into patient_list (patient_list_id, name, "
+		        + "description, creator, date_created, retired, uuid) values (?, ?, ?, 1, ?, false, ?)");
+		PreparedStatement conditions = connection.prepareStatement("insert into patient_list_condition "
+		        + "(patient_list_id, field, operator, value, condition_order, uuid) values (?, ?, ?, ?, ?, ?)");
+		PreparedStatement orders = connection.prepareStatement("insert into patient_list_order "
+		        + "(patient_list_id, field, sort_order, condition_order, uuid) values (?, ?, ?, ?, ?)");
+		try {
+			for (int i = 0; i < LIST_COUNT; i++) {
+				int listId = FIRST_ID + i;
+				lists.setInt(1, listId);
+				lists.setString(2, "Benchmark list " + i);
+				lists.setString(3, "Benchmark list " + i);
+				lists.setTimestamp(4, now);
+				lists.setString(5, UUID.randomUUID().toString());
+				lists.addBatch();
+
+				for (int c = 0; c < CONDITIONS_PER_LIST; c++) {
+					conditions.setInt(1, listId);
+					conditions.setString(2, "p.attr.Attribute" + c);
+					conditions.setString(3, "EQUALS");
+					conditions.setString(4, String.valueOf(i));
+					conditions.setInt(5, c);
+					conditions.setString(6, UUID.randomUUID().toString());
+					conditions.addBatch();
+				}
+
+				for (int o = 0; o < ORDERS_PER_LIST; o++) {
+					orders.setInt(1, listId);
+					orders.setString(2, o == 0 ? "p.fullName" : "p.age");
+					orders.setString(3, "asc");
+					orders.setInt(4, o);
+					orders.setString(5, UUID.randomUUID().toString());
+					orders.addBatch();
+				}
+
+				if ((i + 1) % (BATCH_SIZE / CONDITIONS_PER_LIST) == 0) {
+					lists.executeBatch();
+					conditions.executeBatch();
+					orders.executeBatch();
+				}
+			}
+
+			lists.executeBatch();
+			conditions.executeBatch();
+			orders.executeBatch();
+		} finally {
+			lists.close();
+			conditions.close();
+			orders.close();
+		}
+	}
+}
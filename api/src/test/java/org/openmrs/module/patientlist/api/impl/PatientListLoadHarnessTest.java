@@ -0,0 +1,241 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.impl;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.openhmis.commons.api.PagingInfo;
+import org.openmrs.module.patientlist.ModuleSettings;
+import org.openmrs.module.patientlist.api.IPatientListDataService;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.model.PatientListCondition;
+import org.openmrs.module.patientlist.api.model.PatientListConditionGroup;
+import org.openmrs.module.patientlist.api.model.PatientListConditionGroupOperator;
+import org.openmrs.module.patientlist.api.model.PatientListOperator;
+import org.openmrs.module.patientlist.api.model.PatientListOrder;
+import org.openmrs.module.patientlist.api.util.PatientInformation;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates every patient list shape against generated clinical data at several concurrency levels and reports the
+ * latency percentiles and SQL statements per request. The harness is skipped unless the patientlist.loadtest system
+ * property is set, for example with {@code mvn test -Dtest=PatientListLoadHarnessTest -Dpatientlist.loadtest=true}.
+ * The data volumes are set with the patientlist.load.patients, patientlist.load.visits and patientlist.load.obs
+ * properties; the defaults are sized for the in-memory test database, production-like volumes (100k patients, 1M
+ * visits and 20M obs) need a file based or MySQL test database. The results are logged; each request must stay within
+ * a fixed number of statements and, when patientlist.load.maxP99Millis is set, within that 99th percentile latency.
+ */
+public class PatientListLoadHarnessTest extends BaseModuleContextSensitiveTest {
+	private static final int[] CONCURRENCY_LEVELS = { 1, 4, 16 };
+	private static final int REQUESTS_PER_THREAD = 20;
+	private static final int WARMUP_REQUESTS = 5;
+	private static final int PAGE_SIZE = 25;
+	private static final int PAGES = 4;
+	// the page query, its count and the patient, name, identifier and attribute loads for the page rows
+	private static final int MAX_STATEMENTS_PER_REQUEST = 24;
+
+	private static final Log LOG = LogFactory.getLog(PatientListLoadHarnessTest.class);
+
+	private SyntheticClinicalDataGenerator generator;
+	private IPatientListDataService patientListDataService;
+	private Statistics statistics;
+
+	@Before
+	public void before() throws Exception {
+		Assume.assumeTrue(Boolean.getBoolean("patientlist.loadtest"));
+		ModuleSettings.clearCache();
+
+		patientListDataService = Context.getService(IPatientListDataService.class);
+		statistics = Context.getRegisteredComponents(SessionFactory.class).get(0).getStatistics();
+		statistics.setStatisticsEnabled(true);
+
+		// the data is committed so that the sessions opened by the worker threads can see it
+		Connection connection = getConnection();
+		generator = new SyntheticClinicalDataGenerator(connection, 1)
+		        .setPatients(Integer.getInteger("patientlist.load.patients", 10000))
+		        .setVisits(Integer.getInteger("patientlist.load.visits", 100000))
+		        .setObs(Integer.getInteger("patientlist.load.obs", 200000));
+		generator.deleteAll();
+		generator.generate();
+		connection.commit();
+
+		PatientInformation.getInstance().refresh();
+	}
+
+	@After
+	public void after() throws Exception {
+		if (generator != null) {
+			generator.deleteAll();
+			getConnection().commit();
+			PatientInformation.getInstance().refresh();
+		}
+	}
+
+	@Test
+	public void evaluateListShapes() throws Exception {
+		Map<String, PatientList> shapes = createShapes();
+
+		LOG.info(String.format("%-20s %6s %8s %8s %8s %8s %10s", "shape", "threads", "requests", "p50 ms",
+		    "p95 ms", "p99 ms", "queries/req"));
+		for (Map.Entry<String, PatientList> shape : shapes.entrySet()) {
+			// warm up the query plan caches before measuring
+			for (int i = 0; i < WARMUP_REQUESTS; i++) {
+				patientListDataService.getPatientListData(shape.getValue(), new PagingInfo(1, PAGE_SIZE));
+			}
+
+			for (int threads : CONCURRENCY_LEVELS) {
+				run(shape.getKey(), shape.getValue(), threads);
+			}
+		}
+	}
+
+	private void run(String name, final PatientList patientList, int threads) throws Exception {
+		final UserContext userContext = Context.getUserContext();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<List<Long>>> futures = new ArrayList<Future<List<Long>>>();
+
+		statistics.clear();
+		try {
+			for (int t = 0; t < threads; t++) {
+				futures.add(executor.submit(new Callable<List<Long>>() {
+					@Override
+					public List<Long> call() throws Exception {
+						List<Long> latencies = new ArrayList<Long>();
+						for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+							Context.openSession();
+							Context.setUserContext(userContext);
+							try {
+								long start = System.nanoTime();
+								patientListDataService.getPatientListData(patientList,
+								    new PagingInfo(i % PAGES + 1, PAGE_SIZE));
+								latencies.add(System.nanoTime() - start);
+							} finally {
+								Context.closeSession();
+							}
+						}
+
+						return latencies;
+					}
+				}));
+			}
+
+			List<Long> latencies = new ArrayList<Long>();
+			for (Future<List<Long>> future : futures) {
+				latencies.addAll(future.get());
+			}
+			Collections.sort(latencies);
+
+			double p99 = getPercentileMillis(latencies, 99);
+			double statementsPerRequest = (double)statistics.getPrepareStatementCount() / latencies.size();
+			LOG.info(String.format("%-20s %6d %8d %8.1f %8.1f %8.1f %10.1f", name, threads, latencies.size(),
+			    getPercentileMillis(latencies, 50), getPercentileMillis(latencies, 95), p99, statementsPerRequest));
+
+			Assert.assertEquals(threads * REQUESTS_PER_THREAD, latencies.size());
+			Assert.assertTrue(name + " issued " + statementsPerRequest + " statements per request",
+			    statementsPerRequest <= MAX_STATEMENTS_PER_REQUEST);
+			long maxP99 = Long.getLong("patientlist.load.maxP99Millis", 0);
+			Assert.assertTrue(name + " with " + threads + " threads had a p99 of " + p99 + " ms",
+			    maxP99 <= 0 || p99 <= maxP99);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static double getPercentileMillis(List<Long> sortedLatencies, int percentile) {
+		int index = (int)Math.ceil(percentile / 100.0 * sortedLatencies.size()) - 1;
+
+		return sortedLatencies.get(Math.max(0, index)) / 1000000.0;
+	}
+
+	private static Map<String, PatientList> createShapes() {
+		Map<String, PatientList> shapes = new LinkedHashMap<String, PatientList>();
+		shapes.put("patient field", createPatientList(condition("p.gender", PatientListOperator.EQUALS, "F")));
+		shapes.put("name like", createPatientList(condition("p.familyName", PatientListOperator.LIKE,
+		    SyntheticClinicalDataGenerator.FAMILY_NAMES[0])));
+		shapes.put("identifier", createPatientList(condition("p.identifier", PatientListOperator.EQUALS, "LOAD-"
+		        + (SyntheticClinicalDataGenerator.FIRST_ID + 1))));
+		shapes.put("person attribute", createPatientList(condition("p.attr."
+		        + SyntheticClinicalDataGenerator.STATE_ATTRIBUTE, PatientListOperator.EQUALS,
+		    SyntheticClinicalDataGenerator.STATES[0])));
+		shapes.put("visit attribute", createPatientList(condition("v.attr."
+		        + SyntheticClinicalDataGenerator.WARD_ATTRIBUTE, PatientListOperator.EQUALS,
+		    SyntheticClinicalDataGenerator.WARDS[0])));
+		shapes.put("active visit", createPatientList(condition("p.hasActiveVisit", null, null)));
+		shapes.put("relative date", createPatientList(condition("v.startDate", PatientListOperator.RELATIVE,
+		    "LAST_THREE_MONTHS")));
+		shapes.put("age between", createPatientList(condition("p.age", PatientListOperator.BETWEEN, "20|40")));
+		shapes.put("diagnosis", createPatientList(condition("v.diagnosis", PatientListOperator.EQUALS,
+		    SyntheticClinicalDataGenerator.DIAGNOSES[0])));
+		shapes.put("has diagnosis", createPatientList(condition("v.hasDiagnosis", null, null)));
+		shapes.put("combined", createPatientList(condition("p.hasActiveVisit", null, null), condition("v.diagnosis",
+		    PatientListOperator.EQUALS, SyntheticClinicalDataGenerator.DIAGNOSES[1])));
+
+		PatientList grouped = createPatientList(condition("p.attr." + SyntheticClinicalDataGenerator.STATE_ATTRIBUTE,
+		    PatientListOperator.EQUALS, SyntheticClinicalDataGenerator.STATES[1]), condition("v.attr."
+		        + SyntheticClinicalDataGenerator.WARD_ATTRIBUTE, PatientListOperator.EQUALS,
+		    SyntheticClinicalDataGenerator.WARDS[1]));
+		PatientListConditionGroup group = new PatientListConditionGroup();
+		group.setOperator(PatientListConditionGroupOperator.OR);
+		group.setGroupOrder(0);
+		grouped.addConditionGroup(group);
+		for (PatientListCondition condition : grouped.getPatientListConditions()) {
+			condition.setConditionGroup(group);
+		}
+		shapes.put("grouped or", grouped);
+
+		return shapes;
+	}
+
+	private static PatientListCondition condition(String field, PatientListOperator operator, String value) {
+		PatientListCondition condition = new PatientListCondition();
+		condition.setField(field);
+		condition.setOperator(operator);
+		condition.setValue(value);
+
+		return condition;
+	}
+
+	private static PatientList createPatientList(PatientListCondition... conditions) {
+		PatientList patientList = new PatientList();
+		patientList.setOrdering(new ArrayList<PatientListOrder>());
+
+		int conditionOrder = 0;
+		for (PatientListCondition condition : conditions) {
+			condition.setConditionOrder(conditionOrder++);
+			patientList.addCondition(condition);
+		}
+
+		return patientList;
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.impl;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+
+/**
+ * Counts the SQL statements issued through a session factory so that tests can fail when a list evaluation starts
+ * issuing statements per row. The count is taken from the Hibernate statistics, so it includes every statement issued
+ * on any thread since the last {@link #reset()}.
+ */
+public class SqlStatementCounter {
+	private final Statistics statistics;
+
+	public SqlStatementCounter(SessionFactory sessionFactory) {
+		statistics = sessionFactory.getStatistics();
+		statistics.setStatisticsEnabled(true);
+	}
+
+	/**
+	 * Starts counting from zero.
+	 */
+	public void reset() {
+		statistics.clear();
+	}
+
+	/**
+	 * Gets the number of statements issued since the last reset.
+	 */
+	public long getCount() {
+		return statistics.getPrepareStatementCount();
+	}
+
+	/**
+	 * Fails if more than the given number of statements have been issued since the last reset.
+	 * @param maxStatements The maximum number of statements
+	 */
+	public void assertAtMost(long maxStatements) {
+		long count = getCount();
+		Assert.assertTrue("Expected at most " + maxStatements + " SQL statements but " + count + " were issued",
+		    count <= maxStatements);
+	}
+}
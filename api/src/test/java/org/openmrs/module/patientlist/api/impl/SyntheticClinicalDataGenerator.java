@@ -0,0 +1,468 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.api.impl;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Populates the test database with synthetic patients, names, identifiers, person attributes, visits, visit
+ * attributes, encounters and diagnosis obs using JDBC batches. Values are skewed the way clinical data usually is: a
+ * few family names, states and diagnoses are very common, most patients have few visits while some have many, and
+ * visits cluster in the recent past. The generated rows use ids from {@link #FIRST_ID} and are removed by
+ * {@link #deleteAll()}.
+ */
+public class SyntheticClinicalDataGenerator {
+	public static final int FIRST_ID = 1000000;
+	public static final String STATE_ATTRIBUTE = "Load State";
+	public static final String PHONE_ATTRIBUTE = "Load Phone";
+	public static final String WARD_ATTRIBUTE = "Load Ward";
+	public static final String[] FAMILY_NAMES = { "Smith", "Mwangi", "Otieno", "Johnson", "Kamau", "Ochieng", "Brown",
+	        "Wanjiru", "Garcia", "Njoroge", "Kiprop", "Miller", "Achieng", "Davis", "Mutua", "Wilson" };
+	public static final String[] GIVEN_NAMES = { "Mary", "John", "Grace", "Peter", "Faith", "James", "Mercy", "David",
+	        "Ann", "Joseph", "Esther", "Daniel", "Jane", "Samuel", "Ruth", "Paul" };
+	public static final String[] STATES = { "Nairobi", "Indiana", "Kisumu", "Mombasa", "Nakuru", "Eldoret", "Ohio",
+	        "Kakamega" };
+	public static final String[] WARDS = { "Ward 1", "Ward 2", "Maternity", "Pediatrics", "ICU", "Surgical" };
+	public static final String[] DIAGNOSES = { "malaria", "hypertension", "pneumonia", "diabetes", "tuberculosis",
+	        "typhoid", "asthma", "HIV", "anemia", "gastroenteritis" };
+
+	private static final Log LOG = LogFactory.getLog(SyntheticClinicalDataGenerator.class);
+	private static final String FREE_TEXT_DATATYPE = "org.openmrs.customdatatype.datatype.FreeTextDatatype";
+	private static final double DEFAULT_SKEW = 1.1;
+	private static final int BATCH_SIZE = 1000;
+	private static final int MAX_AGE_YEARS = 90;
+	private static final int VISIT_HISTORY_DAYS = 730;
+	private static final double ACTIVE_VISIT_RATE = 0.05;
+	private static final double MISSING_ATTRIBUTE_RATE = 0.1;
+	private static final long MILLISECONDS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private static final String[] TABLES = { "obs", "encounter", "visit_attribute", "visit", "person_attribute",
+	        "patient_identifier", "patient", "person_name", "person", "visit_attribute_type", "person_attribute_type" };
+	private static final String[] ID_COLUMNS = { "obs_id", "encounter_id", "visit_attribute_id", "visit_id",
+	        "person_attribute_id", "patient_identifier_id", "patient_id", "person_name_id", "person_id",
+	        "visit_attribute_type_id", "person_attribute_type_id" };
+
+	private final Connection connection;
+	private final Random random;
+	private final Timestamp now = new Timestamp(System.currentTimeMillis());
+
+	private int patients = 1000;
+	private int visits = 10000;
+	private int obs = 50000;
+	private double skew = DEFAULT_SKEW;
+
+	private int locationId;
+	private int visitTypeId;
+	private int encounterTypeId;
+	private int identifierTypeId;
+	private int conceptId;
+	private int[] visitPatientIds;
+
+	public SyntheticClinicalDataGenerator(Connection connection, long seed) {
+		this.connection = connection;
+		this.random = new Random(seed);
+	}
+
+	public SyntheticClinicalDataGenerator setPatients(int patients) {
+		this.patients = patients;
+		return this;
+	}
+
+	public SyntheticClinicalDataGenerator setVisits(int visits) {
+		this.visits = visits;
+		return this;
+	}
+
+	public SyntheticClinicalDataGenerator setObs(int obs) {
+		this.obs = obs;
+		return this;
+	}
+
+	/**
+	 * Sets the exponent of the Zipf distributions used for skewed values; 0 gives uniform values.
+	 */
+	public SyntheticClinicalDataGenerator setSkew(double skew) {
+		this.skew = skew;
+		return this;
+	}
+
+	/**
+	 * Generates the configured volumes of data.
+	 * @throws SQLException
+	 */
+	public void generate() throws SQLException {
+		locationId = getFirstId("location", "location_id");
+		visitTypeId = getFirstId("visit_type", "visit_type_id");
+		encounterTypeId = getFirstId("encounter_type", "encounter_type_id");
+		identifierTypeId = getFirstId("patient_identifier_type", "patient_identifier_type_id");
+		conceptId = getFirstId("concept", "concept_id");
+
+		long start = System.currentTimeMillis();
+		createAttributeTypes();
+		createPatients();
+		createVisits();
+		createObs();
+
+		LOG.info("Generated " + patients + " patients, " + visits + " visits and " + obs + " obs in "
+		        + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Deletes all generated rows.
+	 * @throws SQLException
+	 */
+	public void deleteAll() throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			for (int i = 0; i < TABLES.length; i++) {
+				statement.executeUpdate("delete from " + TABLES[i] + " where " + ID_COLUMNS[i] + " >= " + FIRST_ID);
+			}
+		} finally {
+			statement.close();
+		}
+	}
+
+	private void createAttributeTypes() throws SQLException {
+		TableWriter personAttributeTypes = new TableWriter("person_attribute_type", "person_attribute_type_id", "name",
+		        "format", "creator", "date_created", "retired", "uuid");
+		try {
+			personAttributeTypes.add(FIRST_ID, STATE_ATTRIBUTE, String.class.getName(), 1, now, false, uuid());
+			personAttributeTypes.add(FIRST_ID + 1, PHONE_ATTRIBUTE, String.class.getName(), 1, now, false, uuid());
+		} finally {
+			personAttributeTypes.close();
+		}
+
+		TableWriter visitAttributeTypes = new TableWriter("visit_attribute_type", "visit_attribute_type_id", "name",
+		        "datatype", "min_occurs", "creator", "date_created", "retired", "uuid");
+		try {
+			visitAttributeTypes.add(FIRST_ID, WARD_ATTRIBUTE, FREE_TEXT_DATATYPE, 0, 1, now, false, uuid());
+		} finally {
+			visitAttributeTypes.close();
+		}
+	}
+
+	private void createPatients() throws SQLException {
+		ZipfSampler familyNames = new ZipfSampler(FAMILY_NAMES.length, skew, random);
+		ZipfSampler givenNames = new ZipfSampler(GIVEN_NAMES.length, skew, random);
+		ZipfSampler states = new ZipfSampler(STATES.length, skew, random);
+
+		TableWriter persons = new TableWriter("person", "person_id", "gender", "birthdate", "birthdate_estimated",
+		        "dead", "creator", "date_created", "voided", "uuid");
+		TableWriter names = new TableWriter("person_name", "person_name_id", "person_id", "preferred", "given_name",
+		        "family_name", "creator", "date_created", "voided", "uuid");
+		TableWriter patientRows = new TableWriter("patient", "patient_id", "creator", "date_created", "voided");
+		TableWriter identifiers = new TableWriter("patient_identifier", "patient_identifier_id", "patient_id",
+		        "identifier", "identifier_type", "preferred", "location_id", "creator", "date_created", "voided", "uuid");
+		TableWriter attributes = new TableWriter("person_attribute", "person_attribute_id", "person_id", "value",
+		        "person_attribute_type_id", "creator", "date_created", "voided", "uuid");
+		try {
+			int attributeId = FIRST_ID;
+			for (int i = 0; i < patients; i++) {
+				int personId = FIRST_ID + i;
+				persons.add(personId, random.nextDouble() < 0.52 ? "F" : "M", createBirthdate(), false, false, 1, now,
+				    false, uuid());
+				names.add(personId, personId, true, GIVEN_NAMES[givenNames.next()], FAMILY_NAMES[familyNames.next()], 1,
+				    now, false, uuid());
+				patientRows.add(personId, 1, now, false);
+				identifiers.add(personId, personId, "LOAD-" + personId, identifierTypeId, true, locationId, 1, now, false,
+				    uuid());
+
+				if (random.nextDouble() >= MISSING_ATTRIBUTE_RATE) {
+					attributes.add(attributeId++, personId, STATES[states.next()], FIRST_ID, 1, now, false, uuid());
+				}
+				if (random.nextDouble() >= MISSING_ATTRIBUTE_RATE) {
+					attributes.add(attributeId++, personId, "07" + (10000000 + random.nextInt(89999999)), FIRST_ID + 1,
+					    1, now, false, uuid());
+				}
+			}
+		} finally {
+			persons.close();
+			names.close();
+			patientRows.close();
+			identifiers.close();
+			attributes.close();
+		}
+	}
+
+	private void createVisits() throws SQLException {
+		// a few patients have many visits, most have one or two
+		ZipfSampler visitPatients = new ZipfSampler(patients, skew, random);
+		ZipfSampler wards = new ZipfSampler(WARDS.length, skew, random);
+
+		TableWriter visitRows = new TableWriter("visit", "visit_id", "patient_id", "visit_type_id", "date_started",
+		        "date_stopped", "location_id", "creator", "date_created", "voided", "uuid");
+		TableWriter visitAttributes = new TableWriter("visit_attribute", "visit_attribute_id", "visit_id",
+		        "attribute_type_id", "value_reference", "creator", "date_created", "voided", "uuid");
+		visitPatientIds = new int[visits];
+		try {
+			for (int i = 0; i < visits; i++) {
+				int visitId = FIRST_ID + i;
+				visitPatientIds[i] = FIRST_ID + shuffle(visitPatients.next());
+				// visits cluster in the recent past
+				long daysAgo = (long)(-Math.log(1 - random.nextDouble()) * VISIT_HISTORY_DAYS / 4) % VISIT_HISTORY_DAYS;
+				Timestamp started = new Timestamp(now.getTime() - daysAgo * MILLISECONDS_PER_DAY
+				        - random.nextInt((int)MILLISECONDS_PER_DAY));
+				Timestamp stopped = random.nextDouble() < ACTIVE_VISIT_RATE ? null : new Timestamp(started.getTime()
+				        + random.nextInt((int)MILLISECONDS_PER_DAY));
+
+				visitRows.add(visitId, visitPatientIds[i], visitTypeId, started, stopped,
+				    locationId, 1, now, false, uuid());
+				visitAttributes.add(visitId, visitId, FIRST_ID, WARDS[wards.next()], 1, now, false, uuid());
+			}
+		} finally {
+			visitRows.close();
+			visitAttributes.close();
+		}
+	}
+
+	private void createObs() throws SQLException {
+		ZipfSampler diagnoses = new ZipfSampler(DIAGNOSES.length, skew, random);
+
+		TableWriter encounters = new TableWriter("encounter", "encounter_id", "encounter_type", "patient_id",
+		        "location_id", "encounter_datetime", "visit_id", "creator", "date_created", "voided", "uuid");
+		TableWriter obsRows = new TableWriter("obs", "obs_id", "person_id", "concept_id", "encounter_id",
+		        "obs_datetime", "location_id", "value_text", "creator", "date_created", "voided", "uuid");
+		obsRows.setOptional("status", "FINAL");
+		try {
+			// one encounter for each of the first visits, with the obs spread over those encounters
+			int encounterCount = Math.max(1, Math.min(visits, obs / 2));
+			for (int i = 0; i < encounterCount; i++) {
+				encounters.add(FIRST_ID + i, encounterTypeId, visitPatientIds[i], locationId, now, FIRST_ID + i, 1, now,
+				    false, uuid());
+			}
+			encounters.flush();
+
+			for (int i = 0; i < obs; i++) {
+				int encounterIndex = random.nextInt(encounterCount);
+				obsRows.add(FIRST_ID + i, visitPatientIds[encounterIndex], conceptId, FIRST_ID + encounterIndex, now,
+				    locationId, DIAGNOSES[diagnoses.next()], 1, now, false, uuid());
+			}
+		} finally {
+			encounters.close();
+			obsRows.close();
+		}
+	}
+
+	/**
+	 * Spreads the Zipf ranks over the patients so that the frequent patients are not all at the start of the id range.
+	 */
+	private int shuffle(int rank) {
+		return (int)((rank * 2654435761L) % patients);
+	}
+
+	private Timestamp createBirthdate() {
+		Calendar calendar = Calendar.getInstance();
+		// more young patients than old ones
+		int ageYears = (int)(MAX_AGE_YEARS * Math.pow(random.nextDouble(), 1.5));
+		calendar.add(Calendar.YEAR, -ageYears);
+		calendar.add(Calendar.DATE, -random.nextInt(365));
+
+		return new Timestamp(calendar.getTimeInMillis());
+	}
+
+	private int getFirstId(String table, String idColumn) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet resultSet = statement.executeQuery("select min(" + idColumn + ") from " + table);
+			return resultSet.next() ? resultSet.getInt(1) : 1;
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static String uuid() {
+		return UUID.randomUUID().toString();
+	}
+
+	/**
+	 * Samples ranks 0..n-1 with Zipf probabilities.
+	 */
+	static class ZipfSampler {
+		private final double[] cumulative;
+		private final Random random;
+
+		ZipfSampler(int n, double exponent, Random random) {
+			this.random = random;
+			cumulative = new double[Math.max(1, n)];
+			double total = 0;
+			for (int i = 0; i < cumulative.length; i++) {
+				total += 1 / Math.pow(i + 1, exponent);
+				cumulative[i] = total;
+			}
+			for (int i = 0; i < cumulative.length; i++) {
+				cumulative[i] /= total;
+			}
+		}
+
+		int next() {
+			int index = Arrays.binarySearch(cumulative, random.nextDouble());
+			return Math.min(cumulative.length - 1, index < 0 ? -index - 1 : index);
+		}
+	}
+
+	/**
+	 * Batches inserts into a table. Not null columns that are not given and have no default, which differ between
+	 * OpenMRS versions, are filled with an empty value of their type.
+	 */
+	private class TableWriter {
+		private final List<String> columns;
+		private final List<Integer> fillTypes = new ArrayList<Integer>();
+		private final List<String> fillColumns = new ArrayList<String>();
+		private final String table;
+		private PreparedStatement statement;
+		private String optionalColumn;
+		private Object optionalValue;
+		private int pending;
+
+		TableWriter(String table, String... columns) {
+			this.table = table;
+			this.columns = Arrays.asList(columns);
+		}
+
+		void setOptional(String column, Object value) {
+			optionalColumn = column;
+			optionalValue = value;
+		}
+
+		void add(Object... values) throws SQLException {
+			if (statement == null) {
+				prepare();
+			}
+
+			int index = 1;
+			for (Object value : values) {
+				statement.setObject(index++, value);
+			}
+			if (optionalColumn != null) {
+				statement.setObject(index++, optionalValue);
+			}
+			for (int i = 0; i < fillColumns.size(); i++) {
+				statement.setObject(index++, createEmptyValue(fillColumns.get(i), fillTypes.get(i)),
+				    fillTypes.get(i));
+			}
+
+			statement.addBatch();
+			if (++pending >= BATCH_SIZE) {
+				flush();
+			}
+		}
+
+		void flush() throws SQLException {
+			if (statement != null && pending > 0) {
+				statement.executeBatch();
+				pending = 0;
+			}
+		}
+
+		void close() throws SQLException {
+			flush();
+			if (statement != null) {
+				statement.close();
+			}
+		}
+
+		private void prepare() throws SQLException {
+			Set<String> given = new HashSet<String>();
+			for (String column : columns) {
+				given.add(column.toLowerCase());
+			}
+
+			// H2 stores unquoted table names in upper case, MySQL as they were created
+			boolean hasOptional = readColumns(table.toUpperCase(), given);
+			if (fillColumns.isEmpty() && !hasOptional) {
+				hasOptional = readColumns(table, given);
+			}
+			if (!hasOptional) {
+				optionalColumn = null;
+			}
+
+			List<String> allColumns = new ArrayList<String>(columns);
+			if (optionalColumn != null) {
+				allColumns.add(optionalColumn);
+			}
+			allColumns.addAll(fillColumns);
+
+			StringBuilder sql = new StringBuilder("insert into " + table + " (");
+			StringBuilder parameters = new StringBuilder();
+			for (int i = 0; i < allColumns.size(); i++) {
+				sql.append(i == 0 ? "" : ", ").append(allColumns.get(i));
+				parameters.append(i == 0 ? "?" : ", ?");
+			}
+			sql.append(") values (").append(parameters).append(")");
+
+			statement = connection.prepareStatement(sql.toString());
+		}
+
+		private boolean readColumns(String tableName, Set<String> given) throws SQLException {
+			boolean hasOptional = false;
+			ResultSet resultSet = connection.getMetaData().getColumns(null, null, tableName, null);
+			try {
+				while (resultSet.next()) {
+					String column = resultSet.getString("COLUMN_NAME").toLowerCase();
+					if (column.equalsIgnoreCase(optionalColumn)) {
+						hasOptional = true;
+					} else if (!given.contains(column) && "NO".equals(resultSet.getString("IS_NULLABLE"))
+					        && resultSet.getString("COLUMN_DEF") == null) {
+						fillColumns.add(column);
+						fillTypes.add(resultSet.getInt("DATA_TYPE"));
+					}
+				}
+			} finally {
+				resultSet.close();
+			}
+
+			return hasOptional;
+		}
+
+		private Object createEmptyValue(String column, int type) {
+			if ("uuid".equals(column)) {
+				return uuid();
+			}
+
+			switch (type) {
+				case Types.BIT:
+				case Types.BOOLEAN:
+					return false;
+				case Types.DATE:
+				case Types.TIME:
+				case Types.TIMESTAMP:
+					return now;
+				case Types.CHAR:
+				case Types.VARCHAR:
+				case Types.LONGVARCHAR:
+				case Types.CLOB:
+					return "";
+				default:
+					return 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.benchmark;
+
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonName;
+import org.openmrs.Visit;
+import org.openmrs.VisitAttribute;
+import org.openmrs.VisitType;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.model.PatientListCondition;
+import org.openmrs.module.patientlist.api.model.PatientListConditionGroup;
+import org.openmrs.module.patientlist.api.model.PatientListConditionGroupOperator;
+import org.openmrs.module.patientlist.api.model.PatientListOperator;
+import org.openmrs.module.patientlist.api.model.PatientListOrder;
+import org.openmrs.module.patientlist.api.model.PatientListRelativeDate;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Builds the patient lists, patients and visits used by the benchmarks.
+ */
+public class BenchmarkData {
+	protected BenchmarkData() {}
+
+	/**
+	 * The patient list shapes that are benchmarked, from a single patient condition to nested condition groups over
+	 * patient and visit attributes.
+	 */
+	public enum ListShape {
+		/**
+		 * One patient field condition ordered by family name.
+		 */
+		SIMPLE,
+		/**
+		 * Person attribute, text and age range conditions ordered by identifier.
+		 */
+		ATTRIBUTES,
+		/**
+		 * A relative visit date and visit attribute condition ordered by visit start date.
+		 */
+		VISIT,
+		/**
+		 * Two AND groups combined with OR, mixing person and visit attribute conditions.
+		 */
+		GROUPED
+	}
+
+	public static PatientList createPatientList(ListShape shape) {
+		PatientList patientList = new PatientList();
+		patientList.setName(shape.name());
+		patientList.setPatientListConditions(new ArrayList<PatientListCondition>());
+		patientList.setOrdering(new ArrayList<PatientListOrder>());
+
+		switch (shape) {
+			case SIMPLE:
+				addCondition(patientList, null, "p.gender", PatientListOperator.EQUALS, "F");
+				addOrder(patientList, "p.familyName", "asc");
+				break;
+			case ATTRIBUTES:
+				addCondition(patientList, null, "p.attr.State", PatientListOperator.EQUALS, "Indiana");
+				addCondition(patientList, null, "p.attr.City", PatientListOperator.LIKE, "Indian");
+				addCondition(patientList, null, "p.age", PatientListOperator.BETWEEN, "20|60");
+				addOrder(patientList, "p.identifier", "asc");
+				break;
+			case VISIT:
+				addCondition(patientList, null, "v.startDate", PatientListOperator.RELATIVE,
+				    PatientListRelativeDate.LAST_WEEK.name());
+				addCondition(patientList, null, "v.attr.Ward", PatientListOperator.EQUALS, "Ward 1");
+				addOrder(patientList, "v.startDate", "desc");
+				break;
+			case GROUPED:
+				PatientListConditionGroup any = addGroup(patientList, null, PatientListConditionGroupOperator.OR);
+				PatientListConditionGroup women = addGroup(patientList, any, PatientListConditionGroupOperator.AND);
+				addCondition(patientList, women, "p.attr.State", PatientListOperator.EQUALS, "Indiana");
+				addCondition(patientList, women, "p.gender", PatientListOperator.EQUALS, "F");
+				PatientListConditionGroup ward = addGroup(patientList, any, PatientListConditionGroupOperator.AND);
+				addCondition(patientList, ward, "v.attr.Ward", PatientListOperator.EQUALS, "Ward 1");
+				addCondition(patientList, ward, "v.attr.Bed", PatientListOperator.NOT_NULL, null);
+				addOrder(patientList, "p.familyName", "asc");
+				break;
+			default:
+				break;
+		}
+
+		return patientList;
+	}
+
+	public static Patient createPatient(int index) {
+		Patient patient = new Patient(index);
+		patient.setGender(index % 2 == 0 ? "F" : "M");
+
+		Calendar birthdate = Calendar.getInstance();
+		birthdate.add(Calendar.YEAR, -(20 + index % 50));
+		patient.setBirthdate(birthdate.getTime());
+
+		patient.addName(new PersonName("Given" + index, "Middle", "Family" + index));
+
+		PatientIdentifierType identifierType = new PatientIdentifierType(1);
+		identifierType.setName("OpenMRS ID");
+		PatientIdentifier identifier = new PatientIdentifier("1000" + index, identifierType, null);
+		identifier.setPreferred(true);
+		patient.addIdentifier(identifier);
+
+		patient.addAttribute(new PersonAttribute(BenchmarkServices.getPersonAttributeType("State"), "Indiana"));
+		patient.addAttribute(new PersonAttribute(BenchmarkServices.getPersonAttributeType("City"), "Indianapolis"));
+
+		return patient;
+	}
+
+	public static Visit createVisit(Patient patient) {
+		VisitType visitType = new VisitType("Outpatient", null);
+		visitType.setId(1);
+
+		Visit visit = new Visit(patient, visitType, new Date());
+		VisitAttribute ward = new VisitAttribute();
+		ward.setAttributeType(BenchmarkServices.getVisitAttributeType("Ward"));
+		ward.setValue("Ward 1");
+		visit.addAttribute(ward);
+
+		return visit;
+	}
+
+	private static PatientListConditionGroup addGroup(PatientList patientList, PatientListConditionGroup parent,
+	        PatientListConditionGroupOperator operator) {
+		PatientListConditionGroup group = new PatientListConditionGroup();
+		group.setParentGroup(parent);
+		group.setOperator(operator);
+		group.setGroupOrder(patientList.getConditionGroups() == null ? 0 : patientList.getConditionGroups().size());
+		patientList.addConditionGroup(group);
+
+		return group;
+	}
+
+	private static void addCondition(PatientList patientList, PatientListConditionGroup group, String field,
+	        PatientListOperator operator, String value) {
+		PatientListCondition condition = new PatientListCondition();
+		condition.setField(field);
+		condition.setOperator(operator);
+		condition.setValue(value);
+		condition.setConditionGroup(group);
+		condition.setConditionOrder(patientList.getPatientListConditions().size());
+		patientList.addCondition(condition);
+	}
+
+	private static void addOrder(PatientList patientList, String field, String sortOrder) {
+		PatientListOrder order = new PatientListOrder();
+		order.setField(field);
+		order.setSortOrder(sortOrder);
+		order.setConditionOrder(patientList.getOrdering().size());
+		patientList.addSortOrder(order);
+	}
+}
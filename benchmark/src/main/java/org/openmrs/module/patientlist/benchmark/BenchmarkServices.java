@@ -0,0 +1,124 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.benchmark;
+
+import org.openmrs.PersonAttributeType;
+import org.openmrs.VisitAttributeType;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.PersonService;
+import org.openmrs.api.VisitService;
+import org.openmrs.api.context.ServiceContext;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Installs in-memory stand-ins for the OpenMRS services that the benchmarked code looks up through the context, so
+ * that the benchmarks measure the module code rather than a database. The stand-ins return the benchmark attribute
+ * types and null or empty results for everything else.
+ */
+public class BenchmarkServices {
+	public static final String[] PERSON_ATTRIBUTE_TYPES = { "State", "City", "Phone" };
+	public static final String[] VISIT_ATTRIBUTE_TYPES = { "Ward", "Bed", "First Visit" };
+
+	private static final String FREE_TEXT_DATATYPE = "org.openmrs.customdatatype.datatype.FreeTextDatatype";
+
+	private static final List<PersonAttributeType> PERSON_ATTRIBUTE_TYPE_LIST = new ArrayList<PersonAttributeType>();
+	private static final List<VisitAttributeType> VISIT_ATTRIBUTE_TYPE_LIST = new ArrayList<VisitAttributeType>();
+
+	private static boolean installed;
+
+	protected BenchmarkServices() {}
+
+	public static synchronized void install() {
+		if (installed) {
+			return;
+		}
+
+		for (String name : PERSON_ATTRIBUTE_TYPES) {
+			PersonAttributeType type = new PersonAttributeType(PERSON_ATTRIBUTE_TYPE_LIST.size() + 1);
+			type.setName(name);
+			type.setFormat(String.class.getName());
+			PERSON_ATTRIBUTE_TYPE_LIST.add(type);
+		}
+
+		for (String name : VISIT_ATTRIBUTE_TYPES) {
+			VisitAttributeType type = new VisitAttributeType();
+			type.setId(VISIT_ATTRIBUTE_TYPE_LIST.size() + 1);
+			type.setName(name);
+			type.setDatatypeClassname(FREE_TEXT_DATATYPE);
+			VISIT_ATTRIBUTE_TYPE_LIST.add(type);
+		}
+
+		ServiceContext serviceContext = ServiceContext.getInstance();
+		serviceContext.setPersonService(createService(PersonService.class, "getAllPersonAttributeTypes",
+		    PERSON_ATTRIBUTE_TYPE_LIST));
+		serviceContext.setVisitService(createService(VisitService.class, "getAllVisitAttributeTypes",
+		    VISIT_ATTRIBUTE_TYPE_LIST));
+		serviceContext.setConceptService(createService(ConceptService.class, null, null));
+		serviceContext.setAdministrationService(createService(AdministrationService.class, null, null));
+
+		installed = true;
+	}
+
+	public static PersonAttributeType getPersonAttributeType(String name) {
+		return PERSON_ATTRIBUTE_TYPE_LIST.get(Arrays.asList(PERSON_ATTRIBUTE_TYPES).indexOf(name));
+	}
+
+	public static VisitAttributeType getVisitAttributeType(String name) {
+		return VISIT_ATTRIBUTE_TYPE_LIST.get(Arrays.asList(VISIT_ATTRIBUTE_TYPES).indexOf(name));
+	}
+
+	private static Object getDefaultValue(Class<?> type) {
+		if (boolean.class.equals(type)) {
+			return false;
+		} else if (int.class.equals(type)) {
+			return 0;
+		} else if (long.class.equals(type)) {
+			return 0L;
+		} else if (double.class.equals(type)) {
+			return 0d;
+		}
+
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T createService(final Class<T> serviceClass, final String methodName, final Object result) {
+		return (T)Proxy.newProxyInstance(BenchmarkServices.class.getClassLoader(), new Class<?>[] { serviceClass },
+		    new InvocationHandler() {
+			    @Override
+			    public Object invoke(Object proxy, Method method, Object[] args) {
+				    if (method.getName().equals(methodName)) {
+					    return result;
+				    } else if (method.getName().equals("equals")) {
+					    return proxy == args[0];
+				    } else if (method.getName().equals("hashCode")) {
+					    return System.identityHashCode(proxy);
+				    } else if (method.getName().equals("toString")) {
+					    return serviceClass.getSimpleName() + " benchmark stand-in";
+				    } else if (List.class.equals(method.getReturnType())) {
+					    return new ArrayList<Object>();
+				    }
+
+				    return getDefaultValue(method.getReturnType());
+			    }
+		    });
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.benchmark;
+
+import org.openmrs.module.patientlist.api.impl.PatientListDataServiceImpl;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the list HQL for each {@link BenchmarkData.ListShape}, for both the page and the count query.
+ * {@code constructHqlQuery} is private so it is called reflectively; the reflective call overhead is constant across
+ * shapes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HqlCompileBenchmark {
+	@Param({ "SIMPLE", "ATTRIBUTES", "VISIT", "GROUPED" })
+	private BenchmarkData.ListShape shape;
+
+	@Param({ "false", "true" })
+	private boolean countQuery;
+
+	private PatientListDataServiceImpl service;
+	private Method constructHqlQuery;
+	private PatientList patientList;
+
+	@Setup
+	public void setup() throws Exception {
+		BenchmarkServices.install();
+
+		service = new PatientListDataServiceImpl();
+		constructHqlQuery = PatientListDataServiceImpl.class.getDeclaredMethod("constructHqlQuery", PatientList.class,
+		    List.class, boolean.class, Map.class);
+		constructHqlQuery.setAccessible(true);
+		patientList = BenchmarkData.createPatientList(shape);
+	}
+
+	@Benchmark
+	public Object constructHqlQuery() throws Exception {
+		List<Object> paramValues = new ArrayList<Object>();
+
+		return constructHqlQuery.invoke(service, patientList, paramValues, countQuery,
+		    Collections.<String, String> emptyMap());
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.benchmark;
+
+import org.openmrs.OpenmrsData;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+import org.openmrs.module.patientlist.api.model.PatientInformationField;
+import org.openmrs.module.patientlist.api.util.PatientInformation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures looking up and reading the patient and visit fields that templates and in-memory evaluation use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatientInformationBenchmark {
+	@Param({ "p.fullName", "p.age", "p.identifier", "p.attr.State", "v.startDate", "v.visitType", "v.attr.Ward" })
+	private String field;
+
+	private PatientInformationField<OpenmrsData> patientInformationField;
+	private OpenmrsData source;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setup() {
+		BenchmarkServices.install();
+
+		Patient patient = BenchmarkData.createPatient(1);
+		Visit visit = BenchmarkData.createVisit(patient);
+		source = field.startsWith(PatientInformation.PATIENT_PREFIX + ".") ? patient : visit;
+		patientInformationField = (PatientInformationField<OpenmrsData>)PatientInformation.getInstance().getField(field);
+		if (patientInformationField == null) {
+			throw new IllegalStateException("Unknown patient information field '" + field + "'");
+		}
+	}
+
+	@Benchmark
+	public Object getField() {
+		return PatientInformation.getInstance().getField(field);
+	}
+
+	@Benchmark
+	public Object getValue() {
+		return patientInformationField.getValue(source);
+	}
+}
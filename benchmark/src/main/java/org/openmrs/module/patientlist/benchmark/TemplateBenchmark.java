@@ -0,0 +1,83 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.benchmark;
+
+import org.openmrs.Patient;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.model.PatientListData;
+import org.openmrs.module.patientlist.api.util.PatientListTemplate;
+import org.openmrs.module.patientlist.api.util.PatientListTemplateUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rendering a list row with the shipped default header and body templates, parsing the template on each
+ * call as the string overload does and using a template compiled once as registered definitions do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+	private String headerTemplate;
+	private String bodyTemplate;
+	private PatientListTemplateUtil.CompiledTemplate compiledHeaderTemplate;
+	private PatientListTemplateUtil.CompiledTemplate compiledBodyTemplate;
+	private PatientListData patientListData;
+
+	@Setup
+	public void setup() {
+		BenchmarkServices.install();
+
+		headerTemplate = PatientListTemplate.getInstance().getDefaultHeaderTemplate();
+		bodyTemplate = PatientListTemplate.getInstance().getDefaultBodyTemplate();
+		compiledHeaderTemplate = PatientListTemplateUtil.compileTemplate(headerTemplate);
+		compiledBodyTemplate = PatientListTemplateUtil.compileTemplate(bodyTemplate);
+
+		Patient patient = BenchmarkData.createPatient(1);
+		patientListData = new PatientListData(patient, BenchmarkData.createVisit(patient), new PatientList());
+	}
+
+	@Benchmark
+	public String applyHeaderTemplate() {
+		return PatientListTemplateUtil.applyTemplate(headerTemplate, patientListData);
+	}
+
+	@Benchmark
+	public String applyBodyTemplate() {
+		return PatientListTemplateUtil.applyTemplate(bodyTemplate, patientListData);
+	}
+
+	@Benchmark
+	public String applyCompiledHeaderTemplate() {
+		return PatientListTemplateUtil.applyTemplate(compiledHeaderTemplate, patientListData);
+	}
+
+	@Benchmark
+	public String applyCompiledBodyTemplate() {
+		return PatientListTemplateUtil.applyTemplate(compiledBodyTemplate, patientListData);
+	}
+}
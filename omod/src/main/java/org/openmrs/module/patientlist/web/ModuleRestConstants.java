@@ -23,7 +23,11 @@ public class ModuleRestConstants extends WebConstants {
 	public static final String MODULE_REST_ROOT = RestConstants.VERSION_2 + "/patientlist/";
 	public static final String PATIENT_LIST_RESOURCE = MODULE_REST_ROOT + "list";
 	public static final String PATIENT_LIST_DATA_RESOURCE = MODULE_REST_ROOT + "data";
+	public static final String PATIENT_LIST_DATA_BATCH_RESOURCE = MODULE_REST_ROOT + "databatch";
+	public static final String PATIENT_LIST_SUMMARY_RESOURCE = MODULE_REST_ROOT + "summary";
+	public static final String PATIENT_LIST_EXPORT_RESOURCE = MODULE_REST_ROOT + "export";
 	public static final String PATIENT_LIST_CONDITION_RESOURCE = MODULE_REST_ROOT + "condition";
+	public static final String PATIENT_LIST_CONDITION_GROUP_RESOURCE = MODULE_REST_ROOT + "conditiongroup";
 	public static final String PATIENT_LIST_ORDER_RESOURCE = MODULE_REST_ROOT + "order";
 	public static final String PATIENT_LIST_FIELDS_RESOURCE = MODULE_REST_ROOT + "fields";
 	public static final String PATIENT_LIST_PHOTOS_RESOURCE = MODULE_REST_ROOT + "photos";
@@ -32,4 +36,11 @@ public class ModuleRestConstants extends WebConstants {
 	public static final String PATIENT_LIST_LIVE_PREVIEWING_RESOURCE = MODULE_REST_ROOT + "live";
 	public static final String PATIENT_LOOKUP_DATATYPE_RESOURCE = MODULE_REST_ROOT + "lookup";
 	public static final String VISIT_NOTE_RESOURCE = MODULE_REST_ROOT + "visitnote";
+	public static final String PATIENT_LIST_PUSH_RESOURCE = MODULE_REST_ROOT + "push";
+	public static final String PATIENT_LIST_CONDITION_INDEX_RESOURCE = MODULE_REST_ROOT + "conditionindex";
+	public static final String PATIENT_LIST_INDEX_ADVISOR_RESOURCE = MODULE_REST_ROOT + "indexadvisor";
+	public static final String PATIENT_LIST_METRICS_RESOURCE = MODULE_REST_ROOT + "metrics";
+	public static final String PATIENT_LIST_SLOW_LOG_RESOURCE = MODULE_REST_ROOT + "slowlog";
+	public static final String PATIENT_LIST_EXPLAIN_RESOURCE = MODULE_REST_ROOT + "explain";
+	public static final String PATIENT_LIST_NAME_KEYS_RESOURCE = MODULE_REST_ROOT + "namekeys";
 }
@@ -0,0 +1,140 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.web;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientlist.api.IPatientListService;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.util.PatientListDefinitionRegistry;
+import org.openmrs.module.patientlist.api.util.PatientListVersionUtil;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Answers conditional GET requests for patient list definitions and patient list data. A strong entity tag is computed
+ * from the list definition (and, for list data, the data change watermark of the list, the start of this node and,
+ * for lists with relative dates or ages, the current day) and, when it matches the If-None-Match request header, a
+ * 304 response is returned before the request is handled.
+ */
+public class PatientListConditionalGetFilter implements Filter {
+	private static final Log LOG = LogFactory.getLog(PatientListConditionalGetFilter.class);
+	private static final String REST_PATH = "/ws/rest/";
+	private static final String LIST_PATH = REST_PATH + ModuleRestConstants.PATIENT_LIST_RESOURCE;
+	private static final String DATA_PATH = REST_PATH + ModuleRestConstants.PATIENT_LIST_DATA_RESOURCE;
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {}
+
+	@Override
+	public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+	        throws IOException, ServletException {
+		HttpServletRequest request = (HttpServletRequest)servletRequest;
+		HttpServletResponse response = (HttpServletResponse)servletResponse;
+
+		String eTag = null;
+		if (StringUtils.equals(request.getMethod(), "GET") && Context.isAuthenticated()) {
+			try {
+				eTag = createETag(request);
+			} catch (APIException ex) {
+				LOG.debug("Could not create the entity tag for " + request.getRequestURI(), ex);
+			}
+		}
+
+		if (eTag != null) {
+			response.setHeader("ETag", eTag);
+			response.setHeader("Cache-Control", "private, no-cache");
+
+			if (matches(request.getHeader("If-None-Match"), eTag)) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+		}
+
+		chain.doFilter(servletRequest, servletResponse);
+	}
+
+	@Override
+	public void destroy() {}
+
+	/**
+	 * Creates the entity tag for the requested patient list resource.
+	 * @param request The request
+	 * @return The entity tag or null if the request is not for a supported resource
+	 */
+	private String createETag(HttpServletRequest request) {
+		String path = StringUtils.removeStart(request.getRequestURI(), request.getContextPath());
+		IPatientListService patientListService = Context.getService(IPatientListService.class);
+
+		String version = null;
+		if (StringUtils.equals(path, DATA_PATH)) {
+			String uuid = request.getParameter("uuid");
+			PatientList patientList = StringUtils.isEmpty(uuid) ? null
+			        : PatientListDefinitionRegistry.getInstance().get(uuid);
+			if (patientList != null) {
+				version = PatientListVersionUtil.getDataVersion(patientList);
+			}
+		} else if (StringUtils.startsWith(path, LIST_PATH + "/")) {
+			String uuid = StringUtils.substringAfter(path, LIST_PATH + "/");
+			PatientList patientList = StringUtils.contains(uuid, "/") ? null
+			        : PatientListDefinitionRegistry.getInstance().get(uuid);
+			if (patientList != null) {
+				version = PatientListVersionUtil.getDefinitionVersion(patientList);
+			}
+		} else if (StringUtils.equals(path, LIST_PATH) && request.getParameter("q") == null) {
+			List<PatientList> patientLists = patientListService.getAllDefinitions(
+			    Boolean.parseBoolean(request.getParameter("includeAll")));
+			StringBuilder versions = new StringBuilder();
+			for (PatientList patientList : patientLists) {
+				versions.append(PatientListVersionUtil.getDefinitionVersion(patientList));
+			}
+			version = DigestUtils.md5Hex(versions.toString());
+		}
+
+		if (version == null) {
+			return null;
+		}
+
+		// the same resource can be requested with different pages and representations
+		return "\"" + version + "-" + DigestUtils.md5Hex(StringUtils.defaultString(request.getQueryString())) + "\"";
+	}
+
+	private boolean matches(String ifNoneMatch, String eTag) {
+		if (StringUtils.isEmpty(ifNoneMatch)) {
+			return false;
+		}
+
+		for (String value : StringUtils.split(ifNoneMatch, ",")) {
+			String candidate = StringUtils.trim(value);
+			if (StringUtils.equals(candidate, "*") || StringUtils.equals(candidate, eTag)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.web;
+
+import org.openmrs.module.patientlist.api.event.IPatientListDataChangeListener;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeEvent;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeTracker;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the open long-poll connections that wait for changes to a patient list and completes them when a data change
+ * affecting the list is published.
+ */
+@Component
+public class PatientListPushRegistry implements IPatientListDataChangeListener {
+	private final ConcurrentMap<String, Queue<DeferredResult<SimpleObject>>> subscriptions =
+	        new ConcurrentHashMap<String, Queue<DeferredResult<SimpleObject>>>();
+	private final ConcurrentMap<String, Set<String>> dependentTypes = new ConcurrentHashMap<String, Set<String>>();
+	private final AtomicInteger connectionCount = new AtomicInteger();
+
+	public PatientListPushRegistry() {
+		PatientListDataChangeTracker.getInstance().addListener(this);
+	}
+
+	/**
+	 * Registers a connection waiting for changes to the given patient list. Changes published before the connection is
+	 * registered are not delivered to it, so callers check the list's change version again once it is registered.
+	 * @param patientList The patient list
+	 * @param result The pending result that will be completed when the list changes
+	 * @param maxConnections The maximum number of open connections for this node
+	 * @return false if the connection limit has been reached, true otherwise
+	 */
+	public boolean subscribe(PatientList patientList, final DeferredResult<SimpleObject> result, int maxConnections) {
+		if (connectionCount.incrementAndGet() > maxConnections) {
+			connectionCount.decrementAndGet();
+			return false;
+		}
+
+		final String uuid = patientList.getUuid();
+		dependentTypes.put(uuid, PatientListDataChangeEvent.getDependentTypes(patientList));
+
+		Queue<DeferredResult<SimpleObject>> queue = subscriptions.get(uuid);
+		if (queue == null) {
+			subscriptions.putIfAbsent(uuid, new ConcurrentLinkedQueue<DeferredResult<SimpleObject>>());
+			queue = subscriptions.get(uuid);
+		}
+
+		final Queue<DeferredResult<SimpleObject>> subscriberQueue = queue;
+		result.onCompletion(new Runnable() {
+			@Override
+			public void run() {
+				subscriberQueue.remove(result);
+				connectionCount.decrementAndGet();
+			}
+		});
+		subscriberQueue.add(result);
+
+		return true;
+	}
+
+	public int getConnectionCount() {
+		return connectionCount.get();
+	}
+
+	@Override
+	public void onDataChanged(PatientListDataChangeEvent event) {
+		for (Map.Entry<String, Set<String>> entry : dependentTypes.entrySet()) {
+			String uuid = entry.getKey();
+			if (!event.affects(uuid, entry.getValue())) {
+				continue;
+			}
+
+			// when the definition changed, the dependencies are recalculated when the clients subscribe again
+			Queue<DeferredResult<SimpleObject>> queue = subscriptions.get(uuid);
+			if (queue == null) {
+				continue;
+			}
+
+			DeferredResult<SimpleObject> result;
+			while ((result = queue.poll()) != null) {
+				result.setResult(createResult(uuid, event.getVersion(), true));
+			}
+		}
+	}
+
+	public static SimpleObject createResult(String uuid, long version, boolean changed) {
+		SimpleObject result = new SimpleObject();
+		result.put("uuid", uuid);
+		result.put("version", version);
+		result.put("changed", changed);
+
+		return result;
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.patientlist.web;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.patientlist.ModuleSettings;
+import org.openmrs.module.patientlist.api.PatientListEvaluationInterruptedException;
+import org.openmrs.module.patientlist.api.util.PatientListQueryCancellation;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs long patient list requests on a dedicated, bounded pool instead of a container request thread, so that a burst of
+ * expensive lists cannot exhaust the threads used by the rest of the application. The number of requests running or
+ * queued for the same list is capped; requests beyond the cap or the pool capacity are rejected. When a request
+ * completes early, because it timed out or the client disconnected, its evaluation is cancelled.
+ * <p>
+ * The pool is only used when asynchronous requests are enabled ({@link ModuleSettings#REQUEST_ASYNC_ENABLED_PROPERTY}).
+ * That requires a Servlet 3.0 container and an OpenMRS web.xml in which the servlet and every filter are marked as
+ * async-supported. OpenMRS 1.11 ships a Servlet 2.5 web.xml, so requests are answered on the request thread there.
+ */
+@Component
+public class PatientListRequestExecutor {
+	private static final Log LOG = LogFactory.getLog(PatientListRequestExecutor.class);
+	// the servlet API the module is compiled against predates asynchronous requests
+	private static final Method IS_ASYNC_SUPPORTED = ClassUtils.getMethodIfAvailable(ServletRequest.class,
+	    "isAsyncSupported");
+
+	private static volatile boolean asyncUnsupportedLogged;
+
+	private final AsyncTaskExecutor executor;
+	private final ConcurrentMap<String, AtomicInteger> listRequestCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+	@Autowired
+	public PatientListRequestExecutor(@Qualifier("patientListRequestExecutor") AsyncTaskExecutor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Queues a request for a patient list. The task is run in a new session for the current user and its return value
+	 * (or exception) is set as the result. Queued tasks are skipped if the request has already timed out.
+	 * @param patientListUuid The uuid of the requested patient list
+	 * @param result The pending result of the request
+	 * @param task The task that handles the request
+	 * @param maxRequestsPerList The maximum number of running or queued requests for the list
+	 * @return false if the request was rejected because the list or pool is saturated, true otherwise
+	 */
+	public <T> boolean submit(String patientListUuid, final DeferredResult<T> result, final Callable<T> task,
+	        int maxRequestsPerList) {
+		AtomicInteger count = listRequestCounts.get(patientListUuid);
+		if (count == null) {
+			listRequestCounts.putIfAbsent(patientListUuid, new AtomicInteger());
+			count = listRequestCounts.get(patientListUuid);
+		}
+
+		if (count.incrementAndGet() > maxRequestsPerList) {
+			count.decrementAndGet();
+			return false;
+		}
+
+		final AtomicInteger requestCount = count;
+		final UserContext userContext = Context.getUserContext();
+		final PatientListQueryCancellation cancellation = new PatientListQueryCancellation();
+		result.onCompletion(new Runnable() {
+			@Override
+			public void run() {
+				cancellation.cancel();
+			}
+		});
+
+		try {
+			executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (!result.isSetOrExpired() && !cancellation.isCancelled()) {
+							execute(result, task, userContext, cancellation);
+						}
+					} finally {
+						requestCount.decrementAndGet();
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			count.decrementAndGet();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks whether a request can be answered asynchronously, from the request pool.
+	 * @param request The request
+	 * @return true if asynchronous requests are enabled and supported by the container for this request, false otherwise
+	 */
+	public static boolean isAsyncEnabled(HttpServletRequest request) {
+		if (!ModuleSettings.isAsyncRequestsEnabled()) {
+			return false;
+		}
+
+		boolean supported = IS_ASYNC_SUPPORTED != null
+		        && Boolean.TRUE.equals(ReflectionUtils.invokeMethod(IS_ASYNC_SUPPORTED, request));
+		if (!supported && !asyncUnsupportedLogged) {
+			asyncUnsupportedLogged = true;
+			LOG.warn(ModuleSettings.REQUEST_ASYNC_ENABLED_PROPERTY + " is set but the container does not support "
+			        + "asynchronous requests for the patient list endpoints, they are answered on the request thread");
+		}
+
+		return supported;
+	}
+
+	/**
+	 * Starts asynchronous processing of the request, the response body is written when the result is set. This is
+	 * what returning the result from a handler method does, for handler methods that answer some requests
+	 * synchronously and so cannot declare a {@link DeferredResult} return type. Once it has started, the response may
+	 * be written from another thread.
+	 * @param request The request
+	 * @param result The pending result
+	 */
+	public static void startAsync(HttpServletRequest request, DeferredResult<?> result) throws Exception {
+		// the handler adapter resumes with this container when the result is dispatched, a result without a response
+		// body has already been written to the response
+		ModelAndViewContainer container = new ModelAndViewContainer();
+		container.setRequestHandled(true);
+		WebAsyncUtils.getAsyncManager(request).startDeferredResultProcessing(result, container);
+	}
+
+	public int getRequestCount(String patientListUuid) {
+		AtomicInteger count = listRequestCounts.get(patientListUuid);
+
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * Sets the response status for a rejected request.
+	 * @param response The response
+	 * @param retryAfterSeconds The number of seconds after which the client should retry
+	 */
+	public static void reject(HttpServletResponse response, int retryAfterSeconds) {
+		response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+	}
+
+	/**
+	 * Sets the response status for a request whose patient list evaluation was interrupted: 503 with a Retry-After
+	 * header when the list query timed out and 408 when the request was cancelled.
+	 * @param response The response
+	 * @param ex The exception that interrupted the evaluation
+	 * @return The response body
+	 */
+	public static SimpleObject interrupted(HttpServletResponse response, PatientListEvaluationInterruptedException ex) {
+		if (ex.isTimedOut()) {
+			reject(response, ModuleSettings.getRequestRetryAfterSeconds());
+		} else {
+			response.setStatus(HttpServletResponse.SC_REQUEST_TIMEOUT);
+		}
+
+		SimpleObject result = new SimpleObject();
+		result.put("error", ex.getMessage());
+
+		return result;
+	}
+
+	private static <T> void execute(DeferredResult<T> result, Callable<T> task, UserContext userContext,
+	        PatientListQueryCancellation cancellation) {
+		Context.openSession();
+		PatientListQueryCancellation.bind(cancellation);
+		try {
+			Context.setUserContext(userContext);
+
+			result.setResult(task.call());
+		} catch (PatientListEvaluationInterruptedException ex) {
+			LOG.warn("The patient list request was interrupted: " + ex.getMessage());
+			result.setErrorResult(ex);
+		} catch (Exception ex) {
+			LOG.error("Error processing the patient list request", ex);
+			result.setErrorResult(ex);
+		} finally {
+			PatientListQueryCancellation.unbind();
+			// the pool thread must not keep the user authenticated for the next request
+			Context.clearUserContext();
+			Context.closeSession();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.webservices.rest.resource;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.module.openhmis.commons.api.entity.IMetadataDataService;
+import org.openmrs.module.patientlist.api.model.PatientListConditionGroup;
+import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.webservices.rest.web.annotation.PropertyGetter;
+import org.openmrs.module.webservices.rest.web.annotation.PropertySetter;
+import org.openmrs.module.webservices.rest.web.annotation.Resource;
+import org.openmrs.module.webservices.rest.web.representation.DefaultRepresentation;
+import org.openmrs.module.webservices.rest.web.representation.FullRepresentation;
+import org.openmrs.module.webservices.rest.web.representation.Representation;
+import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingResourceDescription;
+
+/**
+ * REST resource representing a {@link PatientListConditionGroup}. Groups and conditions refer to their parent group by
+ * uuid.
+ */
+@Resource(name = ModuleRestConstants.PATIENT_LIST_CONDITION_GROUP_RESOURCE,
+        supportedClass = PatientListConditionGroup.class,
+        supportedOpenmrsVersions = { "1.9.*", "1.10.*", "1.11.*", "1.12.*", "2.*" })
+public class PatientListConditionGroupResource extends BaseRestMetadataResource<PatientListConditionGroup> {
+	@Override
+	public DelegatingResourceDescription getRepresentationDescription(Representation rep) {
+		DelegatingResourceDescription description = super.getRepresentationDescription(rep);
+		if (rep instanceof DefaultRepresentation || rep instanceof FullRepresentation) {
+			description.removeProperty("name");
+			description.removeProperty("description");
+			description.addProperty("operator");
+			description.addProperty("groupOrder");
+			description.addProperty("parentGroup");
+		}
+
+		return description;
+	}
+
+	@Override
+	public DelegatingResourceDescription getCreatableProperties() {
+		DelegatingResourceDescription description = getRepresentationDescription(new DefaultRepresentation());
+		description.addProperty("uuid");
+
+		return description;
+	}
+
+	@PropertyGetter("parentGroup")
+	public String getParentGroup(PatientListConditionGroup instance) {
+		return instance.getParentGroup() == null ? null : instance.getParentGroup().getUuid();
+	}
+
+	@PropertySetter("parentGroup")
+	public void setParentGroup(PatientListConditionGroup instance, String parentGroupUuid) {
+		// the group is resolved against the list condition groups when the list is saved
+		instance.setParentGroup(createGroupReference(parentGroupUuid));
+	}
+
+	@PropertySetter("uuid")
+	public void setUuid(PatientListConditionGroup instance, String uuid) {
+		if (StringUtils.isNotEmpty(uuid)) {
+			instance.setUuid(uuid);
+		}
+	}
+
+	/**
+	 * Creates a placeholder group with the given uuid which is replaced by the actual list condition group when the
+	 * patient list is saved.
+	 * @param uuid The group uuid
+	 * @return The placeholder group or null if no uuid was specified
+	 */
+	public static PatientListConditionGroup createGroupReference(String uuid) {
+		if (StringUtils.isEmpty(uuid)) {
+			return null;
+		}
+
+		PatientListConditionGroup group = new PatientListConditionGroup();
+		group.setUuid(uuid);
+
+		return group;
+	}
+
+	@Override
+	public PatientListConditionGroup newDelegate() {
+		return new PatientListConditionGroup();
+	}
+
+	@Override
+	public Class<? extends IMetadataDataService<PatientListConditionGroup>> getServiceClass() {
+		return null;
+	}
+
+}
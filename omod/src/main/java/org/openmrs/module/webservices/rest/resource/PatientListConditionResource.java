@@ -16,6 +16,8 @@ package org.openmrs.module.webservices.rest.resource;
 import org.openmrs.module.openhmis.commons.api.entity.IMetadataDataService;
 import org.openmrs.module.patientlist.api.model.PatientListCondition;
 import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.webservices.rest.web.annotation.PropertyGetter;
+import org.openmrs.module.webservices.rest.web.annotation.PropertySetter;
 import org.openmrs.module.webservices.rest.web.annotation.Resource;
 import org.openmrs.module.webservices.rest.web.representation.DefaultRepresentation;
 import org.openmrs.module.webservices.rest.web.representation.FullRepresentation;
@@ -38,11 +40,23 @@ public class PatientListConditionResource extends BaseRestMetadataResource<Patie
 			description.addProperty("value");
 			description.addProperty("conditionOrder");
 			description.addProperty("operator");
+			description.addProperty("conditionGroup");
 		}
 
 		return description;
 	}
 
+	@PropertyGetter("conditionGroup")
+	public String getConditionGroup(PatientListCondition instance) {
+		return instance.getConditionGroup() == null ? null : instance.getConditionGroup().getUuid();
+	}
+
+	@PropertySetter("conditionGroup")
+	public void setConditionGroup(PatientListCondition instance, String conditionGroupUuid) {
+		// the group is resolved against the list condition groups when the list is saved
+		instance.setConditionGroup(PatientListConditionGroupResource.createGroupReference(conditionGroupUuid));
+	}
+
 	@Override
 	public PatientListCondition newDelegate() {
 		return new PatientListCondition();
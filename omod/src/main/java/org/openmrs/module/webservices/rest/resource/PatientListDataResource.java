@@ -13,28 +13,52 @@
  */
 package org.openmrs.module.webservices.rest.resource;
 
+import org.apache.commons.lang.StringUtils;
 import org.openmrs.annotation.Handler;
 import org.openmrs.module.openhmis.commons.api.entity.IObjectDataService;
 import org.openmrs.module.patientlist.api.IPatientListDataService;
 import org.openmrs.module.patientlist.api.model.PatientListData;
 import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.webservices.rest.web.annotation.PropertyGetter;
 import org.openmrs.module.webservices.rest.web.annotation.Resource;
 import org.openmrs.module.webservices.rest.web.representation.CustomRepresentation;
+import org.openmrs.module.webservices.rest.web.representation.NamedRepresentation;
 import org.openmrs.module.webservices.rest.web.representation.Representation;
 import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingResourceDescription;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
- * REST resource representing a {@link PatientListData}
+ * REST resource representing a {@link PatientListData}. Besides the standard representations, the resource supports a
+ * compact representation ({@code v=compact}) that only contains the identifiers and rendered content of each row, and
+ * custom representations ({@code v=custom:(uuid,patientUuid,headerContent)}) made up of the supported properties.
  */
 @Resource(name = ModuleRestConstants.PATIENT_LIST_DATA_RESOURCE, supportedClass = PatientListData.class,
         supportedOpenmrsVersions = { "1.9.*", "1.10.*", "1.11.*", "1.12.*", "2.*" })
 @Handler(supports = { PatientListData.class }, order = 0)
 public class PatientListDataResource extends BaseRestObjectResource<PatientListData> {
+	public static final String COMPACT_REPRESENTATION = "compact";
+
+	private static final List<String> COMPACT_PROPERTIES = Arrays.asList(
+	        "uuid", "patientUuid", "visitUuid", "activeVisit", "headerContent", "bodyContent");
+	private static final List<String> SUPPORTED_PROPERTIES = Arrays.asList(
+	        "uuid", "patientUuid", "visitUuid", "activeVisit", "headerContent", "bodyContent", "patient", "visit",
+	        "patientList");
 
 	@Override
 	public DelegatingResourceDescription getRepresentationDescription(Representation rep) {
 		if (rep instanceof CustomRepresentation) {
-			return null;
+			return getCustomRepresentationDescription((CustomRepresentation)rep);
+		} else if (rep instanceof NamedRepresentation
+		        && StringUtils.equals(rep.getRepresentation(), COMPACT_REPRESENTATION)) {
+			DelegatingResourceDescription description = new DelegatingResourceDescription();
+			for (String property : COMPACT_PROPERTIES) {
+				description.addProperty(property);
+			}
+
+			return description;
 		}
 
 		DelegatingResourceDescription description = super.getRepresentationDescription(rep);
@@ -47,6 +71,81 @@ public class PatientListDataResource extends BaseRestObjectResource<PatientListD
 		return description;
 	}
 
+	/**
+	 * Creates the description of a custom representation, for example {@code (uuid,patientUuid,patient:ref)}. Nested
+	 * objects can use the ref, default or full representation or a nested custom representation. Properties that are
+	 * not supported are ignored.
+	 * @param rep The custom representation
+	 * @return The description
+	 */
+	private DelegatingResourceDescription getCustomRepresentationDescription(CustomRepresentation rep) {
+		DelegatingResourceDescription description = new DelegatingResourceDescription();
+		for (String token : splitProperties(rep.getRepresentation())) {
+			String property = StringUtils.substringBefore(token, ":").trim();
+			if (!SUPPORTED_PROPERTIES.contains(property)) {
+				continue;
+			}
+
+			String propertyRep = token.contains(":") ? StringUtils.substringAfter(token, ":").trim() : null;
+			if (StringUtils.isEmpty(propertyRep)) {
+				description.addProperty(property);
+			} else if (propertyRep.startsWith("(")) {
+				description.addProperty(property, new CustomRepresentation(propertyRep));
+			} else if (StringUtils.equalsIgnoreCase(propertyRep, "ref")) {
+				description.addProperty(property, Representation.REF);
+			} else if (StringUtils.equalsIgnoreCase(propertyRep, "full")) {
+				description.addProperty(property, Representation.FULL);
+			} else {
+				description.addProperty(property, Representation.DEFAULT);
+			}
+		}
+
+		return description;
+	}
+
+	/**
+	 * Splits a custom representation into its top level properties.
+	 */
+	private List<String> splitProperties(String representation) {
+		String value = StringUtils.trimToEmpty(representation);
+		if (value.startsWith("(") && value.endsWith(")")) {
+			value = value.substring(1, value.length() - 1);
+		}
+
+		List<String> properties = new ArrayList<String>();
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == ',' && depth == 0) {
+				properties.add(value.substring(start, i));
+				start = i + 1;
+			}
+		}
+		properties.add(value.substring(start));
+
+		return properties;
+	}
+
+	@PropertyGetter("patientUuid")
+	public String getPatientUuid(PatientListData instance) {
+		return instance.getPatient() == null ? null : instance.getPatient().getUuid();
+	}
+
+	@PropertyGetter("visitUuid")
+	public String getVisitUuid(PatientListData instance) {
+		return instance.getVisit() == null ? null : instance.getVisit().getUuid();
+	}
+
+	@PropertyGetter("activeVisit")
+	public Boolean getActiveVisit(PatientListData instance) {
+		return instance.getVisit() != null && instance.getVisit().getStopDatetime() == null;
+	}
+
 	@Override
 	public PatientListData newDelegate() {
 		return new PatientListData();
@@ -19,19 +19,25 @@ import org.openmrs.module.openhmis.commons.api.entity.IMetadataDataService;
 import org.openmrs.module.patientlist.api.IPatientListService;
 import org.openmrs.module.patientlist.api.model.PatientList;
 import org.openmrs.module.patientlist.api.model.PatientListCondition;
+import org.openmrs.module.patientlist.api.model.PatientListConditionGroup;
 import org.openmrs.module.patientlist.api.model.PatientListOrder;
+import org.openmrs.module.patientlist.api.util.PatientListBudgetViolationLog;
 import org.openmrs.module.patientlist.api.util.PatientListTemplate;
 import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.webservices.rest.SimpleObject;
 import org.openmrs.module.webservices.rest.web.annotation.PropertyGetter;
 import org.openmrs.module.webservices.rest.web.annotation.PropertySetter;
 import org.openmrs.module.webservices.rest.web.annotation.Resource;
 import org.openmrs.module.webservices.rest.web.representation.CustomRepresentation;
 import org.openmrs.module.webservices.rest.web.representation.DefaultRepresentation;
+import org.openmrs.module.webservices.rest.web.representation.FullRepresentation;
 import org.openmrs.module.webservices.rest.web.representation.Representation;
 import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingResourceDescription;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * REST resource representing a {@link PatientList}
@@ -52,10 +58,30 @@ public class PatientListResource extends BaseRestMetadataResource<PatientList> {
 		description.addProperty("dateCreated");
 		description.addProperty("patientListConditions", Representation.DEFAULT);
 		description.addProperty("ordering", Representation.DEFAULT);
+		description.addProperty("conditionGroups", Representation.DEFAULT);
+		description.addProperty("queryTimeoutSeconds");
+		if (rep instanceof FullRepresentation) {
+			description.addProperty("budgetViolations");
+		}
 
 		return description;
 	}
 
+	@PropertyGetter("budgetViolations")
+	public List<SimpleObject> getBudgetViolations(PatientList instance) {
+		List<SimpleObject> results = new ArrayList<SimpleObject>();
+		for (PatientListBudgetViolationLog.Violation violation : PatientListBudgetViolationLog.getInstance()
+		        .getViolations(instance.getUuid())) {
+			SimpleObject result = new SimpleObject();
+			result.put("date", violation.getDate());
+			result.put("type", violation.getType().name());
+			result.put("message", violation.getMessage());
+			results.add(result);
+		}
+
+		return results;
+	}
+
 	@PropertySetter("patientListConditions")
 	public void setPatientListConditions(PatientList instance, List<PatientListCondition> patientListConditions) {
 		if (instance.getPatientListConditions() == null) {
@@ -78,6 +104,79 @@ public class PatientListResource extends BaseRestMetadataResource<PatientList> {
 		}
 	}
 
+	@PropertySetter("conditionGroups")
+	public void setConditionGroups(PatientList instance, List<PatientListConditionGroup> conditionGroups) {
+		if (instance.getConditionGroups() == null) {
+			instance.setConditionGroups(new ArrayList<PatientListConditionGroup>(conditionGroups.size()));
+		}
+		BaseRestDataResource.syncCollection(instance.getConditionGroups(), conditionGroups);
+		for (PatientListConditionGroup conditionGroup : instance.getConditionGroups()) {
+			conditionGroup.setPatientList(instance);
+		}
+	}
+
+	/**
+	 * Creates an unsaved patient list from a posted list definition, for example to explain the list query before the
+	 * list is saved.
+	 * @param definition The list definition, in the creatable representation of this resource
+	 * @return The unsaved patient list
+	 */
+	public PatientList createUnsavedDelegate(SimpleObject definition) {
+		PatientList patientList = newDelegate();
+		setConvertedProperties(patientList, definition, getCreatableProperties(), false);
+		resolveConditionGroups(patientList);
+		if (patientList.getOrdering() == null) {
+			patientList.setOrdering(new ArrayList<PatientListOrder>());
+		}
+
+		return patientList;
+	}
+
+	@Override
+	public PatientList save(PatientList delegate) {
+		resolveConditionGroups(delegate);
+
+		return super.save(delegate);
+	}
+
+	/**
+	 * Replaces the group references set by uuid on the conditions and groups with the matching list condition groups.
+	 * @param patientList The patient list
+	 */
+	private void resolveConditionGroups(PatientList patientList) {
+		Map<String, PatientListConditionGroup> groups = new HashMap<String, PatientListConditionGroup>();
+		if (patientList.getConditionGroups() != null) {
+			for (PatientListConditionGroup group : patientList.getConditionGroups()) {
+				if (group != null) {
+					groups.put(group.getUuid(), group);
+				}
+			}
+
+			for (PatientListConditionGroup group : patientList.getConditionGroups()) {
+				if (group != null && group.getParentGroup() != null) {
+					group.setParentGroup(resolveConditionGroup(groups, group.getParentGroup().getUuid()));
+				}
+			}
+		}
+
+		if (patientList.getPatientListConditions() != null) {
+			for (PatientListCondition condition : patientList.getPatientListConditions()) {
+				if (condition != null && condition.getConditionGroup() != null) {
+					condition.setConditionGroup(resolveConditionGroup(groups, condition.getConditionGroup().getUuid()));
+				}
+			}
+		}
+	}
+
+	private PatientListConditionGroup resolveConditionGroup(Map<String, PatientListConditionGroup> groups, String uuid) {
+		PatientListConditionGroup group = groups.get(uuid);
+		if (group == null) {
+			throw new IllegalArgumentException("The condition group '" + uuid + "' is not defined for this list.");
+		}
+
+		return group;
+	}
+
 	@PropertySetter(value = "headerTemplate")
 	public void setHeaderTemplate(PatientList instance, String headerTemplate) {
 		if (StringUtils.isEmpty(instance.getHeaderTemplate()) && StringUtils.isEmpty(headerTemplate)) {
@@ -17,48 +17,65 @@ package org.openmrs.module.webservices.rest.search;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.openhmis.commons.api.PagingInfo;
+import org.openmrs.module.patientlist.ModuleSettings;
 import org.openmrs.module.patientlist.api.IPatientListDataService;
-import org.openmrs.module.patientlist.api.IPatientListService;
+import org.openmrs.module.patientlist.api.PatientListQuickFilterTooLargeException;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeTracker;
+import org.openmrs.module.patientlist.api.metrics.PatientListStageTimer;
 import org.openmrs.module.patientlist.api.model.PatientList;
 import org.openmrs.module.patientlist.api.model.PatientListData;
+import org.openmrs.module.patientlist.api.util.PatientListDefinitionRegistry;
 import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.webservices.rest.SimpleObject;
 import org.openmrs.module.webservices.rest.resource.AlreadyPagedWithLength;
 import org.openmrs.module.webservices.rest.resource.PagingUtil;
+import org.openmrs.module.webservices.rest.resource.PatientListDataResource;
 import org.openmrs.module.webservices.rest.web.RequestContext;
+import org.openmrs.module.webservices.rest.web.representation.NamedRepresentation;
+import org.openmrs.module.webservices.rest.web.representation.Representation;
+import org.openmrs.module.webservices.rest.web.resource.api.Converter;
 import org.openmrs.module.webservices.rest.web.resource.api.PageableResult;
 import org.openmrs.module.webservices.rest.web.resource.api.SearchConfig;
 import org.openmrs.module.webservices.rest.web.resource.api.SearchHandler;
 import org.openmrs.module.webservices.rest.web.resource.api.SearchQuery;
 import org.openmrs.module.webservices.rest.web.resource.impl.EmptySearchResult;
+import org.openmrs.module.webservices.rest.web.response.IllegalRequestException;
+import org.openmrs.module.webservices.rest.web.response.ResponseException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 /**
- * Search handler for {@link PatientList}s.
+ * Search handler for {@link PatientList}s. The result includes the data version of the list as it was before the list
+ * was evaluated, which clients send back when they wait for the list to change (see the patient list push resource).
  */
 @Component
 public class PatientListDataSearchHandler implements SearchHandler {
 	private static final Log LOG = LogFactory.getLog(PatientListDataSearchHandler.class);
+	private static final String SERVER_TIMING_HEADER = "Server-Timing";
+	private static final String QUICK_FILTER_PARAMETER = "q";
+	private static final String VERSION_PROPERTY = "version";
 	private final SearchConfig searchConfig =
 	        new SearchConfig("default", ModuleRestConstants.PATIENT_LIST_DATA_RESOURCE,
 	                Arrays.asList("*"),
 	                Arrays.asList(
-	                        new SearchQuery.Builder("Find patient list data by uuid")
-	                                .withOptionalParameters("uuid")
+	                        new SearchQuery.Builder("Find patient list data by uuid, optionally narrowed down by a "
+	                                + "quick filter on the rendered content")
+	                                .withOptionalParameters("uuid", QUICK_FILTER_PARAMETER)
 	                                .build()));
 
 	private IPatientListDataService patientListDataService;
-	private IPatientListService patientListService;
 
 	@Autowired
-	public PatientListDataSearchHandler(IPatientListDataService patientListDataService,
-	    IPatientListService patientListService) {
+	public PatientListDataSearchHandler(IPatientListDataService patientListDataService) {
 		this.patientListDataService = patientListDataService;
-		this.patientListService = patientListService;
 	}
 
 	@Override
@@ -75,19 +92,91 @@ public class PatientListDataSearchHandler implements SearchHandler {
 			return new EmptySearchResult();
 		}
 
-		PatientList patientList = patientListService.getByUuid(uuid);
+		PatientList patientList = PatientListDefinitionRegistry.getInstance().get(uuid);
 		if (patientList == null) {
 			LOG.error("PatientList with uuid '" + uuid + "' does not exist");
 			return new EmptySearchResult();
 		}
 
+		// read before evaluating, so that a change made during the evaluation is reported to the client
+		long version = PatientListDataChangeTracker.getInstance().getChangeVersion(patientList);
 		PagingInfo pagingInfo = PagingUtil.getPagingInfoFromContext(context);
-		List<PatientListData> patientListData = patientListDataService.getPatientListData(patientList, pagingInfo);
+		String quickFilter = context.getParameter(QUICK_FILTER_PARAMETER);
+		List<PatientListData> patientListData;
+		PatientListStageTimer timer;
+		PatientListStageTimer.keepLast();
+		try {
+			patientListData = patientListDataService.getPatientListData(patientList, quickFilter, pagingInfo);
+			if (!isCompact(context) && (StringUtils.isNotBlank(quickFilter) || ModuleSettings.isReadAheadEnabled())) {
+				patientListData = loadEntities(patientListData);
+			}
+		} catch (PatientListQuickFilterTooLargeException ex) {
+			// the client asked for more than can be filtered, the list has to be narrowed down first
+			throw new IllegalRequestException(ex.getMessage());
+		} finally {
+			// the timer is taken even when the evaluation fails so that it is not left on the thread
+			timer = PatientListStageTimer.takeLast();
+		}
+
+		// report where the evaluation time went, pages served from the read ahead cache are not evaluated
+		if (timer != null && context.getResponse() != null) {
+			context.getResponse().setHeader(SERVER_TIMING_HEADER, timer.toServerTiming());
+		}
 		if (patientListData.size() == 0) {
-			return new EmptySearchResult();
+			return new VersionedResult(new EmptySearchResult(), version);
 		} else {
-			return new AlreadyPagedWithLength<PatientListData>(context, patientListData, pagingInfo.hasMoreResults(),
-			        pagingInfo.getTotalRecordCount());
+			return new VersionedResult(new AlreadyPagedWithLength<PatientListData>(context, patientListData,
+			        pagingInfo.hasMoreResults(), pagingInfo.getTotalRecordCount()), version);
+		}
+	}
+
+	private boolean isCompact(RequestContext context) {
+		Representation rep = context.getRepresentation();
+
+		return rep instanceof NamedRepresentation
+		        && StringUtils.equals(rep.getRepresentation(), PatientListDataResource.COMPACT_REPRESENTATION);
+	}
+
+	/**
+	 * Quick filtered rows and rows read ahead only reference the patient and visit by id, so the entities are loaded for
+	 * representations that include more than the row identifiers. Rows that were evaluated in this request are already
+	 * in the session, so loading them again does not query the database.
+	 */
+	private List<PatientListData> loadEntities(List<PatientListData> patientListData) {
+		List<PatientListData> result = new ArrayList<PatientListData>(patientListData.size());
+		for (PatientListData row : patientListData) {
+			Patient patient = Context.getPatientService().getPatient(row.getPatient().getPatientId());
+			Visit visit = row.getVisit() == null ? null : Context.getVisitService().getVisit(row.getVisit().getVisitId());
+
+			PatientListData loaded = new PatientListData(patient, visit, row.getPatientList());
+			loaded.setUuid(row.getUuid());
+			loaded.setHeaderContent(row.getHeaderContent());
+			loaded.setBodyContent(row.getBodyContent());
+			result.add(loaded);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Adds the data version of the list to a search result.
+	 */
+	private static class VersionedResult implements PageableResult {
+		private final PageableResult result;
+		private final long version;
+
+		VersionedResult(PageableResult result, long version) {
+			this.result = result;
+			this.version = version;
+		}
+
+		@Override
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		public SimpleObject toSimpleObject(Converter preferredConverter) throws ResponseException {
+			SimpleObject simpleObject = result.toSimpleObject(preferredConverter);
+			simpleObject.add(VERSION_PROPERTY, version);
+
+			return simpleObject;
 		}
 	}
 }
@@ -0,0 +1,53 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.webservices.rest.web.controller;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientlist.api.util.PatientListConditionIndex;
+import org.openmrs.module.patientlist.api.util.PrivilegeConstants;
+import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * REST controller to monitor and reset the patient list condition index.
+ */
+@Controller
+@RequestMapping("/rest/" + ModuleRestConstants.PATIENT_LIST_CONDITION_INDEX_RESOURCE)
+public class PatientListConditionIndexController {
+
+	@ResponseBody
+	@RequestMapping(method = RequestMethod.GET)
+	public SimpleObject get() {
+		Context.requirePrivilege(PrivilegeConstants.TASK_MANAGE_PATIENT_LIST_METADATA);
+
+		SimpleObject results = new SimpleObject();
+		results.putAll(PatientListConditionIndex.getInstance().getStatistics());
+
+		return results;
+	}
+
+	@ResponseBody
+	@RequestMapping(method = RequestMethod.DELETE)
+	public SimpleObject delete() {
+		Context.requirePrivilege(PrivilegeConstants.TASK_MANAGE_PATIENT_LIST_METADATA);
+
+		PatientListConditionIndex.getInstance().clear();
+
+		return get();
+	}
+}
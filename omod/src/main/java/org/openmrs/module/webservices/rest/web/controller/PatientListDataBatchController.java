@@ -0,0 +1,116 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.webservices.rest.web.controller;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.openhmis.commons.api.PagingInfo;
+import org.openmrs.module.patientlist.ModuleSettings;
+import org.openmrs.module.patientlist.api.IPatientListDataService;
+import org.openmrs.module.patientlist.api.PatientListEvaluationInterruptedException;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.model.PatientListData;
+import org.openmrs.module.patientlist.api.model.PatientListDataBatchResult;
+import org.openmrs.module.patientlist.api.util.PatientListDefinitionRegistry;
+import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.patientlist.web.PatientListRequestExecutor;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.openmrs.module.webservices.rest.web.ConversionUtil;
+import org.openmrs.module.webservices.rest.web.RestUtil;
+import org.openmrs.module.webservices.rest.web.api.RestService;
+import org.openmrs.module.webservices.rest.web.representation.Representation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * REST controller that returns the first page and row count of several patient lists in a single request. The page
+ * size is clamped to the REST maximum limit and only the configured maximum number of lists is evaluated.
+ */
+@Controller
+@RequestMapping("/rest/" + ModuleRestConstants.PATIENT_LIST_DATA_BATCH_RESOURCE)
+public class PatientListDataBatchController {
+	private static final Log LOG = LogFactory.getLog(PatientListDataBatchController.class);
+
+	private IPatientListDataService patientListDataService;
+
+	@Autowired
+	public PatientListDataBatchController(IPatientListDataService patientListDataService) {
+		this.patientListDataService = patientListDataService;
+	}
+
+	@ResponseBody
+	@RequestMapping(method = RequestMethod.GET)
+	public SimpleObject get(@RequestParam(value = "uuids") String uuids,
+	        @RequestParam(value = "limit", required = false) Integer limit,
+	        @RequestParam(value = "v", required = false) String v) {
+		Representation representation = StringUtils.isEmpty(v) ? Representation.DEFAULT
+		        : Context.getService(RestService.class).getRepresentation(v);
+
+		int maxLists = ModuleSettings.getBatchMaxLists();
+		List<PatientList> patientLists = new ArrayList<PatientList>();
+		for (String uuid : StringUtils.split(uuids, ",")) {
+			if (patientLists.size() >= maxLists) {
+				LOG.warn("Only the first " + maxLists + " patient lists of a batch are evaluated");
+				break;
+			}
+
+			PatientList patientList = PatientListDefinitionRegistry.getInstance().get(StringUtils.trim(uuid));
+			if (patientList == null) {
+				LOG.warn("PatientList with uuid '" + uuid + "' does not exist");
+			} else {
+				patientLists.add(patientList);
+			}
+		}
+
+		int maxLimit = RestUtil.getMaximumLimit();
+		int pageSize = limit == null ? RestUtil.getDefaultLimit() : Math.min(Math.max(limit, 1), maxLimit);
+		PagingInfo pagingInfo = new PagingInfo(1, pageSize);
+		List<SimpleObject> lists = new ArrayList<SimpleObject>();
+		for (PatientListDataBatchResult result : patientListDataService.getPatientListData(patientLists, pagingInfo)) {
+			List<Object> data = new ArrayList<Object>();
+			for (PatientListData patientListData : result.getPatientListData()) {
+				data.add(ConversionUtil.convertToRepresentation(patientListData, representation));
+			}
+
+			SimpleObject list = new SimpleObject();
+			list.put("uuid", result.getPatientList().getUuid());
+			list.put("name", result.getPatientList().getName());
+			list.put("totalCount", result.getTotalRecordCount());
+			list.put("results", data);
+			lists.add(list);
+		}
+
+		SimpleObject results = new SimpleObject();
+		results.put("results", lists);
+
+		return results;
+	}
+
+	@ResponseBody
+	@ExceptionHandler(PatientListEvaluationInterruptedException.class)
+	public SimpleObject handleInterrupted(PatientListEvaluationInterruptedException ex, HttpServletResponse response) {
+		return PatientListRequestExecutor.interrupted(response, ex);
+	}
+}
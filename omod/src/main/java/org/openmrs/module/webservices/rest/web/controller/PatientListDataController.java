@@ -0,0 +1,103 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.webservices.rest.web.controller;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientlist.ModuleSettings;
+import org.openmrs.module.patientlist.api.PatientListEvaluationInterruptedException;
+import org.openmrs.module.patientlist.api.model.PatientListData;
+import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.patientlist.web.PatientListRequestExecutor;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.openmrs.module.webservices.rest.search.PatientListDataSearchHandler;
+import org.openmrs.module.webservices.rest.web.RequestContext;
+import org.openmrs.module.webservices.rest.web.RestUtil;
+import org.openmrs.module.webservices.rest.web.api.RestService;
+import org.openmrs.module.webservices.rest.web.resource.api.Converter;
+import org.openmrs.module.webservices.rest.web.v1_0.controller.BaseRestController;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.Callable;
+
+/**
+ * REST controller for patient list data requests. By default a request is answered on the container request thread by
+ * the patient list resource, exactly like any other search. When asynchronous requests are enabled and the container
+ * supports them (see {@link PatientListRequestExecutor#isAsyncEnabled}), the list is evaluated on the dedicated patient
+ * list request pool instead. The response is the same either way.
+ */
+@Controller
+@RequestMapping("/rest/" + ModuleRestConstants.PATIENT_LIST_DATA_RESOURCE)
+public class PatientListDataController extends BaseRestController {
+	private static final long MILLISECONDS_PER_SECOND = 1000L;
+	private static final String DATA_RESOURCE = "data";
+
+	private PatientListResourceController resourceController;
+	private PatientListDataSearchHandler searchHandler;
+	private PatientListRequestExecutor requestExecutor;
+
+	@Autowired
+	public PatientListDataController(PatientListResourceController resourceController,
+	    PatientListDataSearchHandler searchHandler, PatientListRequestExecutor requestExecutor) {
+		this.resourceController = resourceController;
+		this.searchHandler = searchHandler;
+		this.requestExecutor = requestExecutor;
+	}
+
+	@ResponseBody
+	@RequestMapping(method = RequestMethod.GET, params = "uuid")
+	public Object get(@RequestParam(value = "uuid") String uuid, HttpServletRequest request,
+	        HttpServletResponse response) throws Exception {
+		if (!PatientListRequestExecutor.isAsyncEnabled(request)) {
+			return resourceController.get(DATA_RESOURCE, request, response);
+		}
+
+		final RequestContext context = RestUtil.getRequestContext(request, response);
+		DeferredResult<SimpleObject> result =
+		        new DeferredResult<SimpleObject>(ModuleSettings.getRequestTimeoutSeconds() * MILLISECONDS_PER_SECOND);
+		boolean queued = requestExecutor.submit(uuid, result, new Callable<SimpleObject>() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public SimpleObject call() throws Exception {
+				Converter<PatientListData> converter = (Converter<PatientListData>)Context.getService(RestService.class)
+				        .getResourceBySupportedClass(PatientListData.class);
+
+				return searchHandler.search(context).toSimpleObject(converter);
+			}
+		}, ModuleSettings.getMaxRequestsPerList());
+
+		if (!queued) {
+			PatientListRequestExecutor.reject(response, ModuleSettings.getRequestRetryAfterSeconds());
+			return new SimpleObject();
+		}
+
+		PatientListRequestExecutor.startAsync(request, result);
+
+		return null;
+	}
+
+	@ResponseBody
+	@ExceptionHandler(PatientListEvaluationInterruptedException.class)
+	public SimpleObject handleInterrupted(PatientListEvaluationInterruptedException ex, HttpServletResponse response) {
+		return PatientListRequestExecutor.interrupted(response, ex);
+	}
+}
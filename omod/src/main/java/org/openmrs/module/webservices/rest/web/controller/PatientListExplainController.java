@@ -0,0 +1,108 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.webservices.rest.web.controller;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientlist.api.IPatientListDataService;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.util.PatientListDefinitionRegistry;
+import org.openmrs.module.patientlist.api.util.PatientListQueryPlan;
+import org.openmrs.module.patientlist.api.util.PrivilegeConstants;
+import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.openmrs.module.webservices.rest.resource.PatientListResource;
+import org.openmrs.module.webservices.rest.web.api.RestService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * REST controller that compiles a saved patient list, or a posted unsaved list definition, the way it is compiled for
+ * evaluation and returns a summary of the database plan of the list query. The list editor shows the plan warnings
+ * before a list is saved.
+ */
+@Controller
+@RequestMapping("/rest/" + ModuleRestConstants.PATIENT_LIST_EXPLAIN_RESOURCE)
+public class PatientListExplainController {
+	private IPatientListDataService patientListDataService;
+
+	@Autowired
+	public PatientListExplainController(IPatientListDataService patientListDataService) {
+		this.patientListDataService = patientListDataService;
+	}
+
+	@ResponseBody
+	@RequestMapping(method = RequestMethod.GET)
+	public SimpleObject get(@RequestParam(value = "uuid") String uuid, HttpServletResponse response)
+	        throws IOException {
+		Context.requirePrivilege(PrivilegeConstants.TASK_MANAGE_PATIENT_LIST_METADATA);
+
+		PatientList patientList = PatientListDefinitionRegistry.getInstance().get(uuid);
+		if (patientList == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "PatientList with uuid '" + uuid + "' does not exist");
+			return null;
+		}
+
+		return createResult(patientListDataService.explainPatientList(patientList));
+	}
+
+	/**
+	 * Explains an unsaved list definition, posted in the same format as a new list.
+	 */
+	@ResponseBody
+	@RequestMapping(method = RequestMethod.POST)
+	public SimpleObject post(@RequestBody SimpleObject definition) {
+		Context.requirePrivilege(PrivilegeConstants.TASK_MANAGE_PATIENT_LIST_METADATA);
+
+		PatientListResource resource =
+		        (PatientListResource)Context.getService(RestService.class).getResourceBySupportedClass(PatientList.class);
+
+		return createResult(patientListDataService.explainPatientList(resource.createUnsavedDelegate(definition)));
+	}
+
+	private SimpleObject createResult(PatientListQueryPlan plan) {
+		List<SimpleObject> steps = new ArrayList<SimpleObject>();
+		for (PatientListQueryPlan.Step step : plan.getSteps()) {
+			SimpleObject result = new SimpleObject();
+			result.put("table", step.getTable());
+			result.put("access", step.getAccess());
+			result.put("index", step.getIndex());
+			result.put("estimatedRows", step.getEstimatedRows());
+			result.put("extra", step.getExtra());
+			result.put("fullScan", step.isFullScan());
+			steps.add(result);
+		}
+
+		SimpleObject result = new SimpleObject();
+		result.put("sql", plan.getSql());
+		result.put("joinOrder", plan.getJoinOrder());
+		result.put("tableScans", plan.getTableScans());
+		result.put("indexes", plan.getIndexes());
+		result.put("estimatedRows", plan.getEstimatedRows());
+		result.put("steps", steps);
+		result.put("plan", plan.getPlan());
+		result.put("warnings", plan.getWarnings());
+
+		return result;
+	}
+}
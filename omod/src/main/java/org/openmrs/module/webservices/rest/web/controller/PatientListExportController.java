@@ -0,0 +1,218 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.webservices.rest.web.controller;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openmrs.module.patientlist.ModuleSettings;
+import org.openmrs.module.patientlist.api.IPatientListDataHandler;
+import org.openmrs.module.patientlist.api.IPatientListDataService;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.model.PatientListData;
+import org.openmrs.module.patientlist.api.util.PatientListDefinitionRegistry;
+import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.patientlist.web.PatientListRequestExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * REST controller that streams every row of a patient list to the response as CSV or newline delimited JSON. Rows are
+ * written as they are read from the database (see {@link IPatientListDataService#streamPatientListData}). The export
+ * is written on the request thread, unless asynchronous requests are enabled and supported by the container (see
+ * {@link PatientListRequestExecutor#isAsyncEnabled}), in which case it runs on the dedicated patient list request pool
+ * once asynchronous processing has started. When the export fails
+ * after the response has been committed, a final error row is written (a CSV row whose uuid is {@value #ERROR_MARKER}
+ * or a JSON object with an error property) so that a partial export is not mistaken for the whole list.
+ */
+@Controller
+@RequestMapping("/rest/" + ModuleRestConstants.PATIENT_LIST_EXPORT_RESOURCE)
+public class PatientListExportController {
+	public static final String FORMAT_CSV = "csv";
+	public static final String FORMAT_NDJSON = "ndjson";
+	public static final String ERROR_MARKER = "#error";
+
+	private static final Log LOG = LogFactory.getLog(PatientListExportController.class);
+	private static final String[] COLUMNS = { "uuid", "patientUuid", "visitUuid", "headerContent", "bodyContent" };
+	private static final String ENCODING = "UTF-8";
+	private static final long EXPORT_TIMEOUT_MILLISECONDS = 60L * 60L * 1000L;
+
+	private IPatientListDataService patientListDataService;
+	private PatientListRequestExecutor requestExecutor;
+
+	@Autowired
+	public PatientListExportController(IPatientListDataService patientListDataService,
+	    PatientListRequestExecutor requestExecutor) {
+		this.patientListDataService = patientListDataService;
+		this.requestExecutor = requestExecutor;
+	}
+
+	@RequestMapping(method = RequestMethod.GET)
+	public void get(@RequestParam(value = "uuid") final String uuid,
+	        @RequestParam(value = "format", required = false) final String format, HttpServletRequest request,
+	        final HttpServletResponse response) throws Exception {
+		PatientList current = PatientListDefinitionRegistry.getInstance().get(uuid);
+		if (current == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "PatientList with uuid '" + uuid + "' does not exist");
+			return;
+		}
+
+		if (!PatientListRequestExecutor.isAsyncEnabled(request)) {
+			export(current, format, response);
+			return;
+		}
+
+		// the pool thread may only write the response once asynchronous processing has started
+		DeferredResult<Void> result = new DeferredResult<Void>(EXPORT_TIMEOUT_MILLISECONDS);
+		PatientListRequestExecutor.startAsync(request, result);
+		boolean queued = requestExecutor.submit(uuid, result, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				PatientList patientList = PatientListDefinitionRegistry.getInstance().get(uuid);
+				if (patientList != null) {
+					export(patientList, format, response);
+				}
+
+				return null;
+			}
+		}, ModuleSettings.getMaxRequestsPerList());
+
+		if (!queued) {
+			PatientListRequestExecutor.reject(response, ModuleSettings.getRequestRetryAfterSeconds());
+			result.setResult(null);
+		}
+	}
+
+	private void export(PatientList patientList, String format, HttpServletResponse response) throws IOException {
+		final boolean csv = !StringUtils.equalsIgnoreCase(format, FORMAT_NDJSON);
+		response.setCharacterEncoding(ENCODING);
+		response.setContentType(csv ? "text/csv" : "application/x-ndjson");
+		response.setHeader("Content-Disposition", "attachment; filename=\"" + createFileName(patientList)
+		        + (csv ? ".csv" : ".ndjson") + "\"");
+
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
+		final ObjectMapper mapper = new ObjectMapper();
+		if (csv) {
+			writer.write(StringUtils.join(COLUMNS, ","));
+			writer.write("\r\n");
+		}
+
+		final IOException[] error = new IOException[1];
+		final long[] written = new long[1];
+		IPatientListDataHandler handler = new IPatientListDataHandler() {
+			@Override
+			public boolean handle(PatientListData patientListData) {
+				try {
+					Map<String, String> row = createRow(patientListData);
+					if (csv) {
+						writeCsvRow(writer, row);
+					} else {
+						writer.write(mapper.writeValueAsString(row));
+						writer.write("\n");
+					}
+					written[0]++;
+
+					return true;
+				} catch (IOException ex) {
+					// most likely the client disconnected, stop reading the list
+					error[0] = ex;
+					return false;
+				}
+			}
+		};
+
+		long count;
+		try {
+			count = patientListDataService.streamPatientListData(patientList, handler);
+		} catch (RuntimeException ex) {
+			if (response.isCommitted()) {
+				writeError(writer, csv, mapper, "The export failed after " + written[0] + " rows: " + ex.getMessage());
+				writer.flush();
+			} else {
+				// nothing has been sent yet, so the request fails with an error status instead
+				response.resetBuffer();
+			}
+
+			throw ex;
+		}
+
+		if (error[0] != null) {
+			LOG.warn("Patient list export of '" + patientList.getUuid() + "' stopped after " + count + " rows: " + error[0].getMessage());
+		} else {
+			writer.flush();
+		}
+	}
+
+	private void writeError(Writer writer, boolean csv, ObjectMapper mapper, String message) throws IOException {
+		Map<String, String> row = new LinkedHashMap<String, String>();
+		if (csv) {
+			for (String column : COLUMNS) {
+				row.put(column, null);
+			}
+			row.put(COLUMNS[0], ERROR_MARKER);
+			row.put(COLUMNS[3], message);
+			writeCsvRow(writer, row);
+		} else {
+			row.put("error", message);
+			writer.write(mapper.writeValueAsString(row));
+			writer.write("\n");
+		}
+	}
+
+	private Map<String, String> createRow(PatientListData patientListData) {
+		Map<String, String> row = new LinkedHashMap<String, String>();
+		row.put(COLUMNS[0], patientListData.getUuid());
+		row.put(COLUMNS[1], patientListData.getPatient().getUuid());
+		row.put(COLUMNS[2], patientListData.getVisit() == null ? null : patientListData.getVisit().getUuid());
+		row.put(COLUMNS[3], patientListData.getHeaderContent());
+		row.put(COLUMNS[4], patientListData.getBodyContent());
+
+		return row;
+	}
+
+	private void writeCsvRow(Writer writer, Map<String, String> row) throws IOException {
+		boolean first = true;
+		for (String value : row.values()) {
+			if (!first) {
+				writer.write(",");
+			}
+			first = false;
+
+			writer.write(StringEscapeUtils.escapeCsv(StringUtils.defaultString(value)));
+		}
+		writer.write("\r\n");
+	}
+
+	private String createFileName(PatientList patientList) {
+		String name = StringUtils.defaultIfEmpty(patientList.getName(), patientList.getUuid());
+
+		return name.replaceAll("[^A-Za-z0-9_\\-]+", "_");
+	}
+}
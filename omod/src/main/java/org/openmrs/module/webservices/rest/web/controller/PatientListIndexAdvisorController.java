@@ -0,0 +1,71 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.webservices.rest.web.controller;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientlist.api.util.PatientListIndexAdvisor;
+import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * REST controller that reports the core table indexes recommended for the active patient lists, with a Liquibase change
+ * log that creates the missing indexes. The indexes are not created here: a CREATE INDEX locks or rebuilds the table on
+ * some databases, so the change log is applied by an administrator through the deployment's schema management. The
+ * report describes the database schema, so it requires SQL level access.
+ */
+@Controller
+@RequestMapping("/rest/" + ModuleRestConstants.PATIENT_LIST_INDEX_ADVISOR_RESOURCE)
+public class PatientListIndexAdvisorController {
+
+	@ResponseBody
+	@RequestMapping(method = RequestMethod.GET)
+	public SimpleObject get() {
+		Context.requirePrivilege(PrivilegeConstants.SQL_LEVEL_ACCESS);
+
+		List<SimpleObject> results = new ArrayList<SimpleObject>();
+		List<PatientListIndexAdvisor.IndexRecommendation> missing =
+		        new ArrayList<PatientListIndexAdvisor.IndexRecommendation>();
+		for (PatientListIndexAdvisor.IndexRecommendation recommendation : PatientListIndexAdvisor.getInstance()
+		        .analyze()) {
+			SimpleObject result = new SimpleObject();
+			result.put("name", recommendation.getName());
+			result.put("table", recommendation.getTable());
+			result.put("columns", recommendation.getColumns());
+			result.put("fields", recommendation.getFields());
+			result.put("listCount", recommendation.getListCount());
+			result.put("impact", recommendation.getImpact());
+			result.put("existing", recommendation.isExisting());
+			result.put("sql", recommendation.getSql());
+			results.add(result);
+
+			if (!recommendation.isExisting()) {
+				missing.add(recommendation);
+			}
+		}
+
+		SimpleObject response = new SimpleObject();
+		response.put("results", results);
+		response.put("changeLog", PatientListIndexAdvisor.createChangeLog(missing));
+
+		return response;
+	}
+}
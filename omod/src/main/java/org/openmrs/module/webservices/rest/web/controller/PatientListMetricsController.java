@@ -0,0 +1,88 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.webservices.rest.web.controller;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientlist.api.metrics.PatientListLatencyHistogram;
+import org.openmrs.module.patientlist.api.metrics.PatientListMetrics;
+import org.openmrs.module.patientlist.api.metrics.PatientListStatementCount;
+import org.openmrs.module.patientlist.api.util.PrivilegeConstants;
+import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * REST controller that reports the per-stage latency histograms and SQL statement counts of patient list evaluations
+ * on this node, optionally for a single list, and resets them.
+ */
+@Controller
+@RequestMapping("/rest/" + ModuleRestConstants.PATIENT_LIST_METRICS_RESOURCE)
+public class PatientListMetricsController {
+
+	@ResponseBody
+	@RequestMapping(method = RequestMethod.GET)
+	public SimpleObject get(@RequestParam(value = "uuid", required = false) String uuid) {
+		Context.requirePrivilege(PrivilegeConstants.TASK_MANAGE_PATIENT_LIST_METADATA);
+
+		List<SimpleObject> results = new ArrayList<SimpleObject>();
+		for (PatientListLatencyHistogram histogram : PatientListMetrics.getRegistry().getHistograms(uuid)) {
+			SimpleObject result = new SimpleObject();
+			result.put("uuid", histogram.getPatientListUuid());
+			result.put("stage", histogram.getStage().getKey());
+			result.put("count", histogram.getCount());
+			result.put("mean", histogram.getMeanMillis());
+			result.put("p50", histogram.getPercentileMillis(50));
+			result.put("p95", histogram.getPercentileMillis(95));
+			result.put("p99", histogram.getPercentileMillis(99));
+			result.put("max", histogram.getMaxMillis());
+			result.put("bucketBounds", PatientListLatencyHistogram.BUCKET_BOUNDS_MILLIS);
+			result.put("buckets", histogram.getBucketCounts());
+			results.add(result);
+		}
+
+		List<SimpleObject> statements = new ArrayList<SimpleObject>();
+		for (PatientListStatementCount statementCount : PatientListMetrics.getRegistry().getStatementCounts(uuid)) {
+			SimpleObject result = new SimpleObject();
+			result.put("uuid", statementCount.getPatientListUuid());
+			result.put("evaluations", statementCount.getEvaluations());
+			result.put("mean", statementCount.getMeanStatements());
+			result.put("max", statementCount.getMaxStatements());
+			result.put("last", statementCount.getLastStatements());
+			statements.add(result);
+		}
+
+		SimpleObject response = new SimpleObject();
+		response.put("results", results);
+		response.put("statements", statements);
+
+		return response;
+	}
+
+	@ResponseBody
+	@RequestMapping(method = RequestMethod.DELETE)
+	public SimpleObject delete() {
+		Context.requirePrivilege(PrivilegeConstants.TASK_MANAGE_PATIENT_LIST_METADATA);
+
+		PatientListMetrics.getInstance().reset();
+
+		return get(null);
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.webservices.rest.web.controller;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.patientlist.ModuleSettings;
+import org.openmrs.module.patientlist.api.event.PatientListDataChangeTracker;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.api.util.PatientListDefinitionRegistry;
+import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.patientlist.web.PatientListPushRegistry;
+import org.openmrs.module.patientlist.web.PatientListRequestExecutor;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * REST controller that notifies clients when the data of a patient list changes. Clients send the data version they
+ * received with the list data (see {@link PatientListDataChangeTracker#getChangeVersion(PatientList)}); the request is
+ * answered at once when the list has changed since then. Otherwise, when asynchronous requests are enabled (see
+ * {@link PatientListRequestExecutor#isAsyncEnabled}), the request is held open without holding a request thread until
+ * the list changes or the heartbeat interval elapses, after which the client reconnects. When they are not, the
+ * response tells the client to poll again after the heartbeat interval.
+ */
+@Controller
+@RequestMapping("/rest/" + ModuleRestConstants.PATIENT_LIST_PUSH_RESOURCE)
+public class PatientListPushController {
+	private static final Log LOG = LogFactory.getLog(PatientListPushController.class);
+	private static final long MILLISECONDS_PER_SECOND = 1000L;
+
+	private PatientListPushRegistry pushRegistry;
+
+	@Autowired
+	public PatientListPushController(PatientListPushRegistry pushRegistry) {
+		this.pushRegistry = pushRegistry;
+	}
+
+	@ResponseBody
+	@RequestMapping(method = RequestMethod.GET)
+	public Object get(@RequestParam(value = "uuid") String uuid,
+	        @RequestParam(value = "since", required = false) Long since,
+	        HttpServletRequest request, HttpServletResponse response) throws Exception {
+		PatientList patientList = PatientListDefinitionRegistry.getInstance().get(uuid);
+		if (patientList == null) {
+			LOG.error("PatientList with uuid '" + uuid + "' does not exist");
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return new SimpleObject();
+		}
+
+		// without a version there is nothing to compare to, the client waits from the current version instead
+		PatientListDataChangeTracker tracker = PatientListDataChangeTracker.getInstance();
+		long version = tracker.getChangeVersion(patientList);
+		if (since == null || version > since) {
+			return PatientListPushRegistry.createResult(uuid, version, since != null);
+		}
+
+		int heartbeatSeconds = ModuleSettings.getPushHeartbeatSeconds();
+		if (!PatientListRequestExecutor.isAsyncEnabled(request)) {
+			SimpleObject result = PatientListPushRegistry.createResult(uuid, version, false);
+			result.put("retryAfterSeconds", heartbeatSeconds);
+
+			return result;
+		}
+
+		SimpleObject heartbeat = PatientListPushRegistry.createResult(uuid, version, false);
+		heartbeat.put("heartbeat", true);
+
+		DeferredResult<SimpleObject> result =
+		        new DeferredResult<SimpleObject>(heartbeatSeconds * MILLISECONDS_PER_SECOND, heartbeat);
+		if (!pushRegistry.subscribe(patientList, result, ModuleSettings.getPushMaxConnections())) {
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			response.setHeader("Retry-After", String.valueOf(heartbeatSeconds));
+			return PatientListPushRegistry.createResult(uuid, version, false);
+		}
+
+		// a change published after the version was read but before the subscription was added is not delivered to it
+		version = tracker.getChangeVersion(patientList);
+		if (version > since) {
+			result.setResult(PatientListPushRegistry.createResult(uuid, version, true));
+		}
+
+		PatientListRequestExecutor.startAsync(request, result);
+
+		return null;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.webservices.rest.web.controller;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientlist.api.metrics.PatientListSlowLog;
+import org.openmrs.module.patientlist.api.util.PrivilegeConstants;
+import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.servlet.http.HttpServletResponse;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * REST controller that returns the slow patient list evaluations logged on this node, optionally for a single list
+ * and optionally as a downloadable file, and clears the log.
+ */
+@Controller
+@RequestMapping("/rest/" + ModuleRestConstants.PATIENT_LIST_SLOW_LOG_RESOURCE)
+public class PatientListSlowLogController {
+	private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+	private static final String FILE_DATE_FORMAT = "yyyyMMdd-HHmmss";
+
+	@ResponseBody
+	@RequestMapping(method = RequestMethod.GET)
+	public SimpleObject get(@RequestParam(value = "uuid", required = false) String uuid,
+	        @RequestParam(value = "download", required = false) boolean download, HttpServletResponse response) {
+		Context.requirePrivilege(PrivilegeConstants.TASK_MANAGE_PATIENT_LIST_METADATA);
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+		List<SimpleObject> results = new ArrayList<SimpleObject>();
+		for (PatientListSlowLog.Entry entry : PatientListSlowLog.getInstance().getEntries(uuid)) {
+			List<SimpleObject> queries = new ArrayList<SimpleObject>();
+			for (PatientListSlowLog.Query query : entry.getQueries()) {
+				SimpleObject queryResult = new SimpleObject();
+				queryResult.put("hql", query.getHql());
+				queryResult.put("sql", query.getSql());
+				queryResult.put("parameters", query.getParameters());
+				queries.add(queryResult);
+			}
+
+			SimpleObject result = new SimpleObject();
+			result.put("date", dateFormat.format(entry.getDate()));
+			result.put("uuid", entry.getPatientListUuid());
+			result.put("name", entry.getPatientListName());
+			result.put("userUuid", entry.getUserUuid());
+			result.put("username", entry.getUsername());
+			result.put("duration", entry.getDurationMillis());
+			result.put("stages", entry.getStageMillis());
+			result.put("totalRecordCount", entry.getTotalRecordCount());
+			result.put("rowCount", entry.getRowCount());
+			result.put("page", entry.getPage());
+			result.put("pageSize", entry.getPageSize());
+			result.put("queries", queries);
+			results.add(result);
+		}
+
+		if (download && response != null) {
+			response.setHeader("Content-Disposition", "attachment; filename=\"patientlist-slowlog-"
+			        + new SimpleDateFormat(FILE_DATE_FORMAT).format(new Date()) + ".json\"");
+		}
+
+		SimpleObject slowLog = new SimpleObject();
+		slowLog.put("results", results);
+
+		return slowLog;
+	}
+
+	@ResponseBody
+	@RequestMapping(method = RequestMethod.DELETE)
+	public SimpleObject delete(HttpServletResponse response) {
+		Context.requirePrivilege(PrivilegeConstants.TASK_MANAGE_PATIENT_LIST_METADATA);
+
+		PatientListSlowLog.getInstance().clear();
+
+		return get(null, false, response);
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See
+ * the License for the specific language governing rights and
+ * limitations under the License.
+ *
+ * Copyright (C) OpenHMIS.  All Rights Reserved.
+ */
+package org.openmrs.module.webservices.rest.web.controller;
+
+import org.openmrs.module.patientlist.api.IPatientListDataService;
+import org.openmrs.module.patientlist.api.IPatientListService;
+import org.openmrs.module.patientlist.api.model.PatientList;
+import org.openmrs.module.patientlist.web.ModuleRestConstants;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * REST controller that returns the row count of every non-retired patient list visible to the user.
+ */
+@Controller
+@RequestMapping("/rest/" + ModuleRestConstants.PATIENT_LIST_SUMMARY_RESOURCE)
+public class PatientListSummaryController {
+	private IPatientListService patientListService;
+	private IPatientListDataService patientListDataService;
+
+	@Autowired
+	public PatientListSummaryController(IPatientListService patientListService,
+	    IPatientListDataService patientListDataService) {
+		this.patientListService = patientListService;
+		this.patientListDataService = patientListDataService;
+	}
+
+	@ResponseBody
+	@RequestMapping(method = RequestMethod.GET)
+	public SimpleObject get() {
+		List<PatientList> patientLists = patientListService.getAllDefinitions(false);
+		Map<String, Long> counts = patientListDataService.getPatientListCounts(patientLists);
+
+		List<SimpleObject> lists = new ArrayList<SimpleObject>();
+		for (PatientList patientList : patientLists) {
+			SimpleObject list = new SimpleObject();
+			list.put("uuid", patientList.getUuid());
+			list.put("name", patientList.getName());
+			list.put("description", patientList.getDescription());
+			list.put("count", counts.get(patientList.getUuid()));
+			lists.add(list);
+		}
+
+		SimpleObject results = new SimpleObject();
+		results.put("results", lists);
+
+		return results;
+	}
+}
@@ -19,14 +19,15 @@
 	base.controller("EntityController", EntityController);
 	EntityController.$inject = ['$stateParams', '$injector', '$scope', '$filter', 'EntityRestFactory', 'PatientListModel',
 		'PatientListConditionModel', 'PatientListFunctions', 'EntityFunctions', 'PatientListRestfulService', 'PatientListOrderingModel',
-		'$sce'];
+		'$sce', '$timeout'];
 	
 	var ENTITY_NAME = "list";
 	
 	function EntityController($stateParams, $injector, $scope, $filter, EntityRestFactory, PatientListModel,
 	                          PatientListConditionModel, PatientListFunctions, EntityFunctions, PatientListRestfulService,
-	                          PatientListOrderingModel, $sce) {
+	                          PatientListOrderingModel, $sce, $timeout) {
 		var self = this;
+		var explainListTimeout;
 		
 		var entity_name_message_key = "patientlist.page";
 		
@@ -239,6 +240,11 @@
 				$scope.getLocationUuid = self.getLocationUuid;
 				$scope.addListCondition = self.addListCondition;
 				$scope.loadPreview = false;
+				
+				// show the query plan warnings while the list is edited
+				$scope.planWarnings = [];
+				$scope.$watch('listConditions', self.explainList, true);
+				$scope.$watch('listOrderings', self.explainList, true);
 			};
 		
 		self.getNewPatientListSortOrder = self.getNewPatientListSortOrder || function (newPatientListSortOrder) {
@@ -409,6 +415,52 @@
 				$scope.loadPreview = false;
 			};
 		
+		/**
+		 * Explains the selected conditions and ordering once they have stopped changing for a second.
+		 * @type {Function}
+		 */
+		self.explainList = self.explainList || function () {
+				if (explainListTimeout) {
+					$timeout.cancel(explainListTimeout);
+				}
+				
+				explainListTimeout = $timeout(function () {
+					var definition = {patientListConditions: [], ordering: []};
+					for (var i = 0; i < $scope.listConditions.length; i++) {
+						var listCondition = $scope.listConditions[i];
+						if (listCondition.selected && listCondition.field) {
+							definition.patientListConditions.push({
+								field: listCondition.field,
+								operator: listCondition.operator || null,
+								value: listCondition.valueRef !== undefined ? listCondition.valueRef : listCondition.value,
+								conditionOrder: i
+							});
+						}
+					}
+					for (var j = 0; j < $scope.listOrderings.length; j++) {
+						var listOrdering = $scope.listOrderings[j];
+						if (listOrdering.selected && listOrdering.field) {
+							definition.ordering.push({
+								field: listOrdering.field,
+								sortOrder: listOrdering.sortOrder || "asc",
+								conditionOrder: j
+							});
+						}
+					}
+					
+					if (definition.patientListConditions.length == 0) {
+						$scope.planWarnings = [];
+						return;
+					}
+					
+					PatientListRestfulService.explainList(definition, self.onExplainListSuccessful);
+				}, 1000);
+			};
+		
+		self.onExplainListSuccessful = self.onExplainListSuccessful || function (data) {
+				$scope.planWarnings = data.warnings || [];
+			};
+		
 		self.onListConditionDateSuccessfulCallback = self.onListConditionDateSuccessfulCallback || function (date) {
 				if (date !== undefined) {
 					var listConditionValueDate = PatientListFunctions.formatDate(date);
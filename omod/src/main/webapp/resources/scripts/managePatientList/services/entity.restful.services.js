@@ -19,9 +19,9 @@
 	angular.module('app.restfulServices').service(
 		'PatientListRestfulService', PatientListRestfulService);
 	
-	PatientListRestfulService.$inject = ['EntityRestFactory'];
+	PatientListRestfulService.$inject = ['EntityRestFactory', '$http'];
 	
-	function PatientListRestfulService(EntityRestFactory) {
+	function PatientListRestfulService(EntityRestFactory, $http) {
 		var service;
 		service = {
 			loadConceptAnswers : loadConceptAnswers,
@@ -34,7 +34,8 @@
 			getLocationId: getLocationId,
 			getLocationUuid: getLocationUuid,
 			preLoadDefaultDisplayTemplate: preLoadDefaultDisplayTemplate,
-			loadVisitTypes: loadVisitTypes
+			loadVisitTypes: loadVisitTypes,
+			explainList: explainList
 		};
 		
 		return service;
@@ -173,6 +174,18 @@
 			);
 		}
 		
+		/**
+		 * Gets the query plan summary and plan warnings of an unsaved list definition.
+		 * @param definition - the list conditions and ordering
+		 * @param onExplainListSuccessful
+		 */
+		function explainList(definition, onExplainListSuccessful) {
+			return $http.post('/' + OPENMRS_CONTEXT_PATH + '/ws/rest/v2/patientlist/explain', definition)
+				.then(function(response) {
+					onExplainListSuccessful(response.data);
+				});
+		}
+		
 		function errorCallback(error) {
 			emr.errorAlert(error);
 		}
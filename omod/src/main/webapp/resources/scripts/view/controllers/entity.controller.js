@@ -30,6 +30,10 @@
 		var self = this;
 		var entity_name_message_key = emr.message("patientlist.page");
 		var REST_ENTITY_NAME = "list";
+		var WATCH_RETRY_INTERVAL = 30000;
+		var QUICK_FILTER_DELAY = 250;
+		var dataRequestId = 0;
+		var quickFilterTimeout;
 
 		// @Override
 		self.setRequiredInitParameters = self.setRequiredInitParameters || function() {
@@ -51,6 +55,8 @@
 				$scope.fetchedEntities = [];
 
 				$scope.getPatientListData = self.getPatientListData;
+				$scope.quickFilter = '';
+				$scope.onQuickFilterChange = self.onQuickFilterChange;
 				self.getPatientLists();
 				$scope.loadFirstPatientList = true;
 				$scope.patientList = $scope.patientList || {};
@@ -73,6 +79,7 @@
 					self.clearSelectedPatientLists();
 					$scope.patientList = patientList;
 					patientList.selected = true;
+					$scope.quickFilter = '';
 				}
 
 				patientList.showSpinner = true;
@@ -80,8 +87,59 @@
 				$scope.totalNumOfResults = 0;
 				$scope.loaded = false;
 				$scope.patientList.currentPage = currentPage;
-				PatientListRestfulService.getPatientListData(patientList.uuid, currentPage, limit,
-					self.onLoadPatientListDataSuccessful);
+				var requestId = ++dataRequestId;
+				PatientListRestfulService.getPatientListData(patientList.uuid, currentPage, limit, $scope.quickFilter,
+					function(data) {
+						// ignore responses to requests that were replaced while the user was typing
+						if (requestId === dataRequestId) {
+							self.onLoadPatientListDataSuccessful(data);
+						}
+					});
+			}
+
+		self.onQuickFilterChange = self.onQuickFilterChange || function() {
+				if (quickFilterTimeout) {
+					$timeout.cancel(quickFilterTimeout);
+				}
+
+				quickFilterTimeout = $timeout(function() {
+					self.getPatientListData($scope.patientList, 1, $scope.limit);
+				}, QUICK_FILTER_DELAY);
+			}
+
+		self.watchPatientList = self.watchPatientList || function(patientList, since, reconnect) {
+				if ($scope.watchedPatientListUuid === patientList.uuid && reconnect !== true) {
+					// already waiting for changes to this list
+					return;
+				}
+
+				$scope.watchedPatientListUuid = patientList.uuid;
+				PatientListRestfulService.watchPatientList(patientList.uuid, since, function(data) {
+					if ($scope.watchedPatientListUuid !== patientList.uuid) {
+						return;
+					}
+
+					if (data.changed === true) {
+						$scope.watchedPatientListUuid = undefined;
+						self.getPatientListData($scope.patientList, $scope.patientList.currentPage, $scope.limit);
+					} else if (data.retryAfterSeconds) {
+						// the server does not hold the request open, poll again after its heartbeat interval
+						$timeout(function() {
+							if ($scope.watchedPatientListUuid === patientList.uuid) {
+								self.watchPatientList(patientList, data.version, true);
+							}
+						}, data.retryAfterSeconds * 1000);
+					} else {
+						self.watchPatientList(patientList, data.version, true);
+					}
+				}, function() {
+					// retry after the server's heartbeat interval when the connection fails or is refused
+					$timeout(function() {
+						if ($scope.watchedPatientListUuid === patientList.uuid) {
+							self.watchPatientList(patientList, since, true);
+						}
+					}, WATCH_RETRY_INTERVAL);
+				});
 			}
 
 		self.clearSelectedPatientLists = self.clearSelectedPatientLists || function() {
@@ -133,6 +191,8 @@
 				$scope.totalNumOfResults = data.length;
 				$scope.patientList.showSpinner = false;
 				$scope.loadPatientListData = true;
+				// the version the page was read at, so that a change made since then is reported at once
+				self.watchPatientList($scope.patientList, data.version);
 			}
 
 		// @Override
@@ -18,14 +18,15 @@
 
 	angular.module('app.restfulServices').service('PatientListRestfulService', PatientListRestfulService);
 
-	PatientListRestfulService.$inject = ['EntityRestFactory', 'PaginationService'];
+	PatientListRestfulService.$inject = ['EntityRestFactory', 'PaginationService', '$http'];
 
-	function PatientListRestfulService(EntityRestFactory, PaginationService) {
+	function PatientListRestfulService(EntityRestFactory, PaginationService, $http) {
 		var service;
 
 		service = {
 			getPatientList: getPatientList,
 			getPatientListData: getPatientListData,
+			watchPatientList: watchPatientList,
 		};
 
 		return service;
@@ -36,13 +37,39 @@
 			EntityRestFactory.loadEntities(requestParams, onLoadPatientListSuccessful, errorCallback);
 		}
 
-		function getPatientListData(uuid, startIndex, limit, onLoadPatientListDataSuccessful){
+		function getPatientListData(uuid, startIndex, limit, quickFilter, onLoadPatientListDataSuccessful){
 			var requestParams = PaginationService.paginateParams(startIndex, limit, false, '')
 			requestParams['rest_entity_name'] = 'data';
 			requestParams['uuid'] = uuid;
+			if (quickFilter) {
+				// filtered on the server from the rows of the list kept for this user
+				requestParams['q'] = quickFilter;
+			}
+			// only the row identifiers and rendered content are displayed
+			requestParams['v'] = 'compact';
 			EntityRestFactory.loadEntities(requestParams, onLoadPatientListDataSuccessful, errorCallback);
 		}
 
+		/**
+		 * Long-polls the server until the given patient list changes or the heartbeat interval elapses.
+		 * @param uuid - patient list uuid
+		 * @param since - the data version received with the list data or the last response
+		 * @param onChange - called with the server response {uuid, version, changed}, which includes retryAfterSeconds
+		 * when the server answered without waiting and the client should poll again after that interval
+		 * @param onError - called when the request fails
+		 */
+		function watchPatientList(uuid, since, onChange, onError) {
+			var params = {uuid: uuid};
+			if (since !== undefined && since !== null) {
+				params.since = since;
+			}
+
+			return $http.get('/' + OPENMRS_CONTEXT_PATH + '/ws/rest/v2/patientlist/push', {params: params})
+				.then(function(response) {
+					onChange(response.data);
+				}, onError);
+		}
+
 		function errorCallback(error) {
 			emr.errorAlert(error);
 		}